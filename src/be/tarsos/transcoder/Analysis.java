@@ -0,0 +1,69 @@
+package be.tarsos.transcoder;
+
+/**
+ * Measurements of transcoded audio, made by the process that transcodes it:
+ * the loudness according to EBU R128, the true peak and a waveform overview.
+ * They are measured on the decoded and filtered audio, before it is encoded.
+ *
+ * @author Joren Six
+ */
+public final class Analysis {
+
+	private final double integratedLoudness;
+	private final double loudnessRange;
+	private final double truePeak;
+	private final Waveform waveform;
+
+	/**
+	 * @param integratedLoudness
+	 *            The integrated loudness in LUFS.
+	 * @param loudnessRange
+	 *            The loudness range in LU.
+	 * @param truePeak
+	 *            The true peak in dBTP.
+	 * @param waveform
+	 *            The waveform overview.
+	 */
+	public Analysis(double integratedLoudness, double loudnessRange, double truePeak, Waveform waveform) {
+		this.integratedLoudness = integratedLoudness;
+		this.loudnessRange = loudnessRange;
+		this.truePeak = truePeak;
+		this.waveform = waveform;
+	}
+
+	/**
+	 * @return The integrated loudness in LUFS, negative infinity for silence
+	 *         and NaN if it was not reported.
+	 */
+	public double getIntegratedLoudness() {
+		return integratedLoudness;
+	}
+
+	/**
+	 * @return The loudness range in LU, NaN if it was not reported.
+	 */
+	public double getLoudnessRange() {
+		return loudnessRange;
+	}
+
+	/**
+	 * @return The true peak in dBTP, negative infinity for silence and NaN if
+	 *         it was not reported.
+	 */
+	public double getTruePeak() {
+		return truePeak;
+	}
+
+	/**
+	 * @return The waveform overview.
+	 */
+	public Waveform getWaveform() {
+		return waveform;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s integrated=%s LUFS, range=%s LU, truePeak=%s dBTP, buckets=%d", getClass()
+				.getName(), integratedLoudness, loudnessRange, truePeak, waveform.getBuckets());
+	}
+}
@@ -0,0 +1,19 @@
+package be.tarsos.transcoder;
+
+/**
+ * Receives the measurements of a stream that is analyzed while it is
+ * decoded, see {@link Streamer#streamAnalyzed(String, Attributes, int, AnalysisListener)}.
+ *
+ * @author Joren Six
+ */
+public interface AnalysisListener {
+
+	/**
+	 * Called once the end of the stream is read, on the thread that reads
+	 * it. It is not called for a stream that is closed before its end.
+	 *
+	 * @param analysis
+	 *            The measurements of the streamed audio.
+	 */
+	void analysisCompleted(Analysis analysis);
+}
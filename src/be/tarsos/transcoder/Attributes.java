@@ -18,6 +18,12 @@
  */
 package be.tarsos.transcoder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Attributes controlling the audio attributes process.
  * 
@@ -61,10 +67,53 @@ public class Attributes {
 	private Integer volume = null;
 
 	/**
-	 * The seek time value for the attributes process. If null or not specified a
-	 * the default value will be 0. If 0 no seek will be performed.
+	 * The position of the first sample to process, in microseconds or in
+	 * samples of the source if {@link #startInSamples}. If 0 no seek will be
+	 * performed.
+	 */
+	private long start = 0;
+	private boolean startInSamples = false;
+
+	/**
+	 * The maximum duration to process, in microseconds or in samples of the
+	 * source if {@link #maxDurationInSamples}. If less than 0 everything after
+	 * the start is processed.
+	 */
+	private long maxDuration = -1;
+	private boolean maxDurationInSamples = false;
+
+	/**
+	 * The implementation that handles the job, by default an in-process
+	 * implementation if one is available.
+	 */
+	private Backend backend = Backend.AUTO;
+
+	/**
+	 * The class of the ffmpeg process, null for the default of the job.
+	 */
+	private Priority priority = null;
+
+	/**
+	 * The trade-off between encoding speed and compression.
+	 */
+	private Quality quality = Quality.DEFAULT;
+
+	/**
+	 * Encoder options by name, in the order they were added.
+	 */
+	private final Map<String, String> options = new LinkedHashMap<String, String>();
+
+	/**
+	 * The audio filters, applied in order before resampling and channel
+	 * mapping.
 	 */
-	private Integer seekTime = null;
+	private final List<AudioFilter> filters = new ArrayList<AudioFilter>();
+
+	/**
+	 * The compiled output settings, null until {@link #getProfile()} is called
+	 * or after an output setting changes.
+	 */
+	private EncodingProfile profile = null;
 
 	public Attributes(final String format, final String codec, final Integer samplingRate,
 			final Integer channels, final Integer bitRate, final Integer volume) {
@@ -90,6 +139,52 @@ public class Attributes {
 
 	}
 
+	/**
+	 * Creates attributes with the settings of a profile.
+	 * 
+	 * @param profile
+	 *            The profile, see {@link EncodingProfile#toAttributes()}.
+	 */
+	Attributes(final EncodingProfile profile) {
+		format = profile.getFormat();
+		codec = profile.getCodec();
+		samplingRate = profile.getSamplingRate();
+		channels = profile.getChannels();
+		bitRate = profile.getBitRate();
+		volume = profile.getVolume();
+		quality = profile.getQuality();
+		options.putAll(profile.getOptions());
+		filters.addAll(profile.getFilters());
+		this.profile = profile;
+	}
+
+	/**
+	 * Creates a copy of attributes, for example to change the excerpt of a
+	 * job without changing the attributes of the caller.
+	 * 
+	 * @param other
+	 *            The attributes to copy.
+	 */
+	public Attributes(final Attributes other) {
+		codec = other.codec;
+		duration = other.duration;
+		bitRate = other.bitRate;
+		samplingRate = other.samplingRate;
+		channels = other.channels;
+		volume = other.volume;
+		start = other.start;
+		startInSamples = other.startInSamples;
+		maxDuration = other.maxDuration;
+		maxDurationInSamples = other.maxDurationInSamples;
+		backend = other.backend;
+		priority = other.priority;
+		format = other.format;
+		quality = other.quality;
+		options.putAll(other.options);
+		filters.addAll(other.filters);
+		profile = other.profile;
+	}
+
 	/**
 	 * Returns the codec name for the attributes process.
 	 * 
@@ -108,6 +203,7 @@ public class Attributes {
 	 */
 	public void setCodec(String codec) {
 		this.codec = codec;
+		profile = null;
 	}
 
 	/**
@@ -128,6 +224,7 @@ public class Attributes {
 	 */
 	public void setBitRate(Integer bitRate) {
 		this.bitRate = bitRate;
+		profile = null;
 	}
 
 	/**
@@ -149,6 +246,7 @@ public class Attributes {
 	 */
 	public void setSamplingRate(Integer samplingRate) {
 		this.samplingRate = samplingRate;
+		profile = null;
 	}
 
 	/**
@@ -170,6 +268,7 @@ public class Attributes {
 	 */
 	public void setChannels(Integer channels) {
 		this.channels = channels;
+		profile = null;
 	}
 
 	/**
@@ -191,27 +290,203 @@ public class Attributes {
 	 */
 	public void setVolume(Integer volume) {
 		this.volume = volume;
+		profile = null;
 	}
 
 	/**
 	 * Returns the seek time value for the attributes process.
 	 * 
-	 * @return The seek time value for the attributes process.
+	 * @return The seek time value in milliseconds, null if no seek time is
+	 *         set or if the start is set in samples.
 	 */
 	public Integer getSeekTime() {
-		return seekTime;
+		return startInSamples || start == 0 ? null : (int) (start / 1000);
 	}
 
 	/**
 	 * Sets the seek time value for the attributes process. If null or
-         * not specified the default value will be 0. If 0 no seek will be
-	 * performed.
+	 * not specified the default value will be 0. If 0 no seek will be
+	 * performed. See {@link #setStartTime(long)} for a more precise start.
 	 * 
 	 * @param seekTime
-	 *            The seek time value for the attributes process.
+	 *            The seek time value for the attributes process, in
+	 *            milliseconds.
 	 */
 	public void setSeekTime(Integer seekTime) {
-		this.seekTime = seekTime;
+		setStartTime(seekTime == null ? 0 : seekTime * 1000L);
+	}
+
+	/**
+	 * Sets the start of the audio to process with microsecond precision.
+	 * 
+	 * @param microseconds
+	 *            The start, 0 to start at the beginning.
+	 */
+	public void setStartTime(long microseconds) {
+		this.start = microseconds;
+		this.startInSamples = false;
+	}
+
+	/**
+	 * Sets the start of the audio to process with sample precision. Sample
+	 * numbers count at the sample rate of the source, in the time line of a
+	 * complete decode.
+	 * 
+	 * @param sample
+	 *            The number of the first sample to process, 0 to start at the
+	 *            beginning.
+	 */
+	public void setStartSample(long sample) {
+		this.start = sample;
+		this.startInSamples = true;
+	}
+
+	/**
+	 * Returns the start of the audio to process as a sample number.
+	 * 
+	 * @param sampleRate
+	 *            The sample rate of the source.
+	 * @return The number of the first sample to process.
+	 */
+	public long getStartSample(int sampleRate) {
+		return startInSamples ? start : toSamples(start, sampleRate);
+	}
+
+	/**
+	 * Returns the start of the audio to process in microseconds.
+	 * 
+	 * @param sampleRate
+	 *            The sample rate of the source, only used if the start is set
+	 *            in samples.
+	 * @return The start in microseconds.
+	 */
+	public long getStartTime(int sampleRate) {
+		return startInSamples ? toMicroseconds(start, sampleRate) : start;
+	}
+
+	/**
+	 * Limits the duration of the audio to process.
+	 * 
+	 * @param microseconds
+	 *            The maximum duration, less than 0 for no limit.
+	 */
+	public void setMaxDuration(long microseconds) {
+		this.maxDuration = microseconds;
+		this.maxDurationInSamples = false;
+	}
+
+	/**
+	 * Limits the duration of the audio to process with sample precision.
+	 * 
+	 * @param samples
+	 *            The maximum number of samples per channel, at the sample rate
+	 *            of the source, less than 0 for no limit.
+	 */
+	public void setMaxDurationSamples(long samples) {
+		this.maxDuration = samples;
+		this.maxDurationInSamples = true;
+	}
+
+	/**
+	 * Returns the maximum duration of the audio to process in samples.
+	 * 
+	 * @param sampleRate
+	 *            The sample rate of the source.
+	 * @return The maximum number of samples per channel, -1 for no limit.
+	 */
+	public long getMaxDurationSamples(int sampleRate) {
+		if (maxDuration < 0) {
+			return -1;
+		}
+		return maxDurationInSamples ? maxDuration : toSamples(maxDuration, sampleRate);
+	}
+
+	/**
+	 * Returns the maximum duration of the audio to process in microseconds.
+	 * 
+	 * @param sampleRate
+	 *            The sample rate of the source, only used if the limit is set
+	 *            in samples.
+	 * @return The maximum duration, -1 for no limit.
+	 */
+	public long getMaxDuration(int sampleRate) {
+		if (maxDuration < 0) {
+			return -1;
+		}
+		return maxDurationInSamples ? toMicroseconds(maxDuration, sampleRate) : maxDuration;
+	}
+
+	/**
+	 * @return True if processing does not start at the beginning.
+	 */
+	public boolean isSeeking() {
+		return start > 0;
+	}
+
+	/**
+	 * @return True if the duration to process is limited.
+	 */
+	public boolean isLimited() {
+		return maxDuration >= 0;
+	}
+
+	/**
+	 * @return True if the start or the duration limit is set in samples, so
+	 *         the sample rate of the source is needed to express them in
+	 *         time.
+	 */
+	public boolean hasSamplePositions() {
+		return (isSeeking() && startInSamples) || (isLimited() && maxDurationInSamples);
+	}
+
+	private static long toSamples(long microseconds, int sampleRate) {
+		return (microseconds * sampleRate + 500000) / 1000000;
+	}
+
+	private static long toMicroseconds(long samples, int sampleRate) {
+		return (samples * 1000000 + sampleRate / 2) / sampleRate;
+	}
+
+	/**
+	 * Returns the implementation that handles the job.
+	 * 
+	 * @return The implementation that handles the job.
+	 */
+	public Backend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Sets the implementation that handles the job. If null or not specified
+	 * {@link Backend#AUTO} is used.
+	 * 
+	 * @param backend
+	 *            The implementation that handles the job.
+	 */
+	public void setBackend(Backend backend) {
+		this.backend = backend == null ? Backend.AUTO : backend;
+	}
+
+	/**
+	 * Returns the class of the ffmpeg process.
+	 * 
+	 * @return The class of the ffmpeg process, null if the default of the job
+	 *         is used.
+	 */
+	public Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Sets the class of the ffmpeg process. If null or not specified streams
+	 * are {@link Priority#INTERACTIVE} and jobs that write files are
+	 * {@link Priority#BATCH}.
+	 * 
+	 * @param priority
+	 *            The class of the ffmpeg process.
+	 */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
 	}
 
 	/**
@@ -238,6 +513,109 @@ public class Attributes {
 	 */
 	public void setFormat(String format) {
 		this.format = format;
+		profile = null;
+	}
+
+	/**
+	 * Returns the trade-off between encoding speed and compression.
+	 * 
+	 * @return The quality tier.
+	 */
+	public Quality getQuality() {
+		return quality;
+	}
+
+	/**
+	 * Sets the trade-off between encoding speed and compression. If null or
+	 * not specified {@link Quality#DEFAULT} is used, the defaults of ffmpeg.
+	 * 
+	 * @param quality
+	 *            The quality tier.
+	 */
+	public void setQuality(Quality quality) {
+		this.quality = quality == null ? Quality.DEFAULT : quality;
+		profile = null;
+	}
+
+	/**
+	 * Returns the encoder options.
+	 * 
+	 * @return The encoder options by name, with the dash, in the order they
+	 *         were added.
+	 */
+	public Map<String, String> getOptions() {
+		return Collections.unmodifiableMap(options);
+	}
+
+	/**
+	 * Adds an encoder option, for example <code>-compression_level</code>
+	 * <code>5</code> for FLAC. An option with the same name is replaced.
+	 * 
+	 * @param name
+	 *            The name of the option, with the dash.
+	 * @param value
+	 *            The value of the option.
+	 */
+	public void addOption(String name, String value) {
+		options.put(name, value);
+		profile = null;
+	}
+
+	/**
+	 * Returns the audio filter chain.
+	 * 
+	 * @return The audio filters, in order.
+	 */
+	public List<AudioFilter> getFilters() {
+		return Collections.unmodifiableList(filters);
+	}
+
+	/**
+	 * Appends an audio filter to the chain. The chain runs in the same ffmpeg
+	 * process as decoding and encoding, before the resampling and channel
+	 * mapping to the sampling rate and number of channels of the attributes.
+	 * For example <code>addFilter(AudioFilter.highPass(80))</code>.
+	 * 
+	 * @param filter
+	 *            The filter.
+	 */
+	public void addFilter(AudioFilter filter) {
+		if (filter == null) {
+			throw new IllegalArgumentException("The filter is null");
+		}
+		filters.add(filter);
+		profile = null;
+	}
+
+	/**
+	 * @return True if a filter of the chain changes the duration of the
+	 *         audio.
+	 */
+	public boolean changesDuration() {
+		for (AudioFilter filter : filters) {
+			if (filter.changesDuration()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the output settings as an immutable profile. The profile, with
+	 * its ffmpeg arguments, is compiled on the first call and kept until an
+	 * output setting changes. Attributes made from a profile return that
+	 * profile.
+	 * 
+	 * @return The format, codec, sampling rate, channels, bit rate, volume,
+	 *         options and filters of these attributes.
+	 */
+	public EncodingProfile getProfile() {
+		EncodingProfile compiled = profile;
+		if (compiled == null) {
+			compiled = EncodingProfile.builder(this).build();
+			profile = compiled;
+		}
+		return compiled;
 	}
 
 	/**
@@ -264,8 +642,10 @@ public class Attributes {
 	@Override
 	public String toString() {
 		return String.format(
-				"%s format=%s, codec=%s, bitrate=%s, samplingrate=%s, duration=%s, channels=%s , volume=%s seekTime=%s",
-				getClass().getName(), format, codec, bitRate, samplingRate, duration, channels, volume, seekTime);
+				"%s format=%s, codec=%s, bitrate=%s, samplingrate=%s, duration=%s, channels=%s , volume=%s start=%s%s maxDuration=%s%s backend=%s priority=%s quality=%s options=%s filters=%s",
+				getClass().getName(), format, codec, bitRate, samplingRate, duration, channels, volume, start,
+				startInSamples ? " samples" : " us", maxDuration, maxDurationInSamples ? " samples" : " us", backend,
+				priority, quality, options, filters);
 	}
 
 }
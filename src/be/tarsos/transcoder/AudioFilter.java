@@ -0,0 +1,169 @@
+package be.tarsos.transcoder;
+
+/**
+ * An audio filter in the filter chain of {@link Attributes}. The chain is
+ * rendered into the <code>-af</code> option of ffmpeg, followed by the
+ * resampling and channel mapping of the attributes, so decoding, filtering
+ * and encoding run in one process without intermediate files.
+ * <p>
+ * Filters are immutable. The factory methods cover common conditioning steps,
+ * {@link #of(String)} wraps any ffmpeg filter.
+ *
+ * @author Joren Six
+ */
+public final class AudioFilter {
+
+	private final String expression;
+	private final boolean changesDuration;
+
+	private AudioFilter(String expression, boolean changesDuration) {
+		this.expression = expression;
+		this.changesDuration = changesDuration;
+	}
+
+	/**
+	 * @param expression
+	 *            A filter in ffmpeg syntax, e.g. <code>highpass=f=80</code>.
+	 *            Several filters can be separated by commas.
+	 * @return A filter that keeps the duration of the audio.
+	 */
+	public static AudioFilter of(String expression) {
+		return of(expression, false);
+	}
+
+	/**
+	 * @param expression
+	 *            A filter in ffmpeg syntax.
+	 * @param changesDuration
+	 *            True if the filter changes the duration of the audio, the
+	 *            duration of the target is not checked then.
+	 * @return The filter.
+	 */
+	public static AudioFilter of(String expression, boolean changesDuration) {
+		if (expression == null || expression.trim().isEmpty()) {
+			throw new IllegalArgumentException("An audio filter can not be empty");
+		}
+		return new AudioFilter(expression, changesDuration);
+	}
+
+	/**
+	 * @param frequency
+	 *            The cutoff frequency in Hz.
+	 * @return A filter that removes frequencies below the cutoff.
+	 */
+	public static AudioFilter highPass(double frequency) {
+		return new AudioFilter("highpass=f=" + format(frequency), false);
+	}
+
+	/**
+	 * @param frequency
+	 *            The cutoff frequency in Hz.
+	 * @return A filter that removes frequencies above the cutoff.
+	 */
+	public static AudioFilter lowPass(double frequency) {
+		return new AudioFilter("lowpass=f=" + format(frequency), false);
+	}
+
+	/**
+	 * @param decibels
+	 *            The gain in dB, negative to attenuate.
+	 * @return A filter that changes the volume.
+	 */
+	public static AudioFilter gain(double decibels) {
+		return new AudioFilter("volume=" + format(decibels) + "dB", false);
+	}
+
+	/**
+	 * Removes the silence at the start and every silence longer than the
+	 * minimum duration after it, including the silence at the end.
+	 *
+	 * @param threshold
+	 *            The level in dBFS below which audio is silence, e.g. -50.
+	 * @param minimumDuration
+	 *            The minimum duration of a silence in seconds.
+	 * @return The filter.
+	 */
+	public static AudioFilter removeSilence(double threshold, double minimumDuration) {
+		String level = format(threshold) + "dB";
+		String duration = format(minimumDuration);
+		return new AudioFilter("silenceremove=start_periods=1:start_threshold=" + level
+				+ ":stop_periods=-1:stop_threshold=" + level + ":stop_duration=" + duration, true);
+	}
+
+	/**
+	 * Normalizes the loudness in one pass, according to EBU R128. The filter
+	 * works at 192kHz, set a sampling rate on the attributes to resample the
+	 * result.
+	 *
+	 * @param integrated
+	 *            The target integrated loudness in LUFS, e.g. -16.
+	 * @param truePeak
+	 *            The maximum true peak in dBTP, e.g. -1.5.
+	 * @param range
+	 *            The target loudness range in LU, e.g. 11.
+	 * @return The filter.
+	 */
+	public static AudioFilter normalizeLoudness(double integrated, double truePeak, double range) {
+		return new AudioFilter("loudnorm=I=" + format(integrated) + ":TP=" + format(truePeak) + ":LRA="
+				+ format(range), false);
+	}
+
+	/**
+	 * Changes the speed without changing the pitch. Factors outside the range
+	 * of a single <code>atempo</code> filter, 0.5 to 2, are split over
+	 * several.
+	 *
+	 * @param factor
+	 *            The speed factor, 2 plays twice as fast.
+	 * @return The filter.
+	 */
+	public static AudioFilter speed(double factor) {
+		if (!(factor > 0) || Double.isInfinite(factor)) {
+			throw new IllegalArgumentException("The speed factor should be positive, not " + factor);
+		}
+		StringBuilder chain = new StringBuilder();
+		while (factor > 2.0 || factor < 0.5) {
+			double step = factor > 2.0 ? 2.0 : 0.5;
+			chain.append("atempo=").append(format(step)).append(',');
+			factor /= step;
+		}
+		chain.append("atempo=").append(format(factor));
+		return new AudioFilter(chain.toString(), true);
+	}
+
+	/**
+	 * Renders a number without a trailing ".0" and independent of the locale.
+	 */
+	private static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	/**
+	 * @return True if the filter changes the duration of the audio.
+	 */
+	public boolean changesDuration() {
+		return changesDuration;
+	}
+
+	/**
+	 * @return The filter in ffmpeg syntax.
+	 */
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof AudioFilter && expression.equals(((AudioFilter) other).expression)
+				&& changesDuration == ((AudioFilter) other).changesDuration;
+	}
+
+	@Override
+	public int hashCode() {
+		return expression.hashCode();
+	}
+}
@@ -0,0 +1,22 @@
+package be.tarsos.transcoder;
+
+/**
+ * Decides which implementation handles a transcoding or streaming job.
+ * 
+ * @author Joren Six
+ */
+public enum Backend {
+	/**
+	 * Jobs that can be handled in Java (PCM WAV or FLAC to PCM WAV) are
+	 * handled in-process, all other jobs are handled by ffmpeg.
+	 */
+	AUTO,
+	/**
+	 * Always use an ffmpeg process.
+	 */
+	FFMPEG,
+	/**
+	 * Always handle the job in-process, fail if that is not supported.
+	 */
+	JAVA;
+}
@@ -0,0 +1,123 @@
+package be.tarsos.transcoder;
+
+import java.io.File;
+
+/**
+ * A transcoding job of a batch, see {@link BatchPlanner}. After planning it
+ * knows the duration of its audio and its predicted wall time, after running
+ * its measured wall time or the reason it failed.
+ * 
+ * @author Joren Six
+ */
+public final class BatchJob {
+
+	private final File source;
+	private final File target;
+	private final Attributes attributes;
+
+	private long duration = -1;
+	private String profile;
+	private double predicted = Double.NaN;
+	private volatile double seconds = Double.NaN;
+	private volatile Exception error;
+
+	/**
+	 * @param source
+	 *            The source file.
+	 * @param target
+	 *            The target file.
+	 * @param attributes
+	 *            The target encoding.
+	 */
+	public BatchJob(File source, File target, Attributes attributes) {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		}
+		this.source = source;
+		this.target = target;
+		this.attributes = attributes;
+	}
+
+	/**
+	 * @return The source file.
+	 */
+	public File getSource() {
+		return source;
+	}
+
+	/**
+	 * @return The target file.
+	 */
+	public File getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return The target encoding.
+	 */
+	public Attributes getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return The duration of the audio to encode in milliseconds, less than
+	 *         0 if unknown or not planned yet.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return The profile of the job in the {@link CostModel}, null if not
+	 *         planned yet.
+	 */
+	public String getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return The predicted wall time in seconds, NaN if not planned yet.
+	 */
+	public double getPredicted() {
+		return predicted;
+	}
+
+	/**
+	 * @return The measured wall time in seconds, NaN if the job did not run
+	 *         yet.
+	 */
+	public double getSeconds() {
+		return seconds;
+	}
+
+	/**
+	 * @return True if the job ran and succeeded.
+	 */
+	public boolean isSuccessful() {
+		return !Double.isNaN(seconds) && error == null;
+	}
+
+	/**
+	 * @return The reason the job failed or null.
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	void plan(long duration, String profile, double predicted) {
+		this.duration = duration;
+		this.profile = profile;
+		this.predicted = predicted;
+	}
+
+	void finish(double seconds, Exception error) {
+		this.seconds = seconds;
+		this.error = error;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s -> %s %d ms predicted=%.2f s measured=%.2f s%s", source, target, duration,
+				predicted, seconds, error == null ? "" : " failed: " + error.getMessage());
+	}
+}
@@ -0,0 +1,256 @@
+package be.tarsos.transcoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+import be.tarsos.transcoder.pcm.PCMConverter;
+import be.tarsos.transcoder.seek.SeekIndex;
+
+/**
+ * Runs a batch of transcoding jobs on a fixed number of workers, longest job
+ * first. In first come, first served order a long recording that happens to
+ * be queued last runs alone at the end while the other workers are idle.
+ * Starting the longest jobs first (LPT) keeps the finishing times of the
+ * workers close together.
+ * <p>
+ * The length of a job is the predicted wall time: the duration of its audio,
+ * probed before the batch starts, divided by the throughput of its profile in
+ * a {@link CostModel}. The model learns from every completed job, so later
+ * batches are planned with measured throughputs. The predicted makespan, the
+ * finishing time of the last worker when the predictions are right, is
+ * reported next to the measured one in a {@link BatchReport}.
+ * 
+ * @author Joren Six
+ */
+public final class BatchPlanner {
+
+	private static final Logger LOG = Logger.getLogger(BatchPlanner.class.getName());
+
+	private final int workers;
+	private final CostModel model;
+
+	/**
+	 * Creates a planner with a worker per available processor.
+	 */
+	public BatchPlanner() {
+		this(Runtime.getRuntime().availableProcessors(), new CostModel());
+	}
+
+	/**
+	 * @param workers
+	 *            The number of jobs that run at once.
+	 * @param model
+	 *            The cost model, shared with earlier batches to reuse what
+	 *            they measured.
+	 */
+	public BatchPlanner(int workers, CostModel model) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("The number of workers should be positive, not " + workers);
+		}
+		this.workers = workers;
+		this.model = model;
+	}
+
+	/**
+	 * @return The cost model that predicts the wall time of jobs.
+	 */
+	public CostModel getModel() {
+		return model;
+	}
+
+	/**
+	 * Probes the duration of each job, predicts its wall time and orders the
+	 * jobs longest first. Jobs with an unknown duration are assumed to be as
+	 * long as the average job.
+	 * 
+	 * @param jobs
+	 *            The jobs of the batch.
+	 * @return The jobs in the order they should start.
+	 */
+	public List<BatchJob> plan(List<BatchJob> jobs) {
+		long known = 0;
+		int count = 0;
+		long[] durations = new long[jobs.size()];
+		for (int i = 0; i < jobs.size(); i++) {
+			durations[i] = probe(jobs.get(i));
+			if (durations[i] >= 0) {
+				known += durations[i];
+				count++;
+			}
+		}
+		long average = count == 0 ? 0 : known / count;
+		for (int i = 0; i < jobs.size(); i++) {
+			BatchJob job = jobs.get(i);
+			boolean inProcess = job.getAttributes().getBackend() != Backend.FFMPEG
+					&& PCMConverter.isSupported(job.getSource(), job.getAttributes());
+			String profile = CostModel.getProfile(job.getAttributes(), inProcess);
+			long duration = durations[i] >= 0 ? durations[i] : average;
+			job.plan(durations[i], profile, model.predict(profile, duration));
+		}
+		List<BatchJob> planned = new ArrayList<BatchJob>(jobs);
+		// stable, equal jobs keep the order of the batch
+		Collections.sort(planned, new Comparator<BatchJob>() {
+			public int compare(BatchJob a, BatchJob b) {
+				return Double.compare(b.getPredicted(), a.getPredicted());
+			}
+		});
+		return planned;
+	}
+
+	/**
+	 * @param planned
+	 *            Planned jobs, in the order they start.
+	 * @return The predicted makespan in seconds: each job starts on the
+	 *         worker that is free first.
+	 */
+	public double predictMakespan(List<BatchJob> planned) {
+		PriorityQueue<Double> finish = new PriorityQueue<Double>();
+		for (int i = 0; i < workers; i++) {
+			finish.add(0.0);
+		}
+		double makespan = 0;
+		for (BatchJob job : planned) {
+			double end = finish.poll() + job.getPredicted();
+			finish.add(end);
+			makespan = Math.max(makespan, end);
+		}
+		return makespan;
+	}
+
+	/**
+	 * Plans and runs a batch, each job with
+	 * {@link Transcoder#transcode(File, File, Attributes)}. A failing job does
+	 * not stop the others, its error is kept in the job.
+	 * 
+	 * @param jobs
+	 *            The jobs of the batch.
+	 * @return The jobs in the order they started and the predicted and
+	 *         measured makespan.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the jobs, running jobs are
+	 *             cancelled.
+	 */
+	public BatchReport run(List<BatchJob> jobs) throws InterruptedException {
+		List<BatchJob> planned = plan(jobs);
+		double predicted = predictMakespan(planned);
+		LOG.info(String.format("Planned %d jobs on %d workers, predicted makespan %.2f s", planned.size(), workers,
+				predicted));
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Batch planner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long start = System.nanoTime();
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		try {
+			// the queue of the executor is first in, first out
+			for (final BatchJob job : planned) {
+				results.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						execute(job);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					// execute keeps the errors of the jobs
+					LOG.warning("Unexpected failure in batch: " + e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		double makespan = (System.nanoTime() - start) / 1e9;
+		LOG.info(String.format("Batch of %d jobs done in %.2f s, predicted %.2f s", planned.size(), makespan,
+				predicted));
+		return new BatchReport(planned, predicted, makespan);
+	}
+
+	private void execute(BatchJob job) {
+		long start = System.nanoTime();
+		Exception error = null;
+		try {
+			Transcoder.transcode(job.getSource(), job.getTarget(), job.getAttributes());
+		} catch (EncoderException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = e;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		if (error == null) {
+			model.record(job.getProfile(), job.getDuration(), seconds);
+		} else {
+			LOG.warning("Job " + job.getSource() + " failed: " + error.getMessage());
+		}
+		job.finish(seconds, error);
+	}
+
+	/**
+	 * @return The duration in milliseconds of the audio the job encodes, less
+	 *         than 0 if unknown.
+	 */
+	private static long probe(BatchJob job) {
+		File source = job.getSource();
+		long total = -1;
+		int sampleRate = 0;
+		try {
+			SeekIndex index = SeekIndex.get(source);
+			if (index != null && index.getTotalSamples() > 0) {
+				total = index.getTotalSamples();
+				sampleRate = index.getSampleRate();
+			}
+		} catch (IOException e) {
+			LOG.fine("Could not index " + source + ": " + e.getMessage());
+		}
+		if (total < 0) {
+			try {
+				AudioFileFormat format = AudioSystem.getAudioFileFormat(source);
+				if (format.getFrameLength() > 0) {
+					total = format.getFrameLength();
+					sampleRate = Math.round(format.getFormat().getFrameRate());
+				}
+			} catch (UnsupportedAudioFileException e) {
+				// probed by ffmpeg
+			} catch (IOException e) {
+				// probed by ffmpeg
+			}
+		}
+		if (total < 0) {
+			Attributes info = Transcoder.getInfo(source.getAbsolutePath());
+			if (info == null || info.getSamplingRate() == null || info.getDuration() <= 0) {
+				return -1;
+			}
+			sampleRate = info.getSamplingRate();
+			total = info.getDuration() * sampleRate / 1000;
+		}
+		Attributes attributes = job.getAttributes();
+		long length = Math.max(0, total - attributes.getStartSample(sampleRate));
+		if (attributes.isLimited()) {
+			length = Math.min(length, attributes.getMaxDurationSamples(sampleRate));
+		}
+		return length * 1000 / sampleRate;
+	}
+}
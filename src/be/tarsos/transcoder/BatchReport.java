@@ -0,0 +1,71 @@
+package be.tarsos.transcoder;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a batch run by a {@link BatchPlanner}: the jobs in the
+ * order they were started and the predicted and measured makespan, the wall
+ * time from the start of the first job until the end of the last.
+ * 
+ * @author Joren Six
+ */
+public final class BatchReport {
+
+	private final List<BatchJob> jobs;
+	private final double predictedMakespan;
+	private final double makespan;
+
+	/**
+	 * @param jobs
+	 *            The jobs in the order they were started.
+	 * @param predictedMakespan
+	 *            The predicted makespan in seconds.
+	 * @param makespan
+	 *            The measured makespan in seconds.
+	 */
+	public BatchReport(List<BatchJob> jobs, double predictedMakespan, double makespan) {
+		this.jobs = Collections.unmodifiableList(jobs);
+		this.predictedMakespan = predictedMakespan;
+		this.makespan = makespan;
+	}
+
+	/**
+	 * @return The jobs in the order they were started.
+	 */
+	public List<BatchJob> getJobs() {
+		return jobs;
+	}
+
+	/**
+	 * @return The predicted makespan in seconds.
+	 */
+	public double getPredictedMakespan() {
+		return predictedMakespan;
+	}
+
+	/**
+	 * @return The measured makespan in seconds.
+	 */
+	public double getMakespan() {
+		return makespan;
+	}
+
+	/**
+	 * @return True if all jobs succeeded.
+	 */
+	public boolean isSuccessful() {
+		for (BatchJob job : jobs) {
+			if (!job.isSuccessful()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s jobs=%d predicted makespan=%.2f s measured makespan=%.2f s", getClass().getName(),
+				jobs.size(), predictedMakespan, makespan);
+	}
+}
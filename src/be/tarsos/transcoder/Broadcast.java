@@ -0,0 +1,278 @@
+package be.tarsos.transcoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * Copies one decoded stream into a ring buffer that is read by several
+ * readers, each with its own position. The writer runs on its own thread.
+ * Readers that join later start at the most recent audio. The decoded stream
+ * is closed when the last reader is closed.
+ *
+ * @author Joren Six
+ */
+final class Broadcast implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(Broadcast.class.getName());
+
+	/**
+	 * The maximum number of bytes read from the decoded stream at once.
+	 */
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private final AudioInputStream source;
+	private final byte[] ring;
+	private final int frameSize;
+	private final int chunkSize;
+	private final Runnable onStop;
+	private final List<Reader> readers = new ArrayList<Reader>();
+
+	/**
+	 * The number of bytes written to the ring buffer so far.
+	 */
+	private long written;
+	private boolean ended;
+	private boolean stopped;
+	private IOException error;
+	private boolean onStopRun;
+
+	/**
+	 * @param source
+	 *            The decoded stream.
+	 * @param capacity
+	 *            The size of the ring buffer in bytes.
+	 * @param onStop
+	 *            Is run once no new readers can be attached, because the
+	 *            decoded stream ended or the last reader left.
+	 */
+	Broadcast(AudioInputStream source, int capacity, Runnable onStop) {
+		this.source = source;
+		this.frameSize = Math.max(1, source.getFormat().getFrameSize());
+		int frames = Math.max(2, capacity / frameSize);
+		this.ring = new byte[frames * frameSize];
+		this.chunkSize = Math.max(frameSize, Math.min(CHUNK_SIZE, ring.length / 2) / frameSize * frameSize);
+		this.onStop = onStop;
+	}
+
+	/**
+	 * Starts copying the decoded stream.
+	 */
+	void start() {
+		Thread writer = new Thread(this, "Broadcast writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @return The decoded stream.
+	 */
+	AudioInputStream getSource() {
+		return source;
+	}
+
+	/**
+	 * Adds a reader that starts at the most recent audio.
+	 *
+	 * @param policy
+	 *            What happens if the reader falls behind.
+	 * @return The reader, or null if the broadcast ended or stopped.
+	 */
+	synchronized InputStream attach(SlowReaderPolicy policy) {
+		if (ended || stopped) {
+			return null;
+		}
+		Reader reader = new Reader(policy, written - written % frameSize);
+		readers.add(reader);
+		return reader;
+	}
+
+	public void run() {
+		byte[] chunk = new byte[chunkSize];
+		try {
+			int read;
+			while ((read = source.read(chunk)) != -1) {
+				if (!write(chunk, read)) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				if (!stopped) {
+					error = e;
+				}
+			}
+		} finally {
+			synchronized (this) {
+				ended = true;
+				notifyAll();
+			}
+			close();
+		}
+	}
+
+	/**
+	 * Appends to the ring buffer, after waiting for readers that block.
+	 *
+	 * @return False if the broadcast stopped.
+	 */
+	private synchronized boolean write(byte[] chunk, int length) {
+		while (!stopped && isBlocked(length)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		if (stopped) {
+			return false;
+		}
+		int offset = (int) (written % ring.length);
+		int first = Math.min(length, ring.length - offset);
+		System.arraycopy(chunk, 0, ring, offset, first);
+		System.arraycopy(chunk, first, ring, 0, length - first);
+		written += length;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * @return True if writing would overwrite audio a blocking reader did
+	 *         not read yet.
+	 */
+	private boolean isBlocked(int length) {
+		for (Reader reader : readers) {
+			if (reader.policy == SlowReaderPolicy.BLOCK && written + length - reader.position > ring.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized int read(Reader reader, byte[] b, int off, int len) throws IOException {
+		while (!reader.closed && reader.position == written && !ended) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		if (reader.closed) {
+			throw new IOException("Stream closed");
+		}
+		long oldest = written - ring.length;
+		if (reader.position < oldest) {
+			// only readers that drop can fall this far behind
+			long position = (oldest + frameSize - 1) / frameSize * frameSize;
+			reader.dropped += position - reader.position;
+			LOG.fine(String.format("A reader fell behind, %d bytes dropped", position - reader.position));
+			reader.position = position;
+		}
+		if (reader.position == written) {
+			if (error != null) {
+				throw new IOException("Decoding failed: " + error.getMessage(), error);
+			}
+			return -1;
+		}
+		int length = (int) Math.min(len, written - reader.position);
+		int offset = (int) (reader.position % ring.length);
+		int first = Math.min(length, ring.length - offset);
+		System.arraycopy(ring, offset, b, off, first);
+		System.arraycopy(ring, 0, b, off + first, length - first);
+		reader.position += length;
+		notifyAll();
+		return length;
+	}
+
+	private void detach(Reader reader) {
+		boolean last;
+		synchronized (this) {
+			if (reader.closed) {
+				return;
+			}
+			reader.closed = true;
+			readers.remove(reader);
+			last = readers.isEmpty();
+			if (last) {
+				stopped = true;
+			}
+			notifyAll();
+		}
+		if (last) {
+			close();
+		}
+	}
+
+	/**
+	 * Closes the decoded stream and notifies the owner, outside the lock of
+	 * the broadcast.
+	 */
+	private void close() {
+		try {
+			source.close();
+		} catch (IOException e) {
+			LOG.warning("Could not close the decoded stream: " + e.getMessage());
+		}
+		synchronized (this) {
+			if (onStopRun) {
+				return;
+			}
+			onStopRun = true;
+		}
+		onStop.run();
+	}
+
+	/**
+	 * A reader with its own position in the broadcast.
+	 */
+	private final class Reader extends InputStream {
+		private final SlowReaderPolicy policy;
+		private long position;
+		private long dropped;
+		private boolean closed;
+
+		Reader(SlowReaderPolicy policy, long position) {
+			this.policy = policy;
+			this.position = position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			return Broadcast.this.read(this, b, off, len);
+		}
+
+		@Override
+		public int available() {
+			synchronized (Broadcast.this) {
+				return (int) Math.min(Integer.MAX_VALUE, Math.min(written - position, ring.length));
+			}
+		}
+
+		@Override
+		public void close() {
+			detach(this);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s policy=%s, position=%d, dropped=%d", getClass().getName(), policy, position,
+					dropped);
+		}
+	}
+}
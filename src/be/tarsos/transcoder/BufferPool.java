@@ -0,0 +1,64 @@
+package be.tarsos.transcoder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized heap buffers, so many streams can share a bounded
+ * number of buffers instead of allocating one per read.
+ *
+ * @author Joren Six
+ */
+final class BufferPool {
+
+	private final int bufferSize;
+	private final int maximumPooled;
+	private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger pooled = new AtomicInteger();
+
+	/**
+	 * @param bufferSize
+	 *            The size of each buffer in bytes.
+	 * @param maximumPooled
+	 *            The maximum number of idle buffers kept.
+	 */
+	BufferPool(int bufferSize, int maximumPooled) {
+		this.bufferSize = bufferSize;
+		this.maximumPooled = maximumPooled;
+	}
+
+	/**
+	 * @return A cleared buffer, from the pool if one is idle.
+	 */
+	ByteBuffer take() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocate(bufferSize);
+		}
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool, it should no longer be used.
+	 *
+	 * @param buffer
+	 *            A buffer returned by {@link #take()}.
+	 */
+	void release(ByteBuffer buffer) {
+		if (pooled.incrementAndGet() <= maximumPooled) {
+			buffers.offer(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The size of each buffer in bytes.
+	 */
+	int getBufferSize() {
+		return bufferSize;
+	}
+}
@@ -0,0 +1,109 @@
+package be.tarsos.transcoder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Predicts how long a job takes from the duration of its audio and the
+ * throughput, in seconds of audio per second of wall time, measured for
+ * earlier jobs with the same profile. A profile is the target encoding and
+ * whether the job runs in-process, see {@link #getProfile(Attributes, boolean)}.
+ * Each measurement moves the throughput of the profile towards the measured
+ * value, so the model follows changes in the load of the system. Profiles
+ * without measurements use the mean of all profiles, or
+ * {@link #DEFAULT_THROUGHPUT} when nothing was measured yet.
+ * <p>
+ * The model is thread safe and can be shared by several batches.
+ * 
+ * @author Joren Six
+ */
+public final class CostModel {
+
+	/**
+	 * The throughput, in seconds of audio per second of wall time, assumed
+	 * before anything was measured.
+	 */
+	public static final double DEFAULT_THROUGHPUT = 50;
+
+	/**
+	 * The weight of a new measurement.
+	 */
+	private static final double WEIGHT = 0.3;
+
+	private final Map<String, Double> throughputs = new HashMap<String, Double>();
+
+	/**
+	 * @param attributes
+	 *            The target encoding of a job.
+	 * @param inProcess
+	 *            True if the job runs in-process, without ffmpeg.
+	 * @return The profile of the job, jobs with the same profile have about
+	 *         the same throughput.
+	 */
+	public static String getProfile(Attributes attributes, boolean inProcess) {
+		String quality = attributes.getQuality() == Quality.DEFAULT ? "" : "/"
+				+ attributes.getQuality().name().toLowerCase();
+		return String.format("%s/%s/%s/%s/%s%s%s", attributes.getFormat(), attributes.getCodec(),
+				attributes.getBitRate(), attributes.getSamplingRate(), attributes.getChannels(), quality,
+				inProcess ? "/java" : "");
+	}
+
+	/**
+	 * @param profile
+	 *            A profile.
+	 * @return The expected seconds of audio per second of wall time.
+	 */
+	public synchronized double getThroughput(String profile) {
+		Double throughput = throughputs.get(profile);
+		if (throughput != null) {
+			return throughput;
+		}
+		if (throughputs.isEmpty()) {
+			return DEFAULT_THROUGHPUT;
+		}
+		double sum = 0;
+		for (double t : throughputs.values()) {
+			sum += t;
+		}
+		return sum / throughputs.size();
+	}
+
+	/**
+	 * @param profile
+	 *            The profile of the job.
+	 * @param duration
+	 *            The duration of the audio in milliseconds.
+	 * @return The expected wall time of the job in seconds.
+	 */
+	public double predict(String profile, long duration) {
+		return duration / 1000.0 / getThroughput(profile);
+	}
+
+	/**
+	 * Learns from a completed job.
+	 * 
+	 * @param profile
+	 *            The profile of the job.
+	 * @param duration
+	 *            The duration of the audio in milliseconds.
+	 * @param seconds
+	 *            The wall time of the job in seconds.
+	 */
+	public synchronized void record(String profile, long duration, double seconds) {
+		if (duration <= 0 || seconds <= 0) {
+			return;
+		}
+		double measured = duration / 1000.0 / seconds;
+		Double throughput = throughputs.get(profile);
+		throughputs.put(profile, throughput == null ? measured : throughput + WEIGHT * (measured - throughput));
+	}
+
+	/**
+	 * @param profile
+	 *            A profile.
+	 * @return True if a job with the profile was measured.
+	 */
+	public synchronized boolean isKnown(String profile) {
+		return throughputs.containsKey(profile);
+	}
+}
@@ -1,8 +1,15 @@
 package be.tarsos.transcoder;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.transcoder.ffmpeg.Capabilities;
+
 /**
  * A list of default encoding options. Encoding and decoding in these formats
- * should be supported by the ffmpeg binary.
+ * should be supported by the ffmpeg binary. The variants ending in
+ * <code>_FAST</code> and <code>_BEST</code> trade compression for speed or
+ * the other way around, see {@link Quality}.
  * 
  * @author Joren Six
  */
@@ -15,6 +22,16 @@ public enum DefaultAttributes {
 	 * Ogg, 44.1kHz sampling rate, two channels (stereo), no volume change.
 	 */
 	OGG_STEREO_44KHZ(new Attributes("ogg", "libvorbis", 44100, 2)),
+	/**
+	 * Ogg, 44.1kHz sampling rate, two channels (stereo), lower quality for
+	 * faster encoding, see {@link Quality#FAST}.
+	 */
+	OGG_STEREO_44KHZ_FAST(new Attributes("ogg", "libvorbis", 44100, 2), Quality.FAST),
+	/**
+	 * Ogg, 44.1kHz sampling rate, two channels (stereo), higher quality, see
+	 * {@link Quality#BEST}.
+	 */
+	OGG_STEREO_44KHZ_BEST(new Attributes("ogg", "libvorbis", 44100, 2), Quality.BEST),
 	/**
 	 * Flac, 44.1kHz sampling rate, two channels (stereo), no volume change.
 	 */
@@ -23,6 +40,26 @@ public enum DefaultAttributes {
 	 * Flac, 44.1kHz sampling rate, one channel (mono), no volume change.
 	 */
 	FLAC_MONO_44KHZ(new Attributes("flac", "flac", 44100, 1)),
+	/**
+	 * Flac, 44.1kHz sampling rate, two channels (stereo), fastest
+	 * compression, see {@link Quality#FAST}.
+	 */
+	FLAC_STEREO_44KHZ_FAST(new Attributes("flac", "flac", 44100, 2), Quality.FAST),
+	/**
+	 * Flac, 44.1kHz sampling rate, two channels (stereo), highest
+	 * compression, see {@link Quality#BEST}.
+	 */
+	FLAC_STEREO_44KHZ_BEST(new Attributes("flac", "flac", 44100, 2), Quality.BEST),
+	/**
+	 * Flac, 44.1kHz sampling rate, one channel (mono), fastest compression,
+	 * see {@link Quality#FAST}.
+	 */
+	FLAC_MONO_44KHZ_FAST(new Attributes("flac", "flac", 44100, 1), Quality.FAST),
+	/**
+	 * Flac, 44.1kHz sampling rate, one channel (mono), highest compression,
+	 * see {@link Quality#BEST}.
+	 */
+	FLAC_MONO_44KHZ_BEST(new Attributes("flac", "flac", 44100, 1), Quality.BEST),
 	/**
 	 * MP3, 320kb/s bit rate, 44.1kHz sampling rate, one channels (mono), no
 	 * volume change.
@@ -33,6 +70,11 @@ public enum DefaultAttributes {
 	 * volume change.
 	 */
 	MP3_320KBS_STEREO_44KHZ(new Attributes("mp3", "libmp3lame", 44100, 2, 320000)),
+	/**
+	 * MP3, 320kb/s bit rate, 44.1kHz sampling rate, two channels (stereo),
+	 * the best LAME algorithm, see {@link Quality#BEST}.
+	 */
+	MP3_320KBS_STEREO_44KHZ_BEST(new Attributes("mp3", "libmp3lame", 44100, 2, 320000), Quality.BEST),
 	/**
 	 * MP3, 192kb/s bit rate, 44.1kHz sampling rate, one channels (mono), no
 	 * volume change.
@@ -53,6 +95,11 @@ public enum DefaultAttributes {
 	 * volume change.
 	 */
 	MP3_128KBS_STEREO_44KHZ(new Attributes("mp3", "libmp3lame", 44100, 2, 128000)),
+	/**
+	 * MP3, 128kb/s bit rate, 44.1kHz sampling rate, two channels (stereo),
+	 * the fastest LAME algorithm, see {@link Quality#FAST}.
+	 */
+	MP3_128KBS_STEREO_44KHZ_FAST(new Attributes("mp3", "libmp3lame", 44100, 2, 128000), Quality.FAST),
 	/**
 	 * WAV PCM Signed 16 bit Little Endian, one channel (mono), 8000Hz sampling
 	 * rate, no volume change.
@@ -84,14 +131,49 @@ public enum DefaultAttributes {
 	 */
 	WAV_PCM_S16LE_STEREO_44KHZ(new Attributes("wav", "pcm_s16le", 44100, 2));
 
-	final Attributes attributes;
+	private final EncodingProfile profile;
 
 	private DefaultAttributes(Attributes newAttributes) {
-		attributes = newAttributes;
+		this(newAttributes, Quality.DEFAULT);
 	}
 
+	private DefaultAttributes(Attributes newAttributes, Quality quality) {
+		newAttributes.setQuality(quality);
+		profile = newAttributes.getProfile();
+	}
+
+	/**
+	 * @return New attributes with this encoding, changing them does not
+	 *         change the default.
+	 */
 	public Attributes getAttributes() {
-		return attributes;
+		return profile.toAttributes();
+	}
+
+	/**
+	 * @return The immutable profile of this encoding, its ffmpeg arguments
+	 *         are compiled once.
+	 */
+	public EncodingProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Lists the default encodings an ffmpeg binary can produce.
+	 * 
+	 * @param capabilities
+	 *            The capabilities of the binary, see
+	 *            {@link Transcoder#getCapabilities()}.
+	 * @return The supported default encodings, in declaration order.
+	 */
+	public static List<DefaultAttributes> getSupported(Capabilities capabilities) {
+		List<DefaultAttributes> supported = new ArrayList<DefaultAttributes>();
+		for (DefaultAttributes defaults : values()) {
+			if (capabilities.isSupported(defaults.getAttributes())) {
+				supported.add(defaults);
+			}
+		}
+		return supported;
 	}
 
 }
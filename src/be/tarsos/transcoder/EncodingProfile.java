@@ -0,0 +1,347 @@
+package be.tarsos.transcoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable target encoding: format, codec, sampling rate, number of
+ * channels, bit rate, volume, encoder options and a filter chain. The ffmpeg
+ * output arguments of a profile are compiled once, when it is built, so a job
+ * only adds its input and output paths. Profiles can be shared between
+ * threads, the {@link DefaultAttributes} are profiles.
+ * <p>
+ * A profile is built with a {@link Builder}, and turned into attributes for a
+ * job with {@link #toAttributes()}. The attributes keep a reference to the
+ * profile until one of their output settings changes.
+ *
+ * @author Joren Six
+ */
+public final class EncodingProfile {
+
+	private final String format;
+	private final String codec;
+	private final Integer samplingRate;
+	private final Integer channels;
+	private final Integer bitRate;
+	private final Integer volume;
+	private final Quality quality;
+	private final Map<String, String> options;
+	private final List<AudioFilter> filters;
+
+	private final String filterChain;
+	private final List<String> codecArguments;
+	private final List<String> outputArguments;
+
+	private EncodingProfile(Builder builder) {
+		format = builder.format;
+		codec = builder.codec;
+		samplingRate = builder.samplingRate;
+		channels = builder.channels;
+		bitRate = builder.bitRate;
+		volume = builder.volume;
+		quality = builder.quality;
+		options = Collections.unmodifiableMap(new LinkedHashMap<String, String>(builder.options));
+		filters = Collections.unmodifiableList(new ArrayList<AudioFilter>(builder.filters));
+
+		// resampling and channel mapping end the graph of filtered audio
+		StringBuilder chain = new StringBuilder();
+		for (AudioFilter filter : filters) {
+			if (chain.length() > 0) {
+				chain.append(',');
+			}
+			chain.append(filter);
+		}
+		if (chain.length() > 0 && samplingRate != null) {
+			chain.append(",aresample=").append(samplingRate.intValue());
+			String resampler = quality.getResamplerOptions();
+			if (resampler != null) {
+				chain.append(':').append(resampler);
+			}
+		}
+		if (chain.length() > 0 && channels != null) {
+			chain.append(",aformat=channel_layouts=").append(getChannelLayout(channels));
+		}
+		filterChain = chain.length() == 0 ? null : chain.toString();
+
+		List<String> arguments = new ArrayList<String>();
+		if (codec != null) {
+			arguments.add("-acodec");
+			arguments.add(codec);
+		}
+		if (bitRate != null) {
+			arguments.add("-ab");
+			arguments.add(String.valueOf(bitRate.intValue()));
+		}
+		if (channels != null) {
+			arguments.add("-ac");
+			arguments.add(String.valueOf(channels.intValue()));
+		}
+		if (samplingRate != null) {
+			arguments.add("-ar");
+			arguments.add(String.valueOf(samplingRate.intValue()));
+		}
+		// with a filter chain the resampler options are part of the chain
+		List<String> tier = quality.getOptions(codec, bitRate, filterChain == null ? samplingRate : null);
+		for (int i = 0; i < tier.size(); i += 2) {
+			if (!options.containsKey(tier.get(i))) {
+				arguments.add(tier.get(i));
+				arguments.add(tier.get(i + 1));
+			}
+		}
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			arguments.add(option.getKey());
+			arguments.add(option.getValue());
+		}
+		codecArguments = Collections.unmodifiableList(arguments);
+
+		arguments = new ArrayList<String>();
+		if (filterChain != null) {
+			arguments.add("-af");
+			arguments.add(filterChain);
+		}
+		arguments.addAll(codecArguments);
+		if (volume != null) {
+			arguments.add("-vol");
+			arguments.add(String.valueOf(volume.intValue()));
+		}
+		if (format != null) {
+			arguments.add("-f");
+			arguments.add(format);
+		}
+		outputArguments = Collections.unmodifiableList(arguments);
+	}
+
+	/**
+	 * @param channels
+	 *            A number of channels.
+	 * @return The ffmpeg channel layout with the number of channels.
+	 */
+	public static String getChannelLayout(int channels) {
+		return channels == 1 ? "mono" : (channels == 2 ? "stereo" : channels + "c");
+	}
+
+	/**
+	 * @return A builder for a new profile.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * @param attributes
+	 *            The attributes to start from.
+	 * @return A builder with the output settings of the attributes.
+	 */
+	public static Builder builder(Attributes attributes) {
+		Builder builder = new Builder();
+		builder.format = attributes.getFormat();
+		builder.codec = attributes.getCodec();
+		builder.samplingRate = attributes.getSamplingRate();
+		builder.channels = attributes.getChannels();
+		builder.bitRate = attributes.getBitRate();
+		builder.volume = attributes.getVolume();
+		builder.quality = attributes.getQuality();
+		builder.options.putAll(attributes.getOptions());
+		builder.filters.addAll(attributes.getFilters());
+		return builder;
+	}
+
+	/**
+	 * @return New attributes with the settings of this profile, that refer to
+	 *         this profile until an output setting is changed.
+	 */
+	public Attributes toAttributes() {
+		return new Attributes(this);
+	}
+
+	/**
+	 * @return The format name, e.g. "mp3".
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return The codec name, null for a stream copy.
+	 */
+	public String getCodec() {
+		return codec;
+	}
+
+	/**
+	 * @return The sampling rate in Hz, null to keep that of the source.
+	 */
+	public Integer getSamplingRate() {
+		return samplingRate;
+	}
+
+	/**
+	 * @return The number of channels, null to keep that of the source.
+	 */
+	public Integer getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return The bit rate in bits per second, null for the default of the
+	 *         codec.
+	 */
+	public Integer getBitRate() {
+		return bitRate;
+	}
+
+	/**
+	 * @return The volume, 256 is unchanged, null for no change.
+	 */
+	public Integer getVolume() {
+		return volume;
+	}
+
+	/**
+	 * @return The trade-off between encoding speed and compression.
+	 */
+	public Quality getQuality() {
+		return quality;
+	}
+
+	/**
+	 * @return The options of the quality for an <code>aresample</code>
+	 *         filter, e.g. <code>filter_size=64:phase_shift=14</code>, or null
+	 *         for the defaults of ffmpeg.
+	 */
+	public String getResamplerOptions() {
+		return quality.getResamplerOptions();
+	}
+
+	/**
+	 * @return The encoder options, by option name with the dash, in order.
+	 */
+	public Map<String, String> getOptions() {
+		return options;
+	}
+
+	/**
+	 * @return The audio filters, in order.
+	 */
+	public List<AudioFilter> getFilters() {
+		return filters;
+	}
+
+	/**
+	 * @return The filters joined to an ffmpeg filter chain, followed by the
+	 *         resampling, with the resampler options of the quality, and the
+	 *         channel mapping of the profile, or null if there are no filters.
+	 */
+	public String getFilterChain() {
+		return filterChain;
+	}
+
+	/**
+	 * @return The codec, bit rate, channels, sampling rate, quality and
+	 *         encoder option arguments.
+	 */
+	public List<String> getCodecArguments() {
+		return codecArguments;
+	}
+
+	/**
+	 * @return All output arguments: the filter chain, the codec arguments, the
+	 *         volume and the format, without the output itself.
+	 */
+	public List<String> getOutputArguments() {
+		return outputArguments;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s", getClass().getName(), outputArguments);
+	}
+
+	/**
+	 * Collects the settings of a profile. A builder is not thread safe, the
+	 * profiles it builds are.
+	 */
+	public static final class Builder {
+		private String format;
+		private String codec;
+		private Integer samplingRate;
+		private Integer channels;
+		private Integer bitRate;
+		private Integer volume;
+		private Quality quality = Quality.DEFAULT;
+		private final Map<String, String> options = new LinkedHashMap<String, String>();
+		private final List<AudioFilter> filters = new ArrayList<AudioFilter>();
+
+		private Builder() {
+		}
+
+		public Builder format(String format) {
+			this.format = format;
+			return this;
+		}
+
+		public Builder codec(String codec) {
+			this.codec = codec;
+			return this;
+		}
+
+		public Builder samplingRate(Integer samplingRate) {
+			this.samplingRate = samplingRate;
+			return this;
+		}
+
+		public Builder channels(Integer channels) {
+			this.channels = channels;
+			return this;
+		}
+
+		public Builder bitRate(Integer bitRate) {
+			this.bitRate = bitRate;
+			return this;
+		}
+
+		public Builder volume(Integer volume) {
+			this.volume = volume;
+			return this;
+		}
+
+		/**
+		 * Sets the trade-off between encoding speed and compression, null
+		 * for {@link Quality#DEFAULT}.
+		 */
+		public Builder quality(Quality quality) {
+			this.quality = quality == null ? Quality.DEFAULT : quality;
+			return this;
+		}
+
+		/**
+		 * Adds an encoder option, e.g. <code>option("-compression_level", "5")</code>.
+		 */
+		public Builder option(String name, String value) {
+			options.put(name, value);
+			return this;
+		}
+
+		/**
+		 * Appends an audio filter to the chain, e.g.
+		 * <code>filter(AudioFilter.highPass(80))</code>.
+		 */
+		public Builder filter(AudioFilter filter) {
+			if (filter == null) {
+				throw new IllegalArgumentException("The filter is null");
+			}
+			filters.add(filter);
+			return this;
+		}
+
+		/**
+		 * @return A new profile with the settings of this builder.
+		 */
+		public EncodingProfile build() {
+			return new EncodingProfile(this);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package be.tarsos.transcoder;
+
+import java.util.List;
+
+/**
+ * A part of an audio file, defined by a start and a duration in microseconds
+ * or in samples of the source. Sample numbers count at the sample rate of the
+ * source, in the time line of a complete decode.
+ *
+ * @author Joren Six
+ */
+public final class Excerpt {
+
+	private final long start;
+	private final long duration;
+	private final boolean inSamples;
+
+	private Excerpt(long start, long duration, boolean inSamples) {
+		if (start < 0 || duration <= 0) {
+			throw new IllegalArgumentException("An excerpt needs a positive start and duration, not " + start
+					+ " and " + duration);
+		}
+		this.start = start;
+		this.duration = duration;
+		this.inSamples = inSamples;
+	}
+
+	/**
+	 * @param start
+	 *            The start in microseconds.
+	 * @param duration
+	 *            The duration in microseconds.
+	 * @return An excerpt defined in time.
+	 */
+	public static Excerpt ofTime(long start, long duration) {
+		return new Excerpt(start, duration, false);
+	}
+
+	/**
+	 * @param start
+	 *            The number of the first sample.
+	 * @param samples
+	 *            The number of samples per channel.
+	 * @return An excerpt defined in samples.
+	 */
+	public static Excerpt ofSamples(long start, long samples) {
+		return new Excerpt(start, samples, true);
+	}
+
+	/**
+	 * @param sampleRate
+	 *            The sample rate of the source.
+	 * @return The number of the first sample.
+	 */
+	public long getStartSample(int sampleRate) {
+		return inSamples ? start : toSamples(start, sampleRate);
+	}
+
+	/**
+	 * @param sampleRate
+	 *            The sample rate of the source.
+	 * @return The number of samples per channel.
+	 */
+	public long getDurationSamples(int sampleRate) {
+		return inSamples ? duration : toSamples(start + duration, sampleRate) - toSamples(start, sampleRate);
+	}
+
+	/**
+	 * @param sampleRate
+	 *            The sample rate of the source, only used if the excerpt is
+	 *            defined in samples.
+	 * @return The start in microseconds.
+	 */
+	public long getStartTime(int sampleRate) {
+		return inSamples ? toMicroseconds(start, sampleRate) : start;
+	}
+
+	/**
+	 * @param sampleRate
+	 *            The sample rate of the source, only used if the excerpt is
+	 *            defined in samples.
+	 * @return The duration in microseconds.
+	 */
+	public long getDuration(int sampleRate) {
+		return inSamples ? toMicroseconds(duration, sampleRate) : duration;
+	}
+
+	/**
+	 * @return True if the excerpt is defined in samples, so the sample rate of
+	 *         the source is needed to express it in time.
+	 */
+	public boolean isInSamples() {
+		return inSamples;
+	}
+
+	/**
+	 * Checks that excerpts are sorted by their start.
+	 *
+	 * @param excerpts
+	 *            The excerpts.
+	 * @param sampleRate
+	 *            The sample rate of the source, used to compare excerpts
+	 *            defined in samples with ones defined in time.
+	 * @throws IllegalArgumentException
+	 *             If the list is empty or not sorted.
+	 */
+	public static void checkSorted(List<Excerpt> excerpts, int sampleRate) {
+		if (excerpts.isEmpty()) {
+			throw new IllegalArgumentException("No excerpts to extract.");
+		}
+		for (int i = 1; i < excerpts.size(); i++) {
+			if (excerpts.get(i).getStartTime(sampleRate) < excerpts.get(i - 1).getStartTime(sampleRate)) {
+				throw new IllegalArgumentException("Excerpts should be sorted by start, " + excerpts.get(i)
+						+ " starts before " + excerpts.get(i - 1));
+			}
+		}
+	}
+
+	private static long toSamples(long microseconds, int sampleRate) {
+		return (microseconds * sampleRate + 500000) / 1000000;
+	}
+
+	private static long toMicroseconds(long samples, int sampleRate) {
+		return (samples * 1000000 + sampleRate / 2) / sampleRate;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s start=%d duration=%d %s", getClass().getName(), start, duration,
+				inSamples ? "samples" : "us");
+	}
+}
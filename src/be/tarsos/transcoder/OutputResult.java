@@ -0,0 +1,72 @@
+package be.tarsos.transcoder;
+
+import java.io.File;
+
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+
+/**
+ * The outcome of one output of a job with several outputs.
+ *
+ * @author Joren Six
+ */
+public final class OutputResult {
+
+	private final File target;
+	private final Attributes attributes;
+	private final EncoderException error;
+
+	/**
+	 * @param target
+	 *            The target file.
+	 * @param attributes
+	 *            The encoding of the target.
+	 * @param error
+	 *            The reason the output failed or null if it succeeded.
+	 */
+	public OutputResult(File target, Attributes attributes, EncoderException error) {
+		this.target = target;
+		this.attributes = attributes;
+		this.error = error;
+	}
+
+	/**
+	 * @return The target file.
+	 */
+	public File getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return The encoding of the target.
+	 */
+	public Attributes getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return True if the target was written and has the expected duration.
+	 */
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	/**
+	 * @return The reason the output failed or null if it succeeded.
+	 */
+	public EncoderException getError() {
+		return error;
+	}
+
+	/**
+	 * @return The size of the target in bytes.
+	 */
+	public long getLength() {
+		return target.length();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s target=%s, successful=%s, error=%s", getClass().getName(), target,
+				isSuccessful(), error == null ? null : error.getMessage());
+	}
+}
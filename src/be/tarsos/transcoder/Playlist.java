@@ -0,0 +1,103 @@
+package be.tarsos.transcoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of sources to stream back to back. Items can be added while the
+ * playlist is streamed, from any thread. The stream waits for new items until
+ * the playlist is closed.
+ *
+ * @author Joren Six
+ */
+public final class Playlist {
+
+	private final List<String> items = new ArrayList<String>();
+	private boolean closed;
+
+	/**
+	 * Creates an empty, open playlist.
+	 */
+	public Playlist() {
+	}
+
+	/**
+	 * Creates a closed playlist with a fixed list of sources.
+	 *
+	 * @param sources
+	 *            The paths to or URLs of the sources.
+	 */
+	public Playlist(List<String> sources) {
+		items.addAll(sources);
+		closed = true;
+	}
+
+	/**
+	 * Appends a source.
+	 *
+	 * @param source
+	 *            The path to or URL of the source.
+	 * @throws IllegalStateException
+	 *             If the playlist is closed.
+	 */
+	public synchronized void add(String source) {
+		if (closed) {
+			throw new IllegalStateException("The playlist is closed, " + source + " can not be added.");
+		}
+		items.add(source);
+		notifyAll();
+	}
+
+	/**
+	 * Marks the end of the playlist: the stream ends after the last item.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return True if no items can be added.
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return The number of items added so far.
+	 */
+	public synchronized int size() {
+		return items.size();
+	}
+
+	/**
+	 * @param index
+	 *            The index of an item.
+	 * @return The source of the item.
+	 */
+	public synchronized String get(int index) {
+		return items.get(index);
+	}
+
+	/**
+	 * Waits until there are items after an index or the playlist is closed.
+	 *
+	 * @param from
+	 *            The index of the first item to return.
+	 * @return The items from the index on, empty if the playlist is closed
+	 *         and has no such items.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	public synchronized List<String> await(int from) throws InterruptedException {
+		while (items.size() <= from && !closed) {
+			wait();
+		}
+		return new ArrayList<String>(items.subList(Math.min(from, items.size()), items.size()));
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s items=%d, closed=%s", getClass().getName(), items.size(), closed);
+	}
+}
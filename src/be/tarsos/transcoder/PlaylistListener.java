@@ -0,0 +1,24 @@
+package be.tarsos.transcoder;
+
+/**
+ * Is notified when a streamed playlist reaches the next item.
+ *
+ * @author Joren Six
+ */
+public interface PlaylistListener {
+
+	/**
+	 * Called when the decoder reaches the first sample of an item. The
+	 * decoder runs ahead of the reader of the stream, use the offset to find
+	 * the boundary in the stream.
+	 *
+	 * @param index
+	 *            The index of the item in the playlist.
+	 * @param source
+	 *            The source of the item.
+	 * @param sampleOffset
+	 *            The number of samples per channel in the stream before the
+	 *            first sample of the item, at the sampling rate of the stream.
+	 */
+	void itemStarted(int index, String source, long sampleOffset);
+}
@@ -0,0 +1,22 @@
+package be.tarsos.transcoder;
+
+/**
+ * The class of an ffmpeg process, decides how it competes with other
+ * processes for a slot and for the CPU and disk, see
+ * {@link be.tarsos.transcoder.ffmpeg.ProcessSlots}.
+ * 
+ * @author Joren Six
+ */
+public enum Priority {
+	/**
+	 * A job someone waits for, like a stream that is played or analysed while
+	 * it is decoded. It is started before waiting batch jobs and may use every
+	 * slot. A stream starts at once, it does not take a slot.
+	 */
+	INTERACTIVE,
+	/**
+	 * A background job, like transcoding a file. It gets a bounded share of
+	 * the slots and runs with a lower CPU and I/O priority where supported.
+	 */
+	BATCH;
+}
@@ -0,0 +1,90 @@
+package be.tarsos.transcoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A trade-off between encoding speed and compression or quality. It sets the
+ * encoder options that ffmpeg otherwise leaves at their defaults: the
+ * <code>compression_level</code> of <code>libmp3lame</code> and FLAC, the
+ * quality of <code>libvorbis</code> when no bit rate is set and the filter
+ * of the resampler. Options set with
+ * {@link Attributes#addOption(String, String)} take precedence. Jobs handled
+ * in-process ignore the quality.
+ *
+ * @author Joren Six
+ */
+public enum Quality {
+	/**
+	 * Faster encoding for bulk re-encodes: less compression for FLAC, the
+	 * fastest LAME algorithm, a lower Vorbis quality and a shorter resampling
+	 * filter.
+	 */
+	FAST,
+	/**
+	 * The defaults of ffmpeg, no options are added.
+	 */
+	DEFAULT,
+	/**
+	 * Slower encoding for archival: the highest FLAC compression, the best
+	 * LAME algorithm, a higher Vorbis quality and a longer resampling filter.
+	 */
+	BEST;
+
+	/**
+	 * Returns the options for an output.
+	 *
+	 * @param codec
+	 *            The codec of the output, may be null.
+	 * @param bitRate
+	 *            The bit rate of the output, may be null.
+	 * @param samplingRate
+	 *            The sampling rate of the output, null if it is not
+	 *            resampled or if it is resampled by a filter chain.
+	 * @return Option names and values, in pairs.
+	 */
+	List<String> getOptions(String codec, Integer bitRate, Integer samplingRate) {
+		if (this == DEFAULT) {
+			return Collections.emptyList();
+		}
+		boolean fast = this == FAST;
+		List<String> options = new ArrayList<String>();
+		if ("flac".equals(codec)) {
+			// 5 is the default of ffmpeg
+			options.add("-compression_level");
+			options.add(fast ? "0" : "8");
+		} else if ("libmp3lame".equals(codec)) {
+			// the LAME algorithm quality, 0 is best, LAME uses 3
+			options.add("-compression_level");
+			options.add(fast ? "9" : "0");
+		} else if ("libvorbis".equals(codec) && bitRate == null) {
+			// ffmpeg uses quality 3
+			options.add("-q:a");
+			options.add(fast ? "1" : "6");
+		}
+		if (samplingRate != null) {
+			options.add("-filter_size");
+			options.add(fast ? "8" : "64");
+			options.add("-phase_shift");
+			options.add(fast ? "6" : "14");
+		}
+		return options;
+	}
+
+	/**
+	 * Returns the options of the resampler for an <code>aresample</code>
+	 * filter. Resampling in a filter chain does not use the output options
+	 * of {@link #getOptions(String, Integer, Integer)}.
+	 *
+	 * @return The options, e.g. <code>filter_size=64:phase_shift=14</code>,
+	 *         or null for the defaults.
+	 */
+	String getResamplerOptions() {
+		if (this == DEFAULT) {
+			return null;
+		}
+		// the length of the resampling filter, 32 by default
+		return this == FAST ? "filter_size=8:phase_shift=6" : "filter_size=64:phase_shift=14";
+	}
+}
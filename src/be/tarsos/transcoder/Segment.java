@@ -0,0 +1,89 @@
+package be.tarsos.transcoder;
+
+import java.io.File;
+
+/**
+ * One numbered segment written by {@link Transcoder#segment}. The offsets are
+ * exact numbers of samples per channel at the sample rate of the segments,
+ * counted from the start of the segmented audio.
+ *
+ * @author Joren Six
+ */
+public final class Segment {
+
+	private final int index;
+	private final File file;
+	private final long startSample;
+	private final long samples;
+	private final int sampleRate;
+
+	/**
+	 * @param index
+	 *            The number of the segment, starting at 0.
+	 * @param file
+	 *            The segment file.
+	 * @param startSample
+	 *            The number of the first sample of the segment.
+	 * @param samples
+	 *            The number of samples per channel in the segment.
+	 * @param sampleRate
+	 *            The sample rate of the segment.
+	 */
+	public Segment(int index, File file, long startSample, long samples, int sampleRate) {
+		this.index = index;
+		this.file = file;
+		this.startSample = startSample;
+		this.samples = samples;
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @return The number of the segment, starting at 0.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return The segment file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The number of the first sample of the segment.
+	 */
+	public long getStartSample() {
+		return startSample;
+	}
+
+	/**
+	 * @return The number of samples per channel in the segment.
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return The sample rate of the segment.
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return The segment as a line of the manifest: the file name, the first
+	 *         sample, the number of samples and the sample rate, separated by
+	 *         commas.
+	 */
+	public String toManifestLine() {
+		return file.getName() + "," + startSample + "," + samples + "," + sampleRate;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s index=%d, file=%s, start=%d, samples=%d, rate=%d", getClass().getName(), index,
+				file, startSample, samples, sampleRate);
+	}
+}
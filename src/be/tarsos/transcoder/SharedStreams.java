@@ -0,0 +1,187 @@
+package be.tarsos.transcoder;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+
+/**
+ * Shares one decode of a source between all readers that stream it with the
+ * same attributes. The first subscriber starts the decoder, later subscribers
+ * read the same decoded audio from a broadcast buffer, starting at the most
+ * recent audio. The decoder stops when the last reader is closed or when the
+ * source ends, a next subscriber then starts a new decode.
+ *
+ * @author Joren Six
+ */
+public final class SharedStreams {
+
+	private static final Logger LOG = Logger.getLogger(SharedStreams.class.getName());
+
+	/**
+	 * The default size of the broadcast buffer of a stream in bytes, about
+	 * six seconds of 16 bit stereo audio at 44.1kHz.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	private final TranscoderService service;
+	private final int bufferSize;
+
+	/**
+	 * The broadcast per source and attributes, a placeholder that is
+	 * completed once the decoder started. Guarded by itself.
+	 */
+	private final Map<String, CompletableFuture<Broadcast>> broadcasts =
+			new HashMap<String, CompletableFuture<Broadcast>>();
+
+	/**
+	 * Creates a registry with broadcast buffers of the default size.
+	 */
+	public SharedStreams() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param bufferSize
+	 *            The size of the broadcast buffer of a stream in bytes. It
+	 *            limits how far a reader can fall behind before it drops
+	 *            audio or blocks the decoder.
+	 */
+	public SharedStreams(int bufferSize) {
+		this(TranscoderService.getDefault(), bufferSize);
+	}
+
+	/**
+	 * @param service
+	 *            Starts the decoders.
+	 * @param bufferSize
+	 *            The size of the broadcast buffer of a stream in bytes.
+	 */
+	SharedStreams(TranscoderService service, int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("The buffer size should be positive, not " + bufferSize);
+		}
+		this.service = service;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Streams audio decoded to PCM, sharing the decoder with other readers of
+	 * the same source and attributes, see
+	 * {@link Streamer#stream(String, Attributes)}.
+	 *
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param attributes
+	 *            A description of the encoding parameters.
+	 * @param policy
+	 *            What happens when this reader falls behind by more than the
+	 *            buffer size.
+	 * @return A stream with PCM samples, close it to detach.
+	 * @throws EncoderException
+	 *             If the decoder can not be started.
+	 */
+	public AudioInputStream subscribe(final String source, final Attributes attributes, final SlowReaderPolicy policy)
+			throws EncoderException {
+		final String key = source + '\n' + attributes;
+		while (true) {
+			final CompletableFuture<Broadcast> pending;
+			boolean first = false;
+			synchronized (broadcasts) {
+				CompletableFuture<Broadcast> registered = broadcasts.get(key);
+				if (registered == null) {
+					registered = new CompletableFuture<Broadcast>();
+					broadcasts.put(key, registered);
+					first = true;
+				}
+				pending = registered;
+			}
+			if (first) {
+				return start(key, source, attributes, policy, pending);
+			}
+			Broadcast broadcast = await(pending);
+			InputStream reader = broadcast.attach(policy);
+			if (reader != null) {
+				return new AudioInputStream(reader, broadcast.getSource().getFormat(), AudioSystem.NOT_SPECIFIED);
+			}
+			// the broadcast stopped before this reader joined, start another
+			remove(key, pending);
+		}
+	}
+
+	/**
+	 * Starts the decoder of a placeholder, outside the lock so other sources
+	 * can be subscribed to meanwhile. Readers of the same source wait for the
+	 * placeholder.
+	 */
+	private AudioInputStream start(final String key, String source, Attributes attributes, SlowReaderPolicy policy,
+			final CompletableFuture<Broadcast> pending) throws EncoderException {
+		LOG.info("Start a shared decode of " + source);
+		Broadcast broadcast;
+		try {
+			broadcast = new Broadcast(service.stream(source, attributes), bufferSize, new Runnable() {
+				public void run() {
+					remove(key, pending);
+				}
+			});
+		} catch (EncoderException e) {
+			remove(key, pending);
+			pending.completeExceptionally(e);
+			throw e;
+		} catch (RuntimeException e) {
+			remove(key, pending);
+			pending.completeExceptionally(e);
+			throw e;
+		}
+		InputStream reader = broadcast.attach(policy);
+		broadcast.start();
+		pending.complete(broadcast);
+		return new AudioInputStream(reader, broadcast.getSource().getFormat(), AudioSystem.NOT_SPECIFIED);
+	}
+
+	/**
+	 * Waits for a decoder that another reader starts.
+	 * 
+	 * @throws EncoderException
+	 *             If the decoder could not be started or if interrupted.
+	 */
+	private static Broadcast await(CompletableFuture<Broadcast> pending) throws EncoderException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncoderException(e);
+		} catch (ExecutionException e) {
+			throw new EncoderException("The shared decoder did not start: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Forgets a broadcast that stopped or did not start, unless it was already
+	 * replaced.
+	 */
+	private void remove(String key, CompletableFuture<Broadcast> broadcast) {
+		synchronized (broadcasts) {
+			if (broadcasts.get(key) == broadcast) {
+				broadcasts.remove(key);
+				LOG.info("Stopped the shared decode of " + key.substring(0, key.indexOf('\n')));
+			}
+		}
+	}
+
+	/**
+	 * @return The number of running or starting decoders.
+	 */
+	public int size() {
+		synchronized (broadcasts) {
+			return broadcasts.size();
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package be.tarsos.transcoder;
+
+/**
+ * What happens to a reader of a shared stream that falls behind by more than
+ * the size of the broadcast buffer.
+ *
+ * @author Joren Six
+ */
+public enum SlowReaderPolicy {
+	/**
+	 * The reader skips the audio that was overwritten and continues with the
+	 * oldest audio in the buffer. It never holds back the decoder or other
+	 * readers.
+	 */
+	DROP,
+	/**
+	 * The decoder waits for the reader. Readers with this policy hold back
+	 * all readers of the stream, so no audio is lost.
+	 */
+	BLOCK
+}
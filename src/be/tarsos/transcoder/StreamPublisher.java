@@ -0,0 +1,234 @@
+package be.tarsos.transcoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioInputStream;
+
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+
+/**
+ * Publishes audio decoded to PCM as buffers of whole frames, read only when
+ * the subscriber signals demand. Reads are done by tasks on an executor that
+ * run while there is demand, so a stream without demand does not occupy a
+ * thread. The reads block, a stream with demand occupies a thread until the
+ * demand is met or the decoder has no more output. The decoder is started
+ * when the subscriber requests the first buffer and stopped on cancel,
+ * completion or error.
+ * <p>
+ * The buffers come from a shared pool: a buffer passed to
+ * <code>onNext</code> is reused once that call returns, subscribers that keep
+ * the samples should copy them. A publisher accepts a single subscriber.
+ *
+ * @author Joren Six
+ */
+public final class StreamPublisher implements Flow.Publisher<ByteBuffer> {
+
+	private static final Logger LOG = Logger.getLogger(StreamPublisher.class.getName());
+
+	/**
+	 * The buffers shared by all publishers.
+	 */
+	private static final BufferPool POOL = new BufferPool(32 * 1024, 1024);
+
+	/**
+	 * The maximum number of buffers published by one task, after which the
+	 * task is resubmitted so other streams get a turn.
+	 */
+	private static final int BATCH = 16;
+
+	private final TranscoderService service;
+	private final String source;
+	private final Attributes attributes;
+	private final Executor executor;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	/**
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param attributes
+	 *            A description of the encoding parameters, see
+	 *            {@link Streamer#stream(String, Attributes)}.
+	 * @param executor
+	 *            Runs the tasks that read the decoded audio. Reads block while
+	 *            the decoder has no output yet, a pool sized for the number
+	 *            of streams with pending demand is needed.
+	 */
+	public StreamPublisher(String source, Attributes attributes, Executor executor) {
+		this(TranscoderService.getDefault(), source, attributes, executor);
+	}
+
+	StreamPublisher(TranscoderService service, String source, Attributes attributes, Executor executor) {
+		this.service = service;
+		this.source = source;
+		this.attributes = attributes;
+		this.executor = executor;
+	}
+
+	public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("The subscriber is null");
+		}
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("Streaming " + source + " already has a subscriber"));
+			return;
+		}
+		subscriber.onSubscribe(new StreamSubscription(subscriber));
+	}
+
+	/**
+	 * Reads the decoded stream on behalf of one subscriber. At most one task
+	 * reads at a time, signals are never sent concurrently.
+	 */
+	private final class StreamSubscription implements Flow.Subscription, Runnable {
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger work = new AtomicInteger();
+
+		private volatile AudioInputStream stream;
+		private int frameSize;
+		private volatile boolean cancelled;
+		private volatile IllegalArgumentException invalidRequest;
+		private boolean done;
+
+		StreamSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				// signalled by the reading task, never concurrently with onNext
+				invalidRequest = new IllegalArgumentException("Requested " + n + " buffers, should be positive");
+				schedule();
+				return;
+			}
+			long current;
+			long next;
+			do {
+				current = demand.get();
+				next = current + n < 0 ? Long.MAX_VALUE : current + n;
+			} while (!demand.compareAndSet(current, next));
+			schedule();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			// stops the decoder, a blocked read fails right away
+			close();
+			schedule();
+		}
+
+		private void schedule() {
+			if (work.getAndIncrement() == 0) {
+				executor.execute(this);
+			}
+		}
+
+		public void run() {
+			int missed = 1;
+			int published = 0;
+			while (true) {
+				if (invalidRequest != null && !done) {
+					cancelled = true;
+					fail(invalidRequest);
+				}
+				while (!cancelled && !done && demand.get() > 0) {
+					if (published == BATCH) {
+						// give other streams a turn, this task keeps its claim
+						executor.execute(this);
+						return;
+					}
+					publish();
+					published++;
+				}
+				if (cancelled && !done) {
+					done = true;
+					close();
+				}
+				missed = work.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Reads and publishes one buffer, or completes.
+		 */
+		private void publish() {
+			ByteBuffer buffer = null;
+			try {
+				if (stream == null) {
+					stream = service.stream(source, attributes);
+					frameSize = Math.max(1, stream.getFormat().getFrameSize());
+					if (cancelled) {
+						// cancelled while the decoder started
+						close();
+						return;
+					}
+				}
+				buffer = POOL.take();
+				int capacity = buffer.capacity() / frameSize * frameSize;
+				byte[] bytes = buffer.array();
+				int length = 0;
+				// whole frames only
+				while (length == 0 || length % frameSize != 0) {
+					int read = stream.read(bytes, length, capacity - length);
+					if (read == -1) {
+						break;
+					}
+					length += read;
+				}
+				if (length == 0) {
+					done = true;
+					close();
+					subscriber.onComplete();
+					return;
+				}
+				buffer.limit(length);
+				demand.decrementAndGet();
+				subscriber.onNext(buffer);
+			} catch (EncoderException e) {
+				fail(e);
+			} catch (IOException e) {
+				if (!cancelled) {
+					fail(e);
+				}
+			} finally {
+				if (buffer != null) {
+					POOL.release(buffer);
+				}
+			}
+		}
+
+		private void fail(Exception e) {
+			done = true;
+			close();
+			subscriber.onError(e);
+		}
+
+		private void close() {
+			AudioInputStream opened = stream;
+			if (opened != null) {
+				try {
+					opened.close();
+				} catch (IOException e) {
+					LOG.warning("Could not close the stream of " + source + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -1,41 +1,328 @@
 package be.tarsos.transcoder;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.Flow;
+
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 
 import be.tarsos.transcoder.ffmpeg.Encoder;
 import be.tarsos.transcoder.ffmpeg.EncoderException;
-import be.tarsos.transcoder.ffmpeg.LinuxFFMPEGLocator;
-import be.tarsos.transcoder.ffmpeg.MacFFMPEGLocator;
-import be.tarsos.transcoder.ffmpeg.PathFFMPEGLocator;
-import be.tarsos.transcoder.ffmpeg.WindowsFFMPEGLocator;
+import be.tarsos.transcoder.pcm.PCMConverter;
 
 /**
- * The main interface to stream audio.
+ * The main interface to stream audio. The methods delegate to
+ * {@link TranscoderService#getDefault()}.
  * 
  * @author Joren Six
  */
 public class Streamer {
 	
+	private Streamer(){
+	}
+	
 	/**
-	 * Adds default locators to encoder.
+	 * Streams audio, decoded to PCM with the defined attributes. PCM WAV and
+	 * FLAC files are decoded in-process, without calling ffmpeg, see
+	 * {@link PCMConverter} and {@link Backend}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
 	 */
-	private static void initialize() {
-		if(!Encoder.hasLocators()) {
-			Encoder.addFFMPEGLocator(new WindowsFFMPEGLocator());
-			Encoder.addFFMPEGLocator(new MacFFMPEGLocator());
-			Encoder.addFFMPEGLocator(new LinuxFFMPEGLocator());
-			Encoder.addFFMPEGLocator(new PathFFMPEGLocator());
-		}
+	public static AudioInputStream stream(final String source, final Attributes targetEncoding)
+			throws EncoderException {
+		return TranscoderService.getDefault().stream(source, targetEncoding);
 	}
- 
-	private Streamer(){
+	
+	/**
+	 * Streams audio decoded to PCM and measures it while it is read: the
+	 * loudness and true peak according to EBU R128 are measured by the ffmpeg
+	 * process that decodes the stream, the waveform overview is built from
+	 * the streamed samples. The listener is called at the end of the stream.
+	 * These streams always run ffmpeg.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param buckets
+	 *            The number of buckets of the waveform overview.
+	 * @param listener
+	 *            Receives the measurements at the end of the stream.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream streamAnalyzed(final String source, final Attributes targetEncoding,
+			final int buckets, final AnalysisListener listener) throws EncoderException {
+		return TranscoderService.getDefault().streamAnalyzed(source, targetEncoding, buckets, listener);
 	}
 	
-	public static AudioInputStream stream(final String source, final Attributes targetEncoding)
+	/**
+	 * Streams a PCM WAV or FLAC file that is still being written, for example
+	 * a live recording, and keeps reading as it grows, see
+	 * {@link PCMConverter#follow(File, Attributes, long)}. The file is decoded
+	 * in-process, other formats can not be followed.
+	 * 
+	 * @param source
+	 *            The path to the growing file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param idleTimeout
+	 *            The stream ends when the file did not grow for this number
+	 *            of milliseconds, 0 or less to keep reading until the stream
+	 *            is closed.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If the file can not be followed or read.
+	 */
+	public static AudioInputStream follow(final String source, final Attributes targetEncoding,
+			final long idleTimeout) throws EncoderException {
+		return TranscoderService.getDefault().follow(source, targetEncoding, idleTimeout);
+	}
+
+	/**
+	 * Streams audio decoded to PCM and keeps a WAV copy of the streamed audio
+	 * in a file, see {@link #stream(String, Attributes, File, Attributes)}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters of the stream and
+	 *            the copy.
+	 * @param target
+	 *            The file to write the copy to.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream stream(final String source, final Attributes targetEncoding, final File target)
 			throws EncoderException {
-		initialize();
-		return new Encoder().stream(source, targetEncoding);
+		return stream(source, targetEncoding, target, targetEncoding);
+	}
+
+	/**
+	 * Streams audio decoded to PCM and writes a rendition to a file with the
+	 * same ffmpeg process, so the source is decoded only once. Both hold the
+	 * part of the source selected by the start and maximum duration of the
+	 * stream encoding. The file is written as fast as the stream is read and
+	 * it is finalized before the end of the stream is reported. Closing the
+	 * stream early stops the decoder, the file then holds the audio decoded
+	 * so far.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters of the stream.
+	 * @param target
+	 *            The file to write to.
+	 * @param fileEncoding
+	 *            A description of the encoding parameters of the file.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream stream(final String source, final Attributes targetEncoding, final File target,
+			final Attributes fileEncoding) throws EncoderException {
+		return TranscoderService.getDefault().stream(source, targetEncoding, target, fileEncoding);
+	}
+
+	/**
+	 * Publishes audio decoded to PCM to a reactive subscriber. The decoded
+	 * audio is only read while the subscriber has outstanding demand, by
+	 * tasks on a cached thread pool of the default service, so idle streams
+	 * do not need a thread. Reads block, a stream with outstanding demand
+	 * holds a thread of the pool until the demand is met: the number of
+	 * threads grows with the number of streams that are read at once, not
+	 * with the number of open streams. Cancelling the subscription stops the
+	 * decoder. See {@link StreamPublisher} for the reuse of the published
+	 * buffers.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A publisher for a single subscriber.
+	 */
+	public static Flow.Publisher<ByteBuffer> publish(final String source, final Attributes targetEncoding) {
+		return TranscoderService.getDefault().publish(source, targetEncoding);
+	}
+
+	/**
+	 * Streams audio decoded to PCM with one decoder for all readers of the
+	 * same source and attributes. A reader that starts while others are
+	 * reading joins at the most recent audio. The decoder stops when the last
+	 * reader closes its stream. See {@link SharedStreams} for a registry with
+	 * another buffer size.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param policy
+	 *            Whether this reader drops audio or holds back the decoder if
+	 *            it falls behind.
+	 * @return A stream with PCM samples, close it to detach.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream streamShared(final String source, final Attributes targetEncoding,
+			final SlowReaderPolicy policy) throws EncoderException {
+		return TranscoderService.getDefault().streamShared(source, targetEncoding, policy);
+	}
+
+	/**
+	 * Streams a fixed list of sources back to back as one continuous PCM
+	 * stream, see {@link #streamPlaylist(Playlist, Attributes, PlaylistListener)}.
+	 * 
+	 * @param sources
+	 *            The paths to or URLs of the items.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream streamPlaylist(final List<String> sources, final Attributes targetEncoding)
+			throws EncoderException {
+		return streamPlaylist(new Playlist(sources), targetEncoding, null);
+	}
+
+	/**
+	 * Streams a fixed list of sources back to back as one continuous PCM
+	 * stream, see {@link #streamPlaylist(Playlist, Attributes, PlaylistListener)}.
+	 * 
+	 * @param sources
+	 *            The paths to or URLs of the items.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param listener
+	 *            Is notified at the start of each item.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream streamPlaylist(final List<String> sources, final Attributes targetEncoding,
+			final PlaylistListener listener) throws EncoderException {
+		return streamPlaylist(new Playlist(sources), targetEncoding, listener);
+	}
+
+	/**
+	 * Streams the items of a playlist back to back as one continuous PCM
+	 * stream, without a process launch and gap per item: the items are
+	 * decoded by a single ffmpeg process with the concat demuxer. Items added
+	 * while streaming are decoded by a next process once the known items are
+	 * done, the stream waits for them until the playlist is closed. The items
+	 * should have the same codec and sample rate. The start and maximum
+	 * duration of the attributes are ignored.
+	 * 
+	 * @param playlist
+	 *            The items.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters, with a sampling
+	 *            rate and number of channels.
+	 * @param listener
+	 *            Is notified at the start of each item with its offset in the
+	 *            stream, may be null.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream streamPlaylist(final Playlist playlist, final Attributes targetEncoding,
+			final PlaylistListener listener) throws EncoderException {
+		return TranscoderService.getDefault().streamPlaylist(playlist, targetEncoding, listener);
+	}
+
+	/**
+	 * Streams audio read from a stream, for example a network connection,
+	 * decoded to PCM. The data is fed to ffmpeg's standard input and only
+	 * read as fast as the returned stream is consumed. Sources that need a
+	 * seekable input, like mp4 files with the index at the end, are not
+	 * supported. Positions in samples can not be used since the sample rate
+	 * of the source is unknown.
+	 * 
+	 * @param source
+	 *            The encoded source audio, it is read until its end but not
+	 *            closed.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A stream with PCM samples, closing it stops the decoder.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream stream(final InputStream source, final Attributes targetEncoding)
+			throws EncoderException {
+		return stream(Channels.newChannel(source), targetEncoding);
+	}
+
+	/**
+	 * Streams audio held in memory decoded to PCM, see
+	 * {@link #stream(InputStream, Attributes)}.
+	 * 
+	 * @param source
+	 *            The encoded source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A stream with PCM samples, closing it stops the decoder.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream stream(final byte[] source, final Attributes targetEncoding)
+			throws EncoderException {
+		return stream(new ByteArrayInputStream(source), targetEncoding);
+	}
+
+	/**
+	 * Streams audio read from a channel decoded to PCM, see
+	 * {@link #stream(InputStream, Attributes)}.
+	 * 
+	 * @param source
+	 *            The encoded source audio, it is read until its end but not
+	 *            closed.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A stream with PCM samples, closing it stops the decoder.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static AudioInputStream stream(final ReadableByteChannel source, final Attributes targetEncoding)
+			throws EncoderException {
+		return TranscoderService.getDefault().stream(source, targetEncoding);
+	}
+
+	/**
+	 * Decodes excerpts of an audio file to PCM buffers in a single pass: the
+	 * source is decoded once, from the first excerpt on, instead of once per
+	 * excerpt. PCM WAV and FLAC files are handled in-process, other files are
+	 * extracted by one ffmpeg process to temporary WAV files that are read
+	 * back into memory. The start and maximum duration of the attributes are
+	 * ignored.
+	 * 
+	 * @param source
+	 *            The path to the source audio file.
+	 * @param excerpts
+	 *            The excerpts, sorted by start.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters, the format should
+	 *            be wav.
+	 * @return A stream over an in-memory PCM buffer for each excerpt.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public static List<AudioInputStream> extract(final String source, final List<Excerpt> excerpts,
+			final Attributes targetEncoding) throws EncoderException {
+		return TranscoderService.getDefault().extract(source, excerpts, targetEncoding);
 	}
 	
 	public static AudioFormat streamAudioFormat( final Attributes targetEncoding)
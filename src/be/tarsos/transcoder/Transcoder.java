@@ -1,8 +1,16 @@
 package be.tarsos.transcoder;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.logging.Logger;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -11,35 +19,25 @@ import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 
+import be.tarsos.transcoder.ffmpeg.Capabilities;
 import be.tarsos.transcoder.ffmpeg.Encoder;
 import be.tarsos.transcoder.ffmpeg.EncoderException;
-import be.tarsos.transcoder.ffmpeg.InputFormatException;
-import be.tarsos.transcoder.ffmpeg.LinuxFFMPEGLocator;
-import be.tarsos.transcoder.ffmpeg.MacFFMPEGLocator;
-import be.tarsos.transcoder.ffmpeg.PathFFMPEGLocator;
-import be.tarsos.transcoder.ffmpeg.WindowsFFMPEGLocator;
+import be.tarsos.transcoder.pcm.PCMConverter;
 
 /**
- * The main interface to transcode audio.
+ * The main interface to transcode audio. The methods delegate to
+ * {@link TranscoderService#getDefault()}, build a {@link TranscoderService}
+ * to use another ffmpeg locator, cache or process limits.
  * 
  * @author Joren Six
  */
 public class Transcoder {
 
-	private static final Logger LOG = Logger.getLogger(Transcoder.class.getName());
-
-
 	/**
-	 * Adds default locators to encoder.
+	 * The name of the manifest written by {@link #segment}.
 	 */
-	private static void initialize() {
-		if(!Encoder.hasLocators()) {
-			Encoder.addFFMPEGLocator(new WindowsFFMPEGLocator());
-			Encoder.addFFMPEGLocator(new MacFFMPEGLocator());
-			Encoder.addFFMPEGLocator(new LinuxFFMPEGLocator());
-			Encoder.addFFMPEGLocator(new PathFFMPEGLocator());
-		}
-	}
+	public static final String SEGMENT_MANIFEST = "segments.csv";
+
 
 	/**
 	 * A private constructor to hide the default.
@@ -104,7 +102,8 @@ public class Transcoder {
 
 	/**
 	 * Transcodes audio. It converts source to target with the defined
-	 * attributes.
+	 * attributes. PCM WAV or FLAC to PCM WAV jobs are converted in-process,
+	 * without calling ffmpeg, see {@link PCMConverter} and {@link Backend}.
 	 * 
 	 * @param source
 	 *            The path to the source audio file.
@@ -117,26 +116,276 @@ public class Transcoder {
 	 */
 	public static void transcode(final File source, final File target, final Attributes targetEncoding)
 			throws EncoderException {
-		// sanity checks
-		if (!source.exists()) {
-			throw new IllegalArgumentException(source + " does not exist. It should"
-					+ " be a readable audiofile.");
-		}
-		if (source.isDirectory()) {
-			throw new IllegalArgumentException(source + " is a directory. It should "
-					+ "be a readable audiofile.");
-		}
-		if (!source.canRead()) {
-			throw new IllegalArgumentException(source
-					+ " can not be read, check file permissions. It should be a readable audiofile.");
+		TranscoderService.getDefault().transcode(source, target, targetEncoding);
+	}
+
+	/**
+	 * Transcodes audio and measures it in the same ffmpeg run, so the
+	 * transcoded audio does not need to be decoded again: the integrated
+	 * loudness, loudness range and true peak according to EBU R128 and a
+	 * waveform overview with the minimum and maximum sample of each bucket.
+	 * These jobs always run ffmpeg, see {@link Encoder#encodeAnalyzed}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param buckets
+	 *            The number of buckets of the waveform overview.
+	 * @return The loudness, true peak and waveform of the transcoded audio.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static Analysis transcodeAnalyzed(final File source, final File target, final Attributes targetEncoding,
+			final int buckets) throws EncoderException {
+		return TranscoderService.getDefault().transcodeAnalyzed(source, target, targetEncoding, buckets);
+	}
+
+	/**
+	 * Transcodes a long audio file with an ffmpeg process per available
+	 * processor, see {@link #transcodeParallel(File, File, Attributes, int)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static void transcodeParallel(final File source, final File target, final Attributes targetEncoding)
+			throws EncoderException {
+		transcodeParallel(source, target, targetEncoding, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Transcodes a long audio file on several cores: the source is cut into
+	 * time ranges that are encoded in parallel and joined without encoding
+	 * them again, see {@link Encoder#encodeParallel}. Ranges are at least
+	 * {@link Encoder#MIN_RANGE_DURATION} seconds long, shorter files are
+	 * transcoded by a single process. The joins are gapless for PCM and FLAC,
+	 * lossy codecs add a few milliseconds of encoder delay at each join. PCM
+	 * WAV or FLAC to PCM WAV jobs are converted in-process, see
+	 * {@link PCMConverter} and {@link Backend}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param parts
+	 *            The maximum number of ffmpeg processes.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static void transcodeParallel(final File source, final File target, final Attributes targetEncoding,
+			final int parts) throws EncoderException {
+		TranscoderService.getDefault().transcodeParallel(source, target, targetEncoding, parts);
+	}
+
+	/**
+	 * Transcodes audio read from a stream, for example an upload, without
+	 * writing it to a temporary file first: the data is fed to ffmpeg's
+	 * standard input. Sources that need a seekable input, like mp4 files with
+	 * the index at the end, are not supported. Positions in samples can not
+	 * be used since the sample rate of the source is unknown.
+	 * 
+	 * @param source
+	 *            The encoded source audio, it is read until its end but not
+	 *            closed.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static void transcode(final InputStream source, final File target, final Attributes targetEncoding)
+			throws EncoderException {
+		transcode(Channels.newChannel(source), target, targetEncoding);
+	}
+
+	/**
+	 * Transcodes audio held in memory, see
+	 * {@link #transcode(InputStream, File, Attributes)}.
+	 * 
+	 * @param source
+	 *            The encoded source audio.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static void transcode(final byte[] source, final File target, final Attributes targetEncoding)
+			throws EncoderException {
+		transcode(new ByteArrayInputStream(source), target, targetEncoding);
+	}
+
+	/**
+	 * Transcodes audio read from a channel, see
+	 * {@link #transcode(InputStream, File, Attributes)}.
+	 * 
+	 * @param source
+	 *            The encoded source audio, it is read until its end but not
+	 *            closed.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static void transcode(final ReadableByteChannel source, final File target,
+			final Attributes targetEncoding) throws EncoderException {
+		TranscoderService.getDefault().transcode(source, target, targetEncoding);
+	}
+
+	/**
+	 * Transcodes audio to an output stream while it is encoded, without a
+	 * temporary file. Any format ffmpeg can write to a pipe is supported. PCM
+	 * WAV or FLAC to PCM WAV jobs are converted in-process, see
+	 * {@link PCMConverter} and {@link Backend}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param out
+	 *            The stream to write the encoded audio to, it is flushed but
+	 *            not closed.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static void encodeTo(final String source, final Attributes targetEncoding, final OutputStream out)
+			throws EncoderException {
+		TranscoderService.getDefault().encodeTo(source, targetEncoding, out);
+	}
+
+	/**
+	 * Transcodes audio to a channel while it is encoded, see
+	 * {@link #encodeTo(String, Attributes, OutputStream)}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param out
+	 *            The channel to write the encoded audio to, it is not closed.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static void encodeTo(final String source, final Attributes targetEncoding,
+			final WritableByteChannel out) throws EncoderException {
+		TranscoderService.getDefault().encodeTo(source, targetEncoding, out);
+	}
+
+	/**
+	 * Transcodes audio to several targets, decoding the source only once. The
+	 * targets that need ffmpeg are encoded by a single ffmpeg process with an
+	 * output per target, the source is resampled once per distinct sampling
+	 * rate, number of channels and volume. PCM WAV or FLAC to PCM WAV targets
+	 * are converted in-process, see {@link PCMConverter} and {@link Backend}.
+	 * The start and maximum duration of the attributes are ignored.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param targets
+	 *            The encoding of each target file.
+	 * @return The result of each target, in the order of the map.
+	 * @throws EncoderException
+	 *             If the source can not be decoded.
+	 */
+	public static Map<File, OutputResult> transcode(final File source, final Map<File, Attributes> targets)
+			throws EncoderException {
+		return TranscoderService.getDefault().transcode(source, targets);
+	}
+
+	/**
+	 * Transcodes audio to several targets, decoding the source only once, see
+	 * {@link #transcode(File, Map)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param targets
+	 *            The encoding of each target file.
+	 * @return The result of each target, in the order of the map.
+	 * @throws EncoderException
+	 *             If the source can not be decoded.
+	 */
+	public static Map<File, OutputResult> transcodeDefaults(final File source,
+			final Map<File, DefaultAttributes> targets) throws EncoderException {
+		Map<File, Attributes> attributes = new LinkedHashMap<File, Attributes>();
+		for (Map.Entry<File, DefaultAttributes> entry : targets.entrySet()) {
+			attributes.put(entry.getKey(), entry.getValue().getAttributes());
 		}
+		return transcode(source, attributes);
+	}
+
+	/**
+	 * Extracts excerpts of an audio file to separate files in a single pass:
+	 * the source is decoded once, from the first excerpt on, instead of once
+	 * per excerpt. PCM WAV or FLAC to PCM WAV jobs are handled in-process, see
+	 * {@link PCMConverter} and {@link Backend}. The start and maximum duration
+	 * of the attributes are ignored.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param excerpts
+	 *            The excerpts, sorted by start.
+	 * @param targets
+	 *            A target file for each excerpt.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static void extract(final File source, final List<Excerpt> excerpts, final List<File> targets,
+			final Attributes targetEncoding) throws EncoderException {
+		TranscoderService.getDefault().extract(source, excerpts, targets, targetEncoding);
+	}
 
-		initialize();
-		// encode the source to directory
-		final Encoder e = new Encoder();
-		LOG.info("Try to transcode " + source + " to " + target);
-		e.encode(source, target, targetEncoding);
-		LOG.info("Successfully transcoded " + source + " to " + target);
+	/**
+	 * Splits audio into numbered segments of a fixed duration, decoding the
+	 * source only once, for example for fingerprinting or HTTP live
+	 * streaming. Segment <code>i</code> starts at
+	 * <code>i * segmentDuration</code> and lasts
+	 * <code>segmentDuration + overlap</code>, the last segments hold what is
+	 * left. The segments are written to the directory as
+	 * <code>segment00000</code>, <code>segment00001</code>, ... with the
+	 * format as extension, together with a manifest named
+	 * {@link #SEGMENT_MANIFEST} with a line per segment: the file name, the
+	 * first sample, the number of samples and the sample rate.
+	 * <p>
+	 * PCM WAV or FLAC to PCM WAV jobs are handled in-process, see
+	 * {@link PCMConverter} and {@link Backend}. Other jobs without overlap use
+	 * the ffmpeg <code>segment</code> muxer, which cuts compressed formats at
+	 * a packet boundary. Overlapping segments are cut from the decoded PCM
+	 * stream and need the wav format. The start and maximum duration of the
+	 * attributes select the part of the source that is segmented.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param directory
+	 *            The directory to write the segments and the manifest to.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters of the segments.
+	 * @param segmentDuration
+	 *            The duration of a segment in microseconds.
+	 * @param overlap
+	 *            The duration a segment shares with the next in microseconds.
+	 * @return The segments, in order.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public static List<Segment> segment(final File source, final File directory, final Attributes targetEncoding,
+			final long segmentDuration, final long overlap) throws EncoderException {
+		return TranscoderService.getDefault().segment(source, directory, targetEncoding, segmentDuration, overlap);
 	}
 
 	/**
@@ -155,8 +404,6 @@ public class Transcoder {
 	 *         parameters, false otherwise.
 	 */
 	public static boolean transcodingRequired(final String target, final Attributes targetEncoding) {
-		initialize();
-
 		final File targetFile = new File(target);
 		// if the file does not exist transcoding is always required
 		boolean transcodingRequired = !targetFile.exists();
@@ -190,6 +437,17 @@ public class Transcoder {
 		return samplingRateMatches && numberOfChannelsMatches && codecMatches;
 	}
 
+	/**
+	 * Returns the encoders, decoders and formats of the located ffmpeg binary,
+	 * to pick an encoding it can produce. The binary is probed once and the
+	 * result is cached on disk.
+	 * 
+	 * @return The capabilities, or null if the binary could not be probed.
+	 */
+	public static Capabilities getCapabilities() {
+		return TranscoderService.getDefault().getCapabilities();
+	}
+
 	/**
 	 * Returns information about an audio file: the sampling rate, the number of
 	 * channels, the decoder, ...
@@ -199,17 +457,7 @@ public class Transcoder {
 	 * @return the info for the file.
 	 */
 	public static Attributes getInfo(final String file) {
-		initialize();
-		Attributes info = null;
-		try {
-			final Encoder e = new Encoder();
-			info = e.getInfo(new File(file));
-		} catch (final InputFormatException e1) {
-			LOG.severe("Unknown input file format: " + file);
-		} catch (final EncoderException e1) {
-			LOG.warning("Could not get information about:" + file);
-		}
-		return info;
+		return TranscoderService.getDefault().getInfo(file);
 	}
 	
 	public static void play(String source) throws EncoderException, LineUnavailableException, IOException{
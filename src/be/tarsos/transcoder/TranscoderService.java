@@ -0,0 +1,802 @@
+package be.tarsos.transcoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import be.tarsos.transcoder.ffmpeg.Capabilities;
+import be.tarsos.transcoder.ffmpeg.Encoder;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+import be.tarsos.transcoder.ffmpeg.FFMPEGLocator;
+import be.tarsos.transcoder.ffmpeg.InputFormatException;
+import be.tarsos.transcoder.ffmpeg.ProbeCache;
+import be.tarsos.transcoder.ffmpeg.ProcessSlots;
+import be.tarsos.transcoder.pcm.PCMConverter;
+import be.tarsos.transcoder.pcm.WavSegmenter;
+
+/**
+ * Transcodes and streams audio, like the static methods of
+ * {@link Transcoder} and {@link Streamer}, which delegate to
+ * {@link #getDefault()}. A service is built once, with the ffmpeg locator,
+ * the cache of probed files, the process slots and the worker pool it
+ * shares between calls, and is safe to use from many threads at once:
+ * calls do not look up the locator or start threads of their own.
+ * <p>
+ * Jobs that can be handled in Java are handled in-process, see
+ * {@link PCMConverter} and {@link Backend}.
+ * 
+ * @author Joren Six
+ */
+public final class TranscoderService {
+
+	private static final Logger LOG = Logger.getLogger(TranscoderService.class.getName());
+
+	/**
+	 * The number of probed files kept by a service.
+	 */
+	public static final int PROBE_CACHE_SIZE = 256;
+
+	/**
+	 * Created on first use.
+	 */
+	private static class DefaultHolder {
+		private static final TranscoderService INSTANCE = new TranscoderService();
+	}
+
+	/**
+	 * The locator, null to use {@link Encoder#getDefaultLocator()}.
+	 */
+	private final FFMPEGLocator locator;
+	private final ProbeCache cache;
+	private final ProcessSlots slots;
+	private final ExecutorService workers;
+	private final Executor publishers;
+	private final SharedStreams shared;
+
+	/**
+	 * Creates a service with the default locator, see
+	 * {@link Encoder#getDefaultLocator()}, the default process slots and a
+	 * worker per available processor.
+	 */
+	public TranscoderService() {
+		this(null, new ProbeCache(PROBE_CACHE_SIZE), ProcessSlots.getDefault(), Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * @param locator
+	 *            Locates the ffmpeg executable, null for the default locator.
+	 * @param cache
+	 *            The cache of probed files, or null.
+	 * @param slots
+	 *            Limits the number of ffmpeg processes, see
+	 *            {@link ProcessSlots}.
+	 * @param workers
+	 *            The number of jobs submitted with
+	 *            {@link #submit(File, File, Attributes)} that run at once.
+	 */
+	public TranscoderService(FFMPEGLocator locator, ProbeCache cache, ProcessSlots slots, int workers) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("The number of workers should be positive, not " + workers);
+		}
+		this.locator = locator;
+		this.cache = cache;
+		this.slots = slots;
+		this.workers = Executors.newFixedThreadPool(workers, daemons("Transcoder service"));
+		this.publishers = Executors.newCachedThreadPool(daemons("Stream publisher"));
+		this.shared = new SharedStreams(this, SharedStreams.DEFAULT_BUFFER_SIZE);
+	}
+
+	private static ThreadFactory daemons(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * @return The service used by the static methods of {@link Transcoder}
+	 *         and {@link Streamer}.
+	 */
+	public static TranscoderService getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+
+	/**
+	 * @return An encoder with the locator, cache and slots of this service.
+	 */
+	public Encoder getEncoder() {
+		return new Encoder(locator == null ? Encoder.getDefaultLocator() : locator, cache, slots);
+	}
+
+	/**
+	 * @return The encoders, decoders and formats of the ffmpeg binary of this
+	 *         service, or null if it could not be probed.
+	 */
+	public Capabilities getCapabilities() {
+		return getEncoder().getCapabilities();
+	}
+
+	/**
+	 * @return The cache of probed files, or null.
+	 */
+	public ProbeCache getProbeCache() {
+		return cache;
+	}
+
+	/**
+	 * @return The slots the ffmpeg processes of this service take.
+	 */
+	public ProcessSlots getProcessSlots() {
+		return slots;
+	}
+
+	/**
+	 * Transcodes audio in the background on the worker pool of the service,
+	 * see {@link #transcode(File, File, Attributes)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return The pending result, it fails with an {@link EncoderException}
+	 *         if the job fails.
+	 */
+	public Future<Void> submit(final File source, final File target, final Attributes targetEncoding) {
+		return workers.submit(new Callable<Void>() {
+			public Void call() throws EncoderException {
+				transcode(source, target, targetEncoding);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Stops accepting submitted jobs, queued and running jobs complete. The
+	 * other methods keep working.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+
+	/**
+	 * See {@link Transcoder#transcode(File, File, Attributes)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public void transcode(final File source, final File target, final Attributes targetEncoding)
+			throws EncoderException {
+		// sanity checks
+		if (!source.exists()) {
+			throw new IllegalArgumentException(source + " does not exist. It should"
+					+ " be a readable audiofile.");
+		}
+		if (source.isDirectory()) {
+			throw new IllegalArgumentException(source + " is a directory. It should "
+					+ "be a readable audiofile.");
+		}
+		if (!source.canRead()) {
+			throw new IllegalArgumentException(source
+					+ " can not be read, check file permissions. It should be a readable audiofile.");
+		}
+
+		if (targetEncoding.getBackend() != Backend.FFMPEG && PCMConverter.isSupported(source, targetEncoding)) {
+			LOG.info("Try to convert " + source + " to " + target + " in-process");
+			PCMConverter.convert(source, target, targetEncoding);
+			LOG.info("Successfully converted " + source + " to " + target);
+			return;
+		} else if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Transcoding " + source + " to " + targetEncoding
+					+ " is not supported in-process.");
+		}
+
+		LOG.info("Try to transcode " + source + " to " + target);
+		getEncoder().encode(source, target, targetEncoding);
+		LOG.info("Successfully transcoded " + source + " to " + target);
+	}
+
+	/**
+	 * See {@link Transcoder#transcodeParallel(File, File, Attributes, int)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param parts
+	 *            The maximum number of ffmpeg processes.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public void transcodeParallel(final File source, final File target, final Attributes targetEncoding,
+			final int parts) throws EncoderException {
+		if (!source.isFile() || !source.canRead()) {
+			throw new IllegalArgumentException(source + " should be a readable audiofile.");
+		}
+		if (targetEncoding.getBackend() != Backend.FFMPEG && PCMConverter.isSupported(source, targetEncoding)) {
+			LOG.info("Try to convert " + source + " to " + target + " in-process");
+			PCMConverter.convert(source, target, targetEncoding);
+		} else if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Transcoding " + source + " to " + targetEncoding
+					+ " is not supported in-process.");
+		} else {
+			LOG.info("Try to transcode " + source + " to " + target + " with up to " + parts + " processes");
+			getEncoder().encodeParallel(source, target, targetEncoding, parts);
+		}
+		LOG.info("Successfully transcoded " + source + " to " + target);
+	}
+
+	/**
+	 * See {@link Transcoder#transcodeAnalyzed(File, File, Attributes, int)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param buckets
+	 *            The number of buckets of the waveform overview.
+	 * @return The loudness, true peak and waveform of the transcoded audio.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public Analysis transcodeAnalyzed(final File source, final File target, final Attributes targetEncoding,
+			final int buckets) throws EncoderException {
+		if (!source.isFile() || !source.canRead()) {
+			throw new IllegalArgumentException(source + " should be a readable audiofile.");
+		}
+		if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Measuring the loudness of " + source + " is not supported in-process.");
+		}
+		LOG.info("Try to transcode and measure " + source + " to " + target);
+		Analysis analysis = getEncoder().encodeAnalyzed(source, target, targetEncoding, buckets);
+		LOG.info("Successfully transcoded " + source + " to " + target);
+		return analysis;
+	}
+
+	/**
+	 * See {@link Transcoder#transcode(ReadableByteChannel, File, Attributes)}.
+	 * 
+	 * @param source
+	 *            The encoded source audio, it is read until its end but not
+	 *            closed.
+	 * @param target
+	 *            The target audio file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public void transcode(final ReadableByteChannel source, final File target, final Attributes targetEncoding)
+			throws EncoderException {
+		if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Transcoding a stream to " + targetEncoding
+					+ " is not supported in-process.");
+		}
+		LOG.info("Try to transcode a stream to " + target);
+		getEncoder().encode(source, target, targetEncoding);
+		LOG.info("Successfully transcoded a stream to " + target);
+	}
+
+	/**
+	 * See {@link Transcoder#encodeTo(String, Attributes, OutputStream)}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param out
+	 *            The stream to write the encoded audio to, it is flushed but
+	 *            not closed.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public void encodeTo(final String source, final Attributes targetEncoding, final OutputStream out)
+			throws EncoderException {
+		encodeTo(source, targetEncoding, out, null);
+	}
+
+	/**
+	 * See {@link Transcoder#encodeTo(String, Attributes, WritableByteChannel)}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param out
+	 *            The channel to write the encoded audio to, it is not closed.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public void encodeTo(final String source, final Attributes targetEncoding, final WritableByteChannel out)
+			throws EncoderException {
+		encodeTo(source, targetEncoding, null, out);
+	}
+
+	private void encodeTo(final String source, final Attributes targetEncoding, final OutputStream stream,
+			final WritableByteChannel channel) throws EncoderException {
+		final File file = new File(source);
+		if (targetEncoding.getBackend() != Backend.FFMPEG && PCMConverter.isSupported(file, targetEncoding)) {
+			try {
+				PCMConverter.convert(file, channel == null ? Channels.newChannel(stream) : channel, targetEncoding);
+				if (stream != null) {
+					stream.flush();
+				}
+			} catch (IOException e) {
+				throw new EncoderException(e);
+			}
+			return;
+		} else if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Transcoding " + source + " to " + targetEncoding
+					+ " is not supported in-process.");
+		}
+		if (channel == null) {
+			getEncoder().encodeTo(source, targetEncoding, stream);
+		} else {
+			getEncoder().encodeTo(source, targetEncoding, channel);
+		}
+	}
+
+	/**
+	 * See {@link Transcoder#transcode(File, Map)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param targets
+	 *            The encoding of each target file.
+	 * @return The result of each target, in the order of the map.
+	 * @throws EncoderException
+	 *             If the source can not be decoded.
+	 */
+	public Map<File, OutputResult> transcode(final File source, final Map<File, Attributes> targets)
+			throws EncoderException {
+		if (!source.isFile() || !source.canRead()) {
+			throw new IllegalArgumentException(source + " should be a readable audiofile.");
+		}
+		Map<File, OutputResult> results = new LinkedHashMap<File, OutputResult>();
+		Map<File, Attributes> encoderTargets = new LinkedHashMap<File, Attributes>();
+		for (Map.Entry<File, Attributes> entry : targets.entrySet()) {
+			File target = entry.getKey();
+			Attributes attributes = entry.getValue();
+			if (attributes.getBackend() != Backend.FFMPEG && PCMConverter.isSupported(source, attributes)) {
+				EncoderException error = null;
+				try {
+					PCMConverter.convert(source, target, attributes);
+				} catch (EncoderException e) {
+					error = e;
+				}
+				results.put(target, new OutputResult(target, attributes, error));
+			} else if (attributes.getBackend() == Backend.JAVA) {
+				results.put(target, new OutputResult(target, attributes, new EncoderException("Transcoding "
+						+ source + " to " + attributes + " is not supported in-process.")));
+			} else {
+				encoderTargets.put(target, attributes);
+			}
+		}
+		if (!encoderTargets.isEmpty()) {
+			LOG.info("Try to transcode " + source + " to " + encoderTargets.size() + " targets");
+			results.putAll(getEncoder().encode(source, encoderTargets));
+		}
+		// keep the order of the request
+		Map<File, OutputResult> ordered = new LinkedHashMap<File, OutputResult>();
+		for (File target : targets.keySet()) {
+			ordered.put(target, results.get(target));
+			if (!results.get(target).isSuccessful()) {
+				LOG.warning("Transcoding " + source + " to " + target + " failed: "
+						+ results.get(target).getError().getMessage());
+			}
+		}
+		return ordered;
+	}
+
+	/**
+	 * See {@link Transcoder#extract(File, List, List, Attributes)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param excerpts
+	 *            The excerpts, sorted by start.
+	 * @param targets
+	 *            A target file for each excerpt.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public void extract(final File source, final List<Excerpt> excerpts, final List<File> targets,
+			final Attributes targetEncoding) throws EncoderException {
+		if (!source.isFile() || !source.canRead()) {
+			throw new IllegalArgumentException(source + " should be a readable audiofile.");
+		}
+		if (targetEncoding.getBackend() != Backend.FFMPEG && PCMConverter.isSupported(source, targetEncoding)) {
+			LOG.info("Try to extract " + excerpts.size() + " excerpts from " + source + " in-process");
+			PCMConverter.extract(source, excerpts, targets, targetEncoding);
+		} else if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Extracting excerpts from " + source + " as " + targetEncoding
+					+ " is not supported in-process.");
+		} else {
+			LOG.info("Try to extract " + excerpts.size() + " excerpts from " + source);
+			getEncoder().extract(source, excerpts, targets, targetEncoding);
+		}
+		LOG.info("Successfully extracted " + excerpts.size() + " excerpts from " + source);
+	}
+
+	/**
+	 * See {@link Transcoder#segment(File, File, Attributes, long, long)}.
+	 * 
+	 * @param source
+	 *            The source audio file.
+	 * @param directory
+	 *            The directory to write the segments and the manifest to.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters of the segments.
+	 * @param segmentDuration
+	 *            The duration of a segment in microseconds.
+	 * @param overlap
+	 *            The duration a segment shares with the next in microseconds.
+	 * @return The segments, in order.
+	 * @throws EncoderException
+	 *             If something goes wrong in the encoding process.
+	 */
+	public List<Segment> segment(final File source, final File directory, final Attributes targetEncoding,
+			final long segmentDuration, final long overlap) throws EncoderException {
+		if (!source.isFile() || !source.canRead()) {
+			throw new IllegalArgumentException(source + " should be a readable audiofile.");
+		}
+		if (segmentDuration <= 0 || overlap < 0) {
+			throw new IllegalArgumentException("Segments need a positive duration and overlap, not "
+					+ segmentDuration + " and " + overlap);
+		}
+		List<Segment> segments;
+		if (targetEncoding.getBackend() != Backend.FFMPEG && PCMConverter.isSupported(source, targetEncoding)) {
+			LOG.info("Try to segment " + source + " in-process");
+			segments = split(PCMConverter.stream(source, targetEncoding), directory, segmentDuration, overlap);
+		} else if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Segmenting " + source + " as " + targetEncoding
+					+ " is not supported in-process.");
+		} else if (overlap == 0) {
+			LOG.info("Try to segment " + source);
+			segments = getEncoder().segment(source, directory, targetEncoding, segmentDuration);
+		} else if ("wav".equalsIgnoreCase(targetEncoding.getFormat())) {
+			LOG.info("Try to segment " + source + " with overlap");
+			segments = split(getEncoder().stream(source.getAbsolutePath(), targetEncoding), directory,
+					segmentDuration, overlap);
+		} else {
+			throw new IllegalArgumentException("Overlapping segments can only be written in the wav format, not "
+					+ targetEncoding.getFormat());
+		}
+		writeManifest(segments, new File(directory, Transcoder.SEGMENT_MANIFEST));
+		LOG.info("Successfully wrote " + segments.size() + " segments of " + source);
+		return segments;
+	}
+
+	/**
+	 * Cuts a decoded stream into WAV segments.
+	 */
+	private static List<Segment> split(AudioInputStream stream, File directory, long segmentDuration, long overlap)
+			throws EncoderException {
+		int rate = (int) stream.getFormat().getSampleRate();
+		try {
+			return WavSegmenter.split(stream, directory, "segment", Excerpt.ofTime(0, segmentDuration)
+					.getDurationSamples(rate), overlap == 0 ? 0 : Excerpt.ofTime(0, overlap).getDurationSamples(rate));
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} finally {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				LOG.warning("Could not close the decoded stream: " + e.getMessage());
+			}
+		}
+	}
+
+	private static void writeManifest(List<Segment> segments, File manifest) throws EncoderException {
+		StringBuilder lines = new StringBuilder();
+		for (Segment segment : segments) {
+			lines.append(segment.toManifestLine()).append('\n');
+		}
+		try {
+			Files.write(manifest.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		}
+	}
+
+	/**
+	 * See {@link Transcoder#getInfo(String)}, repeated probes of an unchanged
+	 * file are answered from the cache of the service.
+	 * 
+	 * @param file
+	 *            the file to get the info for
+	 * @return the info for the file, null if it could not be probed.
+	 */
+	public Attributes getInfo(final String file) {
+		try {
+			return getEncoder().getInfo(new File(file));
+		} catch (final InputFormatException e) {
+			LOG.severe("Unknown input file format: " + file);
+		} catch (final EncoderException e) {
+			LOG.warning("Could not get information about:" + file);
+		}
+		return null;
+	}
+
+	/**
+	 * See {@link Streamer#stream(String, Attributes)}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public AudioInputStream stream(final String source, final Attributes targetEncoding) throws EncoderException {
+		final File file = new File(source);
+		if (targetEncoding.getBackend() != Backend.FFMPEG && PCMConverter.isSupported(file, targetEncoding)) {
+			return PCMConverter.stream(file, targetEncoding);
+		} else if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Streaming " + source + " as " + targetEncoding
+					+ " is not supported in-process.");
+		}
+		return getEncoder().stream(source, targetEncoding);
+	}
+
+	/**
+	 * See {@link Streamer#streamAnalyzed(String, Attributes, int, AnalysisListener)}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param buckets
+	 *            The number of buckets of the waveform overview.
+	 * @param listener
+	 *            Receives the measurements at the end of the stream.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public AudioInputStream streamAnalyzed(final String source, final Attributes targetEncoding, final int buckets,
+			final AnalysisListener listener) throws EncoderException {
+		if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Measuring the loudness of " + source + " is not supported in-process.");
+		}
+		return getEncoder().streamAnalyzed(source, targetEncoding, buckets, listener);
+	}
+
+	/**
+	 * See {@link Streamer#follow(String, Attributes, long)}.
+	 * 
+	 * @param source
+	 *            The path to the growing file.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param idleTimeout
+	 *            The stream ends when the file did not grow for this number
+	 *            of milliseconds, 0 or less to keep reading until the stream
+	 *            is closed.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If the file can not be followed or read.
+	 */
+	public AudioInputStream follow(final String source, final Attributes targetEncoding, final long idleTimeout)
+			throws EncoderException {
+		final File file = new File(source);
+		if (targetEncoding.getBackend() == Backend.FFMPEG || !PCMConverter.isFollowSupported(file, targetEncoding)) {
+			throw new EncoderException("Following " + source + " as " + targetEncoding
+					+ " is only supported in-process, for PCM WAV and FLAC files.");
+		}
+		return PCMConverter.follow(file, targetEncoding, idleTimeout);
+	}
+
+	/**
+	 * See {@link Streamer#stream(String, Attributes, File, Attributes)}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters of the stream.
+	 * @param target
+	 *            The file to write to.
+	 * @param fileEncoding
+	 *            A description of the encoding parameters of the file.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public AudioInputStream stream(final String source, final Attributes targetEncoding, final File target,
+			final Attributes fileEncoding) throws EncoderException {
+		if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Streaming " + source + " to " + target + " is not supported in-process.");
+		}
+		return getEncoder().tee(source, targetEncoding, target, fileEncoding);
+	}
+
+	/**
+	 * See {@link Streamer#publish(String, Attributes)}, the reads run on a
+	 * cached thread pool of the service, with a thread per stream that has
+	 * outstanding demand. The decoders start without waiting for a process
+	 * slot, see {@link ProcessSlots#open(Priority)}, so any number of
+	 * published streams can be open at once.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A publisher for a single subscriber.
+	 */
+	public Flow.Publisher<ByteBuffer> publish(final String source, final Attributes targetEncoding) {
+		return new StreamPublisher(this, source, targetEncoding, publishers);
+	}
+
+	/**
+	 * See {@link Streamer#streamShared(String, Attributes, SlowReaderPolicy)},
+	 * the decoders are shared between the readers of this service.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @param policy
+	 *            Whether this reader drops audio or holds back the decoder if
+	 *            it falls behind.
+	 * @return A stream with PCM samples, close it to detach.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public AudioInputStream streamShared(final String source, final Attributes targetEncoding,
+			final SlowReaderPolicy policy) throws EncoderException {
+		return shared.subscribe(source, targetEncoding, policy);
+	}
+
+	/**
+	 * See {@link Streamer#streamPlaylist(Playlist, Attributes, PlaylistListener)}.
+	 * 
+	 * @param playlist
+	 *            The items.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters, with a sampling
+	 *            rate and number of channels.
+	 * @param listener
+	 *            Is notified at the start of each item with its offset in the
+	 *            stream, may be null.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public AudioInputStream streamPlaylist(final Playlist playlist, final Attributes targetEncoding,
+			final PlaylistListener listener) throws EncoderException {
+		if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Streaming a playlist is not supported in-process.");
+		}
+		return getEncoder().stream(playlist, targetEncoding, listener);
+	}
+
+	/**
+	 * See {@link Streamer#stream(ReadableByteChannel, Attributes)}.
+	 * 
+	 * @param source
+	 *            The encoded source audio, it is read until its end but not
+	 *            closed.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters.
+	 * @return A stream with PCM samples, closing it stops the decoder.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public AudioInputStream stream(final ReadableByteChannel source, final Attributes targetEncoding)
+			throws EncoderException {
+		if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Streaming a stream as " + targetEncoding + " is not supported in-process.");
+		}
+		return getEncoder().stream(source, targetEncoding);
+	}
+
+	/**
+	 * See {@link Streamer#extract(String, List, Attributes)}.
+	 * 
+	 * @param source
+	 *            The path to the source audio file.
+	 * @param excerpts
+	 *            The excerpts, sorted by start.
+	 * @param targetEncoding
+	 *            A description of the encoding parameters, the format should
+	 *            be wav.
+	 * @return A stream over an in-memory PCM buffer for each excerpt.
+	 * @throws EncoderException
+	 *             If something goes wrong in the decoding process.
+	 */
+	public List<AudioInputStream> extract(final String source, final List<Excerpt> excerpts,
+			final Attributes targetEncoding) throws EncoderException {
+		if (!"wav".equalsIgnoreCase(targetEncoding.getFormat())) {
+			throw new IllegalArgumentException("Excerpts can only be decoded to the wav format, not "
+					+ targetEncoding.getFormat());
+		}
+		final File file = new File(source);
+		if (targetEncoding.getBackend() != Backend.FFMPEG && PCMConverter.isSupported(file, targetEncoding)) {
+			return PCMConverter.extract(file, excerpts, targetEncoding);
+		} else if (targetEncoding.getBackend() == Backend.JAVA) {
+			throw new EncoderException("Decoding excerpts of " + source + " as " + targetEncoding
+					+ " is not supported in-process.");
+		}
+		List<File> targets = new ArrayList<File>(excerpts.size());
+		try {
+			for (int i = 0; i < excerpts.size(); i++) {
+				File target = File.createTempFile("excerpt" + i + "_", ".wav");
+				targets.add(target);
+			}
+			getEncoder().extract(file, excerpts, targets, targetEncoding);
+			List<AudioInputStream> streams = new ArrayList<AudioInputStream>(excerpts.size());
+			for (File target : targets) {
+				AudioInputStream in = AudioSystem.getAudioInputStream(target);
+				try {
+					byte[] samples = readFully(in);
+					streams.add(new AudioInputStream(new ByteArrayInputStream(samples), in.getFormat(),
+							samples.length / in.getFormat().getFrameSize()));
+				} finally {
+					in.close();
+				}
+			}
+			return streams;
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} catch (UnsupportedAudioFileException e) {
+			throw new EncoderException(e);
+		} finally {
+			for (File target : targets) {
+				target.delete();
+			}
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
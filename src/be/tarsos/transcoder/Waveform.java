@@ -0,0 +1,180 @@
+package be.tarsos.transcoder;
+
+import java.util.Arrays;
+
+/**
+ * A compact overview of audio for drawing: the minimum and maximum sample of
+ * each of a fixed number of equally long buckets. Samples are between -1 and
+ * 1, the extremes are taken over all channels.
+ *
+ * @author Joren Six
+ */
+public final class Waveform {
+
+	private final float[] minimum;
+	private final float[] maximum;
+
+	/**
+	 * @param minimum
+	 *            The minimum sample of each bucket.
+	 * @param maximum
+	 *            The maximum sample of each bucket.
+	 */
+	public Waveform(float[] minimum, float[] maximum) {
+		if (minimum.length != maximum.length) {
+			throw new IllegalArgumentException("The minimum and maximum should have the same number of buckets");
+		}
+		this.minimum = minimum.clone();
+		this.maximum = maximum.clone();
+	}
+
+	/**
+	 * @return The number of buckets.
+	 */
+	public int getBuckets() {
+		return minimum.length;
+	}
+
+	/**
+	 * @return A copy of the minimum sample of each bucket.
+	 */
+	public float[] getMinimum() {
+		return minimum.clone();
+	}
+
+	/**
+	 * @return A copy of the maximum sample of each bucket.
+	 */
+	public float[] getMaximum() {
+		return maximum.clone();
+	}
+
+	/**
+	 * @param bucket
+	 *            The index of a bucket.
+	 * @return The minimum sample of the bucket.
+	 */
+	public float getMinimum(int bucket) {
+		return minimum[bucket];
+	}
+
+	/**
+	 * @param bucket
+	 *            The index of a bucket.
+	 * @return The maximum sample of the bucket.
+	 */
+	public float getMaximum(int bucket) {
+		return maximum[bucket];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s buckets=%d, min=%s, max=%s", getClass().getName(), minimum.length,
+				Arrays.toString(minimum), Arrays.toString(maximum));
+	}
+
+	/**
+	 * Builds a waveform from samples of unknown total length. The extremes of
+	 * blocks of samples are kept, when there are more than sixteen blocks per
+	 * bucket neighbouring blocks are merged, so the memory use depends on the
+	 * number of buckets and not on the length of the audio. A bucket holds the
+	 * extremes of the blocks that overlap it, so it may include up to an
+	 * eighth of its neighbours but never misses a peak. A builder is not
+	 * thread safe.
+	 */
+	public static final class Builder {
+		private static final int BLOCKS_PER_BUCKET = 16;
+
+		private final int buckets;
+		private final float[] blockMinimum;
+		private final float[] blockMaximum;
+		private int blocks;
+		private long blockSize = 1;
+		private long count;
+
+		/**
+		 * @param buckets
+		 *            The number of buckets of the waveform.
+		 */
+		public Builder(int buckets) {
+			if (buckets < 1) {
+				throw new IllegalArgumentException("A waveform needs at least one bucket, not " + buckets);
+			}
+			this.buckets = buckets;
+			blockMinimum = new float[buckets * BLOCKS_PER_BUCKET];
+			blockMaximum = new float[buckets * BLOCKS_PER_BUCKET];
+		}
+
+		/**
+		 * Adds the next sample, interleaved samples of all channels can be
+		 * added in order.
+		 *
+		 * @param sample
+		 *            A sample between -1 and 1.
+		 */
+		public void add(float sample) {
+			int block = (int) (count / blockSize);
+			if (block == blockMinimum.length) {
+				merge();
+				block = (int) (count / blockSize);
+			}
+			if (block == blocks) {
+				blockMinimum[block] = sample;
+				blockMaximum[block] = sample;
+				blocks++;
+			} else if (sample < blockMinimum[block]) {
+				blockMinimum[block] = sample;
+			} else if (sample > blockMaximum[block]) {
+				blockMaximum[block] = sample;
+			}
+			count++;
+		}
+
+		/**
+		 * Merges pairs of blocks, doubling the block size.
+		 */
+		private void merge() {
+			int merged = 0;
+			for (int i = 0; i < blocks; i += 2) {
+				float min = blockMinimum[i];
+				float max = blockMaximum[i];
+				if (i + 1 < blocks) {
+					min = Math.min(min, blockMinimum[i + 1]);
+					max = Math.max(max, blockMaximum[i + 1]);
+				}
+				blockMinimum[merged] = min;
+				blockMaximum[merged] = max;
+				merged++;
+			}
+			blocks = merged;
+			blockSize *= 2;
+		}
+
+		/**
+		 * @return The waveform of the samples added so far, with zeros if no
+		 *         samples were added.
+		 */
+		public Waveform build() {
+			float[] minimum = new float[buckets];
+			float[] maximum = new float[buckets];
+			if (blocks > 0) {
+				for (int bucket = 0; bucket < buckets; bucket++) {
+					// the blocks that overlap the samples of the bucket, short
+					// audio repeats samples over several buckets
+					int first = (int) (bucket * count / buckets / blockSize);
+					long endSample = (bucket + 1) * count / buckets;
+					int end = Math.max(first + 1, (int) ((endSample + blockSize - 1) / blockSize));
+					float min = blockMinimum[first];
+					float max = blockMaximum[first];
+					for (int block = first + 1; block < end; block++) {
+						min = Math.min(min, blockMinimum[block]);
+						max = Math.max(max, blockMaximum[block]);
+					}
+					minimum[bucket] = min;
+					maximum[bucket] = max;
+				}
+			}
+			return new Waveform(minimum, maximum);
+		}
+	}
+}
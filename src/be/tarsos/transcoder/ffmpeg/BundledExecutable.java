@@ -0,0 +1,266 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.logging.Logger;
+
+/**
+ * An executable bundled with the library, extracted once to a cache on disk
+ * that is shared by all JVMs on the host. The cache directory is named after
+ * the size and time of the bundled resource, so a new release extracts to a
+ * new directory. Extraction writes a temporary file that is moved in place
+ * atomically, a crashed or concurrent extraction never leaves a partial
+ * executable behind. Next to the executable a manifest keeps its SHA-256
+ * checksum, size and modification time.
+ * <p>
+ * Validation is lazy, on the first call of {@link #getPath()}: an executable
+ * whose size and modification time match the manifest is used as is. Only a
+ * changed file is hashed, and extracted again if the checksum differs.
+ * Permissions are set with {@link Files#setPosixFilePermissions}, without
+ * starting <code>chmod</code>.
+ * 
+ * @author Joren Six
+ */
+final class BundledExecutable {
+
+	private static final Logger LOG = Logger.getLogger(BundledExecutable.class.getName());
+
+	private static final Set<PosixFilePermission> EXECUTABLE = PosixFilePermissions.fromString("rwxr-xr-x");
+
+	private final String resource;
+	private final Path executable;
+	private final Path manifest;
+	private volatile boolean validated;
+
+	/**
+	 * @param resource
+	 *            The name of the bundled executable.
+	 * @param name
+	 *            The file name of the extracted executable.
+	 */
+	BundledExecutable(String resource, String name) {
+		this.resource = resource;
+		File cache = new File(System.getProperty("java.io.tmpdir"), "tarsos-ffmpeg");
+		File directory = new File(cache, version(resource));
+		this.executable = new File(directory, name).toPath();
+		this.manifest = new File(directory, name + ".sha256").toPath();
+	}
+
+	/**
+	 * Names a release of a bundled resource by its size and modification
+	 * time, read from the jar directory without reading the resource.
+	 */
+	private static String version(String resource) {
+		URL url = FFMPEGLocator.class.getResource(resource);
+		if (url == null) {
+			return "missing";
+		}
+		long size = -1;
+		long modified = -1;
+		try {
+			if ("file".equals(url.getProtocol())) {
+				File file = new File(url.toURI());
+				size = file.length();
+				modified = file.lastModified();
+			} else {
+				URLConnection connection = url.openConnection();
+				if (connection instanceof JarURLConnection) {
+					JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+					size = entry.getSize();
+					modified = entry.getTime();
+				}
+			}
+		} catch (IOException e) {
+			LOG.fine("Could not read the size of " + resource + ": " + e.getMessage());
+		} catch (URISyntaxException e) {
+			LOG.fine("Could not read the size of " + resource + ": " + e.getMessage());
+		}
+		return Long.toHexString(size) + "-" + Long.toHexString(modified);
+	}
+
+	/**
+	 * @return The path of the extracted executable, it is extracted or
+	 *         validated on the first call.
+	 */
+	String getPath() {
+		if (!validated) {
+			synchronized (this) {
+				if (!validated) {
+					try {
+						validate();
+					} catch (IOException e) {
+						LOG.severe("Could not extract " + resource + " to " + executable + ": " + e.getMessage());
+					}
+					// a failed extraction fails when the executable is started
+					validated = true;
+				}
+			}
+		}
+		return executable.toString();
+	}
+
+	private void validate() throws IOException {
+		String[] expected = readManifest(manifest);
+		if (expected != null && Files.isRegularFile(executable)) {
+			long size = Files.size(executable);
+			long modified = Files.getLastModifiedTime(executable).toMillis();
+			if (expected[1].equals(Long.toString(size)) && expected[2].equals(Long.toString(modified))) {
+				makeExecutable(executable);
+				return;
+			}
+			InputStream in = Files.newInputStream(executable);
+			try {
+				if (expected[0].equals(checksum(in))) {
+					makeExecutable(executable);
+					writeManifest(expected[0]);
+					return;
+				}
+			} finally {
+				in.close();
+			}
+			LOG.warning("The checksum of " + executable + " does not match, extracting it again");
+		}
+		extract();
+	}
+
+	/**
+	 * Copies the resource to a temporary file and moves it in place.
+	 */
+	private void extract() throws IOException {
+		InputStream in = FFMPEGLocator.class.getResourceAsStream(resource);
+		if (in == null) {
+			throw new IOException("The executable " + resource + " is not bundled");
+		}
+		Files.createDirectories(executable.getParent());
+		Path temp = Files.createTempFile(executable.getParent(), executable.getFileName().toString(), ".part");
+		String checksum;
+		try {
+			try {
+				checksum = checksum(in, temp);
+			} finally {
+				in.close();
+			}
+			makeExecutable(temp);
+			move(temp, executable);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		writeManifest(checksum);
+		LOG.info("Extracted " + resource + " to " + executable);
+	}
+
+	/**
+	 * Returns the SHA-256 checksum of an executable. The checksum in the
+	 * manifest of an extracted executable is used if its size and time still
+	 * match, other files are hashed.
+	 * 
+	 * @param file
+	 *            The executable.
+	 * @return The hexadecimal checksum.
+	 */
+	static String checksum(Path file) throws IOException {
+		String[] expected = readManifest(file.resolveSibling(file.getFileName() + ".sha256"));
+		if (expected != null && expected[1].equals(Long.toString(Files.size(file)))
+				&& expected[2].equals(Long.toString(Files.getLastModifiedTime(file).toMillis()))) {
+			return expected[0];
+		}
+		InputStream in = Files.newInputStream(file);
+		try {
+			return checksum(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String[] readManifest(Path manifest) throws IOException {
+		if (!Files.isRegularFile(manifest)) {
+			return null;
+		}
+		List<String> lines = Files.readAllLines(manifest, StandardCharsets.US_ASCII);
+		String[] fields = lines.isEmpty() ? new String[0] : lines.get(0).trim().split(" ");
+		return fields.length == 3 ? fields : null;
+	}
+
+	private void writeManifest(String checksum) throws IOException {
+		String line = checksum + " " + Files.size(executable) + " "
+				+ Files.getLastModifiedTime(executable).toMillis() + "\n";
+		Path temp = Files.createTempFile(manifest.getParent(), manifest.getFileName().toString(), ".part");
+		try {
+			Files.write(temp, line.getBytes(StandardCharsets.US_ASCII));
+			move(temp, manifest);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void makeExecutable(Path file) throws IOException {
+		if (Files.isExecutable(file)) {
+			return;
+		}
+		try {
+			Files.setPosixFilePermissions(file, EXECUTABLE);
+		} catch (UnsupportedOperationException e) {
+			// not a POSIX file system, executable by extension
+			file.toFile().setExecutable(true, false);
+		}
+	}
+
+	/**
+	 * @return The hexadecimal SHA-256 checksum of a stream.
+	 */
+	private static String checksum(InputStream in) throws IOException {
+		return checksum(in, null);
+	}
+
+	/**
+	 * Copies a stream to a file, if one is given, and returns its checksum.
+	 */
+	private static String checksum(InputStream in, Path copy) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		DigestInputStream digested = new DigestInputStream(in, digest);
+		if (copy == null) {
+			byte[] buffer = new byte[64 * 1024];
+			while (digested.read(buffer) != -1) {
+				// only the digest is needed
+			}
+		} else {
+			Files.copy(digested, copy, StandardCopyOption.REPLACE_EXISTING);
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b & 0xFF));
+		}
+		return hex.toString();
+	}
+}
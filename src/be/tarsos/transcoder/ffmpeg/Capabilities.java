@@ -0,0 +1,392 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import be.tarsos.transcoder.Attributes;
+
+/**
+ * The encoders, decoders and formats of an ffmpeg binary, with its version.
+ * They are probed once per binary with <code>-version</code>,
+ * <code>-encoders</code>, <code>-decoders</code> and <code>-formats</code>
+ * and cached on disk, in <code>tarsos-ffmpeg/capabilities</code> in the
+ * temporary directory, under the SHA-256 checksum of the binary. Other JVMs
+ * and later runs with the same binary read the cache instead of starting
+ * ffmpeg four times.
+ * <p>
+ * The {@link Encoder} checks attributes against the capabilities before it
+ * starts a process, so a codec or format the binary lacks fails fast with an
+ * {@link EncoderException}.
+ *
+ * @author Joren Six
+ */
+public final class Capabilities {
+
+	private static final Logger LOG = Logger.getLogger(Capabilities.class.getName());
+
+	/**
+	 * Probed capabilities by executable path, size and modification time.
+	 */
+	private static final Map<String, Capabilities> PROBED = new HashMap<String, Capabilities>();
+
+	private static final String VERSION = "version";
+	private static final String ENCODERS = "encoders";
+	private static final String DECODERS = "decoders";
+	private static final String MUXERS = "muxers";
+	private static final String DEMUXERS = "demuxers";
+
+	private final String version;
+	private final Set<String> encoders;
+	private final Set<String> decoders;
+	private final Set<String> muxers;
+	private final Set<String> demuxers;
+
+	/**
+	 * @param version
+	 *            The version of ffmpeg, e.g. "6.0".
+	 * @param encoders
+	 *            The names of the encoders, e.g. "libmp3lame".
+	 * @param decoders
+	 *            The names of the decoders.
+	 * @param muxers
+	 *            The names of the output formats, e.g. "mp3".
+	 * @param demuxers
+	 *            The names of the input formats.
+	 */
+	public Capabilities(String version, Set<String> encoders, Set<String> decoders, Set<String> muxers,
+			Set<String> demuxers) {
+		this.version = version;
+		this.encoders = Collections.unmodifiableSet(new TreeSet<String>(encoders));
+		this.decoders = Collections.unmodifiableSet(new TreeSet<String>(decoders));
+		this.muxers = Collections.unmodifiableSet(new TreeSet<String>(muxers));
+		this.demuxers = Collections.unmodifiableSet(new TreeSet<String>(demuxers));
+	}
+
+	/**
+	 * Returns the capabilities of the ffmpeg binary of a locator. The binary
+	 * is probed on the first call, or read from the disk cache.
+	 *
+	 * @param locator
+	 *            Locates the ffmpeg binary.
+	 * @return The capabilities, or null if the binary could not be probed.
+	 */
+	public static Capabilities of(FFMPEGLocator locator) {
+		String path = locator.getFFMPEGExecutablePath();
+		if (path == null) {
+			return null;
+		}
+		File executable = new File(path);
+		String key = path + " " + executable.length() + " " + executable.lastModified();
+		synchronized (PROBED) {
+			if (PROBED.containsKey(key)) {
+				return PROBED.get(key);
+			}
+		}
+		Capabilities capabilities = load(locator, executable);
+		synchronized (PROBED) {
+			PROBED.put(key, capabilities);
+		}
+		return capabilities;
+	}
+
+	/**
+	 * Reads the capabilities from the disk cache, or probes and caches them.
+	 */
+	private static Capabilities load(FFMPEGLocator locator, File executable) {
+		Path cached = null;
+		if (executable.isFile()) {
+			try {
+				String checksum = BundledExecutable.checksum(executable.toPath());
+				File directory = new File(new File(System.getProperty("java.io.tmpdir"), "tarsos-ffmpeg"),
+						"capabilities");
+				cached = new File(directory, checksum).toPath();
+				if (Files.isRegularFile(cached)) {
+					return read(cached);
+				}
+			} catch (IOException e) {
+				LOG.fine("Could not read the cached capabilities of " + executable + ": " + e.getMessage());
+			}
+		}
+		Capabilities capabilities;
+		try {
+			capabilities = probe(locator);
+		} catch (IOException e) {
+			LOG.warning("Could not probe the capabilities of " + executable + ": " + e.getMessage());
+			return null;
+		}
+		if (capabilities != null && cached != null) {
+			try {
+				capabilities.write(cached);
+			} catch (IOException e) {
+				LOG.fine("Could not cache the capabilities of " + executable + ": " + e.getMessage());
+			}
+		}
+		return capabilities;
+	}
+
+	private static Capabilities probe(FFMPEGLocator locator) throws IOException {
+		String version = parseVersion(run(locator, "-version"));
+		List<String> encoders = parseCodecs(run(locator, "-encoders"));
+		List<String> decoders = parseCodecs(run(locator, "-decoders"));
+		Set<String> muxers = new TreeSet<String>();
+		Set<String> demuxers = new TreeSet<String>();
+		boolean formats = parseFormats(run(locator, "-formats"), muxers, demuxers);
+		if (version == null || encoders == null || decoders == null || !formats) {
+			// not an ffmpeg binary this class understands
+			LOG.warning("Could not parse the capabilities of " + locator.getFFMPEGExecutablePath());
+			return null;
+		}
+		LOG.fine(String.format("ffmpeg %s: %d encoders, %d decoders, %d muxers, %d demuxers", version,
+				encoders.size(), decoders.size(), muxers.size(), demuxers.size()));
+		return new Capabilities(version, new TreeSet<String>(encoders), new TreeSet<String>(decoders), muxers,
+				demuxers);
+	}
+
+	private static String run(FFMPEGLocator locator, String option) throws IOException {
+		FFMPEGExecutor ffmpeg = locator.createExecutor();
+		ffmpeg.addArgument("-hide_banner");
+		ffmpeg.addArgument(option);
+		return ffmpeg.execute();
+	}
+
+	/**
+	 * Parses the first line of <code>ffmpeg -version</code>, e.g.
+	 * <code>ffmpeg version 6.0 Copyright (c) 2000-2023</code>.
+	 */
+	static String parseVersion(String out) {
+		for (String line : out.split("\r?\n")) {
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length > 2 && fields[0].equals("ffmpeg") && fields[1].equals(VERSION)) {
+				return fields[2];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the list of <code>ffmpeg -encoders</code> or
+	 * <code>-decoders</code>, a line like
+	 * <code> A....D libmp3lame libmp3lame MP3 (MPEG audio layer 3)</code>
+	 * after a line of dashes.
+	 *
+	 * @return The names, or null if the output is not a list of codecs.
+	 */
+	static List<String> parseCodecs(String out) {
+		List<String> names = null;
+		for (String line : out.split("\r?\n")) {
+			String[] fields = line.trim().split("\\s+");
+			if (names == null) {
+				if (fields[0].startsWith("------")) {
+					names = new ArrayList<String>();
+				}
+			} else if (fields.length > 1) {
+				names.add(fields[1]);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Parses the list of <code>ffmpeg -formats</code>, lines like
+	 * <code> DE mp3 MP3 (MPEG audio layer 3)</code> after a line of dashes.
+	 * D marks a demuxer, E a muxer. A line can name several formats separated
+	 * by commas.
+	 *
+	 * @return True if the output is a list of formats.
+	 */
+	static boolean parseFormats(String out, Set<String> muxers, Set<String> demuxers) {
+		boolean list = false;
+		for (String line : out.split("\r?\n")) {
+			String[] fields = line.trim().split("\\s+");
+			if (!list) {
+				list = fields[0].startsWith("--");
+			} else if (fields.length > 1) {
+				for (String name : fields[1].split(",")) {
+					if (fields[0].indexOf('D') >= 0) {
+						demuxers.add(name);
+					}
+					if (fields[0].indexOf('E') >= 0) {
+						muxers.add(name);
+					}
+				}
+			}
+		}
+		return list;
+	}
+
+	private static Capabilities read(Path file) throws IOException {
+		Map<String, List<String>> values = new HashMap<String, List<String>>();
+		for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String[] fields = line.trim().split(" ");
+			List<String> names = new ArrayList<String>();
+			for (int i = 1; i < fields.length; i++) {
+				names.add(fields[i]);
+			}
+			values.put(fields[0], names);
+		}
+		List<String> version = values.get(VERSION);
+		if (version == null || version.isEmpty() || !values.containsKey(ENCODERS)
+				|| !values.containsKey(DECODERS) || !values.containsKey(MUXERS) || !values.containsKey(DEMUXERS)) {
+			throw new IOException("Incomplete capabilities in " + file);
+		}
+		return new Capabilities(version.get(0), new TreeSet<String>(values.get(ENCODERS)), new TreeSet<String>(
+				values.get(DECODERS)), new TreeSet<String>(values.get(MUXERS)), new TreeSet<String>(
+				values.get(DEMUXERS)));
+	}
+
+	/**
+	 * Writes the capabilities to a temporary file and moves it in place, a
+	 * line per kind.
+	 */
+	private void write(Path file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		text.append(VERSION).append(' ').append(version).append('\n');
+		append(text, ENCODERS, encoders);
+		append(text, DECODERS, decoders);
+		append(text, MUXERS, muxers);
+		append(text, DEMUXERS, demuxers);
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".part");
+		try {
+			Files.write(temp, text.toString().getBytes(StandardCharsets.UTF_8));
+			try {
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void append(StringBuilder text, String kind, Set<String> names) {
+		text.append(kind);
+		for (String name : names) {
+			text.append(' ').append(name);
+		}
+		text.append('\n');
+	}
+
+	/**
+	 * Checks that the codec and format of attributes can be encoded.
+	 *
+	 * @param attributes
+	 *            The target encoding.
+	 * @throws EncoderException
+	 *             If the binary lacks the encoder or the muxer.
+	 */
+	public void check(Attributes attributes) throws EncoderException {
+		String codec = attributes.getCodec();
+		if (codec != null && !canEncode(codec)) {
+			throw new EncoderException(String.format("ffmpeg %s has no %s encoder for %s", version, codec,
+					attributes));
+		}
+		String format = attributes.getFormat();
+		if (format != null && !canMux(format)) {
+			throw new EncoderException(String.format("ffmpeg %s can not write the %s format for %s", version,
+					format, attributes));
+		}
+	}
+
+	/**
+	 * @param attributes
+	 *            A target encoding.
+	 * @return True if the binary has the encoder and the muxer of the
+	 *         attributes.
+	 */
+	public boolean isSupported(Attributes attributes) {
+		return (attributes.getCodec() == null || canEncode(attributes.getCodec()))
+				&& (attributes.getFormat() == null || canMux(attributes.getFormat()));
+	}
+
+	/**
+	 * @param codec
+	 *            The name of an encoder, e.g. "libvorbis". "copy" is always
+	 *            supported.
+	 * @return True if the binary has the encoder.
+	 */
+	public boolean canEncode(String codec) {
+		return codec.equals("copy") || encoders.contains(codec);
+	}
+
+	/**
+	 * @param codec
+	 *            The name of a decoder.
+	 * @return True if the binary has the decoder.
+	 */
+	public boolean canDecode(String codec) {
+		return decoders.contains(codec);
+	}
+
+	/**
+	 * @param format
+	 *            The name of a format, e.g. "ogg".
+	 * @return True if the binary can write the format.
+	 */
+	public boolean canMux(String format) {
+		return muxers.contains(format.toLowerCase());
+	}
+
+	/**
+	 * @param format
+	 *            The name of a format.
+	 * @return True if the binary can read the format.
+	 */
+	public boolean canDemux(String format) {
+		return demuxers.contains(format.toLowerCase());
+	}
+
+	/**
+	 * @return The version of ffmpeg, e.g. "6.0".
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return The names of the encoders.
+	 */
+	public Set<String> getEncoders() {
+		return encoders;
+	}
+
+	/**
+	 * @return The names of the decoders.
+	 */
+	public Set<String> getDecoders() {
+		return decoders;
+	}
+
+	/**
+	 * @return The names of the formats the binary can write.
+	 */
+	public Set<String> getMuxers() {
+		return muxers;
+	}
+
+	/**
+	 * @return The names of the formats the binary can read.
+	 */
+	public Set<String> getDemuxers() {
+		return demuxers;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (version=%s, encoders=%d, decoders=%d, muxers=%d, demuxers=%d)", getClass()
+				.getName(), version, encoders.size(), decoders.size(), muxers.size(), demuxers.size());
+	}
+}
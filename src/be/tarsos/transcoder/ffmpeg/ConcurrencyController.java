@@ -0,0 +1,144 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.util.logging.Logger;
+
+/**
+ * Decides how many ffmpeg processes may run at once. It climbs towards the
+ * number of processes with the highest throughput, in seconds of audio per
+ * second of wall time: after a step it keeps the direction while throughput
+ * improves, turns around when it drops and holds when it stays the same,
+ * unless cores are idle. When the system is overloaded, by CPU or I/O
+ * pressure or by a load average well above the number of cores, it backs off
+ * by a quarter.
+ *
+ * @author Joren Six
+ */
+public final class ConcurrencyController {
+
+	private static final Logger LOG = Logger.getLogger(ConcurrencyController.class.getName());
+
+	/**
+	 * The relative change in throughput that is considered a change, smaller
+	 * changes are noise.
+	 */
+	private static final double TOLERANCE = 0.05;
+
+	/**
+	 * The CPU pressure, in percent, above which the system is overloaded.
+	 */
+	private static final double CPU_PRESSURE_LIMIT = 40;
+
+	/**
+	 * The I/O pressure, in percent, above which the system is overloaded.
+	 */
+	private static final double IO_PRESSURE_LIMIT = 20;
+
+	/**
+	 * The load average per core above which the system is overloaded.
+	 */
+	private static final double LOAD_LIMIT = 2.0;
+
+	/**
+	 * The load average per core below which cores are considered idle.
+	 */
+	private static final double IDLE_LOAD = 0.7;
+
+	private final int maximum;
+	private final int cores;
+	private int limit;
+	private int direction = 1;
+	private double lastThroughput = -1;
+
+	/**
+	 * @param initial
+	 *            The number of processes to start with.
+	 * @param maximum
+	 *            The maximum number of processes.
+	 */
+	public ConcurrencyController(int initial, int maximum) {
+		this(initial, maximum, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param initial
+	 *            The number of processes to start with.
+	 * @param maximum
+	 *            The maximum number of processes.
+	 * @param cores
+	 *            The number of cores shared by the processes.
+	 */
+	public ConcurrencyController(int initial, int maximum, int cores) {
+		if (maximum < 1 || cores < 1) {
+			throw new IllegalArgumentException("The maximum number of processes and cores should be positive, not "
+					+ maximum + " and " + cores);
+		}
+		this.maximum = maximum;
+		this.cores = cores;
+		this.limit = Math.max(1, Math.min(maximum, initial));
+	}
+
+	/**
+	 * Adjusts the number of processes after a measurement.
+	 *
+	 * @param throughput
+	 *            The seconds of audio encoded per second of wall time since
+	 *            the previous update.
+	 * @param load
+	 *            The current load of the system.
+	 * @return The new number of processes.
+	 */
+	public synchronized int update(double throughput, SystemLoad load) {
+		int previous = limit;
+		if (isOverloaded(load)) {
+			limit -= Math.max(1, limit / 4);
+			direction = -1;
+		} else if (lastThroughput <= 0) {
+			limit += direction;
+		} else {
+			double change = throughput / lastThroughput - 1;
+			if (change < -TOLERANCE) {
+				direction = -direction;
+				limit += direction;
+			} else if (change > TOLERANCE) {
+				limit += direction;
+			} else if (load.getLoadPerCore() < IDLE_LOAD) {
+				direction = 1;
+				limit += direction;
+			}
+		}
+		limit = Math.max(1, Math.min(maximum, limit));
+		lastThroughput = throughput;
+		if (limit != previous) {
+			LOG.fine(String.format("Concurrency %d -> %d at %.2f s/s, %s", previous, limit, throughput, load));
+		}
+		return limit;
+	}
+
+	private static boolean isOverloaded(SystemLoad load) {
+		// comparisons with NaN, an unknown value, are false
+		return load.getCpuPressure() > CPU_PRESSURE_LIMIT || load.getIoPressure() > IO_PRESSURE_LIMIT
+				|| load.getLoadPerCore() > LOAD_LIMIT;
+	}
+
+	/**
+	 * @return The number of processes that may run at once.
+	 */
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return The maximum number of processes.
+	 */
+	public int getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * @return The number of threads each process may use, so the processes
+	 *         together use at most all cores.
+	 */
+	public synchronized int getThreadsPerProcess() {
+		return Math.max(1, cores / limit);
+	}
+}
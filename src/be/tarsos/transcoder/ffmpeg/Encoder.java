@@ -18,19 +18,58 @@
  */
 package be.tarsos.transcoder.ffmpeg;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 
+import be.tarsos.transcoder.Analysis;
+import be.tarsos.transcoder.AnalysisListener;
 import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.AudioFilter;
+import be.tarsos.transcoder.EncodingProfile;
+import be.tarsos.transcoder.Excerpt;
+import be.tarsos.transcoder.OutputResult;
+import be.tarsos.transcoder.Playlist;
+import be.tarsos.transcoder.PlaylistListener;
+import be.tarsos.transcoder.Priority;
+import be.tarsos.transcoder.Segment;
+import be.tarsos.transcoder.Waveform;
+import be.tarsos.transcoder.seek.SeekIndex;
 
 /**
  * Main class of the package. Instances can encode audio and video streams.
@@ -42,16 +81,55 @@ public class Encoder {
 
 	private static final Logger LOG = Logger.getLogger(Encoder.class.getName());
 
-	private static ArrayList<FFMPEGLocator> locators = new ArrayList<FFMPEGLocator>();
+	private static final List<FFMPEGLocator> locators = new ArrayList<FFMPEGLocator>();
+
+	/**
+	 * The locator picked from {@link #locators}, guarded by the list.
+	 */
+	private static FFMPEGLocator picked;
 
 	public static void addFFMPEGLocator(FFMPEGLocator locator) {
-		locators.add(locator);
+		synchronized (locators) {
+			locators.add(locator);
+			picked = null;
+		}
 	}
-	
 
 	public static boolean hasLocators() {
-		return locators.size() > 0;
-	}	
+		synchronized (locators) {
+			return locators.size() > 0;
+		}
+	}
+
+	/**
+	 * Returns the locator used by encoders that are built without one: the
+	 * last added locator that is picked for this system. If none was added,
+	 * the locators for Windows, Mac, Linux and the path are added first. The
+	 * choice is made once and made again after a locator is added.
+	 * 
+	 * @return The default locator.
+	 */
+	public static FFMPEGLocator getDefaultLocator() {
+		synchronized (locators) {
+			if (picked == null) {
+				if (locators.isEmpty()) {
+					locators.add(new WindowsFFMPEGLocator());
+					locators.add(new MacFFMPEGLocator());
+					locators.add(new LinuxFFMPEGLocator());
+					locators.add(new PathFFMPEGLocator());
+				}
+				for (FFMPEGLocator loc : locators) {
+					if (loc.pickMe()) {
+						picked = loc;
+					}
+				}
+				if (picked == null) {
+					throw new Error("Could not find an ffmpeg locator for this operating system.");
+				}
+			}
+			return picked;
+		}
+	}
 
 	/**
 	 * This regexp is used to parse the ffmpeg output about the bit rate value
@@ -74,24 +152,93 @@ public class Encoder {
 	private static final Pattern CHANNELS_PATTERN = Pattern.compile("(mono|stereo|.*(\\d+).*channels)",
 			Pattern.CASE_INSENSITIVE);
 
+	/**
+	 * The metadata key that holds the index of the playlist item of a frame.
+	 */
+	private static final String ITEM_KEY = "tarsos_item";
+
+	/**
+	 * These regexps parse the frame metadata printed by the ametadata filter.
+	 */
+	private static final Pattern PTS_PATTERN = Pattern.compile("\\bpts:(-?\\d+)");
+	private static final Pattern ITEM_PATTERN = Pattern.compile("\\b" + ITEM_KEY + "=(\\d+)");
+
+	/**
+	 * Formats that need fragmenting to be written to a pipe.
+	 */
+	private static final Set<String> FRAGMENTED_FORMATS = new HashSet<String>(Arrays.asList("mp4", "ipod",
+			"mov"));
+
+	/**
+	 * The output options that are handled by the filter graph of
+	 * {@link #encode(File, Map)}: the number of channels, the sampling rate
+	 * and the options of the resampler.
+	 */
+	private static final Set<String> GRAPH_OPTIONS = new HashSet<String>(Arrays.asList("-ac", "-ar",
+			"-filter_size", "-phase_shift"));
+
+	/**
+	 * The size of the chunks copied from ffmpeg's output.
+	 */
+	private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The input argument to read from standard input.
+	 */
+	private static final String PIPE_INPUT = "pipe:0";
+
+	/**
+	 * The minimum duration in seconds of a range encoded by
+	 * {@link #encodeParallel}.
+	 */
+	public static final int MIN_RANGE_DURATION = 30;
+
 	/**
 	 * The locator of the ffmpeg executable used by this encoder.
 	 */
-	private FFMPEGLocator locator;
+	private final FFMPEGLocator locator;
+
+	/**
+	 * The cache of probed files, or null.
+	 */
+	private final ProbeCache cache;
+
+	/**
+	 * The slots the ffmpeg processes of this encoder take.
+	 */
+	private final ProcessSlots slots;
+
+	/**
+	 * The number of threads an ffmpeg process may use, 0 to let ffmpeg
+	 * decide.
+	 */
+	private int threads;
 
 	/**
-	 * It builds an encoder using a locator instance to
-	 * locate the ffmpeg executable to use.
+	 * It builds an encoder with the default locator, see
+	 * {@link #getDefaultLocator()}.
 	 */
 	public Encoder() {
-		for (FFMPEGLocator loc : locators) {
-			if (loc.pickMe()) {
-				this.locator = loc;
-			}
-		}
-		if (this.locator == null) {
-			throw new Error("Could not find an ffmpeg locator for this operating system.");
-		}
+		this(getDefaultLocator(), null, ProcessSlots.getDefault());
+	}
+
+	/**
+	 * It builds an encoder that shares a cache of probed files and process
+	 * slots with other encoders. An encoder holds no state between calls, one
+	 * can be used by several threads at once unless
+	 * {@link #setThreads(int)} is called.
+	 * 
+	 * @param locator
+	 *            Locates the ffmpeg executable.
+	 * @param cache
+	 *            The cache for {@link #getInfo(File)}, or null.
+	 * @param slots
+	 *            The slots the ffmpeg processes take.
+	 */
+	public Encoder(FFMPEGLocator locator, ProbeCache cache, ProcessSlots slots) {
+		this.locator = locator;
+		this.cache = cache;
+		this.slots = slots;
 	}
 
 	/**
@@ -108,15 +255,26 @@ public class Encoder {
 	 *             If a problem occurs calling the underlying ffmpeg executable.
 	 */
 	public Attributes getInfo(File source) throws InputFormatException, EncoderException {
-		FFMPEGExecutor ffmpeg = locator.createExecutor();
+		if (cache != null) {
+			Attributes info = cache.get(source);
+			if (info != null) {
+				return info;
+			}
+		}
+		FFMPEGExecutor ffmpeg = createExecutor(null, Priority.INTERACTIVE);
 		ffmpeg.addArgument("-i");
 		ffmpeg.addFileArgument(source.getAbsolutePath());
+		Attributes info;
 		try {
 			String out = ffmpeg.execute();
-			return parseAudioAttributes(source, out);
+			info = parseAudioAttributes(source, out);
 		} catch (IOException e) {
 			throw new EncoderException(e);
 		}
+		if (cache != null && source.isFile()) {
+			cache.put(source, info);
+		}
+		return info;
 	}
 
 	/**
@@ -236,13 +394,23 @@ public class Encoder {
 	 *             If a problems occurs during the attributes process.
 	 */
 	public void encode(File source, File target, Attributes attributes) throws EncoderException {
+		encodeMeasured(source, target, attributes);
+	}
+
+	/**
+	 * Encodes a file, see {@link #encode(File, File, Attributes)}.
+	 * 
+	 * @return The duration of the encoded audio in milliseconds, less than 0
+	 *         if it is unknown.
+	 */
+	long encodeMeasured(File source, File target, Attributes attributes) throws EncoderException {
 		if (attributes == null) {
 			throw new IllegalArgumentException("Audio attributes are null");
 		}
 		
 		target = target.getAbsoluteFile();
 		target.getParentFile().mkdirs();
-		FFMPEGExecutor ffmpeg = construcExecutor(attributes, source.getAbsolutePath());
+		FFMPEGExecutor ffmpeg = construcExecutor(attributes, source.getAbsolutePath(), Priority.BATCH);
 
 		//add output file
 		ffmpeg.addArgument("-y");
@@ -255,13 +423,215 @@ public class Encoder {
 			throw new EncoderException(e);
 		}
 
+		Attributes info = getInfo(source);
+		verifyTarget(source, info, target, attributes);
+		long duration = info.getDuration();
+		if (duration > 0 && (attributes.isSeeking() || attributes.isLimited())) {
+			duration = excerptDuration(duration, info.getSamplingRate(), attributes);
+		}
+		return duration;
+	}
+
+	/**
+	 * Encodes a long file with several ffmpeg processes at once and joins the
+	 * results. The source, or the part defined by the start and maximum
+	 * duration of the attributes, is cut into consecutive ranges of equal
+	 * length which are encoded in parallel, each on the seek path of a normal
+	 * encode, so ranges start sample exactly. The encoded ranges are joined
+	 * with the concat demuxer without encoding them again. Attributes with
+	 * filters are encoded by a single process, since filters such as
+	 * loudness normalization depend on the whole stream.
+	 * <p>
+	 * The joins are gapless for PCM and FLAC. Lossy encoders such as
+	 * <code>libmp3lame</code> or <code>libvorbis</code> add an encoder delay
+	 * and padding at the start and end of each range, that can not be removed
+	 * without encoding again: each join then holds a few milliseconds of
+	 * silence.
+	 * 
+	 * @param source
+	 *            The source file.
+	 * @param target
+	 *            The target file, it is overwritten if it exists.
+	 * @param attributes
+	 *            The target encoding.
+	 * @param parts
+	 *            The maximum number of ranges and processes, ranges are at
+	 *            least {@link #MIN_RANGE_DURATION} seconds long.
+	 * @throws EncoderException
+	 *             If a range can not be encoded or the ranges can not be
+	 *             joined.
+	 */
+	public void encodeParallel(File source, File target, Attributes attributes, int parts)
+			throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		}
+		if (parts <= 1 || !attributes.getFilters().isEmpty()) {
+			// filters such as loudness normalization need the whole stream
+			encode(source, target, attributes);
+			return;
+		}
+		checkCapabilities(attributes);
+		target = target.getAbsoluteFile();
+		target.getParentFile().mkdirs();
+
+		// the length of the source in samples, exact if it can be indexed
+		int sampleRate;
+		long total;
+		SeekIndex index = null;
+		try {
+			index = SeekIndex.get(source);
+		} catch (IOException e) {
+			LOG.warning("Could not index " + source + ", splitting by duration: " + e.getMessage());
+		}
+		if (index != null && index.getTotalSamples() > 0) {
+			sampleRate = index.getSampleRate();
+			total = index.getTotalSamples();
+		} else {
+			Attributes info = getInfo(source);
+			if (info.getSamplingRate() == null || info.getDuration() <= 0) {
+				throw new EncoderException("The duration of " + source + " is unknown, it can not be split.");
+			}
+			sampleRate = info.getSamplingRate();
+			total = info.getDuration() * sampleRate / 1000;
+		}
+		long first = Math.min(total, attributes.getStartSample(sampleRate));
+		long length = total - first;
+		if (attributes.isLimited()) {
+			length = Math.min(length, attributes.getMaxDurationSamples(sampleRate));
+		}
+		// short ranges do not pay off the start of a process
+		parts = (int) Math.min(parts, length / ((long) MIN_RANGE_DURATION * sampleRate));
+		if (parts <= 1) {
+			encode(source, target, attributes);
+			return;
+		}
+		final long rangeLength = length / parts;
+		LOG.info(String.format("Encode %s in %d ranges of %d samples", source, parts, rangeLength));
+
+		final List<File> ranges = new ArrayList<File>();
+		ExecutorService executor = Executors.newFixedThreadPool(parts, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Parallel encode");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<?>> encodes = new ArrayList<Future<?>>();
+			for (int i = 0; i < parts; i++) {
+				final Attributes range = new Attributes(attributes);
+				range.setStartSample(first + i * rangeLength);
+				if (i < parts - 1) {
+					range.setMaxDurationSamples(rangeLength);
+				} else if (attributes.isLimited()) {
+					range.setMaxDurationSamples(length - i * rangeLength);
+				}
+				// else the last range runs to the end, an estimated length
+				// can not cut it short
+				final File part = new File(target.getParentFile(), String.format("%s.part%03d.%s", target.getName(),
+						i, attributes.getFormat()));
+				ranges.add(part);
+				final String path = source.getAbsolutePath();
+				encodes.add(executor.submit(new Callable<Void>() {
+					public Void call() throws EncoderException, IOException {
+						FFMPEGExecutor ffmpeg = construcExecutor(range, path, Priority.BATCH);
+						ffmpeg.addArgument("-y");
+						ffmpeg.addFileArgument(part.getAbsolutePath());
+						LOG.fine(ffmpeg.execute());
+						if (part.length() == 0) {
+							throw new EncoderException("Encoding " + range + " of " + path + " gave no output.");
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> encode : encodes) {
+				try {
+					encode.get();
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof EncoderException ? (EncoderException) e.getCause()
+							: new EncoderException(e.getCause());
+				}
+			}
+			join(ranges, target, attributes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncoderException("Interrupted while encoding " + source + " in parallel", e);
+		} finally {
+			executor.shutdownNow();
+			for (File range : ranges) {
+				range.delete();
+			}
+		}
+	}
+
+	/**
+	 * Joins encoded files without encoding them again, with the concat
+	 * demuxer.
+	 */
+	private void join(List<File> ranges, File target, Attributes attributes) throws EncoderException {
+		File list = null;
+		try {
+			list = File.createTempFile("ranges", ".ffconcat");
+			StringBuilder script = new StringBuilder("ffconcat version 1.0\n");
+			for (File range : ranges) {
+				script.append("file '").append(range.getAbsolutePath().replace("'", "'\\''")).append("'\n");
+			}
+			Files.write(list.toPath(), script.toString().getBytes(StandardCharsets.UTF_8));
+
+			FFMPEGExecutor ffmpeg = createExecutor(attributes, Priority.BATCH);
+			ffmpeg.addArgument("-f");
+			ffmpeg.addArgument("concat");
+			ffmpeg.addArgument("-safe");
+			ffmpeg.addArgument("0");
+			ffmpeg.addArgument("-i");
+			ffmpeg.addFileArgument(list.getAbsolutePath());
+			ffmpeg.addArgument("-c");
+			ffmpeg.addArgument("copy");
+			ffmpeg.addArgument("-f");
+			ffmpeg.addArgument(attributes.getFormat());
+			ffmpeg.addArgument("-y");
+			ffmpeg.addFileArgument(target.getAbsolutePath());
+			LOG.fine(ffmpeg.execute());
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} finally {
+			if (list != null) {
+				list.delete();
+			}
+		}
+		if (target.length() == 0) {
+			throw new EncoderException(String.format(
+					"The size of the target (%s) is zero bytes, something went wrong.", target.getAbsolutePath()));
+		}
+	}
+
+	/**
+	 * Checks that a target is not empty and that its duration matches the
+	 * source, or the part of the source defined by the start and maximum
+	 * duration of the attributes.
+	 * 
+	 * @throws EncoderException
+	 *             If the target is empty or its duration is off by more than
+	 *             three seconds.
+	 */
+	private void verifyTarget(File source, Attributes sourceInfo, File target, Attributes attributes)
+			throws EncoderException {
 		if (target.length() == 0) {
 			throw new EncoderException(String.format(
 					"The size of the target (%s) is zero bytes, something went wrong.",
 					target.getAbsolutePath()));
 		} else {
-			long sourceDuration = getInfo(source).getDuration();
+			long sourceDuration = sourceInfo.getDuration();
 			long targetDuration = getInfo(target).getDuration();
+			if (sourceDuration > 0 && (attributes.isSeeking() || attributes.isLimited())) {
+				sourceDuration = excerptDuration(sourceDuration, sourceInfo.getSamplingRate(), attributes);
+			}
+			if (attributes.changesDuration()) {
+				// e.g. a speed change or removed silence
+				sourceDuration = -1;
+			}
 			
 			if (targetDuration > 0 && sourceDuration > 0 && Math.abs(sourceDuration - targetDuration) > 3000) {
 				throw new EncoderException(
@@ -272,80 +642,1621 @@ public class Encoder {
 			}
 		}
 	}
-	
-	public AudioInputStream stream(String source, Attributes attributes) throws EncoderException {
 
-		if (attributes == null) {
-			throw new IllegalArgumentException("Audio attributes are null");
-		} if(!attributes.getFormat().equalsIgnoreCase("wav")){
-			throw new IllegalArgumentException("Streaming only supports the wav format, not  " + attributes.getFormat());
+	/**
+	 * Encodes a file to several targets with a single ffmpeg process. The
+	 * source is decoded once. Targets with the same sampling rate, number of
+	 * channels, volume, quality and filters share one resampling branch of the
+	 * filter graph, which is split to their encoders. A target with a start or
+	 * maximum duration gets the excerpt: its branch starts with an
+	 * <code>atrim</code> at the sample rate of the source.
+	 * 
+	 * @param source
+	 *            The source file.
+	 * @param targets
+	 *            The encoding of each target file. Existing files are
+	 *            overwritten.
+	 * @return The result of each target, in the order of the map.
+	 * @throws EncoderException
+	 *             If the source can not be read.
+	 */
+	public Map<File, OutputResult> encode(File source, Map<File, Attributes> targets) throws EncoderException {
+		if (targets.isEmpty()) {
+			throw new IllegalArgumentException("No targets to encode to.");
 		}
-		
-		//Create an ffmpeg executor
-		FFMPEGExecutor ffmpeg = construcExecutor(attributes, source);
-		
-		//Pipe the output to stdout
-		ffmpeg.addArgument("pipe:1");
-		
-		//The command to execute is this:
-		LOG.fine("Will pipe stream output using the following command:");
-		LOG.fine(ffmpeg.toString());
-		
-		return ffmpeg.pipe(attributes);
-	}
-	
-	private FFMPEGExecutor construcExecutor(Attributes attributes,String source){
-		FFMPEGExecutor ffmpeg = locator.createExecutor();
-		
-		Integer seekTime = attributes.getSeekTime();
-		if (seekTime != null) {
-			ffmpeg.addArgument("-ss");
-			int S = seekTime; //ms
-			int s = S/1000;   //sec
-			int m = s/60;     //min
-			int h = m/60;     //hr
-			ffmpeg.addArgument(String
-				.format("%2d:%2d:%2d.%3d", h%100, m%60, s%60, S%1000)
-				.replaceAll(" ","0"));
+		List<File> files = new ArrayList<File>(targets.keySet());
+		Attributes sourceInfo = getInfo(source);
+
+		// group the outputs by the excerpt and the decoded format they need
+		Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+		List<String> trims = new ArrayList<String>();
+		for (int i = 0; i < files.size(); i++) {
+			Attributes attributes = targets.get(files.get(i));
+			if (attributes == null) {
+				throw new IllegalArgumentException("Audio attributes for " + files.get(i) + " are null");
+			}
+			checkCapabilities(attributes);
+			String trim = trimFilter(source, sourceInfo, attributes);
+			String key = trim + "/" + attributes.getSamplingRate() + "/" + attributes.getChannels() + "/"
+					+ attributes.getVolume() + "/" + attributes.getQuality() + "/"
+					+ attributes.getProfile().getFilterChain();
+			if (!groups.containsKey(key)) {
+				groups.put(key, new ArrayList<Integer>());
+			}
+			groups.get(key).add(i);
+			trims.add(trim);
 		}
-		
+
+		StringBuilder graph = new StringBuilder("[0:a]");
+		if (groups.size() > 1) {
+			graph.append("asplit=").append(groups.size());
+			for (int g = 0; g < groups.size(); g++) {
+				graph.append("[g").append(g).append("]");
+			}
+		}
+		int g = 0;
+		for (List<Integer> outputs : groups.values()) {
+			if (groups.size() > 1) {
+				graph.append(";[g").append(g).append("]");
+			}
+			String trim = trims.get(outputs.get(0));
+			if (trim != null) {
+				graph.append(trim).append(',');
+			}
+			graph.append(formatFilters(targets.get(files.get(outputs.get(0)))));
+			if (outputs.size() > 1) {
+				graph.append(",asplit=").append(outputs.size());
+			}
+			for (int output : outputs) {
+				graph.append("[o").append(output).append("]");
+			}
+			g++;
+		}
+
+		FFMPEGExecutor ffmpeg = createExecutor(targets.get(files.get(0)), Priority.BATCH);
 		ffmpeg.addArgument("-i");
-		ffmpeg.addArgument(source);
+		ffmpeg.addFileArgument(source.getAbsolutePath());
+		ffmpeg.addArgument("-filter_complex");
+		ffmpeg.addArgument(graph.toString());
+		for (int i = 0; i < files.size(); i++) {
+			File target = files.get(i).getAbsoluteFile();
+			target.getParentFile().mkdirs();
+			Attributes attributes = targets.get(files.get(i));
+			ffmpeg.addArgument("-map");
+			ffmpeg.addArgument("[o" + i + "]");
+			List<String> arguments = attributes.getProfile().getCodecArguments();
+			for (int a = 0; a < arguments.size(); a += 2) {
+				// the branch of the graph already resampled and mapped the channels
+				if (!GRAPH_OPTIONS.contains(arguments.get(a))) {
+					ffmpeg.addArgument(arguments.get(a));
+					ffmpeg.addArgument(arguments.get(a + 1));
+				}
+			}
+			ffmpeg.addArgument("-f");
+			ffmpeg.addArgument(attributes.getFormat());
+			ffmpeg.addArgument("-y");
+			ffmpeg.addFileArgument(target.getAbsolutePath());
+		}
 
-		// no video
-		ffmpeg.addArgument("-vn");
+		EncoderException failure = null;
+		try {
+			String out = ffmpeg.execute();
+			LOG.fine(out);
+		} catch (IOException e) {
+			failure = new EncoderException(e);
+		}
 
-		String codec = attributes.getCodec();
-		if (codec != null) {
-			ffmpeg.addArgument("-acodec");
-			ffmpeg.addArgument(codec);
+		Map<File, OutputResult> results = new LinkedHashMap<File, OutputResult>();
+		for (File file : files) {
+			Attributes attributes = targets.get(file);
+			EncoderException error = failure;
+			if (error == null) {
+				try {
+					verifyTarget(source, sourceInfo, file.getAbsoluteFile(), attributes);
+				} catch (EncoderException e) {
+					error = e;
+				}
+			}
+			results.put(file, new OutputResult(file, attributes, error));
 		}
-		Integer bitRate = attributes.getBitRate();
-		if (bitRate != null) {
-			ffmpeg.addArgument("-ab");
-			ffmpeg.addArgument(String.valueOf(bitRate.intValue()));
+		return results;
+	}
+
+	/**
+	 * @return The filter that cuts the excerpt defined by the start and
+	 *         maximum duration of the attributes from the decoded source, or
+	 *         null to keep all of it.
+	 * @throws EncoderException
+	 *             If the positions are in samples and the sample rate of the
+	 *             source is unknown.
+	 */
+	private static String trimFilter(File source, Attributes sourceInfo, Attributes attributes)
+			throws EncoderException {
+		if (!attributes.isSeeking() && !attributes.isLimited()) {
+			return null;
 		}
-		Integer channels = attributes.getChannels();
-		if (channels != null) {
-			ffmpeg.addArgument("-ac");
-			ffmpeg.addArgument(String.valueOf(channels.intValue()));
+		Integer sampleRate = sourceInfo.getSamplingRate();
+		StringBuilder trim = new StringBuilder("atrim=");
+		if (sampleRate != null) {
+			long start = attributes.getStartSample(sampleRate);
+			trim.append("start_sample=").append(start);
+			if (attributes.isLimited()) {
+				trim.append(":end_sample=").append(start + attributes.getMaxDurationSamples(sampleRate));
+			}
+		} else if (attributes.hasSamplePositions()) {
+			throw new EncoderException("The sample rate of " + source
+					+ " is unknown, positions in samples can not be used.");
+		} else {
+			trim.append("start=").append(formatSeconds(attributes.getStartTime(0)));
+			if (attributes.isLimited()) {
+				trim.append(":duration=").append(formatSeconds(attributes.getMaxDuration(0)));
+			}
 		}
-		Integer samplingRate = attributes.getSamplingRate();
-		if (samplingRate != null) {
-			ffmpeg.addArgument("-ar");
-			ffmpeg.addArgument(String.valueOf(samplingRate.intValue()));
+		return trim.append(",asetpts=PTS-STARTPTS").toString();
+	}
+
+	/**
+	 * @return The filters of the attributes followed by the filters that
+	 *         convert the audio to their sampling rate, with the resampler
+	 *         options of their quality, number of channels and volume.
+	 */
+	private static String formatFilters(Attributes attributes) {
+		List<String> filters = new ArrayList<String>();
+		for (AudioFilter filter : attributes.getFilters()) {
+			filters.add(filter.toString());
 		}
-		Integer volume = attributes.getVolume();
-		if (volume != null) {
-			ffmpeg.addArgument("-vol");
-			ffmpeg.addArgument(String.valueOf(volume.intValue()));
+		if (attributes.getSamplingRate() != null) {
+			String resampler = attributes.getProfile().getResamplerOptions();
+			filters.add("aresample=" + attributes.getSamplingRate() + (resampler == null ? "" : ":" + resampler));
+		}
+		if (attributes.getChannels() != null) {
+			filters.add("aformat=channel_layouts=" + EncodingProfile.getChannelLayout(attributes.getChannels()));
+		}
+		if (attributes.getVolume() != null) {
+			filters.add("volume=" + attributes.getVolume() / 256.0);
 		}
+		if (filters.isEmpty()) {
+			return "anull";
+		}
+		StringBuilder chain = new StringBuilder();
+		for (String filter : filters) {
+			if (chain.length() > 0) {
+				chain.append(",");
+			}
+			chain.append(filter);
+		}
+		return chain.toString();
+	}
 
-		ffmpeg.addArgument("-f");
-		ffmpeg.addArgument(attributes.getFormat());
-		
-		
-		return ffmpeg;
+	/**
+	 * @return The expected duration in milliseconds of the excerpt defined by
+	 *         the start and maximum duration of the attributes.
+	 */
+	private static long excerptDuration(long sourceDuration, Integer sampleRate, Attributes attributes) {
+		int rate = sampleRate == null ? 44100 : sampleRate;
+		long duration = Math.max(0, sourceDuration - attributes.getStartTime(rate) / 1000);
+		if (attributes.isLimited()) {
+			duration = Math.min(duration, attributes.getMaxDuration(rate) / 1000);
+		}
+		return duration;
+	}
+	
+	/**
+	 * Encodes audio to an output stream while ffmpeg runs: the encoded bytes
+	 * are copied from ffmpeg's standard output and flushed chunk by chunk, so
+	 * the first bytes arrive right after the encoder starts and no temporary
+	 * file is written. Any format ffmpeg can write to a pipe is supported, for
+	 * mp4 based formats fragmented output is requested.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param attributes
+	 *            The target encoding.
+	 * @param out
+	 *            The stream to write to, it is flushed but not closed.
+	 * @throws EncoderException
+	 *             If ffmpeg fails or writing to the stream fails.
+	 */
+	public void encodeTo(String source, Attributes attributes, OutputStream out) throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		}
+		FFMPEGExecutor ffmpeg = construcExecutor(attributes, source, Priority.INTERACTIVE);
+		if (FRAGMENTED_FORMATS.contains(attributes.getFormat().toLowerCase())) {
+			// mp4 needs a seekable output, unless it is fragmented
+			ffmpeg.addArgument("-movflags");
+			ffmpeg.addArgument("frag_keyframe+empty_moov");
+		}
+		ffmpeg.addArgument("pipe:1");
+
+		Process process;
+		try {
+			process = ffmpeg.start();
+		} catch (IOException e) {
+			throw new EncoderException("Problem starting ffmpeg: " + e.getMessage(), e);
+		}
+		long bytes = 0;
+		try {
+			InputStream in = process.getInputStream();
+			byte[] buffer = new byte[PIPE_BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				out.flush();
+				bytes += read;
+			}
+			int exitValue = process.waitFor();
+			if (exitValue != 0 || bytes == 0) {
+				throw new EncoderException(String.format("ffmpeg exited with %d after %d bytes: %s", exitValue,
+						bytes, FFMPEGExecutor.getErrorOutput(process)));
+			}
+			LOG.fine(String.format("Encoded %s to %d bytes of %s", source, bytes, attributes.getFormat()));
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncoderException(e);
+		} finally {
+			process.destroy();
+		}
+	}
+
+	/**
+	 * Encodes audio to a channel while ffmpeg runs, see
+	 * {@link #encodeTo(String, Attributes, OutputStream)}.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param attributes
+	 *            The target encoding.
+	 * @param out
+	 *            The channel to write to, it is not closed.
+	 * @throws EncoderException
+	 *             If ffmpeg fails or writing to the channel fails.
+	 */
+	public void encodeTo(String source, Attributes attributes, WritableByteChannel out) throws EncoderException {
+		encodeTo(source, attributes, Channels.newOutputStream(out));
+	}
+	
+	/**
+	 * Encodes audio read from a channel to a file. The data is fed to
+	 * ffmpeg's standard input by a pump thread, so it does not need to be
+	 * written to disk first. Formats that need a seekable input, for example
+	 * mp4 files with the index at the end, can not be decoded this way.
+	 * 
+	 * @param source
+	 *            The encoded source audio, it is read until its end but not
+	 *            closed.
+	 * @param target
+	 *            The target file, an existing file is overwritten.
+	 * @param attributes
+	 *            The target encoding.
+	 * @throws EncoderException
+	 *             If reading the source fails or ffmpeg fails.
+	 */
+	public void encode(ReadableByteChannel source, File target, Attributes attributes) throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		}
+		target = target.getAbsoluteFile();
+		target.getParentFile().mkdirs();
+		FFMPEGExecutor ffmpeg = construcExecutor(attributes, PIPE_INPUT, Priority.BATCH);
+		ffmpeg.addArgument("-y");
+		ffmpeg.addFileArgument(target.getAbsolutePath());
+
+		Process process;
+		try {
+			process = ffmpeg.start(source);
+		} catch (IOException e) {
+			throw new EncoderException("Problem starting ffmpeg: " + e.getMessage(), e);
+		}
+		try {
+			process.getInputStream().close();
+			int exitValue = process.waitFor();
+			FFMPEGExecutor.joinInput(process);
+			if (exitValue != 0 || target.length() == 0) {
+				throw new EncoderException(String.format("ffmpeg exited with %d, %s has %d bytes: %s", exitValue,
+						target, target.length(), FFMPEGExecutor.getErrorOutput(process)));
+			}
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncoderException(e);
+		} finally {
+			process.destroy();
+		}
+	}
+
+	/**
+	 * Decodes audio read from a channel to a PCM stream, see
+	 * {@link #encode(ReadableByteChannel, File, Attributes)}. The source is
+	 * only read as fast as the returned stream is consumed. Closing the
+	 * returned stream stops ffmpeg.
+	 * 
+	 * @param source
+	 *            The encoded source audio, it is read until its end but not
+	 *            closed.
+	 * @param attributes
+	 *            The target encoding, the format should be wav.
+	 * @return A stream with PCM samples. Reading it fails with an
+	 *         {@link IOException} at the end if reading the source failed.
+	 * @throws EncoderException
+	 *             If ffmpeg can not be started or does not produce a WAV
+	 *             header.
+	 */
+	public AudioInputStream stream(ReadableByteChannel source, Attributes attributes) throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		} else if (!attributes.getFormat().equalsIgnoreCase("wav")) {
+			throw new IllegalArgumentException("Streaming only supports the wav format, not  "
+					+ attributes.getFormat());
+		}
+		FFMPEGExecutor ffmpeg = construcExecutor(attributes, PIPE_INPUT, Priority.INTERACTIVE);
+		ffmpeg.addArgument("pipe:1");
+
+		Process process;
+		try {
+			process = ffmpeg.start(source);
+		} catch (IOException e) {
+			throw new EncoderException("Problem starting ffmpeg: " + e.getMessage(), e);
+		}
+		PipedSamples samples = new PipedSamples(process);
+		try {
+			skipWavHeader(samples);
+		} catch (IOException e) {
+			process.destroy();
+			throw new EncoderException("No WAV header from ffmpeg: " + e.getMessage() + " "
+					+ FFMPEGExecutor.getErrorOutput(process), e);
+		}
+		return new AudioInputStream(samples, getTargetAudioFormat(attributes), AudioSystem.NOT_SPECIFIED);
+	}
+
+	/**
+	 * Streams audio decoded to PCM and writes a rendition to a file with the
+	 * same ffmpeg process, so the source is decoded once. Both outputs hold
+	 * the part of the source selected by the start and maximum duration of
+	 * the stream attributes. ffmpeg writes both outputs at the pace of the
+	 * reader of the stream. The end of the stream is only reported once
+	 * ffmpeg has finalized the file. Closing the stream early stops ffmpeg
+	 * gracefully, the file then holds the audio decoded so far.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param attributes
+	 *            The encoding of the stream, the format should be wav.
+	 * @param target
+	 *            The target file, an existing file is overwritten.
+	 * @param targetAttributes
+	 *            The encoding of the target file.
+	 * @return A stream with PCM samples. Reading it fails with an
+	 *         {@link IOException} at the end if ffmpeg failed.
+	 * @throws EncoderException
+	 *             If ffmpeg can not be started or does not produce a WAV
+	 *             header.
+	 */
+	public AudioInputStream tee(String source, Attributes attributes, File target, Attributes targetAttributes)
+			throws EncoderException {
+		if (attributes == null || targetAttributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		} else if (!attributes.getFormat().equalsIgnoreCase("wav")) {
+			throw new IllegalArgumentException("Streaming only supports the wav format, not  "
+					+ attributes.getFormat());
+		}
+		checkCapabilities(targetAttributes);
+		target = target.getAbsoluteFile();
+		target.getParentFile().mkdirs();
+
+		FFMPEGExecutor ffmpeg = createExecutor(attributes, Priority.INTERACTIVE);
+		String trim = addSeekArguments(ffmpeg, attributes, source);
+		ffmpeg.addArgument("-i");
+		ffmpeg.addArgument(source);
+		ffmpeg.addArgument("-vn");
+		addOutput(ffmpeg, attributes, trim);
+		ffmpeg.addArgument("pipe:1");
+		addOutput(ffmpeg, targetAttributes, trim);
+		ffmpeg.addArgument("-y");
+		ffmpeg.addFileArgument(target.getAbsolutePath());
+
+		Process process;
+		try {
+			process = ffmpeg.startInteractive();
+		} catch (IOException e) {
+			throw new EncoderException("Problem starting ffmpeg: " + e.getMessage(), e);
+		}
+		TeeSamples samples = new TeeSamples(process, target);
+		try {
+			skipWavHeader(samples);
+		} catch (IOException e) {
+			process.destroy();
+			throw new EncoderException("No WAV header from ffmpeg: " + e.getMessage() + " "
+					+ FFMPEGExecutor.getErrorOutput(process), e);
+		}
+		return new AudioInputStream(samples, getTargetAudioFormat(attributes), AudioSystem.NOT_SPECIFIED);
+	}
+
+	/**
+	 * The standard output of an ffmpeg process that also writes a file. The
+	 * end of the output is reported once the process exited, closing it
+	 * early asks ffmpeg to stop and waits until the file is finalized.
+	 */
+	private static class TeeSamples extends FilterInputStream {
+		/**
+		 * The time to wait for ffmpeg to finalize the file after it was asked
+		 * to stop, in seconds.
+		 */
+		private static final int QUIT_TIMEOUT = 10;
+
+		private final Process process;
+		private final File target;
+		private boolean ended;
+
+		TeeSamples(Process process, File target) {
+			super(new BufferedInputStream(process.getInputStream(), PIPE_BUFFER_SIZE));
+			this.process = process;
+			this.target = target;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value == -1) {
+				end();
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read == -1) {
+				end();
+			}
+			return read;
+		}
+
+		private void end() throws IOException {
+			if (ended) {
+				return;
+			}
+			ended = true;
+			int exitValue;
+			try {
+				exitValue = process.waitFor();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (exitValue != 0) {
+				throw new IOException(String.format("ffmpeg exited with %d while writing %s: %s", exitValue,
+						target, FFMPEGExecutor.getErrorOutput(process)));
+			}
+			LOG.fine("Finalized " + target);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!ended) {
+				ended = true;
+				FFMPEGExecutor.quit(process);
+				// ffmpeg only sees the request once it can write its output
+				byte[] buffer = new byte[PIPE_BUFFER_SIZE];
+				long deadline = System.currentTimeMillis() + QUIT_TIMEOUT * 1000L;
+				try {
+					while (super.read(buffer, 0, buffer.length) != -1) {
+						if (System.currentTimeMillis() > deadline) {
+							LOG.warning("ffmpeg did not stop in time, " + target + " may be incomplete");
+							break;
+						}
+					}
+					// the trailer of the file may follow the end of the output
+					process.waitFor(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				} catch (IOException e) {
+					// the process ended
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			process.destroy();
+			super.close();
+		}
+	}
+
+	/**
+	 * Streams the items of a playlist back to back, decoded to PCM. The known
+	 * items are decoded by a single ffmpeg process with the concat demuxer,
+	 * items added later by the next process once the current one is done,
+	 * without a gap in the stream. Frames carry the index of their item as
+	 * packet metadata, which ffmpeg prints when the decoder reaches the first
+	 * frame of an item. The concat demuxer expects the items to have the same
+	 * codec and sample rate. The start and maximum duration of the attributes
+	 * are ignored.
+	 * 
+	 * @param playlist
+	 *            The items, the stream ends after the last item of a closed
+	 *            playlist.
+	 * @param attributes
+	 *            The encoding of the stream, the format should be wav and the
+	 *            sampling rate should be set.
+	 * @param listener
+	 *            Is notified at the start of each item, may be null.
+	 * @return A stream with PCM samples. Reading it blocks while the open
+	 *         playlist has no more items.
+	 * @throws EncoderException
+	 *             If the binary lacks the codec of the attributes.
+	 */
+	public AudioInputStream stream(Playlist playlist, Attributes attributes, PlaylistListener listener)
+			throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		} else if (!attributes.getFormat().equalsIgnoreCase("wav")) {
+			throw new IllegalArgumentException("Streaming only supports the wav format, not  "
+					+ attributes.getFormat());
+		} else if (attributes.getSamplingRate() == null || attributes.getChannels() == null) {
+			throw new IllegalArgumentException("Streaming a playlist needs a sampling rate and number of channels");
+		}
+		// the processes of the batches start while the stream is read
+		checkCapabilities(attributes);
+		AudioFormat format = getTargetAudioFormat(attributes);
+		return new AudioInputStream(new PlaylistSamples(playlist, attributes, listener, format.getFrameSize()),
+				format, AudioSystem.NOT_SPECIFIED);
+	}
+
+	/**
+	 * Starts an ffmpeg process that decodes items of a playlist to a WAV
+	 * stream on its standard output. The concat script is fed to its
+	 * standard input.
+	 * 
+	 * @param sources
+	 *            The items to decode.
+	 * @param first
+	 *            The index of the first item in the playlist.
+	 */
+	private Process startPlaylist(List<String> sources, int first, Attributes attributes,
+			FFMPEGExecutor.ErrorLineHandler handler) throws IOException {
+		StringBuilder script = new StringBuilder("ffconcat version 1.0\n");
+		for (int i = 0; i < sources.size(); i++) {
+			String source = sources.get(i);
+			if (!source.contains("://")) {
+				source = new File(source).getAbsolutePath();
+			}
+			script.append("file '").append(source.replace("'", "'\\''")).append("'\n");
+			script.append("file_packet_metadata ").append(ITEM_KEY).append('=').append(first + i).append('\n');
+		}
+		FFMPEGExecutor ffmpeg;
+		try {
+			ffmpeg = createExecutor(attributes, Priority.INTERACTIVE);
+		} catch (EncoderException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		ffmpeg.addArgument("-f");
+		ffmpeg.addArgument("concat");
+		ffmpeg.addArgument("-safe");
+		ffmpeg.addArgument("0");
+		ffmpeg.addArgument("-protocol_whitelist");
+		ffmpeg.addArgument("file,pipe,http,https,tcp,tls,crypto");
+		ffmpeg.addArgument("-i");
+		ffmpeg.addArgument(PIPE_INPUT);
+		ffmpeg.addArgument("-vn");
+		// positions in the time base of the output, before resampling, the
+		// volume is a filter since -vol does not apply once -af is given
+		EncodingProfile profile = attributes.getProfile();
+		Integer volume = profile.getVolume();
+		ffmpeg.addArgument("-af");
+		ffmpeg.addArgument(chain("asettb=1/" + attributes.getSamplingRate() + ",ametadata=mode=print:key=" + ITEM_KEY,
+				volume == null ? null : "volume=" + volume.intValue() / 256.0, profile.getFilterChain()));
+		addOutputArguments(ffmpeg, attributes);
+		ffmpeg.addArgument("-f");
+		ffmpeg.addArgument("wav");
+		ffmpeg.addArgument("pipe:1");
+		byte[] bytes = script.toString().getBytes("UTF-8");
+		return ffmpeg.start(Channels.newChannel(new ByteArrayInputStream(bytes)), handler);
+	}
+
+	/**
+	 * The samples of a playlist, decoded by an ffmpeg process per batch of
+	 * items that was known when the previous batch ended.
+	 */
+	private class PlaylistSamples extends InputStream {
+		private final Playlist playlist;
+		private final Attributes attributes;
+		private final PlaylistListener listener;
+		private final int frameSize;
+
+		private int next;
+		private long bytes;
+		private Process process;
+		private InputStream samples;
+		private boolean closed;
+
+		PlaylistSamples(Playlist playlist, Attributes attributes, PlaylistListener listener, int frameSize) {
+			this.playlist = playlist;
+			this.attributes = attributes;
+			this.listener = listener;
+			this.frameSize = frameSize;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (!closed) {
+				if (samples == null && !startBatch()) {
+					return -1;
+				}
+				int read = samples.read(b, off, len);
+				if (read != -1) {
+					bytes += read;
+					return read;
+				}
+				endBatch();
+			}
+			throw new IOException("Stream closed");
+		}
+
+		private boolean startBatch() throws IOException {
+			List<String> batch;
+			try {
+				batch = playlist.await(next);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (batch.isEmpty()) {
+				return false;
+			}
+			final int first = next;
+			final long base = bytes / frameSize;
+			next += batch.size();
+			process = startPlaylist(batch, first, attributes, new FFMPEGExecutor.ErrorLineHandler() {
+				private long pts = -1;
+				private long origin = -1;
+				private int item = -1;
+
+				public boolean handle(String line) {
+					Matcher matcher = PTS_PATTERN.matcher(line);
+					if (matcher.find()) {
+						pts = Long.parseLong(matcher.group(1));
+						if (origin < 0) {
+							origin = pts;
+						}
+						return true;
+					}
+					matcher = ITEM_PATTERN.matcher(line);
+					if (matcher.find()) {
+						int index = Integer.parseInt(matcher.group(1));
+						if (index != item && pts >= 0) {
+							item = index;
+							if (listener != null) {
+								listener.itemStarted(index, playlist.get(index), base + pts - origin);
+							}
+						}
+						return true;
+					}
+					return false;
+				}
+			});
+			samples = new BufferedInputStream(process.getInputStream(), PIPE_BUFFER_SIZE);
+			skipWavHeader(samples);
+			LOG.fine(String.format("Streaming playlist items %d to %d", first, next - 1));
+			return true;
+		}
+
+		private void endBatch() throws IOException {
+			try {
+				int exitValue = process.waitFor();
+				FFMPEGExecutor.joinInput(process);
+				if (exitValue != 0) {
+					throw new IOException(String.format("ffmpeg exited with %d: %s", exitValue,
+							FFMPEGExecutor.getErrorOutput(process)));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (EncoderException e) {
+				throw new IOException(e.getMessage(), e);
+			} finally {
+				samples.close();
+				samples = null;
+				process = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			if (process != null) {
+				process.destroy();
+				samples.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads up to and including the header of the data chunk of a WAV
+	 * stream.
+	 */
+	private static void skipWavHeader(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		byte[] id = new byte[4];
+		data.readFully(id);
+		if (!"RIFF".equals(new String(id, "US-ASCII"))) {
+			throw new IOException("Not a RIFF stream");
+		}
+		data.skipBytes(8);
+		while (true) {
+			data.readFully(id);
+			long size = Integer.reverseBytes(data.readInt()) & 0xFFFFFFFFL;
+			if ("data".equals(new String(id, "US-ASCII"))) {
+				return;
+			}
+			// chunks are word aligned
+			for (long skip = size + (size & 1); skip > 0; skip--) {
+				data.readByte();
+			}
+		}
+	}
+
+	/**
+	 * The standard output of an ffmpeg process, optionally fed by an
+	 * {@link InputPump}. At the end of the output it reports a failure to read
+	 * the input, closing it stops the process.
+	 */
+	private static class PipedSamples extends FilterInputStream {
+		private final Process process;
+
+		PipedSamples(Process process) {
+			super(new BufferedInputStream(process.getInputStream(), PIPE_BUFFER_SIZE));
+			this.process = process;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value == -1) {
+				checkInput();
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read == -1) {
+				checkInput();
+			}
+			return read;
+		}
+
+		private void checkInput() throws IOException {
+			try {
+				FFMPEGExecutor.joinInput(process);
+			} catch (EncoderException e) {
+				throw new IOException(e.getMessage(), e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			process.destroy();
+			super.close();
+		}
+	}
+
+	public AudioInputStream stream(String source, Attributes attributes) throws EncoderException {
+
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		} if(!attributes.getFormat().equalsIgnoreCase("wav")){
+			throw new IllegalArgumentException("Streaming only supports the wav format, not  " + attributes.getFormat());
+		}
+		
+		//Create an ffmpeg executor
+		FFMPEGExecutor ffmpeg = construcExecutor(attributes, source, Priority.INTERACTIVE);
+		
+		//Pipe the output to stdout
+		ffmpeg.addArgument("pipe:1");
+		
+		//The command to execute is this:
+		LOG.fine("Will pipe stream output using the following command:");
+		LOG.fine(ffmpeg.toString());
+		
+		//Closing the stream stops the process
+		Process process;
+		try {
+			process = ffmpeg.start();
+		} catch (IOException e) {
+			throw new EncoderException("Problem starting piped sub process: " + e.getMessage(), e);
+		}
+		PipedSamples samples = new PipedSamples(process);
+		try {
+			skipWavHeader(samples);
+		} catch (IOException e) {
+			process.destroy();
+			throw new EncoderException("No WAV header from ffmpeg: " + e.getMessage() + " "
+					+ FFMPEGExecutor.getErrorOutput(process), e);
+		}
+		return new AudioInputStream(samples, getTargetAudioFormat(attributes), AudioSystem.NOT_SPECIFIED);
+	}
+	
+	/**
+	 * Encodes a file and measures the encoded audio with the same ffmpeg
+	 * process, so the source is decoded once. The decoded and filtered audio
+	 * is split: one branch is encoded to the target, one is measured by the
+	 * <code>ebur128</code> filter, whose summary is read from the error
+	 * output, and one is piped as 32 bit float samples to build the waveform
+	 * overview.
+	 * 
+	 * @param source
+	 *            The source file.
+	 * @param target
+	 *            The target file, it is overwritten if it exists.
+	 * @param attributes
+	 *            The target encoding.
+	 * @param buckets
+	 *            The number of buckets of the waveform overview.
+	 * @return The loudness, true peak and waveform of the encoded audio.
+	 * @throws EncoderException
+	 *             If the source can not be encoded.
+	 */
+	public Analysis encodeAnalyzed(File source, File target, Attributes attributes, int buckets)
+			throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		}
+		Waveform.Builder waveform = new Waveform.Builder(buckets);
+
+		target = target.getAbsoluteFile();
+		target.getParentFile().mkdirs();
+		FFMPEGExecutor ffmpeg = createExecutor(attributes, Priority.BATCH);
+		String trim = addSeekArguments(ffmpeg, attributes, source.getAbsolutePath());
+		ffmpeg.addArgument("-i");
+		ffmpeg.addFileArgument(source.getAbsolutePath());
+		ffmpeg.addArgument("-filter_complex");
+		ffmpeg.addArgument(analysisGraph(attributes, trim, true));
+		addAnalyzedOutput(ffmpeg, attributes);
+		ffmpeg.addArgument("-y");
+		ffmpeg.addFileArgument(target.getAbsolutePath());
+		ffmpeg.addArgument("-map");
+		ffmpeg.addArgument("[waveform]");
+		ffmpeg.addArgument("-acodec");
+		ffmpeg.addArgument("pcm_f32le");
+		ffmpeg.addArgument("-f");
+		ffmpeg.addArgument("f32le");
+		ffmpeg.addArgument("pipe:1");
+
+		LoudnessMeter meter = new LoudnessMeter();
+		Process process;
+		try {
+			process = ffmpeg.start(null, meter);
+		} catch (IOException e) {
+			throw new EncoderException("Problem starting ffmpeg: " + e.getMessage(), e);
+		}
+		Analysis analysis;
+		try {
+			ReadableByteChannel samples = Channels.newChannel(process.getInputStream());
+			ByteBuffer buffer = ByteBuffer.allocate(PIPE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (samples.read(buffer) != -1) {
+				buffer.flip();
+				while (buffer.remaining() >= 4) {
+					waveform.add(buffer.getFloat());
+				}
+				buffer.compact();
+			}
+			int exitValue = process.waitFor();
+			if (exitValue != 0) {
+				throw new EncoderException(String.format("ffmpeg exited with %d while writing %s: %s", exitValue,
+						target, FFMPEGExecutor.getErrorOutput(process)));
+			}
+			analysis = meter.getAnalysis(waveform.build());
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EncoderException(e);
+		} finally {
+			process.destroy();
+		}
+		verifyTarget(source, getInfo(source), target, attributes);
+		LOG.fine("Measured " + source + ": " + analysis);
+		return analysis;
+	}
+
+	/**
+	 * Streams audio decoded to PCM, see {@link #stream(String, Attributes)},
+	 * and measures it while it is read. The loudness and true peak are
+	 * measured by an <code>ebur128</code> filter on a branch of the filter
+	 * graph, the waveform overview is built from the streamed samples.
+	 * 
+	 * @param source
+	 *            The path to or URL of the source audio.
+	 * @param attributes
+	 *            The encoding of the stream, in the wav format.
+	 * @param buckets
+	 *            The number of buckets of the waveform overview.
+	 * @param listener
+	 *            Receives the measurements at the end of the stream.
+	 * @return A stream with PCM samples.
+	 * @throws EncoderException
+	 *             If ffmpeg can not be started.
+	 */
+	public AudioInputStream streamAnalyzed(String source, Attributes attributes, int buckets,
+			AnalysisListener listener) throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		} else if (!attributes.getFormat().equalsIgnoreCase("wav")) {
+			throw new IllegalArgumentException("Streaming only supports the wav format, not  " + attributes.getFormat());
+		}
+		Waveform.Builder waveform = new Waveform.Builder(buckets);
+
+		FFMPEGExecutor ffmpeg = createExecutor(attributes, Priority.INTERACTIVE);
+		String trim = addSeekArguments(ffmpeg, attributes, source);
+		ffmpeg.addArgument("-i");
+		ffmpeg.addArgument(source);
+		ffmpeg.addArgument("-filter_complex");
+		ffmpeg.addArgument(analysisGraph(attributes, trim, false));
+		addAnalyzedOutput(ffmpeg, attributes);
+		ffmpeg.addArgument("pipe:1");
+
+		LoudnessMeter meter = new LoudnessMeter();
+		Process process;
+		try {
+			process = ffmpeg.start(null, meter);
+		} catch (IOException e) {
+			throw new EncoderException("Problem starting piped sub process: " + e.getMessage(), e);
+		}
+		InputStream samples = new BufferedInputStream(process.getInputStream(), PIPE_BUFFER_SIZE);
+		try {
+			skipWavHeader(samples);
+		} catch (IOException e) {
+			process.destroy();
+			throw new EncoderException("No WAV header from ffmpeg: " + e.getMessage() + " "
+					+ FFMPEGExecutor.getErrorOutput(process), e);
+		}
+		AudioFormat format = getTargetAudioFormat(attributes);
+		return new AudioInputStream(new AnalyzedSamples(process, samples, format.isBigEndian(), meter, waveform,
+				listener), format, AudioSystem.NOT_SPECIFIED);
+	}
+
+	/**
+	 * Builds the filter graph of an analyzed job: the trim filter, volume and
+	 * filter chain of the attributes, split into an output labeled
+	 * <code>out</code>, a loudness meter and optionally a float output
+	 * labeled <code>waveform</code>. The volume is a filter here, since
+	 * <code>-vol</code> does not apply to the outputs of a filter graph.
+	 */
+	private static String analysisGraph(Attributes attributes, String trim, boolean waveform) {
+		EncodingProfile profile = attributes.getProfile();
+		Integer volume = profile.getVolume();
+		String filters = chain(trim, volume == null ? null : "volume=" + volume.intValue() / 256.0,
+				profile.getFilterChain());
+		StringBuilder graph = new StringBuilder("[0:a]");
+		if (filters != null) {
+			graph.append(filters).append(',');
+		}
+		if (waveform) {
+			graph.append("asplit=3[out][loudness][wave];[wave]aformat=sample_fmts=flt[waveform];");
+		} else {
+			graph.append("asplit=2[out][loudness];");
+		}
+		return graph.append("[loudness]").append(LoudnessMeter.FILTER).toString();
+	}
+
+	/**
+	 * Adds the output options of the <code>out</code> branch of an
+	 * {@link #analysisGraph(Attributes, String, boolean)}, without the output
+	 * itself.
+	 */
+	private void addAnalyzedOutput(FFMPEGExecutor ffmpeg, Attributes attributes) {
+		ffmpeg.addArgument("-map");
+		ffmpeg.addArgument("[out]");
+		addOutputArguments(ffmpeg, attributes);
+		if (threads > 0) {
+			ffmpeg.addArgument("-threads");
+			ffmpeg.addArgument(String.valueOf(threads));
+		}
+		ffmpeg.addArgument("-f");
+		ffmpeg.addArgument(attributes.getFormat());
+	}
+
+	/**
+	 * The standard output of an analyzed stream. The 16 bit samples that are
+	 * read are added to the waveform, at the end of the output the listener
+	 * receives the analysis once the process exited. Closing the stream stops
+	 * the process.
+	 */
+	private static class AnalyzedSamples extends FilterInputStream {
+		private final Process process;
+		private final boolean bigEndian;
+		private final LoudnessMeter meter;
+		private final Waveform.Builder waveform;
+		private final AnalysisListener listener;
+		/**
+		 * The first byte of a sample split over two reads, or -1.
+		 */
+		private int pending = -1;
+		private boolean ended;
+
+		AnalyzedSamples(Process process, InputStream samples, boolean bigEndian, LoudnessMeter meter,
+				Waveform.Builder waveform, AnalysisListener listener) {
+			super(samples);
+			this.process = process;
+			this.bigEndian = bigEndian;
+			this.meter = meter;
+			this.waveform = waveform;
+			this.listener = listener;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value == -1) {
+				end();
+			} else {
+				tap(value);
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read == -1) {
+				end();
+			}
+			for (int i = 0; i < read; i++) {
+				tap(b[off + i] & 0xFF);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped samples are part of the waveform
+			byte[] buffer = new byte[(int) Math.min(n, PIPE_BUFFER_SIZE)];
+			long skipped = 0;
+			while (skipped < n) {
+				int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+				if (read == -1) {
+					break;
+				}
+				skipped += read;
+			}
+			return skipped;
+		}
+
+		private void tap(int value) {
+			if (pending == -1) {
+				pending = value;
+				return;
+			}
+			int sample = bigEndian ? (pending << 8) | value : (value << 8) | pending;
+			waveform.add((short) sample / 32768f);
+			pending = -1;
+		}
+
+		private void end() throws IOException {
+			if (ended) {
+				return;
+			}
+			ended = true;
+			Analysis analysis;
+			try {
+				int exitValue = process.waitFor();
+				if (exitValue != 0) {
+					throw new IOException(String.format("ffmpeg exited with %d: %s", exitValue,
+							FFMPEGExecutor.getErrorOutput(process)));
+				}
+				analysis = meter.getAnalysis(waveform.build());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if (listener != null) {
+				listener.analysisCompleted(analysis);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			process.destroy();
+			super.close();
+		}
+	}
+
+	/**
+	 * Returns the encoders, decoders and formats of the ffmpeg binary of this
+	 * encoder. The binary is probed once, see {@link Capabilities}.
+	 * 
+	 * @return The capabilities, or null if the binary could not be probed.
+	 */
+	public Capabilities getCapabilities() {
+		return Capabilities.of(locator);
+	}
+
+	/**
+	 * Fails before a process is started if the binary lacks the encoder or
+	 * the format of the attributes. Nothing is checked if the binary could
+	 * not be probed, ffmpeg itself reports the problem then.
+	 */
+	private void checkCapabilities(Attributes attributes) throws EncoderException {
+		Capabilities capabilities = getCapabilities();
+		if (capabilities != null) {
+			capabilities.check(attributes);
+		}
+	}
+
+	/**
+	 * Creates an executor with the priority of the attributes, or the default
+	 * of the job if they have none. The attributes are checked against the
+	 * capabilities of the binary first, so every job fails before its process
+	 * is started.
+	 */
+	private FFMPEGExecutor createExecutor(Attributes attributes, Priority standard) throws EncoderException {
+		if (attributes != null) {
+			checkCapabilities(attributes);
+		}
+		FFMPEGExecutor ffmpeg = locator.createExecutor();
+		ffmpeg.setSlots(slots);
+		if (attributes != null && attributes.getPriority() != null) {
+			ffmpeg.setPriority(attributes.getPriority());
+		} else {
+			ffmpeg.setPriority(standard);
+		}
+		return ffmpeg;
+	}
+
+	private FFMPEGExecutor construcExecutor(Attributes attributes, String source, Priority priority) throws EncoderException{
+		FFMPEGExecutor ffmpeg = createExecutor(attributes, priority);
+		
+		String trim = addSeekArguments(ffmpeg, attributes, source);
+		
+		ffmpeg.addArgument("-i");
+		ffmpeg.addArgument(source);
+
+		// no video
+		ffmpeg.addArgument("-vn");
+
+		addOutput(ffmpeg, attributes, trim);
+		if (threads > 0) {
+			ffmpeg.addArgument("-threads");
+			ffmpeg.addArgument(String.valueOf(threads));
+		}
+		
+		return ffmpeg;
+	}
+
+	/**
+	 * Limits the number of threads of the ffmpeg processes started by this
+	 * encoder, so several processes share the cores instead of each starting
+	 * a thread per core.
+	 * 
+	 * @param threads
+	 *            The number of threads per process, 0 to let ffmpeg decide.
+	 */
+	void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Adds the options of an output, without the output itself. Without a
+	 * trim filter the precompiled arguments of the profile of the attributes
+	 * are used as is.
+	 * 
+	 * @param trim
+	 *            The trim filter returned by
+	 *            {@link #addSeekArguments(FFMPEGExecutor, Attributes, String)}
+	 *            or null.
+	 */
+	private static void addOutput(FFMPEGExecutor ffmpeg, Attributes attributes, String trim) {
+		EncodingProfile profile = attributes.getProfile();
+		if (trim == null) {
+			ffmpeg.addArguments(profile.getOutputArguments());
+		} else {
+			addOutput(ffmpeg, profile, chain(trim, profile.getFilterChain()), profile.getFormat());
+		}
+	}
+
+	/**
+	 * Adds the options of an output in the given muxer format.
+	 * 
+	 * @param filters
+	 *            The complete filter chain of the output, or null.
+	 */
+	private static void addOutput(FFMPEGExecutor ffmpeg, EncodingProfile profile, String filters, String format) {
+		if (filters != null) {
+			ffmpeg.addArgument("-af");
+			ffmpeg.addArgument(filters);
+		}
+
+		ffmpeg.addArguments(profile.getCodecArguments());
+		Integer volume = profile.getVolume();
+		if (volume != null) {
+			ffmpeg.addArgument("-vol");
+			ffmpeg.addArgument(String.valueOf(volume.intValue()));
+		}
+
+		ffmpeg.addArgument("-f");
+		ffmpeg.addArgument(format);
+	}
+
+	/**
+	 * Adds the codec, bit rate, number of channels, sampling rate and encoder
+	 * options of the attributes as output options.
+	 */
+	private static void addOutputArguments(FFMPEGExecutor ffmpeg, Attributes attributes) {
+		ffmpeg.addArguments(attributes.getProfile().getCodecArguments());
+	}
+
+	/**
+	 * @return The filters joined to a chain, null if all are null.
+	 */
+	private static String chain(String... filters) {
+		StringBuilder chain = new StringBuilder();
+		for (String filter : filters) {
+			if (filter != null) {
+				if (chain.length() > 0) {
+					chain.append(',');
+				}
+				chain.append(filter);
+			}
+		}
+		return chain.length() == 0 ? null : chain.toString();
+	}
+
+	/**
+	 * Adds the arguments that select the excerpt defined by the start and
+	 * maximum duration of the attributes. For MP3, Ogg and FLAC files a
+	 * {@link SeekIndex} is used: decoding starts at the index point before the
+	 * start, for MP3 by skipping the bytes before the frame since ffmpeg can
+	 * only estimate the position of a time in a VBR file, for the other
+	 * formats by seeking to the exact time of the point. An <code>atrim</code>
+	 * filter then cuts the excerpt sample exactly. Other sources are cut with
+	 * <code>-ss</code> and <code>-t</code> with microsecond precision.
+	 * 
+	 * @return The trim filter to add to the output options or null.
+	 */
+	private String addSeekArguments(FFMPEGExecutor ffmpeg, Attributes attributes, String source)
+			throws EncoderException {
+		if (!attributes.isSeeking() && !attributes.isLimited()) {
+			return null;
+		}
+		File file = new File(source);
+		SeekIndex index = null;
+		if (file.isFile()) {
+			try {
+				index = SeekIndex.get(file);
+			} catch (IOException e) {
+				LOG.warning("Could not index " + source + ", seeking without index: " + e.getMessage());
+			}
+		}
+		
+		if (index == null) {
+			int sampleRate = 0;
+			if (attributes.hasSamplePositions()) {
+				Integer rate = file.isFile() ? getInfo(file).getSamplingRate() : null;
+				if (rate == null) {
+					throw new EncoderException("The sample rate of " + source
+							+ " is unknown, positions in samples can not be used.");
+				}
+				sampleRate = rate;
+			}
+			if (attributes.isSeeking()) {
+				ffmpeg.addArgument("-ss");
+				ffmpeg.addArgument(formatTime(attributes.getStartTime(sampleRate)));
+			}
+			if (attributes.isLimited()) {
+				return "atrim=duration=" + formatSeconds(attributes.getMaxDuration(sampleRate));
+			}
+			return null;
+		}
+		
+		int sampleRate = index.getSampleRate();
+		long start = attributes.getStartSample(sampleRate);
+		long skip = start - addSeekArguments(ffmpeg, index, start, source);
+		StringBuilder trim = new StringBuilder("atrim=start_sample=").append(skip);
+		long length = attributes.getMaxDurationSamples(sampleRate);
+		if (length >= 0) {
+			trim.append(":end_sample=").append(skip + length);
+		}
+		return trim.append(",asetpts=PTS-STARTPTS").toString();
+	}
+
+	/**
+	 * Adds the input options to start decoding at the index point before a
+	 * sample.
+	 * 
+	 * @return The number of the first sample that is decoded.
+	 */
+	private static long addSeekArguments(FFMPEGExecutor ffmpeg, SeekIndex index, long sample, String source) {
+		int point = index.find(sample);
+		if (index.getContainer() == SeekIndex.Container.MP3) {
+			ffmpeg.addArgument("-f");
+			ffmpeg.addArgument("mp3");
+			ffmpeg.addArgument("-skip_initial_bytes");
+			ffmpeg.addArgument(String.valueOf(index.getOffset(point)));
+		} else if (index.getSample(point) > 0) {
+			int sampleRate = index.getSampleRate();
+			ffmpeg.addArgument("-ss");
+			ffmpeg.addArgument(formatTime((index.getSample(point) * 1000000 + sampleRate / 2) / sampleRate));
+		}
+		LOG.fine(String.format("Seek to sample %d of %s via index point %d at byte %d", sample, source, point,
+				index.getOffset(point)));
+		return index.getSample(point);
+	}
+
+	/**
+	 * Extracts excerpts of a file to separate files with a single ffmpeg
+	 * process. The input is decoded once, from the first excerpt on: an
+	 * <code>asplit</code> filter feeds a branch per excerpt that cuts it with
+	 * <code>atrim</code>, sample exactly if the source has a
+	 * {@link SeekIndex}. The start and maximum duration of the attributes are
+	 * ignored.
+	 * 
+	 * @param source
+	 *            The source file.
+	 * @param excerpts
+	 *            The excerpts, sorted by start.
+	 * @param targets
+	 *            A target file for each excerpt. Existing files are
+	 *            overwritten.
+	 * @param attributes
+	 *            The target encoding.
+	 * @throws EncoderException
+	 *             If a problem occurs calling ffmpeg or if a target is empty.
+	 */
+	public void extract(File source, List<Excerpt> excerpts, List<File> targets, Attributes attributes)
+			throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		}
+		if (excerpts.size() != targets.size()) {
+			throw new IllegalArgumentException("Expected a target for each of the " + excerpts.size()
+					+ " excerpts, got " + targets.size());
+		}
+		checkCapabilities(attributes);
+		SeekIndex index = null;
+		try {
+			index = SeekIndex.get(source);
+		} catch (IOException e) {
+			LOG.warning("Could not index " + source + ", seeking without index: " + e.getMessage());
+		}
+		int sampleRate;
+		if (index != null) {
+			sampleRate = index.getSampleRate();
+		} else {
+			Integer rate = getInfo(source).getSamplingRate();
+			if (rate == null) {
+				throw new EncoderException("The sample rate of " + source + " is unknown.");
+			}
+			sampleRate = rate;
+		}
+		Excerpt.checkSorted(excerpts, sampleRate);
+
+		FFMPEGExecutor ffmpeg = createExecutor(attributes, Priority.BATCH);
+		long first;
+		if (index != null) {
+			first = addSeekArguments(ffmpeg, index, excerpts.get(0).getStartSample(sampleRate),
+					source.getAbsolutePath());
+		} else {
+			long start = excerpts.get(0).getStartTime(sampleRate);
+			if (start > 0) {
+				ffmpeg.addArgument("-ss");
+				ffmpeg.addArgument(formatTime(start));
+			}
+			first = excerpts.get(0).getStartSample(sampleRate);
+		}
+		ffmpeg.addArgument("-i");
+		ffmpeg.addFileArgument(source.getAbsolutePath());
+
+		// one branch per excerpt, a branch only passes its own samples
+		StringBuilder graph = new StringBuilder("[0:a]asplit=").append(excerpts.size());
+		for (int i = 0; i < excerpts.size(); i++) {
+			graph.append("[s").append(i).append("]");
+		}
+		Integer volume = attributes.getVolume();
+		String filters = attributes.getProfile().getFilterChain();
+		for (int i = 0; i < excerpts.size(); i++) {
+			Excerpt excerpt = excerpts.get(i);
+			long start = excerpt.getStartSample(sampleRate) - first;
+			graph.append(";[s").append(i).append("]atrim=start_sample=").append(start).append(":end_sample=")
+					.append(start + excerpt.getDurationSamples(sampleRate)).append(",asetpts=PTS-STARTPTS");
+			if (volume != null) {
+				graph.append(",volume=").append(volume / 256.0);
+			}
+			if (filters != null) {
+				graph.append(',').append(filters);
+			}
+			graph.append("[o").append(i).append("]");
+		}
+		ffmpeg.addArgument("-filter_complex");
+		ffmpeg.addArgument(graph.toString());
+
+		for (int i = 0; i < targets.size(); i++) {
+			File target = targets.get(i).getAbsoluteFile();
+			target.getParentFile().mkdirs();
+			ffmpeg.addArgument("-map");
+			ffmpeg.addArgument("[o" + i + "]");
+			addOutputArguments(ffmpeg, attributes);
+			ffmpeg.addArgument("-f");
+			ffmpeg.addArgument(attributes.getFormat());
+			ffmpeg.addArgument("-y");
+			ffmpeg.addFileArgument(target.getAbsolutePath());
+		}
+
+		try {
+			String out = ffmpeg.execute();
+			LOG.fine(out);
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		}
+		for (File target : targets) {
+			if (target.length() == 0) {
+				throw new EncoderException(String.format(
+						"The size of the target (%s) is zero bytes, something went wrong.",
+						target.getAbsolutePath()));
+			}
+		}
+	}
+
+	/**
+	 * Splits audio into numbered segments of a fixed duration with a single
+	 * ffmpeg process, using the <code>segment</code> muxer. The segments are
+	 * named <code>segment00000</code>, <code>segment00001</code>, ... with
+	 * the format as extension. PCM codecs are cut sample exactly, other
+	 * codecs at the first packet boundary after the segment duration. The
+	 * offsets of the segments are read from the segment list ffmpeg writes.
+	 * 
+	 * @param source
+	 *            The source file.
+	 * @param directory
+	 *            The directory to write the segments to.
+	 * @param attributes
+	 *            The encoding of the segments, the start and maximum duration
+	 *            select the part of the source that is segmented.
+	 * @param segmentDuration
+	 *            The duration of a segment in microseconds.
+	 * @return The segments, in order.
+	 * @throws EncoderException
+	 *             If the source can not be segmented.
+	 */
+	public List<Segment> segment(File source, File directory, Attributes attributes, long segmentDuration)
+			throws EncoderException {
+		if (attributes == null) {
+			throw new IllegalArgumentException("Audio attributes are null");
+		}
+		checkCapabilities(attributes);
+		int sampleRate;
+		if (attributes.getSamplingRate() != null) {
+			sampleRate = attributes.getSamplingRate();
+		} else {
+			Integer rate = getInfo(source).getSamplingRate();
+			if (rate == null) {
+				throw new EncoderException("The sample rate of " + source + " is unknown.");
+			}
+			sampleRate = rate;
+		}
+		directory = directory.getAbsoluteFile();
+		directory.mkdirs();
+		File list;
+		try {
+			list = File.createTempFile("segments", ".csv");
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		}
+
+		FFMPEGExecutor ffmpeg = createExecutor(attributes, Priority.BATCH);
+		String filter = addSeekArguments(ffmpeg, attributes, source.getAbsolutePath());
+		ffmpeg.addArgument("-i");
+		ffmpeg.addFileArgument(source.getAbsolutePath());
+		ffmpeg.addArgument("-vn");
+		String codec = attributes.getCodec();
+		String packets = null;
+		if (codec != null && codec.startsWith("pcm_")) {
+			// one packet per segment, so the muxer cuts sample exactly, at
+			// the target rate
+			long samples = (segmentDuration * sampleRate + 500000) / 1000000;
+			packets = "aresample=" + sampleRate + ",asetnsamples=n=" + samples + ":p=0";
+		}
+		addOutput(ffmpeg, attributes.getProfile(), chain(filter, attributes.getProfile().getFilterChain(), packets),
+				"segment");
+		ffmpeg.addArgument("-segment_format");
+		ffmpeg.addArgument(attributes.getFormat());
+		ffmpeg.addArgument("-segment_time");
+		ffmpeg.addArgument(formatSeconds(segmentDuration));
+		ffmpeg.addArgument("-reset_timestamps");
+		ffmpeg.addArgument("1");
+		ffmpeg.addArgument("-segment_list");
+		ffmpeg.addFileArgument(list.getAbsolutePath());
+		ffmpeg.addArgument("-segment_list_type");
+		ffmpeg.addArgument("csv");
+		ffmpeg.addArgument("-y");
+		// the muxer expands %05d, a percent sign in the directory is escaped
+		ffmpeg.addFileArgument(new File(directory.getPath().replace("%", "%%"), "segment%05d."
+				+ attributes.getFormat()).getPath());
+
+		try {
+			String out = ffmpeg.execute();
+			LOG.fine(out);
+			return readSegmentList(list, directory, sampleRate);
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} finally {
+			list.delete();
+		}
+	}
+
+	/**
+	 * Reads a csv segment list: a line per segment with the file name, the
+	 * start time and the end time in seconds.
+	 */
+	private static List<Segment> readSegmentList(File list, File directory, int sampleRate) throws IOException,
+			EncoderException {
+		List<Segment> segments = new ArrayList<Segment>();
+		for (String line : Files.readAllLines(list.toPath(), StandardCharsets.UTF_8)) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			// the file name is quoted if it contains a comma
+			int endTime = line.lastIndexOf(',');
+			int startTime = line.lastIndexOf(',', endTime - 1);
+			if (startTime < 0) {
+				throw new EncoderException("Unexpected line in the segment list: " + line);
+			}
+			String name = line.substring(0, startTime);
+			if (name.startsWith("\"") && name.endsWith("\"")) {
+				name = name.substring(1, name.length() - 1).replace("\"\"", "\"");
+			}
+			long start = Math.round(Double.parseDouble(line.substring(startTime + 1, endTime)) * sampleRate);
+			long end = Math.round(Double.parseDouble(line.substring(endTime + 1)) * sampleRate);
+			segments.add(new Segment(segments.size(), new File(directory, new File(name).getName()), start, end
+					- start, sampleRate));
+		}
+		if (segments.isEmpty()) {
+			throw new EncoderException("ffmpeg wrote no segments to " + directory);
+		}
+		return segments;
+	}
+
+	/**
+	 * @return A time in microseconds as HH:MM:SS.UUUUUU.
+	 */
+	private static String formatTime(long microseconds) {
+		long seconds = microseconds / 1000000;
+		StringBuilder time = new StringBuilder(15);
+		pad(time, seconds / 3600, 2).append(':');
+		pad(time, (seconds / 60) % 60, 2).append(':');
+		pad(time, seconds % 60, 2).append('.');
+		return pad(time, microseconds % 1000000, 6).toString();
+	}
+
+	/**
+	 * @return A time in microseconds as seconds with six decimals.
+	 */
+	private static String formatSeconds(long microseconds) {
+		StringBuilder time = new StringBuilder().append(microseconds / 1000000).append('.');
+		return pad(time, microseconds % 1000000, 6).toString();
+	}
+
+	/**
+	 * Appends a number with leading zeros to the given number of digits.
+	 */
+	private static StringBuilder pad(StringBuilder builder, long value, int digits) {
+		String number = Long.toString(value);
+		for (int i = number.length(); i < digits; i++) {
+			builder.append('0');
+		}
+		return builder.append(number);
 	}
 	
 	/**
@@ -0,0 +1,168 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import be.tarsos.transcoder.Attributes;
+
+/**
+ * Runs encode jobs with a number of ffmpeg processes at once that adapts to
+ * the measured throughput and the load of the system, see
+ * {@link ConcurrencyController}. Each process gets a share of the cores with
+ * <code>-threads</code>, so the processes together stay within the number
+ * of cores. Jobs are queued and started as slots come free.
+ * <p>
+ * Throughput is measured when jobs finish: the duration of the encoded audio
+ * per second of wall time over a window of at least
+ * {@link #ADJUST_INTERVAL} milliseconds.
+ *
+ * @author Joren Six
+ */
+public final class EncoderScheduler {
+
+	private static final Logger LOG = Logger.getLogger(EncoderScheduler.class.getName());
+
+	/**
+	 * The minimum time in milliseconds between two adjustments of the number
+	 * of processes.
+	 */
+	public static final long ADJUST_INTERVAL = 5000;
+
+	private final ConcurrencyController controller;
+	private final ExecutorService workers;
+
+	/**
+	 * The number of running processes, guarded by this.
+	 */
+	private int running;
+	private long windowStart = System.nanoTime();
+	private double windowAudio;
+
+	/**
+	 * Creates a scheduler that runs up to a process per core.
+	 */
+	public EncoderScheduler() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param maximum
+	 *            The maximum number of processes that run at once. The
+	 *            scheduler starts at half of it.
+	 */
+	public EncoderScheduler(int maximum) {
+		this(new ConcurrencyController(Math.max(1, maximum / 2), maximum));
+	}
+
+	/**
+	 * @param controller
+	 *            Decides the number of processes.
+	 */
+	public EncoderScheduler(ConcurrencyController controller) {
+		this.controller = controller;
+		// a worker per possible process, queued jobs do not hold a thread
+		this.workers = Executors.newFixedThreadPool(controller.getMaximum(), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Encoder scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues an encode job, see {@link Encoder#encode(File, File, Attributes)}.
+	 *
+	 * @param source
+	 *            The source file.
+	 * @param target
+	 *            The target file.
+	 * @param attributes
+	 *            The target encoding.
+	 * @return The pending result, it fails with an {@link EncoderException}
+	 *         if the job fails.
+	 */
+	public Future<Void> submit(final File source, final File target, final Attributes attributes) {
+		return workers.submit(new Callable<Void>() {
+			public Void call() throws EncoderException, InterruptedException {
+				int threads = acquire();
+				long duration = -1;
+				try {
+					Encoder encoder = new Encoder();
+					encoder.setThreads(threads);
+					duration = encoder.encodeMeasured(source, target, attributes);
+				} finally {
+					release(duration);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Waits for a free slot.
+	 *
+	 * @return The number of threads the process may use.
+	 */
+	private synchronized int acquire() throws InterruptedException {
+		while (running >= controller.getLimit()) {
+			wait();
+		}
+		if (running == 0 && windowAudio == 0) {
+			// idle time does not count
+			windowStart = System.nanoTime();
+		}
+		running++;
+		return controller.getThreadsPerProcess();
+	}
+
+	/**
+	 * Frees a slot and adjusts the number of processes once the window is
+	 * long enough.
+	 *
+	 * @param duration
+	 *            The duration of the encoded audio in milliseconds, less than
+	 *            0 if the job failed or the duration is unknown.
+	 */
+	private synchronized void release(long duration) {
+		running--;
+		if (duration > 0) {
+			windowAudio += duration / 1000.0;
+			long now = System.nanoTime();
+			double elapsed = (now - windowStart) / 1e9;
+			if (elapsed * 1000 >= ADJUST_INTERVAL) {
+				int limit = controller.update(windowAudio / elapsed, SystemLoad.read());
+				LOG.fine(String.format("%.2f s of audio per second, %d processes", windowAudio / elapsed, limit));
+				windowStart = now;
+				windowAudio = 0;
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of processes that may run at once.
+	 */
+	public int getConcurrency() {
+		return controller.getLimit();
+	}
+
+	/**
+	 * @return The number of running processes.
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	/**
+	 * Stops accepting jobs, queued and running jobs complete.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+}
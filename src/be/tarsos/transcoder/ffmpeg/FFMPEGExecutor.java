@@ -18,27 +18,27 @@
  */
 package be.tarsos.transcoder.ffmpeg;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ProcessBuilder.Redirect;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.logging.Logger;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
 import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.PumpStreamHandler;
 
-import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Priority;
 
 /**
  * A ffmpeg process wrapper.
@@ -52,6 +52,23 @@ class FFMPEGExecutor {
 	 */
 	private static final Logger LOG = Logger.getLogger(FFMPEGExecutor.class.getName());
 
+	/**
+	 * The number of characters of error output kept per started process.
+	 */
+	private static final int ERROR_OUTPUT_LENGTH = 4096;
+
+	/**
+	 * The error output of started processes.
+	 */
+	private static final Map<Process, StringBuilder> ERROR_OUTPUT = Collections
+			.synchronizedMap(new WeakHashMap<Process, StringBuilder>());
+
+	/**
+	 * The pumps that feed the standard input of started processes.
+	 */
+	private static final Map<Process, InputPump> INPUT_PUMPS = Collections
+			.synchronizedMap(new WeakHashMap<Process, InputPump>());
+
 	/**
 	 * The path of the ffmpeg executable.
 	 */
@@ -62,6 +79,16 @@ class FFMPEGExecutor {
 	 */
 	private final ArrayList<String> args = new ArrayList<String>();
 	private final ArrayList<Boolean> argIsFile = new ArrayList<Boolean>();
+
+	/**
+	 * The class of the process, decides when it gets a slot.
+	 */
+	private Priority priority = Priority.INTERACTIVE;
+
+	/**
+	 * The slots the process takes.
+	 */
+	private ProcessSlots slots = ProcessSlots.getDefault();
 	
 
 	/**
@@ -85,6 +112,20 @@ class FFMPEGExecutor {
 		argIsFile.add(false);
 	}
 	
+	/**
+	 * Adds arguments to the ffmpeg executable call, for example the
+	 * precompiled arguments of an encoding profile.
+	 * 
+	 * @param arguments
+	 *            The arguments, in order.
+	 */
+	public void addArguments(List<String> arguments) {
+		args.addAll(arguments);
+		for (int i = 0; i < arguments.size(); i++) {
+			argIsFile.add(false);
+		}
+	}
+
 	/**
 	 * Add a file to the ffmpeg executable call.
 	 * @param arg
@@ -95,7 +136,50 @@ class FFMPEGExecutor {
 	}
 
 	/**
-	 * Executes the ffmpeg process with the previous given arguments.
+	 * Sets the class of the process, see {@link ProcessSlots}. By default it
+	 * is {@link Priority#INTERACTIVE}.
+	 * 
+	 * @param priority
+	 *            The class of the process.
+	 */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Sets the slots the process takes, by default
+	 * {@link ProcessSlots#getDefault()}.
+	 * 
+	 * @param slots
+	 *            The slots the process takes.
+	 */
+	public void setSlots(ProcessSlots slots) {
+		this.slots = slots;
+	}
+
+	/**
+	 * Waits for a slot for the process.
+	 * 
+	 * @param open
+	 *            True if the output of the process is read while it runs,
+	 *            see {@link ProcessSlots#open(Priority)}.
+	 */
+	private void acquire(boolean open) throws InterruptedIOException {
+		try {
+			if (open) {
+				slots.open(priority);
+			} else {
+				slots.acquire(priority);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to start ffmpeg");
+		}
+	}
+
+	/**
+	 * Executes the ffmpeg process with the previous given arguments. It
+	 * waits for a slot first, see {@link ProcessSlots}.
 	 * 
 	 * @return The standard output of the child process.
 	 * 
@@ -103,7 +187,17 @@ class FFMPEGExecutor {
 	 *             If the process call fails.
 	 */
 	public String execute() throws IOException {
-		CommandLine cmdLine = new CommandLine(ffmpegExecutablePath);
+		List<String> prefix = ProcessSlots.getCommandPrefix(priority);
+		CommandLine cmdLine;
+		if (prefix.isEmpty()) {
+			cmdLine = new CommandLine(ffmpegExecutablePath);
+		} else {
+			cmdLine = new CommandLine(prefix.get(0));
+			for (String arg : prefix.subList(1, prefix.size())) {
+				cmdLine.addArgument(arg, false);
+			}
+			cmdLine.addArgument(ffmpegExecutablePath, false);
+		}
 		
 		int fileNumber=0;
 		Map<String,File> map = new HashMap<String,File>();
@@ -116,7 +210,9 @@ class FFMPEGExecutor {
 				cmdLine.addArgument("'${" + key + "}'",false);
 				fileNumber++;
 			} else {
-				cmdLine.addArgument(arg);
+				// passed as is, like the arguments of start(): commons-exec
+				// would wrap arguments with spaces or quotes in quotes
+				cmdLine.addArgument(arg, false);
 			}
 		}		
 		cmdLine.setSubstitutionMap(map);
@@ -129,87 +225,214 @@ class FFMPEGExecutor {
 		executor.setStreamHandler(new PumpStreamHandler(out));
 		int[] exitValues = {0,1};
 		executor.setExitValues(exitValues);
-		executor.execute(cmdLine);
+		acquire(false);
+		try {
+			executor.execute(cmdLine);
+		} finally {
+			slots.release(priority);
+		}
 		return out.toString();		
 	}
 	
 	
-	public AudioInputStream pipe(Attributes attributes) throws EncoderException {
-		String pipeEnvironment;
-		String pipeArgument;
-		File pipeLogFile;
-		int pipeBuffer;
-		
-		if(System.getProperty("os.name").indexOf("indows") > 0 ){
-			pipeEnvironment = "cmd.exe";
-			pipeArgument = "/C";
-		}else{
-			pipeEnvironment = "/bin/bash";
-			pipeArgument = "-c";
-		}
-		pipeLogFile = new File("decoder_log.txt");
-		//buffer 1/4 second of audio.
-		pipeBuffer = attributes.getSamplingRate()/4;
-		
-		AudioFormat audioFormat = Encoder.getTargetAudioFormat(attributes);
-		
-		String command = toString();
-		
-		ProcessBuilder pb = new ProcessBuilder(pipeEnvironment, pipeArgument , command);
+	/**
+	 * Starts the ffmpeg process with the previous given arguments, without a
+	 * shell in between. Its standard input is closed, its error output is
+	 * drained by a daemon thread that keeps the last lines for
+	 * {@link #getErrorOutput(Process)}. An interactive process starts at once,
+	 * a batch process waits for a slot first. The slot is freed when the
+	 * process ends, see {@link ProcessSlots#open(Priority)}.
+	 * 
+	 * @return The running process.
+	 * @throws IOException
+	 *             If the process can not be started.
+	 */
+	public Process start() throws IOException {
+		return start(null);
+	}
 
-		pb.redirectError(Redirect.appendTo(pipeLogFile));
-	
-		LOG.fine("Starting piped decoding process" );
+	/**
+	 * Starts the ffmpeg process with the previous given arguments, see
+	 * {@link #start()}. If an input is given it is copied to the standard
+	 * input of the process by an {@link InputPump}, the arguments should
+	 * read from <code>pipe:0</code>.
+	 * 
+	 * @param input
+	 *            The data for the standard input or null.
+	 * @return The running process.
+	 * @throws IOException
+	 *             If the process can not be started.
+	 */
+	public Process start(ReadableByteChannel input) throws IOException {
+		return start(input, false);
+	}
+
+	/**
+	 * Starts the ffmpeg process with the previous given arguments, see
+	 * {@link #start()}. Its standard input stays open, so it can be stopped
+	 * gracefully with {@link #quit(Process)}.
+	 * 
+	 * @return The running process.
+	 * @throws IOException
+	 *             If the process can not be started.
+	 */
+	public Process startInteractive() throws IOException {
+		return start(null, true);
+	}
+
+	/**
+	 * Starts the ffmpeg process with the previous given arguments, see
+	 * {@link #start(ReadableByteChannel)}. Each line of the error output is
+	 * passed to a handler, on the thread that drains it.
+	 * 
+	 * @param input
+	 *            The data for the standard input or null.
+	 * @param handler
+	 *            The handler of the error output.
+	 * @return The running process.
+	 * @throws IOException
+	 *             If the process can not be started.
+	 */
+	Process start(ReadableByteChannel input, ErrorLineHandler handler) throws IOException {
+		return start(input, false, handler);
+	}
+
+	private Process start(ReadableByteChannel input, boolean interactive) throws IOException {
+		return start(input, interactive, null);
+	}
+
+	private Process start(ReadableByteChannel input, boolean interactive, final ErrorLineHandler handler)
+			throws IOException {
+		List<String> command = new ArrayList<String>(ProcessSlots.getCommandPrefix(priority));
+		command.add(ffmpegExecutablePath);
+		command.addAll(args);
+		LOG.fine("Start: " + command);
+		final ProcessSlots taken = slots;
+		final Priority slot = priority;
+		acquire(true);
 		final Process process;
 		try {
-			process = pb.start();
-		} catch (IOException e1) {
-			throw new EncoderException("Problem starting piped sub process: " + e1.getMessage());
+			process = new ProcessBuilder(command).start();
+		} catch (IOException e) {
+			taken.close(slot);
+			throw e;
 		}
-			
-		InputStream stdOut = new BufferedInputStream(process.getInputStream(), pipeBuffer);
-		
-		//read and ignore the 46 byte wav header, only pipe the pcm samples to the audioinputstream
-		byte[] header = new byte[46];
-		double sleepSeconds = 0;
-		double timeoutLimit = 20; //seconds
-		
-		try {
-			while(stdOut.available() < header.length){
-				try {
-					Thread.sleep(100);
-					sleepSeconds += 0.1;
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				if(sleepSeconds > timeoutLimit){
-					throw new Error("Could not read from pipe within " + timeoutLimit + " seconds: timeout!");
-				}
-			}
-			int bytesRead = stdOut.read(header);
-			if(bytesRead != header.length){
-				throw new EncoderException("Could not read complete WAV-header from pipe. This could result in mis-aligned frames!");
+		process.onExit().thenRun(new Runnable() {
+			public void run() {
+				taken.close(slot);
 			}
-		} catch (IOException e1) {
-			throw new EncoderException("Problem reading from piped sub process: " + e1.getMessage());
+		});
+		if (input == null && !interactive) {
+			process.getOutputStream().close();
+		} else if (input != null) {
+			InputPump pump = new InputPump(input, process);
+			INPUT_PUMPS.put(process, pump);
+			pump.start();
 		}
-		
-		final AudioInputStream audioStream = new AudioInputStream(stdOut, audioFormat, AudioSystem.NOT_SPECIFIED);
-		
-		//This thread waits for the end of the subprocess.
-		new Thread(new Runnable(){
+		final StringBuilder errors = new StringBuilder();
+		ERROR_OUTPUT.put(process, errors);
+		Thread drainer = new Thread(new Runnable() {
 			public void run() {
+				byte[] buffer = new byte[4096];
+				StringBuilder line = new StringBuilder();
+				InputStream in = process.getErrorStream();
 				try {
-					process.waitFor();
-					LOG.fine("Finished piped decoding process");
-				} catch (InterruptedException e) {
-					LOG.severe("Interrupted while waiting for sub process exit.");
-					e.printStackTrace();
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						for (int i = 0; i < read; i++) {
+							char c = (char) (buffer[i] & 0xFF);
+							line.append(c);
+							if (c == '\n' || c == '\r') {
+								if (handler == null || !handler.handle(line.toString().trim())) {
+									append(errors, line);
+								}
+								line.setLength(0);
+							}
+						}
+					}
+				} catch (IOException e) {
+					// the process ended
 				}
-			}},"Decoding Pipe Reader").start();
-			return audioStream;		
+				append(errors, line);
+			}
+		}, "ffmpeg error output");
+		drainer.setDaemon(true);
+		drainer.start();
+		return process;
+	}
+
+	private static void append(StringBuilder errors, CharSequence line) {
+		synchronized (errors) {
+			errors.append(line);
+			if (errors.length() > ERROR_OUTPUT_LENGTH) {
+				errors.delete(0, errors.length() - ERROR_OUTPUT_LENGTH);
+			}
+		}
+	}
+
+	/**
+	 * Receives the lines of the error output of a process.
+	 */
+	interface ErrorLineHandler {
+		/**
+		 * @param line
+		 *            A line of error output, without line terminator.
+		 * @return True if the line is handled and should not be kept for
+		 *         {@link FFMPEGExecutor#getErrorOutput(Process)}.
+		 */
+		boolean handle(String line);
+	}
+
+	/**
+	 * Asks a process started with {@link #startInteractive()} to stop, as if
+	 * <code>q</code> was pressed: ffmpeg stops reading its input and
+	 * finalizes its outputs.
+	 * 
+	 * @param process
+	 *            The process to stop.
+	 */
+	public static void quit(Process process) {
+		try {
+			OutputStream stdin = process.getOutputStream();
+			stdin.write('q');
+			stdin.flush();
+			stdin.close();
+		} catch (IOException e) {
+			// the process already ended
+		}
+	}
+
+	/**
+	 * Waits until the input of a process is copied.
+	 * 
+	 * @param process
+	 *            A process started with {@link #start(ReadableByteChannel)}.
+	 * @throws EncoderException
+	 *             If reading the input failed.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	public static void joinInput(Process process) throws EncoderException, InterruptedException {
+		InputPump pump = INPUT_PUMPS.remove(process);
+		if (pump != null) {
+			pump.join();
+		}
+	}
+
+	/**
+	 * @param process
+	 *            A process started with {@link #start()}.
+	 * @return The last part of the error output of the process.
+	 */
+	public static String getErrorOutput(Process process) {
+		StringBuilder errors = ERROR_OUTPUT.get(process);
+		if (errors == null) {
+			return "";
+		}
+		synchronized (errors) {
+			return errors.toString();
+		}
 	}
-	
 	
 	public String toString(){
 		CommandLine cmdLine = new CommandLine(ffmpegExecutablePath);
@@ -23,6 +23,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * Abstract class whose derived concrete instances are used by {@link Encoder}
@@ -61,6 +64,39 @@ public abstract class FFMPEGLocator {
 		return new FFMPEGExecutor(getFFMPEGExecutablePath());
 	}
 
+	/**
+	 * Finds an executable on the path, without starting a process. On
+	 * Windows the extensions in <code>PATHEXT</code> are tried as well.
+	 * 
+	 * @param name
+	 *            The name of the executable.
+	 * @return The absolute path of the executable, or null if it is not on the
+	 *         path.
+	 */
+	protected static String findOnPath(String name) {
+		String path = System.getenv("PATH");
+		if (path == null) {
+			return null;
+		}
+		List<String> names = new ArrayList<String>();
+		names.add(name);
+		String extensions = System.getenv("PATHEXT");
+		if (extensions != null && File.separatorChar == '\\') {
+			for (String extension : extensions.split(File.pathSeparator)) {
+				names.add(name + extension.toLowerCase(Locale.ROOT));
+			}
+		}
+		for (String dir : path.split(File.pathSeparator)) {
+			for (String candidate : names) {
+				File file = new File(dir, candidate);
+				if (file.isFile() && file.canExecute()) {
+					return file.getAbsolutePath();
+				}
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Copies a file bundled in the package to the supplied destination.
 	 * 
@@ -70,7 +106,10 @@ public abstract class FFMPEGLocator {
 	 *            The destination.
 	 * @throws RuntimeException
 	 *             If an unexpected error occurs.
+	 * @deprecated Bundled executables are extracted once and verified by
+	 *             {@link BundledExecutable}.
 	 */
+	@Deprecated
 	public void copyFile(final String resource, final File dest) {
 		InputStream input = null;
 		OutputStream output = null;
@@ -111,7 +150,10 @@ public abstract class FFMPEGLocator {
 	 *            The path for the chmod executable. E.g. "/bin/chmod"
 	 * @throws IOException
 	 *             If an unexpected error occurs.
+	 * @deprecated Starts a process, bundled executables are made executable
+	 *             by {@link BundledExecutable} without one.
 	 */
+	@Deprecated
 	public void chmodPlusX(final String executablePath, final String chmodPath) throws IOException {
 		Runtime runtime = Runtime.getRuntime();
 		File executable = new File(executablePath);
@@ -0,0 +1,112 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Logger;
+
+/**
+ * Copies a source to the standard input of an ffmpeg process on its own
+ * thread. Writes to the pipe block while ffmpeg does not consume its input,
+ * and ffmpeg only consumes input while its output is read, so a slow reader
+ * slows down the pump instead of filling memory. The standard input is
+ * closed at the end of the source, which signals the end of the input to
+ * ffmpeg. The source itself is not closed.
+ *
+ * @author Joren Six
+ */
+class InputPump implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(InputPump.class.getName());
+
+	/**
+	 * The size of the direct buffer used to move data from the source to the
+	 * pipe.
+	 */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final ReadableByteChannel source;
+	private final Process process;
+	private final Thread thread;
+	private volatile IOException error;
+	private volatile long bytes;
+
+	/**
+	 * @param source
+	 *            The data to feed to ffmpeg.
+	 * @param process
+	 *            The ffmpeg process, reading from <code>pipe:0</code>.
+	 */
+	InputPump(ReadableByteChannel source, Process process) {
+		this.source = source;
+		this.process = process;
+		this.thread = new Thread(this, "ffmpeg input");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts pumping.
+	 */
+	void start() {
+		thread.start();
+	}
+
+	public void run() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		OutputStream stdin = process.getOutputStream();
+		WritableByteChannel pipe = Channels.newChannel(stdin);
+		try {
+			boolean end = false;
+			while (!end || buffer.position() > 0) {
+				if (!end) {
+					try {
+						end = source.read(buffer) == -1;
+					} catch (IOException e) {
+						// the output would silently be truncated
+						error = e;
+						process.destroy();
+						return;
+					}
+				}
+				buffer.flip();
+				bytes += pipe.write(buffer);
+				buffer.compact();
+			}
+		} catch (IOException e) {
+			// ffmpeg closed its input, because it stopped early or failed
+			LOG.fine("ffmpeg stopped reading its input after " + bytes + " bytes: " + e.getMessage());
+		} finally {
+			try {
+				stdin.close();
+			} catch (IOException e) {
+				// already closed by ffmpeg
+			}
+		}
+	}
+
+	/**
+	 * Waits for the pump to finish.
+	 *
+	 * @throws EncoderException
+	 *             If reading the source failed.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	void join() throws EncoderException, InterruptedException {
+		thread.join();
+		if (error != null) {
+			throw new EncoderException("Reading the input failed after " + bytes + " bytes: "
+					+ error.getMessage(), error);
+		}
+	}
+
+	/**
+	 * @return The reason reading the source failed or null.
+	 */
+	IOException getError() {
+		return error;
+	}
+}
@@ -19,9 +19,6 @@ package be.tarsos.transcoder.ffmpeg;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.io.File;
-import java.io.IOException;
-
 /**
  * The default FFMPEG executable locator, which exports on disk the FFMPEG
  * executable bundled with the library distributions. It should work both for
@@ -33,52 +30,23 @@ import java.io.IOException;
 public class LinuxFFMPEGLocator extends FFMPEGLocator {
 
 	/**
-	 * The FFMPEG executable file path.
+	 * The bundled executable, null if this locator is not picked.
 	 */
-	private final String path;
+	private final BundledExecutable bundled;
 
 	private final static String FFMPEG_BINARY = "/be/tarsos/transcoder/resources/ffmpeg_linux";
 
 	public LinuxFFMPEGLocator() {
 		if (pickMe()) {
-			path = copyFFMPEG();
+			bundled = new BundledExecutable(FFMPEG_BINARY, "ffmpeg");
 		} else {
-			path = null;
-		}
-	}
-
-	/**
-	 * Copies the executable to disk, makes it... executable and returns the
-	 * path. If the target file already exists the path is returned.
-	 * 
-	 * @return The path of the FFMPEG executable.
-	 */
-	private String copyFFMPEG() {
-		// create a temp dir and mark it for deletion on exit.
-		File temp = new File(System.getProperty("java.io.tmpdir"), "tarsos-ffmpeg");
-		if (!temp.exists()) {
-			temp.mkdirs();
-			temp.deleteOnExit();
+			bundled = null;
 		}
-
-		// ffmpeg executable export on disk.
-		File ffmpeg = new File(temp, "ffmpeg");
-		if (!ffmpeg.exists()) {
-			copyFile(FFMPEG_BINARY, ffmpeg);
-		}
-
-		try {
-			chmodPlusX(ffmpeg.getAbsolutePath(), "/bin/chmod");
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return ffmpeg.getAbsolutePath();
 	}
 
 	@Override
 	protected String getFFMPEGExecutablePath() {
-		return path;
+		return bundled == null ? null : bundled.getPath();
 	}
 
 	@Override
@@ -0,0 +1,107 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import be.tarsos.transcoder.Analysis;
+import be.tarsos.transcoder.Waveform;
+
+/**
+ * Reads the summary that the <code>ebur128</code> filter of ffmpeg logs when
+ * the process ends:
+ *
+ * <pre>
+ *   Integrated loudness:
+ *     I:         -19.6 LUFS
+ *   ...
+ *   Loudness range:
+ *     LRA:         5.1 LU
+ *   ...
+ *   True peak:
+ *     Peak:       -0.5 dBFS
+ * </pre>
+ *
+ * The filter is added with {@link #FILTER}, which keeps the loudness of each
+ * frame out of the log.
+ *
+ * @author Joren Six
+ */
+class LoudnessMeter implements FFMPEGExecutor.ErrorLineHandler {
+
+	private static final Logger LOG = Logger.getLogger(LoudnessMeter.class.getName());
+
+	/**
+	 * A filter that measures its input and outputs nothing.
+	 */
+	static final String FILTER = "ebur128=peak=true:framelog=verbose,anullsink";
+
+	/**
+	 * The time to wait for the summary once the process ended, in seconds.
+	 */
+	private static final int SUMMARY_TIMEOUT = 5;
+
+	private static final Pattern INTEGRATED_PATTERN = Pattern.compile("^I:\\s+(\\S+)\\s+LUFS$");
+	private static final Pattern RANGE_PATTERN = Pattern.compile("^LRA:\\s+(\\S+)\\s+LU$");
+	private static final Pattern PEAK_PATTERN = Pattern.compile("^Peak:\\s+(\\S+)\\s+dBFS$");
+
+	private final CountDownLatch summarized = new CountDownLatch(1);
+	private volatile double integratedLoudness = Double.NaN;
+	private volatile double loudnessRange = Double.NaN;
+	private volatile double truePeak = Double.NaN;
+
+	public boolean handle(String line) {
+		Matcher matcher = INTEGRATED_PATTERN.matcher(line);
+		if (matcher.matches()) {
+			integratedLoudness = parse(matcher.group(1));
+			return true;
+		}
+		matcher = RANGE_PATTERN.matcher(line);
+		if (matcher.matches()) {
+			loudnessRange = parse(matcher.group(1));
+			return true;
+		}
+		matcher = PEAK_PATTERN.matcher(line);
+		if (matcher.matches()) {
+			// the true peak ends the summary
+			truePeak = parse(matcher.group(1));
+			summarized.countDown();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a logged number, ffmpeg writes "-inf" for silence.
+	 */
+	private static double parse(String value) {
+		if (value.endsWith("inf")) {
+			return value.startsWith("-") ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Combines the summary with a waveform. The summary is read by the thread
+	 * that drains the error output, it is waited for a few seconds after the
+	 * process ended. Missing values are NaN.
+	 *
+	 * @param waveform
+	 *            The waveform of the measured audio.
+	 * @return The analysis.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting for the summary.
+	 */
+	Analysis getAnalysis(Waveform waveform) throws InterruptedException {
+		if (!summarized.await(SUMMARY_TIMEOUT, TimeUnit.SECONDS)) {
+			LOG.warning("No loudness summary in the output of ffmpeg");
+		}
+		return new Analysis(integratedLoudness, loudnessRange, truePeak, waveform);
+	}
+}
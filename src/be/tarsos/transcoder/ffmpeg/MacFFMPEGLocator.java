@@ -1,8 +1,5 @@
 package be.tarsos.transcoder.ffmpeg;
 
-import java.io.File;
-import java.io.IOException;
-
 /**
  * This class provides an ffmpeg binary for Mac OS X. Other platforms are
  * supported by the JAVE default ffmpeg locator. FFMPEG should work on Windows,
@@ -12,15 +9,15 @@ import java.io.IOException;
  */
 public final class MacFFMPEGLocator extends FFMPEGLocator {
 
-	private final String path;
+	private final BundledExecutable bundled;
 
 	private final static String FFMPEG_BINARY = "/be/tarsos/transcoder/resources/ffmpeg_mac";
 
 	public MacFFMPEGLocator() {
 		if (pickMe()) {
-			path = copyFFMPEG();
+			bundled = new BundledExecutable(FFMPEG_BINARY, "ffmpeg");
 		} else {
-			path = null;
+			bundled = null;
 		}
 	}
 
@@ -31,37 +28,8 @@ public final class MacFFMPEGLocator extends FFMPEGLocator {
 		return os.contains("mac");
 	}
 
-	/**
-	 * Copies the executable to disk, makes it... executable and returns the
-	 * path. If the target file already exists the path is returned.
-	 * 
-	 * @return The path of the FFMPEG executable.
-	 */
-	private String copyFFMPEG() {
-		// create a temp dir and mark it for deletion on exit.
-		File temp = new File(System.getProperty("java.io.tmpdir"), "tarsos-ffmpeg");
-		if (!temp.exists()) {
-			temp.mkdirs();
-			temp.deleteOnExit();
-		}
-
-		// ffmpeg executable export on disk.
-		File ffmpeg = new File(temp, "ffmpeg");
-		if (!ffmpeg.exists()) {
-			copyFile(FFMPEG_BINARY, ffmpeg);
-		}
-
-		try {
-			chmodPlusX(ffmpeg.getAbsolutePath(), "/bin/chmod");
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return ffmpeg.getAbsolutePath();
-	}
-
 	@Override
 	protected String getFFMPEGExecutablePath() {
-		return path;
+		return bundled == null ? null : bundled.getPath();
 	}
 }
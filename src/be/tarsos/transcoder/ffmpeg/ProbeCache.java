@@ -0,0 +1,102 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import be.tarsos.transcoder.Attributes;
+
+/**
+ * Keeps the result of {@link Encoder#getInfo(File)} for recently probed
+ * files, so a file that is transcoded, streamed and checked does not start an
+ * ffmpeg process for each probe. An entry is dropped when the size or
+ * modification time of the file changes. Callers get a copy of the cached
+ * attributes, changing it does not change the cache.
+ * 
+ * @author Joren Six
+ */
+public final class ProbeCache {
+
+	private final Map<File, Entry> entries;
+
+	/**
+	 * @param size
+	 *            The number of files kept, the least recently used are
+	 *            dropped first.
+	 */
+	public ProbeCache(final int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("The size of the cache should be positive, not " + size);
+		}
+		entries = new LinkedHashMap<File, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<File, Entry> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	/**
+	 * @param file
+	 *            A probed file.
+	 * @return A copy of the cached information or null if the file is not
+	 *         cached or changed.
+	 */
+	Attributes get(File file) {
+		File key = file.getAbsoluteFile();
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+		if (entry == null || entry.length != key.length() || entry.lastModified != key.lastModified()) {
+			return null;
+		}
+		return new Attributes(entry.info);
+	}
+
+	/**
+	 * @param file
+	 *            A probed file.
+	 * @param info
+	 *            The information about the file, a copy is kept.
+	 */
+	void put(File file, Attributes info) {
+		File key = file.getAbsoluteFile();
+		Entry entry = new Entry(key.length(), key.lastModified(), new Attributes(info));
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * @return The number of cached files.
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Drops all cached information.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	private static final class Entry {
+		private final long length;
+		private final long lastModified;
+		private final Attributes info;
+
+		private Entry(long length, long lastModified, Attributes info) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.info = info;
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import be.tarsos.transcoder.Priority;
+
+/**
+ * Limits the number of ffmpeg processes that run at once and decides which
+ * waiting process starts first. {@link Priority#INTERACTIVE} processes skip
+ * the queue: they start before any waiting {@link Priority#BATCH} process and
+ * may use every slot. Batch processes only get a bounded share of the slots,
+ * so a few slots stay free for interactive processes even when a large batch
+ * is queued.
+ * <p>
+ * An interactive process whose output is read while it runs, like a stream,
+ * lives as long as its reader. It is {@link #open(Priority) opened} instead:
+ * it starts at once and does not count against the slots. Otherwise a reader
+ * that opens more streams than there are slots before it reads them would
+ * wait for ever.
+ * <p>
+ * The start latency of each class, the time a process waited for a slot, is
+ * kept for the last {@link #LATENCY_SAMPLES} processes, see
+ * {@link #getStartLatency(Priority, double)}.
+ * <p>
+ * On Linux batch processes are started with a lower CPU priority with
+ * <code>nice</code> and a lower I/O priority with <code>ionice</code>, if
+ * these are on the path.
+ * 
+ * @author Joren Six
+ */
+public final class ProcessSlots {
+
+	/**
+	 * The number of start latencies kept per class.
+	 */
+	public static final int LATENCY_SAMPLES = 1024;
+
+	private static final ProcessSlots DEFAULT;
+	static {
+		int slots = 2 * Runtime.getRuntime().availableProcessors();
+		DEFAULT = new ProcessSlots(slots, slots - Math.max(1, slots / 4));
+	}
+
+	/**
+	 * The command that lowers the priority of batch processes.
+	 */
+	private static final List<String> BATCH_PREFIX = batchPrefix();
+
+	private int slots;
+	private int batchSlots;
+
+	/**
+	 * The running and waiting processes per class, guarded by this.
+	 */
+	private final int[] running = new int[Priority.values().length];
+	private final int[] waiting = new int[Priority.values().length];
+
+	/**
+	 * The number of open interactive processes, guarded by this.
+	 */
+	private int open;
+
+	/**
+	 * The last start latencies in nanoseconds per class, a ring buffer
+	 * guarded by this.
+	 */
+	private final long[][] latencies = new long[Priority.values().length][LATENCY_SAMPLES];
+	private final long[] started = new long[Priority.values().length];
+
+	/**
+	 * @param slots
+	 *            The number of processes that may run at once.
+	 * @param batchSlots
+	 *            The number of batch processes that may run at once.
+	 */
+	public ProcessSlots(int slots, int batchSlots) {
+		setLimits(slots, batchSlots);
+	}
+
+	/**
+	 * @return The slots shared by encoders that are not given others, see
+	 *         {@link Encoder#Encoder(FFMPEGLocator, ProbeCache, ProcessSlots)}.
+	 *         There are two slots per core, batch processes may use three
+	 *         quarters of them.
+	 */
+	public static ProcessSlots getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Changes the number of slots, waiting processes that now fit are
+	 * started.
+	 * 
+	 * @param slots
+	 *            The number of processes that may run at once.
+	 * @param batchSlots
+	 *            The number of batch processes that may run at once, at most
+	 *            the number of slots.
+	 */
+	public synchronized void setLimits(int slots, int batchSlots) {
+		if (slots < 1 || batchSlots < 1 || batchSlots > slots) {
+			throw new IllegalArgumentException("Expected 1 <= batch slots <= slots, not " + batchSlots + " and "
+					+ slots);
+		}
+		this.slots = slots;
+		this.batchSlots = batchSlots;
+		notifyAll();
+	}
+
+	/**
+	 * Waits for a slot.
+	 * 
+	 * @param priority
+	 *            The class of the process.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	public synchronized void acquire(Priority priority) throws InterruptedException {
+		int p = priority.ordinal();
+		long requested = System.nanoTime();
+		waiting[p]++;
+		try {
+			while (!isAdmitted(priority)) {
+				wait();
+			}
+		} finally {
+			waiting[p]--;
+		}
+		running[p]++;
+		latencies[p][(int) (started[p] % LATENCY_SAMPLES)] = System.nanoTime() - requested;
+		started[p]++;
+	}
+
+	private boolean isAdmitted(Priority priority) {
+		int total = 0;
+		for (int r : running) {
+			total += r;
+		}
+		if (total >= slots) {
+			return false;
+		}
+		if (priority == Priority.BATCH) {
+			return running[Priority.BATCH.ordinal()] < batchSlots && waiting[Priority.INTERACTIVE.ordinal()] == 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a slot for a process whose output is read while it runs. An
+	 * interactive process starts at once and is not counted against the
+	 * slots, see {@link #getOpen()}. A batch process waits for a slot as with
+	 * {@link #acquire(Priority)}.
+	 * 
+	 * @param priority
+	 *            The class of the process.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	public synchronized void open(Priority priority) throws InterruptedException {
+		if (priority == Priority.BATCH) {
+			acquire(priority);
+			return;
+		}
+		int p = priority.ordinal();
+		open++;
+		latencies[p][(int) (started[p] % LATENCY_SAMPLES)] = 0;
+		started[p]++;
+	}
+
+	/**
+	 * Frees a slot taken with {@link #open(Priority)}.
+	 * 
+	 * @param priority
+	 *            The class of the process.
+	 */
+	public synchronized void close(Priority priority) {
+		if (priority == Priority.BATCH) {
+			release(priority);
+		} else {
+			open--;
+		}
+	}
+
+	/**
+	 * Frees a slot taken with {@link #acquire(Priority)}.
+	 * 
+	 * @param priority
+	 *            The class of the process.
+	 */
+	public synchronized void release(Priority priority) {
+		running[priority.ordinal()]--;
+		notifyAll();
+	}
+
+	/**
+	 * @param priority
+	 *            A class of processes.
+	 * @param quantile
+	 *            The quantile, between 0 and 1, for example 0.99 for the 99th
+	 *            percentile.
+	 * @return The start latency in milliseconds of the recent processes of
+	 *         the class at the quantile, NaN if none started.
+	 */
+	public synchronized double getStartLatency(Priority priority, double quantile) {
+		int p = priority.ordinal();
+		int count = (int) Math.min(started[p], LATENCY_SAMPLES);
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long[] sorted = Arrays.copyOf(latencies[p], count);
+		Arrays.sort(sorted);
+		// nearest rank
+		int rank = (int) Math.ceil(quantile * count);
+		return sorted[Math.max(0, Math.min(count - 1, rank - 1))] / 1e6;
+	}
+
+	/**
+	 * @param priority
+	 *            A class of processes.
+	 * @return The number of processes of the class that were started.
+	 */
+	public synchronized long getStarted(Priority priority) {
+		return started[priority.ordinal()];
+	}
+
+	/**
+	 * @param priority
+	 *            A class of processes.
+	 * @return The number of running processes of the class.
+	 */
+	public synchronized int getRunning(Priority priority) {
+		return running[priority.ordinal()];
+	}
+
+	/**
+	 * @return The number of open interactive processes, these are not counted
+	 *         by {@link #getRunning(Priority)}.
+	 */
+	public synchronized int getOpen() {
+		return open;
+	}
+
+	/**
+	 * @param priority
+	 *            A class of processes.
+	 * @return The number of processes of the class waiting for a slot.
+	 */
+	public synchronized int getWaiting(Priority priority) {
+		return waiting[priority.ordinal()];
+	}
+
+	/**
+	 * @return The number of started processes and the median and 99th
+	 *         percentile start latency per class, a line per class.
+	 */
+	public synchronized String getReport() {
+		StringBuilder report = new StringBuilder();
+		for (Priority priority : Priority.values()) {
+			report.append(String.format(Locale.ROOT, "%-11s started=%d p50=%.1f ms p99=%.1f ms%n", priority,
+					getStarted(priority), getStartLatency(priority, 0.5), getStartLatency(priority, 0.99)));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * @param priority
+	 *            The class of a process.
+	 * @return The command that goes before the ffmpeg command to start it
+	 *         with the CPU and I/O priority of the class, empty if none.
+	 */
+	static List<String> getCommandPrefix(Priority priority) {
+		return priority == Priority.BATCH ? BATCH_PREFIX : Collections.<String> emptyList();
+	}
+
+	private static List<String> batchPrefix() {
+		List<String> prefix = new ArrayList<String>();
+		if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux")) {
+			return prefix;
+		}
+		String nice = FFMPEGLocator.findOnPath("nice");
+		if (nice != null) {
+			prefix.add(nice);
+			prefix.add("-n");
+			prefix.add("10");
+		}
+		String ionice = FFMPEGLocator.findOnPath("ionice");
+		if (ionice != null) {
+			// best effort class, lowest priority
+			prefix.add(ionice);
+			prefix.add("-c");
+			prefix.add("2");
+			prefix.add("-n");
+			prefix.add("7");
+		}
+		return Collections.unmodifiableList(prefix);
+	}
+
+}
@@ -0,0 +1,121 @@
+package be.tarsos.transcoder.ffmpeg;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * A snapshot of the load of the system: the load average per core from
+ * <code>/proc/loadavg</code> and the CPU and I/O pressure stall information
+ * from <code>/proc/pressure</code>. Values that are not available, for
+ * example on other operating systems or older Linux kernels, are NaN.
+ *
+ * @author Joren Six
+ */
+public final class SystemLoad {
+
+	private static final Path LOAD_AVERAGE = Paths.get("/proc/loadavg");
+	private static final Path CPU_PRESSURE = Paths.get("/proc/pressure/cpu");
+	private static final Path IO_PRESSURE = Paths.get("/proc/pressure/io");
+
+	private final double loadPerCore;
+	private final double cpuPressure;
+	private final double ioPressure;
+
+	/**
+	 * @param loadPerCore
+	 *            The one minute load average divided by the number of cores.
+	 * @param cpuPressure
+	 *            The percentage of time some tasks waited for a CPU, over the
+	 *            last ten seconds.
+	 * @param ioPressure
+	 *            The percentage of time some tasks waited for I/O, over the
+	 *            last ten seconds.
+	 */
+	public SystemLoad(double loadPerCore, double cpuPressure, double ioPressure) {
+		this.loadPerCore = loadPerCore;
+		this.cpuPressure = cpuPressure;
+		this.ioPressure = ioPressure;
+	}
+
+	/**
+	 * @return The current load of the system.
+	 */
+	public static SystemLoad read() {
+		double loadPerCore = Double.NaN;
+		String line = firstLine(LOAD_AVERAGE);
+		if (line != null) {
+			try {
+				loadPerCore = Double.parseDouble(line.split("\\s+")[0])
+						/ Runtime.getRuntime().availableProcessors();
+			} catch (NumberFormatException e) {
+				// leave unknown
+			}
+		}
+		return new SystemLoad(loadPerCore, pressure(CPU_PRESSURE), pressure(IO_PRESSURE));
+	}
+
+	/**
+	 * Reads the ten second average of a pressure file, a line like
+	 * <code>some avg10=1.23 avg60=0.50 avg300=0.10 total=12345</code>.
+	 */
+	private static double pressure(Path file) {
+		String line = firstLine(file);
+		if (line != null && line.startsWith("some")) {
+			for (String field : line.split("\\s+")) {
+				if (field.startsWith("avg10=")) {
+					try {
+						return Double.parseDouble(field.substring(6));
+					} catch (NumberFormatException e) {
+						return Double.NaN;
+					}
+				}
+			}
+		}
+		return Double.NaN;
+	}
+
+	private static String firstLine(Path file) {
+		try {
+			List<String> lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+			return lines.isEmpty() ? null : lines.get(0).trim();
+		} catch (IOException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The one minute load average divided by the number of cores, NaN
+	 *         if unknown.
+	 */
+	public double getLoadPerCore() {
+		return loadPerCore;
+	}
+
+	/**
+	 * @return The percentage of time some tasks waited for a CPU, NaN if
+	 *         unknown.
+	 */
+	public double getCpuPressure() {
+		return cpuPressure;
+	}
+
+	/**
+	 * @return The percentage of time some tasks waited for I/O, NaN if
+	 *         unknown.
+	 */
+	public double getIoPressure() {
+		return ioPressure;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s loadPerCore=%.2f, cpuPressure=%.2f, ioPressure=%.2f", getClass().getName(),
+				loadPerCore, cpuPressure, ioPressure);
+	}
+}
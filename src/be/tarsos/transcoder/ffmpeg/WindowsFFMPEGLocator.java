@@ -19,8 +19,6 @@ package be.tarsos.transcoder.ffmpeg;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.io.File;
-
 /**
  * The default ffmpeg executable locator, which exports on disk the ffmpeg
  * executable bundled with the library distributions. It should work both for
@@ -32,43 +30,27 @@ import java.io.File;
 public class WindowsFFMPEGLocator extends FFMPEGLocator {
 
 	/**
-	 * The ffmpeg executable file path.
+	 * The bundled executable, null if this locator is not picked.
 	 */
-	private final String path;
+	private final BundledExecutable bundled;
 
 	private final static String FFMPEG_BINARY = "/be/tarsos/transcoder/resources/ffmpeg_win";
 
 	/**
-	 * It builds the default FFMPEGLocator, exporting the ffmpeg executable on a
-	 * temp file.
+	 * It builds the default FFMPEGLocator, the ffmpeg executable is extracted
+	 * to a shared cache on first use, see {@link BundledExecutable}.
 	 */
 	public WindowsFFMPEGLocator() {
 		if (pickMe()) {
-			path = copyFFMPEG();
+			bundled = new BundledExecutable(FFMPEG_BINARY, "ffmpeg.exe");
 		} else {
-			path = null;
-		}
-	}
-
-	private String copyFFMPEG() {
-		// create a temp dir and mark it for deletion on exit.
-		File temp = new File(System.getProperty("java.io.tmpdir"), "tarsos-ffmpeg");
-		if (!temp.exists()) {
-			temp.mkdirs();
-			temp.deleteOnExit();
-		}
-
-		// ffmpeg executable export on disk.
-		File ffmpeg = new File(temp, "ffmpeg.exe");
-		if (!ffmpeg.exists()) {
-			copyFile(FFMPEG_BINARY, ffmpeg);
+			bundled = null;
 		}
-		return ffmpeg.getAbsolutePath();
 	}
 
 	@Override
 	protected String getFFMPEGExecutablePath() {
-		return path;
+		return bundled == null ? null : bundled.getPath();
 	}
 
 	@Override
@@ -0,0 +1,237 @@
+package be.tarsos.transcoder.flac;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads big endian bit fields from a file channel. It keeps the CRC-8 and
+ * CRC-16 of all bytes fetched since the last {@link #resetCrc()}, as needed to
+ * validate FLAC frame headers and frames. Bytes are fetched one at a time, only
+ * when bits are requested, so the CRC covers exactly the bytes read so far.
+ *
+ * @author Joren Six
+ */
+final class BitReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final int[] CRC8_TABLE = new int[256];
+	private static final int[] CRC16_TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc8 = i;
+			int crc16 = i << 8;
+			for (int bit = 0; bit < 8; bit++) {
+				crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+				crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+			}
+			CRC8_TABLE[i] = crc8 & 0xFF;
+			CRC16_TABLE[i] = crc16 & 0xFFFF;
+		}
+	}
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final byte[] bytes = buffer.array();
+
+	/**
+	 * The file offset of the first byte in the buffer.
+	 */
+	private long bufferOffset;
+	private int position;
+	private int limit;
+
+	/**
+	 * Fetched bits that are not consumed yet, in the low order bits.
+	 */
+	private long cache;
+	private int cached;
+
+	private int crc8;
+	private int crc16;
+
+	BitReader(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Moves to a byte offset in the file, discarding cached bits.
+	 *
+	 * @param offset
+	 *            The byte offset.
+	 */
+	void seek(long offset) {
+		if (offset >= bufferOffset && offset <= bufferOffset + limit) {
+			position = (int) (offset - bufferOffset);
+		} else {
+			bufferOffset = offset;
+			position = 0;
+			limit = 0;
+		}
+		cache = 0;
+		cached = 0;
+	}
+
+	/**
+	 * @return The offset of the next unread byte, only meaningful when
+	 *         {@link #isByteAligned() byte aligned}.
+	 */
+	long getByteOffset() {
+		return bufferOffset + position - cached / 8;
+	}
+
+	boolean isByteAligned() {
+		return cached % 8 == 0;
+	}
+
+	void alignToByte() {
+		cached -= cached % 8;
+	}
+
+	/**
+	 * @return True if no more bytes can be read.
+	 */
+	boolean isAtEnd() throws IOException {
+		return cached == 0 && !fill();
+	}
+
+	void resetCrc() {
+		crc8 = 0;
+		crc16 = 0;
+	}
+
+	int getCrc8() {
+		return crc8;
+	}
+
+	int getCrc16() {
+		return crc16;
+	}
+
+	private boolean fill() throws IOException {
+		if (position < limit) {
+			return true;
+		}
+		bufferOffset += limit;
+		position = 0;
+		limit = 0;
+		buffer.clear();
+		int read;
+		while (limit == 0 && (read = channel.read(buffer, bufferOffset)) >= 0) {
+			limit += read;
+		}
+		return limit > 0;
+	}
+
+	private void fetch() throws IOException {
+		if (position == limit && !fill()) {
+			throw new EOFException("Unexpected end of FLAC stream.");
+		}
+		int b = bytes[position++] & 0xFF;
+		crc8 = CRC8_TABLE[crc8 ^ b];
+		crc16 = ((crc16 << 8) ^ CRC16_TABLE[(crc16 >>> 8) ^ b]) & 0xFFFF;
+		cache = (cache << 8) | b;
+		cached += 8;
+	}
+
+	/**
+	 * Reads an unsigned value.
+	 *
+	 * @param bits
+	 *            The number of bits, at most 32.
+	 * @return The value.
+	 */
+	int readBits(int bits) throws IOException {
+		if (bits == 0) {
+			return 0;
+		}
+		while (cached < bits) {
+			fetch();
+		}
+		cached -= bits;
+		return (int) ((cache >>> cached) & ((1L << bits) - 1));
+	}
+
+	/**
+	 * Reads a two's complement value.
+	 *
+	 * @param bits
+	 *            The number of bits, at most 32.
+	 * @return The sign extended value.
+	 */
+	int readSignedBits(int bits) throws IOException {
+		if (bits == 0) {
+			return 0;
+		}
+		int value = readBits(bits);
+		return (value << (32 - bits)) >> (32 - bits);
+	}
+
+	long readLong(int bits) throws IOException {
+		if (bits <= 32) {
+			return readBits(bits) & 0xFFFFFFFFL;
+		}
+		long high = readBits(bits - 32) & 0xFFFFFFFFL;
+		return (high << 32) | (readBits(32) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Counts zero bits up to and including the next one bit.
+	 *
+	 * @return The number of zero bits.
+	 */
+	int readUnary() throws IOException {
+		int zeros = 0;
+		while ((cache & ((1L << cached) - 1)) == 0) {
+			zeros += cached;
+			cached = 0;
+			fetch();
+		}
+		long value = cache & ((1L << cached) - 1);
+		int leading = cached - (64 - Long.numberOfLeadingZeros(value));
+		zeros += leading;
+		cached -= leading + 1;
+		return zeros;
+	}
+
+	/**
+	 * Reads a Rice coded, zigzag folded residual.
+	 *
+	 * @param parameter
+	 *            The Rice parameter.
+	 * @return The signed residual.
+	 */
+	int readRice(int parameter) throws IOException {
+		int quotient = readUnary();
+		int folded = (quotient << parameter) | readBits(parameter);
+		return (folded >>> 1) ^ -(folded & 1);
+	}
+
+	/**
+	 * Reads the UTF-8 like variable length coding of frame and sample numbers.
+	 *
+	 * @return The decoded number or -1 if the coding is invalid.
+	 */
+	long readUtf8() throws IOException {
+		int first = readBits(8);
+		if ((first & 0x80) == 0) {
+			return first;
+		}
+		int length = Integer.numberOfLeadingZeros(~first << 24);
+		if (length < 2 || length > 7) {
+			return -1;
+		}
+		long value = first & (0x7F >> length);
+		for (int i = 1; i < length; i++) {
+			int next = readBits(8);
+			if ((next & 0xC0) != 0x80) {
+				return -1;
+			}
+			value = (value << 6) | (next & 0x3F);
+		}
+		return value;
+	}
+}
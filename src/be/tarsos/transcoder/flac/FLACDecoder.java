@@ -0,0 +1,623 @@
+package be.tarsos.transcoder.flac;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A FLAC decoder in plain Java. It supports constant, verbatim, fixed and LPC
+ * subframes with Rice coded residuals, wasted bits, inter-channel
+ * decorrelation, up to eight channels and up to 24 bits per sample. Samples
+ * are decoded one frame at a time into buffers that are reused for every
+ * frame.
+ *
+ * <p>
+ * Seeks are sample exact: the decoder jumps to the closest preceding seek
+ * point from the SEEKTABLE, or without seek table to a frame found by
+ * bisection, and discards the samples before the requested position.
+ * </p>
+ *
+ * @author Joren Six
+ */
+public final class FLACDecoder implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(FLACDecoder.class.getName());
+
+	private static final int STREAMINFO = 0;
+	private static final int SEEKTABLE = 3;
+
+	private static final int[] SAMPLE_SIZES = { 0, 8, 12, 0, 16, 20, 24, 32 };
+
+	private final FileChannel channel;
+	private final BitReader in;
+
+	private final int minBlockSize;
+	private final int maxBlockSize;
+	private final int maxFrameSize;
+	private final int sampleRate;
+	private final int channels;
+	private final int bitsPerSample;
+	private final long totalSamples;
+	private final byte[] md5;
+
+	/**
+	 * The seek points, sample numbers and byte offsets relative to the first
+	 * frame.
+	 */
+	private final long[] seekSamples;
+	private final long[] seekOffsets;
+
+	/**
+	 * The file offset of the first frame.
+	 */
+	private final long firstFrameOffset;
+
+	private final int[][] samples;
+	private final int[] residual;
+	private final long[] coefficients = new long[32];
+
+	/**
+	 * The block size, channel assignment and sample size of the frame header
+	 * read last.
+	 */
+	private int headerBlockSize;
+	private int headerChannels;
+	private int headerBitsPerSample;
+
+	/**
+	 * The sample number of the first sample in the current frame.
+	 */
+	private long frameStart;
+	private int offset;
+	private long skip;
+
+	/**
+	 * Opens a FLAC file and reads its metadata.
+	 *
+	 * @param file
+	 *            The FLAC file.
+	 * @throws IOException
+	 *             If the file can not be read or is not a supported FLAC
+	 *             file.
+	 */
+	public FLACDecoder(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		in = new BitReader(channel);
+		try {
+			in.seek(skipId3(channel));
+			if (in.readBits(32) != 0x664C6143) {
+				throw new IOException(file + " is not a FLAC file.");
+			}
+			boolean last;
+			int minBlock = 0, maxBlock = 0, maxFrame = 0, rate = 0, numberOfChannels = 0, bits = 0;
+			long total = 0;
+			byte[] digest = new byte[16];
+			List<long[]> points = new ArrayList<long[]>();
+			boolean streamInfo = false;
+			do {
+				last = in.readBits(1) == 1;
+				int type = in.readBits(7);
+				int length = in.readBits(24);
+				if (type == STREAMINFO) {
+					minBlock = in.readBits(16);
+					maxBlock = in.readBits(16);
+					in.readBits(24);
+					maxFrame = in.readBits(24);
+					rate = in.readBits(20);
+					numberOfChannels = in.readBits(3) + 1;
+					bits = in.readBits(5) + 1;
+					total = in.readLong(36);
+					for (int i = 0; i < digest.length; i++) {
+						digest[i] = (byte) in.readBits(8);
+					}
+					in.seek(in.getByteOffset() + length - 34);
+					streamInfo = true;
+				} else if (type == SEEKTABLE) {
+					for (int i = 0; i < length / 18; i++) {
+						long sample = in.readLong(64);
+						long offset = in.readLong(64);
+						in.readBits(16);
+						// skip placeholders
+						if (sample != -1L) {
+							points.add(new long[] { sample, offset });
+						}
+					}
+					in.seek(in.getByteOffset() + length % 18);
+				} else {
+					in.seek(in.getByteOffset() + length);
+				}
+			} while (!last);
+			if (!streamInfo) {
+				throw new IOException(file + " has no STREAMINFO block.");
+			}
+			if (bits > 24) {
+				throw new IOException(file + " has " + bits + " bits per sample, at most 24 are supported.");
+			}
+			minBlockSize = minBlock;
+			maxBlockSize = maxBlock;
+			maxFrameSize = maxFrame;
+			sampleRate = rate;
+			channels = numberOfChannels;
+			bitsPerSample = bits;
+			totalSamples = total;
+			md5 = digest;
+			seekSamples = new long[points.size()];
+			seekOffsets = new long[points.size()];
+			for (int i = 0; i < points.size(); i++) {
+				seekSamples[i] = points.get(i)[0];
+				seekOffsets[i] = points.get(i)[1];
+			}
+			firstFrameOffset = in.getByteOffset();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		samples = new int[channels][maxBlockSize];
+		residual = new int[maxBlockSize];
+	}
+
+	/**
+	 * @return The offset of the FLAC stream, after an optional ID3v2 tag.
+	 */
+	private static long skipId3(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(10);
+		if (channel.read(header, 0) == 10 && header.get(0) == 'I' && header.get(1) == 'D' && header.get(2) == '3') {
+			// the size is stored as four 7 bit bytes
+			int size = ((header.get(6) & 0x7F) << 21) | ((header.get(7) & 0x7F) << 14)
+					| ((header.get(8) & 0x7F) << 7) | (header.get(9) & 0x7F);
+			return 10 + size + ((header.get(5) & 0x10) != 0 ? 10 : 0);
+		}
+		return 0;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	public int getBitsPerSample() {
+		return bitsPerSample;
+	}
+
+	/**
+	 * @return The number of samples per channel, 0 if unknown.
+	 */
+	public long getTotalSamples() {
+		return totalSamples;
+	}
+
+	/**
+	 * @return The MD5 signature of the unencoded audio, all zeros if unknown.
+	 */
+	public byte[] getMD5() {
+		return md5.clone();
+	}
+
+	/**
+	 * @return The file offset of the first frame.
+	 */
+	public long getFirstFrameOffset() {
+		return firstFrameOffset;
+	}
+
+	/**
+	 * @return The sample numbers of the SEEKTABLE points, without
+	 *         placeholders.
+	 */
+	public long[] getSeekPointSamples() {
+		return seekSamples.clone();
+	}
+
+	/**
+	 * @return The file offsets of the SEEKTABLE points, in the order of
+	 *         {@link #getSeekPointSamples()}.
+	 */
+	public long[] getSeekPointOffsets() {
+		long[] offsets = new long[seekOffsets.length];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = firstFrameOffset + seekOffsets[i];
+		}
+		return offsets;
+	}
+
+	/**
+	 * @return The decoded samples of the last frame, one array per channel.
+	 *         The arrays are reused for every frame.
+	 */
+	public int[][] getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return The index of the first valid sample in the arrays returned by
+	 *         {@link #getSamples()}. It is only larger than zero for the first
+	 *         frame after a {@link #seek}.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Decodes the next frame.
+	 *
+	 * @return The number of valid samples per channel, starting at
+	 *         {@link #getOffset()}, or -1 at the end of the stream.
+	 * @throws IOException
+	 *             If the stream can not be read or is not valid.
+	 */
+	public int readFrame() throws IOException {
+		while (true) {
+			in.alignToByte();
+			if (in.isAtEnd()) {
+				return -1;
+			}
+			int blockSize = decodeFrame();
+			if (blockSize < 0) {
+				continue;
+			}
+			if (skip >= blockSize) {
+				skip -= blockSize;
+				continue;
+			}
+			offset = (int) skip;
+			skip = 0;
+			return blockSize - offset;
+		}
+	}
+
+	/**
+	 * Decodes the next frame of a file that is still being written. A frame
+	 * that is cut off by the end of the file is not consumed: the decoder
+	 * stays in front of it, so a next call decodes it once it is complete.
+	 *
+	 * @return The number of valid samples per channel, starting at
+	 *         {@link #getOffset()}, or -1 if there is no complete frame yet.
+	 * @throws IOException
+	 *             If the stream can not be read or is not valid.
+	 */
+	public int readCompleteFrame() throws IOException {
+		in.alignToByte();
+		long frameOffset = in.getByteOffset();
+		long skipped = skip;
+		try {
+			return readFrame();
+		} catch (EOFException e) {
+			in.seek(frameOffset);
+			skip = skipped;
+			return -1;
+		}
+	}
+
+	/**
+	 * Positions the decoder so that the next {@link #readFrame()} starts at
+	 * the given sample.
+	 *
+	 * @param sample
+	 *            The sample number (per channel).
+	 * @throws IOException
+	 *             If the stream can not be read.
+	 */
+	public void seek(long sample) throws IOException {
+		long offset = firstFrameOffset;
+		long start = 0;
+		for (int i = 0; i < seekSamples.length && seekSamples[i] <= sample; i++) {
+			offset = firstFrameOffset + seekOffsets[i];
+			start = seekSamples[i];
+		}
+		if (start == 0 && sample > 0) {
+			long[] found = bisect(sample);
+			if (found != null) {
+				offset = found[0];
+				start = found[1];
+			}
+		}
+		in.seek(offset);
+		skip = sample - start;
+	}
+
+	/**
+	 * Looks for a frame that starts at or before a sample by estimating the
+	 * byte offset from the average bit rate.
+	 *
+	 * @return The byte offset and first sample of the frame, null if none was
+	 *         found.
+	 */
+	private long[] bisect(long sample) throws IOException {
+		if (totalSamples <= 0) {
+			return null;
+		}
+		long low = firstFrameOffset;
+		long high = channel.size();
+		long[] best = null;
+		for (int step = 0; step < 32 && high - low > 2L * Math.max(maxFrameSize, 1024); step++) {
+			long guess = low + (high - low) / 2;
+			long[] frame = findFrame(guess, high);
+			if (frame == null || frame[1] > sample) {
+				high = guess;
+			} else {
+				best = frame;
+				low = frame[0] + 1;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Scans for the next valid frame header between two byte offsets.
+	 *
+	 * @return The byte offset and first sample of the frame, null if none was
+	 *         found.
+	 */
+	private long[] findFrame(long from, long to) throws IOException {
+		in.seek(from);
+		long offset = from;
+		while (offset + 2 < to && !in.isAtEnd()) {
+			if (in.readBits(8) == 0xFF) {
+				in.seek(offset);
+				long start = readFrameHeader();
+				if (start >= 0) {
+					return new long[] { offset, start };
+				}
+			}
+			offset++;
+			in.seek(offset);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads and validates a frame header at the current byte offset.
+	 *
+	 * @return The number of the first sample of the frame or -1 if there is no
+	 *         valid header.
+	 */
+	private long readFrameHeader() throws IOException {
+		in.resetCrc();
+		int sync = in.readBits(15);
+		if (sync != 0x7FFC) {
+			return -1;
+		}
+		boolean variable = in.readBits(1) == 1;
+		int blockSizeCode = in.readBits(4);
+		int sampleRateCode = in.readBits(4);
+		int channelCode = in.readBits(4);
+		int sampleSizeCode = in.readBits(3);
+		if (in.readBits(1) != 0 || blockSizeCode == 0 || sampleRateCode == 15 || channelCode > 10
+				|| sampleSizeCode == 3) {
+			return -1;
+		}
+		long number = in.readUtf8();
+		if (number < 0) {
+			return -1;
+		}
+		int blockSize;
+		if (blockSizeCode == 1) {
+			blockSize = 192;
+		} else if (blockSizeCode <= 5) {
+			blockSize = 576 << (blockSizeCode - 2);
+		} else if (blockSizeCode == 6) {
+			blockSize = in.readBits(8) + 1;
+		} else if (blockSizeCode == 7) {
+			blockSize = in.readBits(16) + 1;
+		} else {
+			blockSize = 256 << (blockSizeCode - 8);
+		}
+		if (sampleRateCode == 12) {
+			in.readBits(8);
+		} else if (sampleRateCode == 13 || sampleRateCode == 14) {
+			in.readBits(16);
+		}
+		int crc = in.getCrc8();
+		if (in.readBits(8) != crc || blockSize > maxBlockSize) {
+			return -1;
+		}
+		headerBlockSize = blockSize;
+		headerChannels = channelCode;
+		headerBitsPerSample = sampleSizeCode == 0 ? bitsPerSample : SAMPLE_SIZES[sampleSizeCode];
+		return variable ? number : number * minBlockSize;
+	}
+
+	/**
+	 * Decodes a frame at the current byte offset.
+	 *
+	 * @return The block size or -1 if no valid frame header was found, in
+	 *         which case the decoder moved one byte further.
+	 */
+	private int decodeFrame() throws IOException {
+		long frameOffset = in.getByteOffset();
+		long start = readFrameHeader();
+		if (start < 0) {
+			// lost sync, try at the next byte
+			in.seek(frameOffset + 1);
+			return -1;
+		}
+		frameStart = start;
+		final int blockSize = headerBlockSize;
+		final int bits = headerBitsPerSample;
+		final int assignment = headerChannels;
+		final int frameChannels = assignment < 8 ? assignment + 1 : 2;
+		if (frameChannels != channels) {
+			throw new IOException("Frame at sample " + frameStart + " has " + frameChannels + " channels, expected "
+					+ channels);
+		}
+		for (int c = 0; c < channels; c++) {
+			// the side channel needs one extra bit
+			boolean side = (assignment == 8 && c == 1) || (assignment == 9 && c == 0)
+					|| (assignment == 10 && c == 1);
+			decodeSubframe(samples[c], blockSize, side ? bits + 1 : bits);
+		}
+		decorrelate(assignment, blockSize);
+
+		in.alignToByte();
+		int crc = in.getCrc16();
+		if (in.readBits(16) != crc) {
+			LOG.warning("CRC mismatch in the FLAC frame starting at sample " + frameStart);
+		}
+		return blockSize;
+	}
+
+	private void decodeSubframe(int[] out, int blockSize, int bits) throws IOException {
+		in.readBits(1);
+		int type = in.readBits(6);
+		int wasted = 0;
+		if (in.readBits(1) == 1) {
+			wasted = in.readUnary() + 1;
+			bits -= wasted;
+		}
+		if (type == 0) {
+			int value = in.readSignedBits(bits);
+			for (int i = 0; i < blockSize; i++) {
+				out[i] = value;
+			}
+		} else if (type == 1) {
+			for (int i = 0; i < blockSize; i++) {
+				out[i] = in.readSignedBits(bits);
+			}
+		} else if (type >= 8 && type <= 12) {
+			decodeFixed(out, blockSize, bits, type & 7);
+		} else if (type >= 32) {
+			decodeLPC(out, blockSize, bits, (type & 31) + 1);
+		} else {
+			throw new IOException("Reserved subframe type " + type + " in frame at sample " + frameStart);
+		}
+		if (wasted > 0) {
+			for (int i = 0; i < blockSize; i++) {
+				out[i] <<= wasted;
+			}
+		}
+	}
+
+	private void decodeFixed(int[] out, int blockSize, int bits, int order) throws IOException {
+		for (int i = 0; i < order; i++) {
+			out[i] = in.readSignedBits(bits);
+		}
+		decodeResidual(blockSize, order);
+		final int[] r = residual;
+		switch (order) {
+		case 0:
+			System.arraycopy(r, 0, out, 0, blockSize);
+			break;
+		case 1:
+			for (int i = 1; i < blockSize; i++) {
+				out[i] = r[i] + out[i - 1];
+			}
+			break;
+		case 2:
+			for (int i = 2; i < blockSize; i++) {
+				out[i] = r[i] + 2 * out[i - 1] - out[i - 2];
+			}
+			break;
+		case 3:
+			for (int i = 3; i < blockSize; i++) {
+				out[i] = r[i] + 3 * out[i - 1] - 3 * out[i - 2] + out[i - 3];
+			}
+			break;
+		default:
+			for (int i = 4; i < blockSize; i++) {
+				out[i] = r[i] + 4 * out[i - 1] - 6 * out[i - 2] + 4 * out[i - 3] - out[i - 4];
+			}
+			break;
+		}
+	}
+
+	private void decodeLPC(int[] out, int blockSize, int bits, int order) throws IOException {
+		for (int i = 0; i < order; i++) {
+			out[i] = in.readSignedBits(bits);
+		}
+		int precision = in.readBits(4) + 1;
+		if (precision == 16) {
+			throw new IOException("Invalid LPC precision in frame at sample " + frameStart);
+		}
+		int shift = in.readSignedBits(5);
+		if (shift < 0) {
+			throw new IOException("Negative LPC shift in frame at sample " + frameStart);
+		}
+		final long[] c = coefficients;
+		for (int i = 0; i < order; i++) {
+			c[i] = in.readSignedBits(precision);
+		}
+		decodeResidual(blockSize, order);
+		final int[] r = residual;
+		for (int i = order; i < blockSize; i++) {
+			long sum = 0;
+			for (int j = 0; j < order; j++) {
+				sum += c[j] * out[i - 1 - j];
+			}
+			out[i] = r[i] + (int) (sum >> shift);
+		}
+	}
+
+	/**
+	 * Reads the partitioned Rice coded residual into {@link #residual},
+	 * starting at index order.
+	 */
+	private void decodeResidual(int blockSize, int order) throws IOException {
+		int method = in.readBits(2);
+		if (method > 1) {
+			throw new IOException("Reserved residual coding method in frame at sample " + frameStart);
+		}
+		int parameterBits = method == 0 ? 4 : 5;
+		int escape = method == 0 ? 15 : 31;
+		int partitionOrder = in.readBits(4);
+		int partitions = 1 << partitionOrder;
+		int partitionSize = blockSize >> partitionOrder;
+		final int[] r = residual;
+		int index = order;
+		for (int p = 0; p < partitions; p++) {
+			int end = (p + 1) * partitionSize;
+			int parameter = in.readBits(parameterBits);
+			if (parameter == escape) {
+				int bits = in.readBits(5);
+				for (; index < end; index++) {
+					r[index] = in.readSignedBits(bits);
+				}
+			} else {
+				for (; index < end; index++) {
+					r[index] = in.readRice(parameter);
+				}
+			}
+		}
+	}
+
+	private void decorrelate(int assignment, int blockSize) {
+		if (assignment < 8) {
+			return;
+		}
+		final int[] first = samples[0];
+		final int[] second = samples[1];
+		if (assignment == 8) {
+			// left, side
+			for (int i = 0; i < blockSize; i++) {
+				second[i] = first[i] - second[i];
+			}
+		} else if (assignment == 9) {
+			// side, right
+			for (int i = 0; i < blockSize; i++) {
+				first[i] += second[i];
+			}
+		} else {
+			// mid, side
+			for (int i = 0; i < blockSize; i++) {
+				int side = second[i];
+				int mid = (first[i] << 1) | (side & 1);
+				first[i] = (mid + side) >> 1;
+				second[i] = (mid - side) >> 1;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,87 @@
+package be.tarsos.transcoder.pcm;
+
+import java.io.IOException;
+
+import be.tarsos.transcoder.flac.FLACDecoder;
+
+/**
+ * Decodes a FLAC file in-process with {@link FLACDecoder}.
+ *
+ * @author Joren Six
+ */
+final class FLACSource implements SampleSource {
+
+	private final FLACDecoder decoder;
+	private final float scale;
+
+	/**
+	 * The valid samples of the current frame that were not read yet.
+	 */
+	private int position;
+	private int end;
+	private boolean following;
+
+	FLACSource(FLACDecoder decoder) {
+		this.decoder = decoder;
+		this.scale = 1.0f / (1 << (decoder.getBitsPerSample() - 1));
+	}
+
+	@Override
+	public int getChannels() {
+		return decoder.getChannels();
+	}
+
+	@Override
+	public int getSampleRate() {
+		return decoder.getSampleRate();
+	}
+
+	@Override
+	public long getFrames() {
+		return decoder.getTotalSamples();
+	}
+
+	@Override
+	public void seek(long frame) throws IOException {
+		decoder.seek(frame);
+		position = 0;
+		end = 0;
+	}
+
+	@Override
+	public void follow() {
+		following = true;
+	}
+
+	@Override
+	public int read(float[] interleaved, int frames) throws IOException {
+		final int channels = decoder.getChannels();
+		int count = 0;
+		while (count < frames) {
+			if (position == end) {
+				int length = following ? decoder.readCompleteFrame() : decoder.readFrame();
+				if (length < 0) {
+					break;
+				}
+				position = decoder.getOffset();
+				end = position + length;
+			}
+			final int[][] samples = decoder.getSamples();
+			final int n = Math.min(frames - count, end - position);
+			for (int c = 0; c < channels; c++) {
+				final int[] channel = samples[c];
+				for (int i = 0, j = count * channels + c; i < n; i++, j += channels) {
+					interleaved[j] = channel[position + i] * scale;
+				}
+			}
+			position += n;
+			count += n;
+		}
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		decoder.close();
+	}
+}
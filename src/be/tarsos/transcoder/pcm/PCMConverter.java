@@ -0,0 +1,907 @@
+package be.tarsos.transcoder.pcm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Excerpt;
+import be.tarsos.transcoder.flac.FLACDecoder;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+
+/**
+ * Converts integer PCM WAV and FLAC files to integer PCM WAV in-process,
+ * without starting an ffmpeg process. It downmixes stereo to mono, resamples,
+ * applies the volume and changes the bit depth. WAV input and the output are
+ * memory mapped, FLAC is decoded with {@link FLACDecoder}.
+ *
+ * <p>
+ * The output matches what ffmpeg produces for the same {@link Attributes}
+ * within the following tolerance:
+ * </p>
+ * <ul>
+ * <li>Without resampling, bit depth conversion, volume and the stereo to mono
+ * downmix (the average of both channels) differ by at most one least
+ * significant bit, due to rounding. Decoded FLAC is lossless.</li>
+ * <li>Samples are converted as floats, which hold 24 bits. 32 bit input that
+ * is written as 32 bit output therefore differs by up to 128 least
+ * significant bits, 2<sup>-24</sup> of full scale, even if only the channels
+ * change. Output of 24 bits or less, and 32 bit output of 8, 16 or 24 bit
+ * input, is not affected.</li>
+ * <li>With resampling, the RMS difference stays below -60 dBFS. The filter
+ * design is the one of the libswresample defaults, the remaining difference
+ * is mostly located in the first and last filter length of samples, where
+ * edges are handled differently.</li>
+ * <li>The header is a canonical 44 byte header, ffmpeg writes additional
+ * chunks.</li>
+ * </ul>
+ * Jobs that can not be handled this way, see {@link #isSupported}, should be
+ * passed to ffmpeg.
+ *
+ * @author Joren Six
+ */
+public final class PCMConverter {
+
+	/**
+	 * The number of input frames converted in one go.
+	 */
+	private static final int BLOCK_FRAMES = 4096;
+
+	/**
+	 * The maximum size of a memory mapped region.
+	 */
+	private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+	/**
+	 * The time in milliseconds between two checks of the size of a file that
+	 * is followed.
+	 */
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * The number of checked sources of which the format is kept.
+	 */
+	private static final int FORMAT_CACHE_SIZE = 256;
+
+	/**
+	 * The format of recently checked sources, so the check of a job and its
+	 * conversion read the header once. An entry is dropped when the size or
+	 * modification time of the file changes, the least recently used are
+	 * dropped first.
+	 */
+	private static final Map<File, SourceFormat> FORMATS = new LinkedHashMap<File, SourceFormat>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, SourceFormat> eldest) {
+			return size() > FORMAT_CACHE_SIZE;
+		}
+	};
+
+	private final SampleSource source;
+	private final WavHeader target;
+	private final float gain;
+	private final SampleKernels kernels = SampleKernels.getInstance();
+
+	/**
+	 * One resampler per target channel or null if the sample rate does not
+	 * change.
+	 */
+	private final Resampler[] resamplers;
+
+	/**
+	 * Decoded interleaved samples, null for mono sources which decode
+	 * straight into {@link #mixed}.
+	 */
+	private final float[] interleaved;
+	private final float[][] mixed;
+	private float[][] resampled;
+	private byte[] block;
+	private boolean finished;
+
+	/**
+	 * The number of source frames left to convert.
+	 */
+	private long remaining;
+
+	/**
+	 * Set for a source that is still being written, see {@link #follow}.
+	 */
+	private final boolean following;
+	private long idleTimeout;
+	private volatile boolean closed;
+
+	/**
+	 * @param start
+	 *            The first source frame to convert.
+	 * @param length
+	 *            The maximum number of source frames to convert, less than 0
+	 *            to convert up to the end.
+	 */
+	private PCMConverter(SampleSource source, Attributes attributes, long start, long length) throws IOException {
+		this(source, attributes, start, length, false);
+	}
+
+	/**
+	 * @param start
+	 *            The first source frame to convert.
+	 * @param length
+	 *            The maximum number of source frames to convert, less than 0
+	 *            to convert up to the end.
+	 * @param follow
+	 *            True to keep converting frames appended to the source, the
+	 *            length of the output is then unknown.
+	 */
+	private PCMConverter(SampleSource source, Attributes attributes, long start, long length, boolean follow)
+			throws IOException {
+		this.source = source;
+		this.following = follow;
+		int targetChannels = attributes.getChannels() == null ? source.getChannels() : attributes.getChannels();
+		int targetRate = attributes.getSamplingRate() == null ? source.getSampleRate() : attributes
+				.getSamplingRate();
+		int targetBits = bitsPerSample(attributes.getCodec());
+		gain = attributes.getVolume() == null ? 1.0f : attributes.getVolume() / 256.0f;
+
+		if (follow) {
+			source.follow();
+			source.seek(start);
+			remaining = length >= 0 ? length : Long.MAX_VALUE;
+		} else {
+			long startFrame = Math.min(source.getFrames(), start);
+			source.seek(startFrame);
+			remaining = source.getFrames() - startFrame;
+			if (length >= 0) {
+				remaining = Math.min(remaining, length);
+			}
+		}
+
+		long outputFrames = follow ? 0 : remaining;
+		if (targetRate != source.getSampleRate()) {
+			resamplers = new Resampler[targetChannels];
+			for (int c = 0; c < targetChannels; c++) {
+				resamplers[c] = new Resampler(source.getSampleRate(), targetRate);
+			}
+			outputFrames = follow ? 0 : resamplers[0].outputLength(outputFrames);
+		} else {
+			resamplers = null;
+		}
+		target = new WavHeader(targetChannels, targetRate, targetBits, WavHeader.CANONICAL_LENGTH, outputFrames
+				* targetChannels * (targetBits / 8));
+
+		interleaved = source.getChannels() == 1 ? null : new float[source.getChannels() * BLOCK_FRAMES];
+		mixed = new float[targetChannels][BLOCK_FRAMES];
+		resampled = mixed;
+		block = new byte[0];
+	}
+
+	/**
+	 * Checks whether a job can be handled in-process: the source is an
+	 * integer PCM WAV file or a FLAC file with at most 24 bits per sample and
+	 * a known length, the target is WAV with a <code>pcm_u8</code>,
+	 * <code>pcm_s16le</code>, <code>pcm_s24le</code> or <code>pcm_s32le</code>
+	 * codec, the number of channels either stays the same or goes from stereo
+	 * to mono, and no filters or encoder options are set. The header of the
+	 * source is read once and kept for the conversion.
+	 *
+	 * @param source
+	 *            The source file.
+	 * @param attributes
+	 *            The target encoding.
+	 * @return True if {@link #convert} and {@link #stream} can handle the job.
+	 */
+	public static boolean isSupported(File source, Attributes attributes) {
+		return isSupported(source, attributes, false);
+	}
+
+	/**
+	 * Checks whether a file that is still being written can be followed
+	 * in-process, see {@link #isSupported(File, Attributes)}. The length of
+	 * a FLAC file does not need to be known.
+	 *
+	 * @param source
+	 *            The source file, its header should be written.
+	 * @param attributes
+	 *            The target encoding.
+	 * @return True if {@link #follow} can handle the job.
+	 */
+	public static boolean isFollowSupported(File source, Attributes attributes) {
+		return isSupported(source, attributes, true);
+	}
+
+	private static boolean isSupported(File source, Attributes attributes, boolean follow) {
+		if (!"wav".equalsIgnoreCase(attributes.getFormat()) || bitsPerSample(attributes.getCodec()) < 0) {
+			return false;
+		}
+		if (!attributes.getFilters().isEmpty() || !attributes.getOptions().isEmpty()) {
+			return false;
+		}
+		if (!source.isFile()) {
+			return false;
+		}
+		int sourceChannels;
+		if (follow) {
+			// a file that grows changes its size, the format is not kept
+			try (SampleSource samples = openSource(source, true)) {
+				if (samples == null) {
+					return false;
+				}
+				sourceChannels = samples.getChannels();
+			} catch (IOException e) {
+				return false;
+			}
+		} else {
+			SourceFormat format = getFormat(source);
+			if (format == null) {
+				return false;
+			}
+			sourceChannels = format.channels;
+		}
+		Integer channels = attributes.getChannels();
+		return channels == null || channels == sourceChannels || (channels == 1 && sourceChannels == 2);
+	}
+
+	/**
+	 * @return The format of a WAV or FLAC file, from the cache if the file did
+	 *         not change, or null if the file is neither a PCM WAV nor a
+	 *         supported FLAC file or can not be read.
+	 */
+	private static SourceFormat getFormat(File file) {
+		File key = file.getAbsoluteFile();
+		SourceFormat format;
+		synchronized (FORMATS) {
+			format = FORMATS.get(key);
+		}
+		long length = key.length();
+		long lastModified = key.lastModified();
+		if (format != null && format.length == length && format.lastModified == lastModified) {
+			return format.channels == 0 ? null : format;
+		}
+		format = new SourceFormat(length, lastModified, 0, null);
+		try (SampleSource samples = openSource(key)) {
+			if (samples instanceof WavSource) {
+				WavHeader header = ((WavSource) samples).getHeader();
+				format = new SourceFormat(length, lastModified, header.channels, header);
+			} else if (samples != null) {
+				format = new SourceFormat(length, lastModified, samples.getChannels(), null);
+			}
+		} catch (IOException e) {
+			// not cached, the file may be readable later
+			return null;
+		}
+		synchronized (FORMATS) {
+			FORMATS.put(key, format);
+		}
+		return format.channels == 0 ? null : format;
+	}
+
+	/**
+	 * @param codec
+	 *            An ffmpeg codec name.
+	 * @return The number of bits per sample of a supported PCM codec, -1
+	 *         otherwise.
+	 */
+	private static int bitsPerSample(String codec) {
+		if ("pcm_u8".equals(codec)) {
+			return 8;
+		} else if ("pcm_s16le".equals(codec)) {
+			return 16;
+		} else if ("pcm_s24le".equals(codec)) {
+			return 24;
+		} else if ("pcm_s32le".equals(codec)) {
+			return 32;
+		}
+		return -1;
+	}
+
+	/**
+	 * Opens a WAV or FLAC file.
+	 *
+	 * @return The opened source or null if the file is neither a PCM WAV nor
+	 *         a supported FLAC file.
+	 */
+	private static SampleSource openSource(File file) throws IOException {
+		return openSource(file, false);
+	}
+
+	/**
+	 * @param follow
+	 *            True to accept FLAC files of which the length is not known
+	 *            yet.
+	 */
+	private static SampleSource openSource(File file, boolean follow) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		WavHeader header;
+		try {
+			header = WavHeader.read(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		if (header != null) {
+			return new WavSource(channel, header);
+		}
+		channel.close();
+		FLACDecoder decoder;
+		try {
+			decoder = new FLACDecoder(file);
+		} catch (IOException e) {
+			// not a (supported) FLAC file
+			return null;
+		}
+		if (decoder.getTotalSamples() <= 0 && !follow) {
+			decoder.close();
+			return null;
+		}
+		return new FLACSource(decoder);
+	}
+
+	/**
+	 * Opens a checked source, a WAV file with the header read by the check.
+	 */
+	private static SampleSource openSource(File file, SourceFormat format) throws IOException {
+		if (format == null || format.header == null) {
+			return openSource(file);
+		}
+		return new WavSource(FileChannel.open(file.toPath(), StandardOpenOption.READ), format.header);
+	}
+
+	private static PCMConverter open(File source, Attributes attributes) throws EncoderException {
+		if (!isSupported(source, attributes)) {
+			throw new IllegalArgumentException("In-process conversion of " + source + " to " + attributes
+					+ " is not supported.");
+		}
+		SampleSource samples = null;
+		try {
+			samples = openSource(source, getFormat(source));
+			int rate = samples.getSampleRate();
+			return new PCMConverter(samples, attributes, attributes.getStartSample(rate),
+					attributes.getMaxDurationSamples(rate));
+		} catch (IOException e) {
+			closeQuietly(samples);
+			throw new EncoderException(e);
+		}
+	}
+
+	/**
+	 * Converts a WAV or FLAC file to a WAV file.
+	 *
+	 * @param source
+	 *            The source file, it should be {@link #isSupported supported}.
+	 * @param target
+	 *            The target file, it is overwritten if it exists.
+	 * @param attributes
+	 *            The target encoding.
+	 * @throws EncoderException
+	 *             If reading or writing fails.
+	 */
+	public static void convert(File source, File target, Attributes attributes) throws EncoderException {
+		PCMConverter converter = open(source, attributes);
+		try {
+			converter.write(target);
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} finally {
+			converter.close();
+		}
+	}
+
+	/**
+	 * Converts a WAV or FLAC file to a WAV stream, written block by block.
+	 *
+	 * @param source
+	 *            The source file, it should be {@link #isSupported supported}.
+	 * @param target
+	 *            The channel to write the WAV header and samples to, it is
+	 *            not closed.
+	 * @param attributes
+	 *            The target encoding.
+	 * @throws EncoderException
+	 *             If reading or writing fails.
+	 */
+	public static void convert(File source, WritableByteChannel target, Attributes attributes)
+			throws EncoderException {
+		PCMConverter converter = open(source, attributes);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(WavHeader.CANONICAL_LENGTH);
+			converter.target.write(header);
+			header.flip();
+			while (header.hasRemaining()) {
+				target.write(header);
+			}
+			int length;
+			while ((length = converter.nextBlock()) > 0) {
+				ByteBuffer block = ByteBuffer.wrap(converter.block, 0, length);
+				while (block.hasRemaining()) {
+					target.write(block);
+				}
+			}
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} finally {
+			converter.close();
+		}
+	}
+
+	/**
+	 * Extracts excerpts of a WAV or FLAC file to WAV files. The source is
+	 * opened once and read front to back: a WAV source is only read where
+	 * the excerpts are, a FLAC source is decoded from the frame before each
+	 * excerpt. The start and maximum duration of the attributes are ignored.
+	 *
+	 * @param source
+	 *            The source file, it should be {@link #isSupported supported}.
+	 * @param excerpts
+	 *            The excerpts, sorted by start.
+	 * @param targets
+	 *            A target file for each excerpt.
+	 * @param attributes
+	 *            The target encoding.
+	 * @throws EncoderException
+	 *             If reading or writing fails.
+	 */
+	public static void extract(File source, List<Excerpt> excerpts, List<File> targets, Attributes attributes)
+			throws EncoderException {
+		if (excerpts.size() != targets.size()) {
+			throw new IllegalArgumentException("Expected a target for each of the " + excerpts.size()
+					+ " excerpts, got " + targets.size());
+		}
+		SampleSource samples = openExcerptSource(source, excerpts, attributes);
+		try {
+			int rate = samples.getSampleRate();
+			for (int i = 0; i < excerpts.size(); i++) {
+				Excerpt excerpt = excerpts.get(i);
+				new PCMConverter(samples, attributes, excerpt.getStartSample(rate), excerpt.getDurationSamples(rate))
+						.write(targets.get(i));
+			}
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} finally {
+			closeQuietly(samples);
+		}
+	}
+
+	/**
+	 * Extracts excerpts of a WAV or FLAC file to PCM buffers, see
+	 * {@link #extract(File, List, List, Attributes)}.
+	 *
+	 * @param source
+	 *            The source file, it should be {@link #isSupported supported}.
+	 * @param excerpts
+	 *            The excerpts, sorted by start.
+	 * @param attributes
+	 *            The target encoding.
+	 * @return A stream over an in-memory buffer for each excerpt, without
+	 *         header.
+	 * @throws EncoderException
+	 *             If the source can not be read.
+	 */
+	public static List<AudioInputStream> extract(File source, List<Excerpt> excerpts, Attributes attributes)
+			throws EncoderException {
+		SampleSource samples = openExcerptSource(source, excerpts, attributes);
+		List<AudioInputStream> streams = new ArrayList<AudioInputStream>(excerpts.size());
+		try {
+			int rate = samples.getSampleRate();
+			for (Excerpt excerpt : excerpts) {
+				PCMConverter converter = new PCMConverter(samples, attributes, excerpt.getStartSample(rate),
+						excerpt.getDurationSamples(rate));
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE,
+						converter.target.dataLength));
+				int length;
+				while ((length = converter.nextBlock()) > 0) {
+					buffer.write(converter.block, 0, length);
+				}
+				AudioFormat format = converter.getFormat();
+				streams.add(new AudioInputStream(new ByteArrayInputStream(buffer.toByteArray()), format, buffer
+						.size() / format.getFrameSize()));
+			}
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} finally {
+			closeQuietly(samples);
+		}
+		return streams;
+	}
+
+	private static SampleSource openExcerptSource(File source, List<Excerpt> excerpts, Attributes attributes)
+			throws EncoderException {
+		if (!isSupported(source, attributes)) {
+			throw new IllegalArgumentException("In-process conversion of " + source + " to " + attributes
+					+ " is not supported.");
+		}
+		SampleSource samples = null;
+		try {
+			samples = openSource(source, getFormat(source));
+			Excerpt.checkSorted(excerpts, samples.getSampleRate());
+			return samples;
+		} catch (IOException e) {
+			throw new EncoderException(e);
+		} catch (IllegalArgumentException e) {
+			closeQuietly(samples);
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the converted samples to a WAV file.
+	 */
+	private void write(File file) throws IOException {
+		file = file.getAbsoluteFile();
+		file.getParentFile().mkdirs();
+		try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(WavHeader.CANONICAL_LENGTH);
+			target.write(header);
+			header.flip();
+			out.write(header, 0);
+
+			long position = WavHeader.CANONICAL_LENGTH;
+			long end = position + target.dataLength;
+			MappedByteBuffer mapped = null;
+			int length;
+			while ((length = nextBlock()) > 0) {
+				int offset = 0;
+				while (offset < length && position < end) {
+					if (mapped == null || !mapped.hasRemaining()) {
+						mapped = out.map(MapMode.READ_WRITE, position, Math.min(MAP_WINDOW, end - position));
+					}
+					int count = Math.min(length - offset, mapped.remaining());
+					mapped.put(block, offset, count);
+					offset += count;
+					position += count;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The format of the converted samples.
+	 */
+	private AudioFormat getFormat() {
+		return new AudioFormat(target.bitsPerSample == 8 ? AudioFormat.Encoding.PCM_UNSIGNED
+				: AudioFormat.Encoding.PCM_SIGNED, target.sampleRate, target.bitsPerSample, target.channels,
+				target.frameSize(), target.sampleRate, false);
+	}
+
+	/**
+	 * Converts a WAV or FLAC file on the fly.
+	 *
+	 * @param source
+	 *            The source file, it should be {@link #isSupported supported}.
+	 * @param attributes
+	 *            The target encoding.
+	 * @return A stream with the converted samples, without header.
+	 * @throws EncoderException
+	 *             If the source can not be read.
+	 */
+	public static AudioInputStream stream(File source, Attributes attributes) throws EncoderException {
+		PCMConverter converter = open(source, attributes);
+		return converter.toStream(converter.target.dataLength / converter.target.frameSize());
+	}
+
+	/**
+	 * Converts a WAV or FLAC file that is still being written, for example by
+	 * a recorder, on the fly. The stream keeps reading as the file grows,
+	 * like <code>tail -f</code>: a read blocks until complete frames are
+	 * appended. The file size is polled, every frame is decoded once and the
+	 * resampler continues where it stopped, so nothing is decoded twice. The
+	 * start and maximum duration of the attributes apply.
+	 *
+	 * @param source
+	 *            The source file, its header should be written, see
+	 *            {@link #isFollowSupported}.
+	 * @param attributes
+	 *            The target encoding.
+	 * @param idleTimeout
+	 *            The stream ends when the file did not grow for this number
+	 *            of milliseconds, 0 or less to keep waiting until the stream
+	 *            is closed.
+	 * @return A stream with the converted samples, without header and with an
+	 *         unknown length.
+	 * @throws EncoderException
+	 *             If the source can not be read.
+	 */
+	public static AudioInputStream follow(File source, Attributes attributes, long idleTimeout)
+			throws EncoderException {
+		if (!isFollowSupported(source, attributes)) {
+			throw new IllegalArgumentException("Following " + source + " as " + attributes
+					+ " is not supported in-process.");
+		}
+		SampleSource samples = null;
+		try {
+			samples = openSource(source, true);
+			int rate = samples.getSampleRate();
+			PCMConverter converter = new PCMConverter(samples, attributes, attributes.getStartSample(rate),
+					attributes.getMaxDurationSamples(rate), true);
+			converter.idleTimeout = idleTimeout;
+			return converter.toStream(AudioSystem.NOT_SPECIFIED);
+		} catch (IOException e) {
+			closeQuietly(samples);
+			throw new EncoderException(e);
+		}
+	}
+
+	/**
+	 * @param frames
+	 *            The length of the stream in frames.
+	 * @return A stream that converts block by block while it is read.
+	 */
+	private AudioInputStream toStream(long frames) {
+		final PCMConverter converter = this;
+		InputStream in = new InputStream() {
+			private int offset;
+			private int length;
+
+			@Override
+			public int read() throws IOException {
+				byte[] single = new byte[1];
+				return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				while (offset == length) {
+					offset = 0;
+					length = converter.nextBlock();
+					if (length <= 0) {
+						length = 0;
+						return -1;
+					}
+				}
+				int count = Math.min(len, length - offset);
+				System.arraycopy(converter.block, offset, b, off, count);
+				offset += count;
+				return count;
+			}
+
+			@Override
+			public int available() {
+				return length - offset;
+			}
+
+			@Override
+			public void close() {
+				converter.close();
+			}
+		};
+		return new AudioInputStream(in, getFormat(), frames);
+	}
+
+	/**
+	 * Converts the next block of input into {@link #block}.
+	 *
+	 * @return The number of valid bytes in the block, -1 at the end.
+	 */
+	private int nextBlock() throws IOException {
+		if (finished) {
+			return -1;
+		}
+		if (following) {
+			return nextFollowedBlock();
+		}
+		int frames = readSource();
+		return frames > 0 ? convertBlock(frames) : finish();
+	}
+
+	/**
+	 * Converts the next block of a source that is still being written,
+	 * waiting for frames to be appended.
+	 *
+	 * @return The number of valid bytes in the block, -1 at the end: after
+	 *         the maximum duration, after the idle timeout or once closed.
+	 */
+	private int nextFollowedBlock() throws IOException {
+		final long idleSince = System.nanoTime();
+		while (true) {
+			if (closed) {
+				finished = true;
+				return -1;
+			}
+			int frames = readSource();
+			if (frames > 0) {
+				return convertBlock(frames);
+			}
+			if (remaining <= 0 || (idleTimeout > 0 && System.nanoTime() - idleSince >= idleTimeout * 1000000L)) {
+				return finish();
+			}
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + source + " to grow");
+			}
+		}
+	}
+
+	/**
+	 * Reads the next frames of the source.
+	 *
+	 * @return The number of frames read.
+	 */
+	private int readSource() throws IOException {
+		if (remaining <= 0) {
+			return 0;
+		}
+		int frames = source.read(interleaved == null ? mixed[0] : interleaved,
+				(int) Math.min(BLOCK_FRAMES, remaining));
+		remaining -= frames;
+		return frames;
+	}
+
+	/**
+	 * @return The number of bytes in the block.
+	 */
+	private int convertBlock(int frames) {
+		mix(frames);
+		return quantize(resample(frames, false));
+	}
+
+	/**
+	 * Flushes the resamplers.
+	 *
+	 * @return The number of bytes in the last block, -1 if there is none.
+	 */
+	private int finish() {
+		finished = true;
+		if (resamplers == null) {
+			return -1;
+		}
+		return quantize(resample(0, true));
+	}
+
+	/**
+	 * Downmixes or deinterleaves to the target number of channels and applies
+	 * the gain.
+	 */
+	private void mix(int frames) {
+		if (interleaved != null) {
+			if (mixed.length == 1) {
+				kernels.downmix(interleaved, source.getChannels(), mixed[0], frames);
+			} else {
+				kernels.deinterleave(interleaved, source.getChannels(), mixed, frames);
+			}
+		}
+		if (gain != 1.0f) {
+			for (float[] samples : mixed) {
+				kernels.gain(samples, frames, gain);
+			}
+		}
+	}
+
+	/**
+	 * Resamples the mixed samples into {@link #resampled}.
+	 *
+	 * @return The number of output frames.
+	 */
+	private int resample(int frames, boolean flush) {
+		if (resamplers == null) {
+			return frames;
+		}
+		int capacity = resamplers[0].outputCapacity(frames);
+		if (resampled == mixed || resampled[0].length < capacity) {
+			resampled = new float[mixed.length][capacity];
+		}
+		int outputFrames = 0;
+		for (int c = 0; c < resamplers.length; c++) {
+			if (flush) {
+				outputFrames = resamplers[c].flush(resampled[c]);
+			} else {
+				outputFrames = resamplers[c].process(mixed[c], 0, frames, resampled[c]);
+			}
+		}
+		return outputFrames;
+	}
+
+	/**
+	 * Quantizes and interleaves the resampled frames into {@link #block}.
+	 *
+	 * @return The number of bytes in the block.
+	 */
+	private int quantize(int frames) {
+		final int channels = target.channels;
+		final int length = frames * target.frameSize();
+		if (block.length < length) {
+			block = new byte[length];
+		}
+		final byte[] out = block;
+		int index = 0;
+		switch (target.bitsPerSample) {
+		case 8:
+			for (int i = 0; i < frames; i++) {
+				for (int c = 0; c < channels; c++) {
+					out[index++] = (byte) (clip(Math.round(resampled[c][i] * 128.0f), 127) + 128);
+				}
+			}
+			break;
+		case 16:
+			for (int i = 0; i < frames; i++) {
+				for (int c = 0; c < channels; c++) {
+					int sample = clip(Math.round(resampled[c][i] * 32768.0f), 32767);
+					out[index++] = (byte) sample;
+					out[index++] = (byte) (sample >> 8);
+				}
+			}
+			break;
+		case 24:
+			for (int i = 0; i < frames; i++) {
+				for (int c = 0; c < channels; c++) {
+					int sample = clip(Math.round(resampled[c][i] * 8388608.0f), 8388607);
+					out[index++] = (byte) sample;
+					out[index++] = (byte) (sample >> 8);
+					out[index++] = (byte) (sample >> 16);
+				}
+			}
+			break;
+		default:
+			for (int i = 0; i < frames; i++) {
+				for (int c = 0; c < channels; c++) {
+					long sample = Math.max(Integer.MIN_VALUE,
+							Math.min(Integer.MAX_VALUE, Math.round(resampled[c][i] * 2147483648.0)));
+					out[index++] = (byte) sample;
+					out[index++] = (byte) (sample >> 8);
+					out[index++] = (byte) (sample >> 16);
+					out[index++] = (byte) (sample >> 24);
+				}
+			}
+			break;
+		}
+		return length;
+	}
+
+	private static int clip(int sample, int max) {
+		return sample > max ? max : (sample < -max - 1 ? -max - 1 : sample);
+	}
+
+	private void close() {
+		closed = true;
+		closeQuietly(source);
+	}
+
+	private static void closeQuietly(SampleSource source) {
+		if (source != null) {
+			try {
+				source.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * The number of channels of a checked source and the header if it is a
+	 * WAV file, with the size and modification time of the file when it was
+	 * read. No channels means the source is not supported.
+	 */
+	private static final class SourceFormat {
+		private final long length;
+		private final long lastModified;
+		private final int channels;
+		private final WavHeader header;
+
+		private SourceFormat(long length, long lastModified, int channels, WavHeader header) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.channels = channels;
+			this.header = header;
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package be.tarsos.transcoder.pcm;
+
+/**
+ * A streaming polyphase resampler for one channel. The filter follows the
+ * design of the libswresample defaults: a Kaiser windowed sinc (beta 9) with
+ * 32 taps at unity ratio, a cutoff of 0.97 times the lowest Nyquist frequency
+ * and a bank of at most 1024 phases. If the reduced ratio needs more phases
+ * the coefficients of the two nearest phases are interpolated linearly.
+ *
+ * Integer ratios have their own loops: decimation by an integer factor only
+ * uses the first phase and upsampling by an integer factor cycles through the
+ * phases without position bookkeeping.
+ *
+ * @author Joren Six
+ */
+final class Resampler {
+
+	private static final int FILTER_SIZE = 32;
+	private static final double CUTOFF = 0.97;
+	private static final double KAISER_BETA = 9;
+	private static final int MAX_PHASES = 1024;
+
+	/**
+	 * The reduced upsampling factor (L).
+	 */
+	private final int interpolation;
+
+	/**
+	 * The reduced downsampling factor (M).
+	 */
+	private final int decimation;
+
+	/**
+	 * True if every output phase has its own filter in the bank.
+	 */
+	private final boolean exact;
+
+	private final int taps;
+	private final int center;
+
+	/**
+	 * Filter coefficients per phase. An inexact bank has one extra phase so
+	 * that interpolation never has to wrap.
+	 */
+	private final float[][] bank;
+
+	/**
+	 * Pending input, starting with the left context of the next output.
+	 */
+	private float[] buffer;
+	private int length;
+
+	/**
+	 * Index in the buffer of the last input sample at or before the next
+	 * output instant.
+	 */
+	private int position;
+
+	/**
+	 * The fractional part of the next output instant, in units of 1/L input
+	 * samples.
+	 */
+	private int phase;
+
+	private long consumed;
+	private long produced;
+
+	/**
+	 * Creates a resampler.
+	 *
+	 * @param sourceRate
+	 *            The input sample rate in Hz.
+	 * @param targetRate
+	 *            The output sample rate in Hz.
+	 */
+	Resampler(int sourceRate, int targetRate) {
+		int gcd = gcd(sourceRate, targetRate);
+		interpolation = targetRate / gcd;
+		decimation = sourceRate / gcd;
+		exact = interpolation <= MAX_PHASES;
+
+		double factor = Math.min(targetRate * CUTOFF / sourceRate, 1.0);
+		taps = Math.max((int) Math.ceil(FILTER_SIZE / factor), 1);
+		center = (taps - 1) / 2;
+		int phases = exact ? interpolation : MAX_PHASES + 1;
+		int phaseCount = exact ? interpolation : MAX_PHASES;
+		bank = new float[phases][taps];
+		for (int p = 0; p < phases; p++) {
+			buildPhase(bank[p], p / (double) phaseCount, factor);
+		}
+
+		buffer = new float[Math.max(4096, 2 * taps)];
+		length = center;
+		position = center;
+	}
+
+	private void buildPhase(float[] filter, double fraction, double factor) {
+		double[] tab = new double[taps];
+		double norm = 0;
+		for (int i = 0; i < taps; i++) {
+			double distance = i - center - fraction;
+			double x = Math.PI * distance * factor;
+			double y = x == 0 ? 1.0 : Math.sin(x) / x;
+			double w = 2.0 * distance / taps;
+			y *= bessel(KAISER_BETA * Math.sqrt(Math.max(1 - w * w, 0)));
+			tab[i] = y;
+			norm += y;
+		}
+		for (int i = 0; i < taps; i++) {
+			filter[i] = (float) (tab[i] / norm);
+		}
+	}
+
+	/**
+	 * The zeroth order modified Bessel function of the first kind.
+	 */
+	private static double bessel(double x) {
+		double sum = 1;
+		double term = 1;
+		double half = x * x / 4;
+		for (int k = 1; k < 50 && term > sum * 1e-12; k++) {
+			term *= half / (k * (double) k);
+			sum += term;
+		}
+		return sum;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * @param inputLength
+	 *            The number of samples that will be passed to
+	 *            {@link #process}.
+	 * @return The size of an output array that is large enough for the next
+	 *         call to {@link #process} or {@link #flush}.
+	 */
+	int outputCapacity(int inputLength) {
+		return (int) ((long) (length + inputLength + taps) * interpolation / decimation) + 2;
+	}
+
+	/**
+	 * The number of output samples that corresponds to a number of input
+	 * samples.
+	 *
+	 * @param inputSamples
+	 *            The number of input samples.
+	 * @return The number of output samples, rounded up.
+	 */
+	long outputLength(long inputSamples) {
+		return (inputSamples * interpolation + decimation - 1) / decimation;
+	}
+
+	/**
+	 * Resamples the next block of input. Output is produced as soon as the
+	 * filter has enough right context.
+	 *
+	 * @param input
+	 *            The input samples.
+	 * @param offset
+	 *            The first sample to use.
+	 * @param count
+	 *            The number of samples to use.
+	 * @param output
+	 *            Receives the output, starting at index zero.
+	 * @return The number of output samples written.
+	 */
+	int process(float[] input, int offset, int count, float[] output) {
+		append(input, offset, count);
+		consumed += count;
+		return produce(output, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Pads the input with silence and returns the remaining output, so that
+	 * the total output length matches {@link #outputLength} of all input.
+	 *
+	 * @param output
+	 *            Receives the output, starting at index zero.
+	 * @return The number of output samples written.
+	 */
+	int flush(float[] output) {
+		long remaining = outputLength(consumed) - produced;
+		int count = 0;
+		while (count < remaining) {
+			append(new float[taps], 0, taps);
+			count += produce(output, count, (int) (remaining - count));
+		}
+		return count;
+	}
+
+	private int produce(float[] output, int max) {
+		return produce(output, 0, max);
+	}
+
+	private int produce(float[] output, int outputOffset, int max) {
+		int count = outputOffset;
+		int limit = length - taps + center;
+		int end = (int) Math.min((long) outputOffset + max, output.length);
+		if (interpolation == 1) {
+			// integer decimation: only the first phase is ever used
+			final float[] filter = bank[0];
+			while (position <= limit && count < end) {
+				output[count++] = convolve(filter, position - center);
+				position += decimation;
+			}
+		} else if (decimation == 1 && exact) {
+			// integer upsampling: every input sample yields L outputs
+			while (position <= limit && count < end) {
+				final int start = position - center;
+				while (phase < interpolation && count < end) {
+					output[count++] = convolve(bank[phase], start);
+					phase++;
+				}
+				if (phase == interpolation) {
+					phase = 0;
+					position++;
+				}
+			}
+		} else {
+			final int stepPosition = decimation / interpolation;
+			final int stepPhase = decimation % interpolation;
+			while (position <= limit && count < end) {
+				if (exact) {
+					output[count++] = convolve(bank[phase], position - center);
+				} else {
+					output[count++] = interpolate(position - center);
+				}
+				position += stepPosition;
+				phase += stepPhase;
+				if (phase >= interpolation) {
+					phase -= interpolation;
+					position++;
+				}
+			}
+		}
+		compact();
+		produced += count - outputOffset;
+		return count - outputOffset;
+	}
+
+	private float convolve(final float[] filter, final int start) {
+		final float[] data = buffer;
+		float sum = 0;
+		for (int i = 0; i < filter.length; i++) {
+			sum += data[start + i] * filter[i];
+		}
+		return sum;
+	}
+
+	private float interpolate(final int start) {
+		final double index = phase * (double) MAX_PHASES / interpolation;
+		final int lower = (int) index;
+		final float mu = (float) (index - lower);
+		final float[] first = bank[lower];
+		final float[] second = bank[lower + 1];
+		final float[] data = buffer;
+		float a = 0;
+		float b = 0;
+		for (int i = 0; i < taps; i++) {
+			a += data[start + i] * first[i];
+			b += data[start + i] * second[i];
+		}
+		return a + mu * (b - a);
+	}
+
+	private void append(float[] input, int offset, int count) {
+		if (length + count > buffer.length) {
+			float[] larger = new float[Math.max(buffer.length * 2, length + count)];
+			System.arraycopy(buffer, 0, larger, 0, length);
+			buffer = larger;
+		}
+		System.arraycopy(input, offset, buffer, length, count);
+		length += count;
+	}
+
+	/**
+	 * Drops input that is no longer needed as left context.
+	 */
+	private void compact() {
+		int drop = Math.min(position - center, length);
+		if (drop > 0) {
+			System.arraycopy(buffer, drop, buffer, 0, length - drop);
+			length -= drop;
+			position -= drop;
+		}
+	}
+}
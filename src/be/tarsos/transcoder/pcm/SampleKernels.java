@@ -0,0 +1,140 @@
+package be.tarsos.transcoder.pcm;
+
+import java.util.logging.Logger;
+
+/**
+ * The inner loops that run for every sample of a PCM stream: integer to float
+ * conversion, downmixing, deinterleaving and gain. Two implementations are
+ * available, a scalar one and one that uses the Java Vector API
+ * (<code>jdk.incubator.vector</code>). The vector implementation is only used
+ * if the JVM is started with <code>--add-modules jdk.incubator.vector</code>.
+ * Both implementations produce bit-exact the same output: they use the same
+ * operations in the same order.
+ *
+ * <p>
+ * Floats are in [-1,1): integer samples are scaled by a power of two, so the
+ * conversion itself is exact for 16 and 24 bit samples.
+ * </p>
+ *
+ * @author Joren Six
+ */
+public abstract class SampleKernels {
+
+	private static final Logger LOG = Logger.getLogger(SampleKernels.class.getName());
+
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+	private static final SampleKernels SCALAR = new ScalarKernels();
+
+	private static final SampleKernels INSTANCE = createInstance();
+
+	private static SampleKernels createInstance() {
+		if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+			try {
+				return (SampleKernels) Class.forName(SampleKernels.class.getPackage().getName() + ".VectorKernels")
+						.getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				LOG.warning("Could not load the vector kernels, falling back to scalar kernels: " + e.getMessage());
+			}
+		}
+		return SCALAR;
+	}
+
+	/**
+	 * @return The fastest available implementation.
+	 */
+	public static SampleKernels getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return The scalar implementation, always available.
+	 */
+	public static SampleKernels getScalarInstance() {
+		return SCALAR;
+	}
+
+	/**
+	 * @return True if this implementation uses the Vector API.
+	 */
+	public abstract boolean isVectorized();
+
+	/**
+	 * Converts signed 16 bit samples to floats.
+	 *
+	 * @param source
+	 *            The samples.
+	 * @param target
+	 *            Receives the converted samples.
+	 * @param length
+	 *            The number of samples to convert.
+	 */
+	public abstract void s16ToFloat(short[] source, float[] target, int length);
+
+	/**
+	 * Converts packed little endian signed 24 bit samples to floats.
+	 *
+	 * @param source
+	 *            The samples, three bytes each.
+	 * @param target
+	 *            Receives the converted samples.
+	 * @param length
+	 *            The number of samples to convert.
+	 */
+	public abstract void s24ToFloat(byte[] source, float[] target, int length);
+
+	/**
+	 * Converts signed 32 bit samples to floats. Precision is lost beyond 24
+	 * bits.
+	 *
+	 * @param source
+	 *            The samples.
+	 * @param target
+	 *            Receives the converted samples.
+	 * @param length
+	 *            The number of samples to convert.
+	 */
+	public abstract void s32ToFloat(int[] source, float[] target, int length);
+
+	/**
+	 * Splits interleaved frames into one array per channel.
+	 *
+	 * @param source
+	 *            Interleaved samples.
+	 * @param channels
+	 *            The number of channels.
+	 * @param target
+	 *            Receives the samples, one array per channel.
+	 * @param frames
+	 *            The number of frames.
+	 */
+	public abstract void deinterleave(float[] source, int channels, float[][] target, int frames);
+
+	/**
+	 * Downmixes interleaved frames to mono by averaging all channels. The
+	 * channels are added in order and the sum is multiplied by the reciprocal
+	 * of the number of channels.
+	 *
+	 * @param source
+	 *            Interleaved samples.
+	 * @param channels
+	 *            The number of channels.
+	 * @param target
+	 *            Receives the mono samples.
+	 * @param frames
+	 *            The number of frames.
+	 */
+	public abstract void downmix(float[] source, int channels, float[] target, int frames);
+
+	/**
+	 * Multiplies samples with a gain, in place.
+	 *
+	 * @param samples
+	 *            The samples.
+	 * @param length
+	 *            The number of samples.
+	 * @param gain
+	 *            The gain factor.
+	 */
+	public abstract void gain(float[] samples, int length, float gain);
+}
@@ -0,0 +1,55 @@
+package be.tarsos.transcoder.pcm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Decoded audio that {@link PCMConverter} reads frame by frame, as
+ * interleaved floats in [-1,1).
+ *
+ * @author Joren Six
+ */
+interface SampleSource extends Closeable {
+
+	int getChannels();
+
+	int getSampleRate();
+
+	/**
+	 * @return The total number of frames.
+	 */
+	long getFrames();
+
+	/**
+	 * Moves to a frame, the next {@link #read} starts there.
+	 *
+	 * @param frame
+	 *            The frame index.
+	 * @throws IOException
+	 *             If the source can not be read.
+	 */
+	void seek(long frame) throws IOException;
+
+	/**
+	 * Reads the next frames.
+	 *
+	 * @param interleaved
+	 *            Receives the interleaved samples.
+	 * @param frames
+	 *            The maximum number of frames to read.
+	 * @return The number of frames read, 0 at the end.
+	 * @throws IOException
+	 *             If the source can not be read.
+	 */
+	int read(float[] interleaved, int frames) throws IOException;
+
+	/**
+	 * Keeps reading beyond the known end for a file that is still being
+	 * written: {@link #read} then returns 0 while no complete new frames were
+	 * appended, a next call picks up where the previous one stopped.
+	 *
+	 * @throws IOException
+	 *             If the source can not be read.
+	 */
+	void follow() throws IOException;
+}
@@ -0,0 +1,90 @@
+package be.tarsos.transcoder.pcm;
+
+/**
+ * Plain loops, the reference for {@link VectorKernels}.
+ *
+ * @author Joren Six
+ */
+class ScalarKernels extends SampleKernels {
+
+	static final float S16_SCALE = 1.0f / 32768.0f;
+	static final float S24_SCALE = 1.0f / 8388608.0f;
+	static final float S32_SCALE = 1.0f / 2147483648.0f;
+
+	@Override
+	public boolean isVectorized() {
+		return false;
+	}
+
+	@Override
+	public void s16ToFloat(short[] source, float[] target, int length) {
+		s16ToFloat(source, target, 0, length);
+	}
+
+	final void s16ToFloat(short[] source, float[] target, int from, int to) {
+		for (int i = from; i < to; i++) {
+			target[i] = source[i] * S16_SCALE;
+		}
+	}
+
+	@Override
+	public void s24ToFloat(byte[] source, float[] target, int length) {
+		for (int i = 0, j = 0; i < length; i++, j += 3) {
+			int sample = (source[j] & 0xFF) | ((source[j + 1] & 0xFF) << 8) | (source[j + 2] << 16);
+			target[i] = sample * S24_SCALE;
+		}
+	}
+
+	@Override
+	public void s32ToFloat(int[] source, float[] target, int length) {
+		s32ToFloat(source, target, 0, length);
+	}
+
+	final void s32ToFloat(int[] source, float[] target, int from, int to) {
+		for (int i = from; i < to; i++) {
+			target[i] = source[i] * S32_SCALE;
+		}
+	}
+
+	@Override
+	public void deinterleave(float[] source, int channels, float[][] target, int frames) {
+		deinterleave(source, channels, target, 0, frames);
+	}
+
+	final void deinterleave(float[] source, int channels, float[][] target, int from, int to) {
+		for (int c = 0; c < channels; c++) {
+			final float[] channel = target[c];
+			for (int i = from, j = from * channels + c; i < to; i++, j += channels) {
+				channel[i] = source[j];
+			}
+		}
+	}
+
+	@Override
+	public void downmix(float[] source, int channels, float[] target, int frames) {
+		downmix(source, channels, target, 0, frames);
+	}
+
+	final void downmix(float[] source, int channels, float[] target, int from, int to) {
+		final float scale = 1.0f / channels;
+		for (int i = from; i < to; i++) {
+			final int frame = i * channels;
+			float sum = source[frame];
+			for (int c = 1; c < channels; c++) {
+				sum += source[frame + c];
+			}
+			target[i] = sum * scale;
+		}
+	}
+
+	@Override
+	public void gain(float[] samples, int length, float gain) {
+		gain(samples, gain, 0, length);
+	}
+
+	final void gain(float[] samples, float gain, int from, int to) {
+		for (int i = from; i < to; i++) {
+			samples[i] *= gain;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package be.tarsos.transcoder.pcm;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels using the preferred vector shape of the platform. Loops process
+ * whole vectors and leave the tail to the scalar loops of the super class.
+ * Strided access (deinterleaving and downmixing) uses gathers with a fixed
+ * index map per channel count. The packed 24 bit conversion has no vector
+ * counterpart, the gain loop is already vectorized by the JIT compiler and
+ * gathers do not pay off when deinterleaving stereo: those stay scalar.
+ *
+ * Only loaded by {@link SampleKernels#getInstance()} when the
+ * <code>jdk.incubator.vector</code> module is present.
+ *
+ * @author Joren Six
+ */
+final class VectorKernels extends ScalarKernels {
+
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+	/**
+	 * Shorts with as many lanes as {@link #FLOATS}.
+	 */
+	private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class,
+			VectorShape.forBitSize(FLOATS.vectorBitSize() / 2));
+
+	/**
+	 * Ints with as many lanes as {@link #FLOATS}.
+	 */
+	private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+
+	private static final int LANES = FLOATS.length();
+
+	/**
+	 * Gather index maps, indexed by channel count: lane i reads frame i.
+	 */
+	private final int[][] strides = new int[9][];
+
+	VectorKernels() {
+		for (int channels = 1; channels < strides.length; channels++) {
+			strides[channels] = stride(channels);
+		}
+	}
+
+	private static int[] stride(int channels) {
+		int[] map = new int[LANES];
+		for (int i = 0; i < LANES; i++) {
+			map[i] = i * channels;
+		}
+		return map;
+	}
+
+	private int[] strideFor(int channels) {
+		return channels < strides.length ? strides[channels] : stride(channels);
+	}
+
+	@Override
+	public boolean isVectorized() {
+		return true;
+	}
+
+	@Override
+	public void s16ToFloat(short[] source, float[] target, int length) {
+		final int bound = length - length % LANES;
+		int i = 0;
+		for (; i < bound; i += LANES) {
+			FloatVector converted = (FloatVector) ShortVector.fromArray(SHORTS, source, i).convertShape(
+					VectorOperators.S2F, FLOATS, 0);
+			converted.mul(S16_SCALE).intoArray(target, i);
+		}
+		s16ToFloat(source, target, i, length);
+	}
+
+	@Override
+	public void s32ToFloat(int[] source, float[] target, int length) {
+		final int bound = length - length % LANES;
+		int i = 0;
+		for (; i < bound; i += LANES) {
+			FloatVector converted = (FloatVector) IntVector.fromArray(INTS, source, i).convert(
+					VectorOperators.I2F, 0);
+			converted.mul(S32_SCALE).intoArray(target, i);
+		}
+		s32ToFloat(source, target, i, length);
+	}
+
+	@Override
+	public void deinterleave(float[] source, int channels, float[][] target, int frames) {
+		if (channels == 2) {
+			// gathers are not faster than the scalar copy for two channels
+			super.deinterleave(source, channels, target, frames);
+			return;
+		}
+		final int[] stride = strideFor(channels);
+		final int bound = frames - frames % LANES;
+		for (int c = 0; c < channels; c++) {
+			final float[] channel = target[c];
+			for (int i = 0; i < bound; i += LANES) {
+				FloatVector.fromArray(FLOATS, source, i * channels + c, stride, 0).intoArray(channel, i);
+			}
+		}
+		deinterleave(source, channels, target, bound, frames);
+	}
+
+	@Override
+	public void downmix(float[] source, int channels, float[] target, int frames) {
+		final int[] stride = strideFor(channels);
+		final float scale = 1.0f / channels;
+		final int bound = frames - frames % LANES;
+		for (int i = 0; i < bound; i += LANES) {
+			final int frame = i * channels;
+			FloatVector sum = FloatVector.fromArray(FLOATS, source, frame, stride, 0);
+			for (int c = 1; c < channels; c++) {
+				sum = sum.add(FloatVector.fromArray(FLOATS, source, frame + c, stride, 0));
+			}
+			sum.mul(scale).intoArray(target, i);
+		}
+		downmix(source, channels, target, bound, frames);
+	}
+}
@@ -0,0 +1,156 @@
+package be.tarsos.transcoder.pcm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The parts of a RIFF WAVE header needed to convert PCM samples: the sample
+ * layout and the location of the data chunk.
+ *
+ * @author Joren Six
+ */
+final class WavHeader {
+
+	/**
+	 * Format tag for integer PCM.
+	 */
+	private static final int WAVE_FORMAT_PCM = 0x0001;
+
+	/**
+	 * Format tag for the extensible format, the sub format then defines the
+	 * actual encoding.
+	 */
+	private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+	/**
+	 * The length of the canonical header written by {@link #write}.
+	 */
+	static final int CANONICAL_LENGTH = 44;
+
+	final int channels;
+	final int sampleRate;
+	final int bitsPerSample;
+	final long dataOffset;
+	final long dataLength;
+
+	WavHeader(int channels, int sampleRate, int bitsPerSample, long dataOffset, long dataLength) {
+		this.channels = channels;
+		this.sampleRate = sampleRate;
+		this.bitsPerSample = bitsPerSample;
+		this.dataOffset = dataOffset;
+		this.dataLength = dataLength;
+	}
+
+	/**
+	 * @return The number of bytes used by one sample of one channel.
+	 */
+	int bytesPerSample() {
+		return bitsPerSample / 8;
+	}
+
+	/**
+	 * @return The number of bytes used by one sample of all channels.
+	 */
+	int frameSize() {
+		return bytesPerSample() * channels;
+	}
+
+	/**
+	 * @return The number of complete frames in the data chunk.
+	 */
+	long frames() {
+		return dataLength / frameSize();
+	}
+
+	/**
+	 * Reads the header of an integer PCM WAV file. Chunks other than
+	 * <code>fmt </code> and <code>data</code> are skipped.
+	 *
+	 * @param channel
+	 *            The channel to read from, its position is not changed.
+	 * @return The parsed header or null if the file is not an integer PCM WAV
+	 *         file with 8, 16, 24 or 32 bits per sample.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	static WavHeader read(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		if (channel.read(buffer, 0) != 12 || buffer.getInt(0) != 0x46464952 || buffer.getInt(8) != 0x45564157) {
+			// not "RIFF" ... "WAVE"
+			return null;
+		}
+		long size = channel.size();
+		long offset = 12;
+		int channels = -1;
+		int sampleRate = -1;
+		int bitsPerSample = -1;
+		ByteBuffer chunk = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+		while (offset + 8 <= size) {
+			chunk.clear();
+			chunk.limit(8);
+			channel.read(chunk, offset);
+			int id = chunk.getInt(0);
+			long length = chunk.getInt(4) & 0xFFFFFFFFL;
+			if (id == 0x20746d66) {
+				// "fmt "
+				chunk.clear();
+				chunk.limit((int) Math.min(length, chunk.capacity()));
+				channel.read(chunk, offset + 8);
+				int tag = chunk.getShort(0) & 0xFFFF;
+				channels = chunk.getShort(2) & 0xFFFF;
+				sampleRate = chunk.getInt(4);
+				bitsPerSample = chunk.getShort(14) & 0xFFFF;
+				if (tag == WAVE_FORMAT_EXTENSIBLE && length >= 40) {
+					tag = chunk.getShort(24) & 0xFFFF;
+				}
+				if (tag != WAVE_FORMAT_PCM) {
+					return null;
+				}
+			} else if (id == 0x61746164) {
+				// "data", a zero or oversized length is written by streaming
+				// encoders that could not seek back to finish the header.
+				if (channels <= 0 || sampleRate <= 0) {
+					return null;
+				}
+				if (bitsPerSample != 8 && bitsPerSample != 16 && bitsPerSample != 24 && bitsPerSample != 32) {
+					return null;
+				}
+				long available = size - offset - 8;
+				if (length == 0 || length > available) {
+					length = available;
+				}
+				return new WavHeader(channels, sampleRate, bitsPerSample, offset + 8, length);
+			}
+			// chunks are word aligned
+			offset += 8 + length + (length & 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Writes a canonical 44 byte PCM header.
+	 *
+	 * @param buffer
+	 *            The buffer to write the header to, at its current position.
+	 */
+	void write(ByteBuffer buffer) {
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0x46464952); // "RIFF"
+		buffer.putInt((int) (CANONICAL_LENGTH - 8 + dataLength));
+		buffer.putInt(0x45564157); // "WAVE"
+		buffer.putInt(0x20746d66); // "fmt "
+		buffer.putInt(16);
+		buffer.putShort((short) WAVE_FORMAT_PCM);
+		buffer.putShort((short) channels);
+		buffer.putInt(sampleRate);
+		buffer.putInt(sampleRate * frameSize());
+		buffer.putShort((short) frameSize());
+		buffer.putShort((short) bitsPerSample);
+		buffer.putInt(0x61746164); // "data"
+		buffer.putInt((int) dataLength);
+		buffer.order(order);
+	}
+}
@@ -0,0 +1,188 @@
+package be.tarsos.transcoder.pcm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+import be.tarsos.transcoder.Segment;
+
+/**
+ * Cuts a PCM stream into numbered WAV files of a fixed number of samples,
+ * optionally overlapping, while it is read once from front to back. Only the
+ * segments that overlap the current read position are open.
+ *
+ * @author Joren Six
+ */
+public final class WavSegmenter {
+
+	/**
+	 * The number of frames read at once.
+	 */
+	private static final int BLOCK_FRAMES = 4096;
+
+	private WavSegmenter() {
+	}
+
+	/**
+	 * Writes the segments of a stream. Segment <code>i</code> starts at sample
+	 * <code>i * segmentSamples</code> and holds
+	 * <code>segmentSamples + overlapSamples</code> samples, the last segments
+	 * hold what is left. The stream is not closed.
+	 *
+	 * @param in
+	 *            Little endian integer PCM samples.
+	 * @param directory
+	 *            The directory to write the segments to.
+	 * @param prefix
+	 *            The name of a segment is the prefix followed by the five
+	 *            digit number of the segment and <code>.wav</code>.
+	 * @param segmentSamples
+	 *            The number of samples per channel between the start of two
+	 *            segments.
+	 * @param overlapSamples
+	 *            The number of samples per channel a segment shares with the
+	 *            next.
+	 * @return The segments, in order.
+	 * @throws IOException
+	 *             If the stream can not be read or a segment can not be
+	 *             written.
+	 */
+	public static List<Segment> split(AudioInputStream in, File directory, String prefix, long segmentSamples,
+			long overlapSamples) throws IOException {
+		AudioFormat format = in.getFormat();
+		boolean integer = format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+				|| format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED;
+		if (!integer || (format.isBigEndian() && format.getSampleSizeInBits() > 8)) {
+			throw new IllegalArgumentException("Only little endian integer PCM can be segmented, not " + format);
+		}
+		if (segmentSamples <= 0 || overlapSamples < 0) {
+			throw new IllegalArgumentException("Segments need a positive length and overlap, not " + segmentSamples
+					+ " and " + overlapSamples);
+		}
+		directory.mkdirs();
+		final int frameSize = format.getFrameSize();
+		final WavHeader header = new WavHeader(format.getChannels(), (int) format.getSampleRate(),
+				format.getSampleSizeInBits(), WavHeader.CANONICAL_LENGTH, 0);
+		List<Segment> segments = new ArrayList<Segment>();
+		List<Output> open = new ArrayList<Output>();
+		byte[] block = new byte[BLOCK_FRAMES * frameSize];
+		long position = 0;
+		int next = 0;
+		try {
+			int length;
+			while ((length = readFrames(in, block, frameSize)) > 0) {
+				final long end = position + length / frameSize;
+				while (next * segmentSamples < end) {
+					long start = next * segmentSamples;
+					File file = new File(directory, String.format("%s%05d.wav", prefix, next));
+					open.add(new Output(next, file, start, start + segmentSamples + overlapSamples, header));
+					next++;
+				}
+				Iterator<Output> outputs = open.iterator();
+				while (outputs.hasNext()) {
+					Output output = outputs.next();
+					long from = Math.max(output.start, position);
+					long to = Math.min(output.end, end);
+					if (to > from) {
+						output.write(block, (int) ((from - position) * frameSize), (int) ((to - from) * frameSize));
+					}
+					if (output.end <= end) {
+						segments.add(output.finish());
+						outputs.remove();
+					}
+				}
+				position = end;
+			}
+			for (Output output : open) {
+				segments.add(output.finish());
+			}
+			open.clear();
+		} finally {
+			for (Output output : open) {
+				output.abort();
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Fills the block with whole frames, unless the stream ends.
+	 *
+	 * @return The number of bytes read, a multiple of the frame size.
+	 */
+	private static int readFrames(InputStream in, byte[] block, int frameSize) throws IOException {
+		int length = 0;
+		int read;
+		while (length < block.length && (read = in.read(block, length, block.length - length)) != -1) {
+			length += read;
+		}
+		return length - length % frameSize;
+	}
+
+	/**
+	 * A segment that is being written.
+	 */
+	private static final class Output {
+		private final int index;
+		private final File file;
+		private final long start;
+		private final long end;
+		private final WavHeader format;
+		private final FileChannel channel;
+		private long dataLength;
+
+		Output(int index, File file, long start, long end, WavHeader format) throws IOException {
+			this.index = index;
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			this.format = format;
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			channel.position(WavHeader.CANONICAL_LENGTH);
+		}
+
+		void write(byte[] block, int offset, int length) throws IOException {
+			ByteBuffer data = ByteBuffer.wrap(block, offset, length);
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			dataLength += length;
+		}
+
+		/**
+		 * Writes the header and closes the file.
+		 */
+		Segment finish() throws IOException {
+			try {
+				ByteBuffer header = ByteBuffer.allocate(WavHeader.CANONICAL_LENGTH);
+				new WavHeader(format.channels, format.sampleRate, format.bitsPerSample, WavHeader.CANONICAL_LENGTH,
+						dataLength).write(header);
+				header.flip();
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+			} finally {
+				channel.close();
+			}
+			return new Segment(index, file, start, dataLength / format.frameSize(), format.sampleRate);
+		}
+
+		void abort() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package be.tarsos.transcoder.pcm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Reads the data chunk of an integer PCM WAV file through memory mapped
+ * windows.
+ *
+ * @author Joren Six
+ */
+final class WavSource implements SampleSource {
+
+	/**
+	 * The maximum size of a memory mapped region.
+	 */
+	private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final WavHeader header;
+	private final SampleKernels kernels = SampleKernels.getInstance();
+
+	private long frame;
+
+	/**
+	 * The number of frames that can be read, it grows when following.
+	 */
+	private long frames;
+	private boolean following;
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long windowEnd;
+
+	/**
+	 * Raw samples, only the one matching the bit depth is allocated.
+	 */
+	private short[] shorts;
+	private int[] ints;
+	private byte[] bytes;
+
+	WavSource(FileChannel channel, WavHeader header) {
+		this.channel = channel;
+		this.header = header;
+		this.frames = header.frames();
+	}
+
+	/**
+	 * @return The header of the file.
+	 */
+	WavHeader getHeader() {
+		return header;
+	}
+
+	@Override
+	public int getChannels() {
+		return header.channels;
+	}
+
+	@Override
+	public int getSampleRate() {
+		return header.sampleRate;
+	}
+
+	@Override
+	public long getFrames() {
+		return frames;
+	}
+
+	@Override
+	public void seek(long frame) {
+		// a following reader waits for the frame to be written
+		this.frame = following ? frame : Math.min(frame, frames);
+	}
+
+	@Override
+	public void follow() {
+		following = true;
+	}
+
+	@Override
+	public int read(float[] interleaved, int frames) throws IOException {
+		if (following && frame + frames > this.frames) {
+			grow();
+		}
+		frames = (int) Math.min(frames, this.frames - frame);
+		if (frames <= 0) {
+			return 0;
+		}
+		ByteBuffer data = map(frames);
+		final int samples = frames * header.channels;
+		switch (header.bitsPerSample) {
+		case 8:
+			for (int i = 0; i < samples; i++) {
+				interleaved[i] = ((data.get() & 0xFF) - 128) / 128.0f;
+			}
+			break;
+		case 16:
+			if (shorts == null || shorts.length < samples) {
+				shorts = new short[samples];
+			}
+			data.asShortBuffer().get(shorts, 0, samples);
+			kernels.s16ToFloat(shorts, interleaved, samples);
+			break;
+		case 24:
+			if (bytes == null || bytes.length < samples * 3) {
+				bytes = new byte[samples * 3];
+			}
+			data.get(bytes, 0, samples * 3);
+			kernels.s24ToFloat(bytes, interleaved, samples);
+			break;
+		default:
+			if (ints == null || ints.length < samples) {
+				ints = new int[samples];
+			}
+			data.asIntBuffer().get(ints, 0, samples);
+			kernels.s32ToFloat(ints, interleaved, samples);
+			break;
+		}
+		frame += frames;
+		return frames;
+	}
+
+	/**
+	 * Counts the frames written so far, from the size of the file. A data
+	 * length filled in by the writer limits the frames, so trailing chunks
+	 * are not read as samples.
+	 */
+	private void grow() throws IOException {
+		long available = (channel.size() - header.dataOffset) / header.frameSize();
+		ByteBuffer length = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+		if (channel.read(length, header.dataOffset - 4) == 4) {
+			long written = (length.getInt(0) & 0xFFFFFFFFL) / header.frameSize();
+			if (written > 0 && written <= available) {
+				available = written;
+			}
+		}
+		frames = Math.max(frames, available);
+	}
+
+	/**
+	 * Returns a little endian view on the next frames of the data chunk,
+	 * mapping a new window if needed.
+	 */
+	private ByteBuffer map(int frames) throws IOException {
+		final long frameSize = header.frameSize();
+		long start = header.dataOffset + frame * frameSize;
+		long end = start + frames * frameSize;
+		if (window == null || start < windowStart || end > windowEnd) {
+			windowStart = start;
+			windowEnd = Math.min(header.dataOffset + this.frames * frameSize, start + MAP_WINDOW / frameSize
+					* frameSize);
+			window = channel.map(MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+		}
+		ByteBuffer data = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		data.position((int) (start - windowStart));
+		return data;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,104 @@
+package be.tarsos.transcoder.seek;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access to the bytes of a file through a buffered window. Indexers
+ * mostly read headers and skip the payload, so only a small part of the file
+ * is actually fetched.
+ *
+ * @author Joren Six
+ */
+final class FileWindow implements Closeable {
+
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final long size;
+	private final ByteBuffer buffer = ByteBuffer.allocate(WINDOW_SIZE);
+	private final byte[] bytes = buffer.array();
+
+	/**
+	 * The file offset of the first byte in the buffer.
+	 */
+	private long start;
+	private int limit;
+
+	FileWindow(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.start = 0;
+		this.limit = 0;
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @param position
+	 *            A file offset.
+	 * @return The unsigned byte at the offset or -1 past the end of the file.
+	 */
+	int get(long position) throws IOException {
+		if (position < start || position >= start + limit) {
+			if (position < 0 || position >= size) {
+				return -1;
+			}
+			fill(position);
+		}
+		return bytes[(int) (position - start)] & 0xFF;
+	}
+
+	/**
+	 * @return A little endian value of up to eight bytes.
+	 */
+	long getLittleEndian(long position, int length) throws IOException {
+		long value = 0;
+		for (int i = length - 1; i >= 0; i--) {
+			value = (value << 8) | get(position + i);
+		}
+		return value;
+	}
+
+	/**
+	 * @return A big endian value of up to four bytes.
+	 */
+	int getBigEndian(long position, int length) throws IOException {
+		int value = 0;
+		for (int i = 0; i < length; i++) {
+			value = (value << 8) | get(position + i);
+		}
+		return value;
+	}
+
+	/**
+	 * @return True if the bytes at the offset equal the ASCII string.
+	 */
+	boolean matches(long position, String ascii) throws IOException {
+		for (int i = 0; i < ascii.length(); i++) {
+			if (get(position + i) != ascii.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void fill(long position) throws IOException {
+		start = position;
+		limit = 0;
+		buffer.clear();
+		int read;
+		while (buffer.hasRemaining() && (read = channel.read(buffer, start + limit)) > 0) {
+			limit += read;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
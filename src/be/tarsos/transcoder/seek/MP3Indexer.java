@@ -0,0 +1,220 @@
+package be.tarsos.transcoder.seek;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Indexes the frames of an MPEG audio (layer I, II or III) file by walking the
+ * frame headers. A Xing, Info or VBRI frame at the start is not indexed, the
+ * encoder delay and padding of a LAME tag are taken into account the way
+ * ffmpeg does.
+ *
+ * @author Joren Six
+ */
+final class MP3Indexer {
+
+	/**
+	 * Bit rates in kbit/s, per MPEG-1 layer I, II, III and MPEG-2 layer I, II
+	 * and III.
+	 */
+	private static final int[][] BIT_RATES = {
+			{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+			{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+			{ 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+			{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+			{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+			{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 } };
+
+	private static final int[] SAMPLE_RATES = { 44100, 48000, 32000 };
+
+	/**
+	 * The decoder delay ffmpeg adds to the encoder delay of a LAME tag.
+	 */
+	private static final int DECODER_DELAY = 528 + 1;
+
+	/**
+	 * The number of bytes searched for the next frame after lost sync.
+	 */
+	private static final int RESYNC_LIMIT = 64 * 1024;
+
+	/**
+	 * The number of consecutive frames that identify a file as MPEG audio.
+	 * Other files, PCM WAV for example, can contain a valid looking header
+	 * by chance but not a chain of them.
+	 */
+	private static final int SYNC_FRAMES = 4;
+
+	private MP3Indexer() {
+	}
+
+	/**
+	 * The fields of a frame header.
+	 */
+	private static final class Header {
+		int version; // 1, 2 or 25 for 2.5
+		int layer;
+		int sampleRate;
+		int samplesPerFrame;
+		int frameLength;
+		boolean mono;
+	}
+
+	/**
+	 * @return The parsed header or null if the four bytes at the offset are not
+	 *         a valid header.
+	 */
+	private static Header header(FileWindow window, long offset) throws IOException {
+		if (offset + 4 > window.size()) {
+			return null;
+		}
+		int bits = window.getBigEndian(offset, 4);
+		if ((bits & 0xFFE00000) != 0xFFE00000) {
+			return null;
+		}
+		int versionBits = (bits >>> 19) & 3;
+		int layerBits = (bits >>> 17) & 3;
+		int bitRateIndex = (bits >>> 12) & 15;
+		int sampleRateIndex = (bits >>> 10) & 3;
+		// reserved values and free format are not supported
+		if (versionBits == 1 || layerBits == 0 || bitRateIndex == 0 || bitRateIndex == 15 || sampleRateIndex == 3) {
+			return null;
+		}
+		Header header = new Header();
+		header.version = versionBits == 3 ? 1 : (versionBits == 2 ? 2 : 25);
+		header.layer = 4 - layerBits;
+		header.sampleRate = SAMPLE_RATES[sampleRateIndex] / (header.version == 1 ? 1 : (header.version == 2 ? 2 : 4));
+		header.mono = ((bits >>> 6) & 3) == 3;
+		int padding = (bits >>> 9) & 1;
+		int bitRate = BIT_RATES[(header.version == 1 ? 0 : 3) + header.layer - 1][bitRateIndex] * 1000;
+		if (header.layer == 1) {
+			header.samplesPerFrame = 384;
+			header.frameLength = (12 * bitRate / header.sampleRate + padding) * 4;
+		} else if (header.layer == 2 || header.version == 1) {
+			header.samplesPerFrame = 1152;
+			header.frameLength = 144 * bitRate / header.sampleRate + padding;
+		} else {
+			header.samplesPerFrame = 576;
+			header.frameLength = 72 * bitRate / header.sampleRate + padding;
+		}
+		return header;
+	}
+
+	/**
+	 * Indexes an MPEG audio file.
+	 *
+	 * @param window
+	 *            The file.
+	 * @param start
+	 *            The offset of the first byte after an ID3v2 tag.
+	 * @return The index or null if the file does not start with a chain of
+	 *         frames.
+	 */
+	static SeekIndex index(FileWindow window, long start) throws IOException {
+		long offset = sync(window, start, SYNC_FRAMES);
+		if (offset < 0) {
+			return null;
+		}
+		Header first = header(window, offset);
+
+		// a Xing, Info or VBRI frame carries no audio
+		long encoderDelay = 0;
+		long encoderPadding = 0;
+		boolean delayKnown = false;
+		long info = first.layer != 3 ? -1 : offset + 4 + sideInfoLength(first);
+		if (info > 0 && (window.matches(info, "Xing") || window.matches(info, "Info"))) {
+			int flags = window.getBigEndian(info + 4, 4);
+			long tag = info + 8 + ((flags & 1) != 0 ? 4 : 0) + ((flags & 2) != 0 ? 4 : 0) + ((flags & 4) != 0 ? 100 : 0)
+					+ ((flags & 8) != 0 ? 4 : 0);
+			if (window.matches(tag, "LAME") || window.matches(tag, "Lavf") || window.matches(tag, "Lavc")) {
+				int delays = window.getBigEndian(tag + 21, 3);
+				encoderDelay = delays >>> 12;
+				encoderPadding = delays & 0xFFF;
+				delayKnown = true;
+			}
+			offset += first.frameLength;
+		} else if (first.layer == 3 && window.matches(offset + 36, "VBRI")) {
+			offset += first.frameLength;
+		}
+		long delay = delayKnown ? encoderDelay + DECODER_DELAY : 0;
+
+		long[] samples = new long[1024];
+		long[] offsets = new long[1024];
+		int size = 0;
+		long position = 0;
+		Header header;
+		while (offset < window.size()) {
+			header = header(window, offset);
+			if (header == null || header.sampleRate != first.sampleRate) {
+				if (window.matches(offset, "TAG") || window.matches(offset, "APETAGEX")) {
+					break;
+				}
+				offset = sync(window, offset + 1, 2);
+				if (offset < 0) {
+					break;
+				}
+				continue;
+			}
+			if (size == samples.length) {
+				samples = Arrays.copyOf(samples, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2);
+			}
+			samples[size] = position - delay;
+			offsets[size] = offset;
+			size++;
+			position += header.samplesPerFrame;
+			offset += header.frameLength;
+		}
+		if (size == 0) {
+			return null;
+		}
+		long total = delayKnown ? position - encoderDelay - encoderPadding : position;
+		return new SeekIndex(SeekIndex.Container.MP3, first.sampleRate, total, samples, offsets, size);
+	}
+
+	/**
+	 * @return The length of the layer III side information.
+	 */
+	private static int sideInfoLength(Header header) {
+		if (header.version == 1) {
+			return header.mono ? 17 : 32;
+		}
+		return header.mono ? 9 : 17;
+	}
+
+	/**
+	 * Searches a frame header that starts a chain of valid headers, or that
+	 * is followed by the end of the file.
+	 *
+	 * @param frames
+	 *            The length of the chain.
+	 * @return The offset of the frame or -1 if none is found.
+	 */
+	private static long sync(FileWindow window, long from, int frames) throws IOException {
+		long limit = Math.min(window.size(), from + RESYNC_LIMIT);
+		for (long offset = from; offset < limit; offset++) {
+			if (window.get(offset) == 0xFF && chained(window, offset, frames)) {
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean chained(FileWindow window, long offset, int frames) throws IOException {
+		Header first = header(window, offset);
+		if (first == null) {
+			return false;
+		}
+		Header header = first;
+		for (int i = 1; i < frames; i++) {
+			offset += header.frameLength;
+			if (offset >= window.size()) {
+				return true;
+			}
+			header = header(window, offset);
+			if (header == null || header.sampleRate != first.sampleRate || header.layer != first.layer) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,106 @@
+package be.tarsos.transcoder.seek;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Indexes the pages of the first logical stream in an Ogg Vorbis or Ogg Opus
+ * file. The granule position of a page is the number of samples completed at
+ * the end of the page, so decoding from a page starts at the granule position
+ * of the previous page.
+ *
+ * @author Joren Six
+ */
+final class OggIndexer {
+
+	/**
+	 * The length of the fixed part of a page header.
+	 */
+	private static final int HEADER_LENGTH = 27;
+
+	/**
+	 * The number of bytes searched for the next page after lost sync.
+	 */
+	private static final int RESYNC_LIMIT = 64 * 1024;
+
+	private OggIndexer() {
+	}
+
+	/**
+	 * Indexes an Ogg file.
+	 *
+	 * @param window
+	 *            The file.
+	 * @param start
+	 *            The offset of the first page.
+	 * @return The index or null if the first stream is neither Vorbis nor
+	 *         Opus.
+	 */
+	static SeekIndex index(FileWindow window, long start) throws IOException {
+		long serial = window.getLittleEndian(start + 14, 4);
+		long packet = start + HEADER_LENGTH + window.get(start + 26);
+		int sampleRate;
+		long delay;
+		if (window.get(packet) == 1 && window.matches(packet + 1, "vorbis")) {
+			sampleRate = (int) window.getLittleEndian(packet + 12, 4);
+			delay = 0;
+		} else if (window.matches(packet, "OpusHead")) {
+			// Opus granule positions always count at 48kHz
+			sampleRate = 48000;
+			delay = window.getLittleEndian(packet + 10, 2);
+		} else {
+			return null;
+		}
+
+		long[] samples = new long[1024];
+		long[] offsets = new long[1024];
+		int size = 0;
+		long previous = 0;
+		long offset = start;
+		while (offset + HEADER_LENGTH <= window.size()) {
+			if (!window.matches(offset, "OggS")) {
+				offset = sync(window, offset + 1);
+				if (offset < 0) {
+					break;
+				}
+				continue;
+			}
+			int segments = window.get(offset + 26);
+			long length = HEADER_LENGTH + segments;
+			for (int i = 0; i < segments; i++) {
+				length += window.get(offset + HEADER_LENGTH + i);
+			}
+			long granule = window.getLittleEndian(offset + 6, 8);
+			// header pages have granule position 0, -1 means no packet ends on
+			// the page
+			if (window.getLittleEndian(offset + 14, 4) == serial && granule != -1 && granule > previous) {
+				if (size == samples.length) {
+					samples = Arrays.copyOf(samples, size * 2);
+					offsets = Arrays.copyOf(offsets, size * 2);
+				}
+				samples[size] = previous - delay;
+				offsets[size] = offset;
+				size++;
+				previous = granule;
+			}
+			offset += length;
+		}
+		if (size == 0) {
+			return null;
+		}
+		return new SeekIndex(SeekIndex.Container.OGG, sampleRate, previous - delay, samples, offsets, size);
+	}
+
+	/**
+	 * @return The offset of the next capture pattern or -1 if none is found.
+	 */
+	private static long sync(FileWindow window, long from) throws IOException {
+		long limit = Math.min(window.size(), from + RESYNC_LIMIT);
+		for (long offset = from; offset < limit; offset++) {
+			if (window.matches(offset, "OggS")) {
+				return offset;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,259 @@
+package be.tarsos.transcoder.seek;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import be.tarsos.transcoder.flac.FLACDecoder;
+
+/**
+ * An index of the positions in a compressed audio file where decoding can
+ * start: the frames of an MP3 file, the pages of an Ogg Vorbis or Opus file
+ * or the seek points of a FLAC file. Each point maps a sample number to a byte
+ * offset. With it a decoder can jump close to any sample without scanning the
+ * file or estimating the position from the bit rate, so extracting an excerpt
+ * costs time proportional to the excerpt, not to its offset.
+ *
+ * <p>
+ * Sample numbers are counted in the time line of a complete decode by ffmpeg
+ * at the sample rate of the source: sample zero is the first sample ffmpeg
+ * outputs, after the encoder delay of MP3 (from the LAME tag) or the pre-skip
+ * of Opus is dropped.
+ * </p>
+ *
+ * <p>
+ * Indexes are built on first use and cached, a cached index is rebuilt when
+ * the size or modification time of the file changes.
+ * </p>
+ *
+ * @author Joren Six
+ */
+public final class SeekIndex {
+
+	private static final Logger LOG = Logger.getLogger(SeekIndex.class.getName());
+
+	/**
+	 * The container formats that can be indexed.
+	 */
+	public enum Container {
+		MP3, OGG, FLAC;
+	}
+
+	/**
+	 * The number of indexes kept in memory.
+	 */
+	private static final int CACHE_SIZE = 64;
+
+	/**
+	 * MP3 frames can depend on up to 511 bytes of the previous frames (the
+	 * bit reservoir), decoding starts a number of frames early to fill it.
+	 */
+	private static final int MP3_PREROLL = 10;
+
+	private static final Map<File, SeekIndex> CACHE = new LinkedHashMap<File, SeekIndex>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, SeekIndex> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final Container container;
+	private final int sampleRate;
+	private final long totalSamples;
+	private final long[] samples;
+	private final long[] offsets;
+
+	/**
+	 * The file size and modification time when the index was built.
+	 */
+	private long fileLength;
+	private long lastModified;
+
+	SeekIndex(Container container, int sampleRate, long totalSamples, long[] samples, long[] offsets, int size) {
+		this.container = container;
+		this.sampleRate = sampleRate;
+		this.totalSamples = totalSamples;
+		this.samples = Arrays.copyOf(samples, size);
+		this.offsets = Arrays.copyOf(offsets, size);
+	}
+
+	/**
+	 * Returns the index of a file, from the cache or by indexing the file.
+	 *
+	 * @param file
+	 *            An MP3, Ogg Vorbis, Ogg Opus or FLAC file.
+	 * @return The index or null if the file has none of these formats.
+	 * @throws IOException
+	 *             If the file can not be read.
+	 */
+	public static SeekIndex get(File file) throws IOException {
+		File key = file.getAbsoluteFile();
+		long length = key.length();
+		long modified = key.lastModified();
+		SeekIndex index;
+		synchronized (CACHE) {
+			index = CACHE.get(key);
+		}
+		if (index != null && index.fileLength == length && index.lastModified == modified) {
+			return index;
+		}
+		long start = System.nanoTime();
+		index = build(key);
+		if (index != null) {
+			index.fileLength = length;
+			index.lastModified = modified;
+			synchronized (CACHE) {
+				CACHE.put(key, index);
+			}
+			LOG.fine(String.format("Indexed %s (%s, %d points) in %.1f ms", key, index.container, index.size(),
+					(System.nanoTime() - start) / 1e6));
+		}
+		return index;
+	}
+
+	private static SeekIndex build(File file) throws IOException {
+		FileWindow window = new FileWindow(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+		try {
+			long start = skipId3(window);
+			if (window.matches(start, "RIFF") || window.matches(start, "FORM")) {
+				// WAV and AIFF seek exactly without an index
+				return null;
+			} else if (window.matches(start, "OggS")) {
+				return OggIndexer.index(window, start);
+			} else if (window.matches(start, "fLaC")) {
+				return flac(file);
+			}
+			return MP3Indexer.index(window, start);
+		} finally {
+			window.close();
+		}
+	}
+
+	/**
+	 * @return The offset of the first byte after an ID3v2 tag, 0 without
+	 *         tag.
+	 */
+	private static long skipId3(FileWindow window) throws IOException {
+		if (!window.matches(0, "ID3")) {
+			return 0;
+		}
+		long size = 0;
+		for (int i = 6; i < 10; i++) {
+			size = (size << 7) | (window.get(i) & 0x7F);
+		}
+		boolean footer = (window.get(5) & 0x10) != 0;
+		return 10 + size + (footer ? 10 : 0);
+	}
+
+	private static SeekIndex flac(File file) throws IOException {
+		FLACDecoder decoder;
+		try {
+			decoder = new FLACDecoder(file);
+		} catch (IOException e) {
+			// not a supported FLAC file
+			return null;
+		}
+		try {
+			long[] pointSamples = decoder.getSeekPointSamples();
+			long[] pointOffsets = decoder.getSeekPointOffsets();
+			long[] samples = new long[pointSamples.length + 1];
+			long[] offsets = new long[pointSamples.length + 1];
+			samples[0] = 0;
+			offsets[0] = decoder.getFirstFrameOffset();
+			int size = 1;
+			for (int i = 0; i < pointSamples.length; i++) {
+				if (pointSamples[i] > samples[size - 1]) {
+					samples[size] = pointSamples[i];
+					offsets[size] = pointOffsets[i];
+					size++;
+				}
+			}
+			long total = decoder.getTotalSamples() > 0 ? decoder.getTotalSamples() : -1;
+			return new SeekIndex(Container.FLAC, decoder.getSampleRate(), total, samples, offsets, size);
+		} finally {
+			decoder.close();
+		}
+	}
+
+	/**
+	 * @return The container format of the indexed file.
+	 */
+	public Container getContainer() {
+		return container;
+	}
+
+	/**
+	 * @return The sample rate of the sample numbers in this index.
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return The number of samples per channel of a complete decode or -1 if
+	 *         unknown.
+	 */
+	public long getTotalSamples() {
+		return totalSamples;
+	}
+
+	/**
+	 * @return The number of points in the index.
+	 */
+	public int size() {
+		return samples.length;
+	}
+
+	/**
+	 * @param point
+	 *            The point, between 0 and {@link #size()}.
+	 * @return The number of the first sample decoded when decoding starts at
+	 *         the point. MP3 points at the start of the file can have a
+	 *         negative number because of the encoder delay.
+	 */
+	public long getSample(int point) {
+		return samples[point];
+	}
+
+	/**
+	 * @param point
+	 *            The point, between 0 and {@link #size()}.
+	 * @return The byte offset of the point in the file.
+	 */
+	public long getOffset(int point) {
+		return offsets[point];
+	}
+
+	/**
+	 * Finds the point to start decoding at to get a sample exactly. For MP3
+	 * the point is a number of frames before the sample so that the bit
+	 * reservoir is filled when the sample is reached.
+	 *
+	 * @param sample
+	 *            The sample number.
+	 * @return The point to start decoding at.
+	 */
+	public int find(long sample) {
+		int point = Arrays.binarySearch(samples, sample);
+		if (point < 0) {
+			point = Math.max(0, -point - 2);
+		}
+		if (container == Container.MP3) {
+			point = Math.max(0, point - MP3_PREROLL);
+		}
+		return point;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s container=%s, samplerate=%d, totalsamples=%d, points=%d", getClass().getName(),
+				container, sampleRate, totalSamples, size());
+	}
+}
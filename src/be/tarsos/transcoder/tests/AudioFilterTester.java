@@ -0,0 +1,103 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.AudioFilter;
+import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.ffmpeg.Encoder;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+import be.tarsos.transcoder.ffmpeg.FFMPEGLocator;
+import be.tarsos.transcoder.ffmpeg.ProcessSlots;
+import be.tarsos.transcoder.pcm.PCMConverter;
+
+/**
+ * Checks the rendering of audio filters, that they reach ffmpeg unchanged
+ * and that filtered jobs are not handled in-process.
+ *
+ * @author Joren Six
+ */
+public class AudioFilterTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String INPUT_FILE = "audio" + SLASH + "input" + SLASH + "formats" + SLASH
+			+ "16bits-PCM-44100HZ-Stereo.wav";
+
+	/**
+	 * Speed factors beyond a single atempo filter are split, numbers are
+	 * rendered without a locale.
+	 */
+	@Test
+	public void testRendering() {
+		assertEquals("atempo=2,atempo=2,atempo=1.25", AudioFilter.speed(5).toString());
+		assertEquals("atempo=0.5,atempo=0.8", AudioFilter.speed(0.4).toString());
+		assertTrue(AudioFilter.speed(1.5).changesDuration());
+		assertEquals("loudnorm=I=-16:TP=-1.5:LRA=11", AudioFilter.normalizeLoudness(-16, -1.5, 11).toString());
+		assertFalse(AudioFilter.highPass(80).changesDuration());
+	}
+
+	/**
+	 * A filter with quotes and spaces reaches ffmpeg unchanged. A script that
+	 * logs its arguments stands in for ffmpeg, so this only runs on systems
+	 * with a POSIX shell.
+	 */
+	@Test
+	public void testQuotedExpression() throws IOException {
+		Assume.assumeTrue(new File("/bin/sh").canExecute());
+		final File script = File.createTempFile("fake_ffmpeg", ".sh");
+		File log = File.createTempFile("fake_ffmpeg", ".log");
+		File source = File.createTempFile("fake_ffmpeg", ".wav");
+		File target = File.createTempFile("fake_ffmpeg", ".wav");
+		try {
+			String contents = "#!/bin/sh\nfor a; do echo \"<$a>\" >> '" + log.getAbsolutePath() + "'; done\n";
+			Files.write(script.toPath(), contents.getBytes("US-ASCII"));
+			assertTrue(script.setExecutable(true));
+			FFMPEGLocator locator = new FFMPEGLocator() {
+				public boolean pickMe() {
+					return true;
+				}
+
+				protected String getFFMPEGExecutablePath() {
+					return script.getAbsolutePath();
+				}
+			};
+			AudioFilter filter = AudioFilter.of("volume='if(lt(t,5),0.5,1)', highpass=f=80");
+			Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_MONO_22KHZ.getAttributes();
+			attributes.addFilter(filter);
+			try {
+				new Encoder(locator, null, new ProcessSlots(2, 1)).encode(source, target, attributes);
+			} catch (EncoderException e) {
+				// the script writes no audio
+			}
+			String arguments = new String(Files.readAllBytes(log.toPath()), "US-ASCII");
+			assertTrue(arguments, arguments.contains("<" + attributes.getProfile().getFilterChain() + ">"));
+		} finally {
+			script.delete();
+			log.delete();
+			source.delete();
+			target.delete();
+		}
+	}
+
+	/**
+	 * The in-process converter does not filter, a job with filters goes to
+	 * ffmpeg.
+	 */
+	@Test
+	public void testNotInProcess() {
+		Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_MONO_22KHZ.getAttributes();
+		assertTrue(PCMConverter.isSupported(new File(INPUT_FILE), attributes));
+		attributes.addFilter(AudioFilter.highPass(80));
+		assertFalse(PCMConverter.isSupported(new File(INPUT_FILE), attributes));
+		assertEquals("highpass=f=80,aresample=22050,aformat=channel_layouts=mono", attributes.getProfile()
+				.getFilterChain());
+	}
+}
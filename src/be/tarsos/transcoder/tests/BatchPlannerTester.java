@@ -0,0 +1,72 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.BatchJob;
+import be.tarsos.transcoder.BatchPlanner;
+import be.tarsos.transcoder.BatchReport;
+import be.tarsos.transcoder.CostModel;
+
+/**
+ * Plans and runs a small batch of in-process conversions and checks the
+ * longest first order and the learned throughput.
+ *
+ * @author Joren Six
+ */
+public class BatchPlannerTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String SOURCE = "audio" + SLASH + "input" + SLASH + "formats" + SLASH
+			+ "16bits-PCM-44100HZ-Stereo.wav";
+
+	@Test
+	public void testCostModel() {
+		CostModel model = new CostModel();
+		assertEquals(60 / CostModel.DEFAULT_THROUGHPUT, model.predict("mp3", 60000), 1e-9);
+		model.record("mp3", 60000, 2);
+		assertEquals(2, model.predict("mp3", 60000), 1e-9);
+		model.record("mp3", 60000, 1);
+		// moves towards 60 s/s, does not jump
+		assertEquals(60 / 39.0, model.predict("mp3", 60000), 1e-9);
+		// an unknown profile is predicted with the mean throughput
+		assertEquals(60 / 39.0, model.predict("flac", 60000), 1e-9);
+	}
+
+	@Test
+	public void testLongestFirst() throws IOException, InterruptedException {
+		long[] durations = { 1000, 3000, 2000 };
+		List<BatchJob> jobs = new ArrayList<BatchJob>();
+		for (long duration : durations) {
+			Attributes attributes = new Attributes("wav", "pcm_s16le", null, 1);
+			attributes.setBackend(Backend.JAVA);
+			attributes.setMaxDuration(duration * 1000);
+			jobs.add(new BatchJob(new File(SOURCE), File.createTempFile("batch", ".wav"), attributes));
+		}
+		try {
+			BatchPlanner planner = new BatchPlanner(2, new CostModel());
+			BatchReport report = planner.run(jobs);
+			assertTrue(report.isSuccessful());
+			List<BatchJob> order = report.getJobs();
+			assertEquals(3000, order.get(0).getDuration());
+			assertEquals(2000, order.get(1).getDuration());
+			assertEquals(1000, order.get(2).getDuration());
+			// the longest job alone on one worker, the others on the second
+			assertEquals(3 / CostModel.DEFAULT_THROUGHPUT, report.getPredictedMakespan(), 1e-9);
+			assertTrue(report.getMakespan() > 0);
+			assertTrue(planner.getModel().isKnown(order.get(0).getProfile()));
+		} finally {
+			for (BatchJob job : jobs) {
+				job.getTarget().delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.ffmpeg.Capabilities;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+
+/**
+ * Checks attributes against the capabilities of a binary without MP3 support.
+ *
+ * @author Joren Six
+ */
+public class CapabilitiesTester {
+
+	private static final Capabilities NO_MP3 = new Capabilities("6.0", names("flac", "pcm_s16le", "libvorbis"),
+			names("flac", "pcm_s16le", "mp3"), names("flac", "wav", "ogg"), names("flac", "wav", "ogg", "mp3"));
+
+	private static Set<String> names(String... names) {
+		return new HashSet<String>(Arrays.asList(names));
+	}
+
+	/**
+	 * A missing encoder fails with an encoder exception, supported attributes
+	 * pass.
+	 */
+	@Test
+	public void testCheck() throws EncoderException {
+		NO_MP3.check(new Attributes("ogg", "libvorbis", 44100, 2));
+		NO_MP3.check(new Attributes("WAV", "copy", 44100, 2));
+		try {
+			NO_MP3.check(new Attributes("mp3", "libmp3lame", 44100, 2, 128000));
+			fail("MP3 is not supported");
+		} catch (EncoderException e) {
+			// expected
+		}
+		assertFalse(NO_MP3.isSupported(new Attributes("mp4", "flac", 44100, 2)));
+		assertTrue(NO_MP3.canDemux("mp3"));
+	}
+
+	/**
+	 * Only the default encodings without MP3 are supported.
+	 */
+	@Test
+	public void testSupportedDefaults() {
+		int mp3 = 0;
+		for (DefaultAttributes defaults : DefaultAttributes.values()) {
+			if (defaults.name().startsWith("MP3")) {
+				mp3++;
+			}
+		}
+		assertEquals(DefaultAttributes.values().length - mp3, DefaultAttributes.getSupported(NO_MP3).size());
+		assertFalse(DefaultAttributes.getSupported(NO_MP3).contains(DefaultAttributes.MP3_128KBS_STEREO_44KHZ));
+	}
+}
@@ -0,0 +1,60 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.ffmpeg.ConcurrencyController;
+import be.tarsos.transcoder.ffmpeg.SystemLoad;
+
+/**
+ * Feeds measurements to the concurrency controller and checks its steps.
+ *
+ * @author Joren Six
+ */
+public class ConcurrencyControllerTester {
+
+	private static final SystemLoad BUSY = new SystemLoad(0.9, 5, 1);
+	private static final SystemLoad IDLE = new SystemLoad(0.3, Double.NaN, Double.NaN);
+
+	/**
+	 * More processes while throughput improves, one step back when it drops,
+	 * hold when it stays the same on a busy system.
+	 */
+	@Test
+	public void testClimb() {
+		ConcurrencyController controller = new ConcurrencyController(2, 8, 8);
+		assertEquals(3, controller.update(10, BUSY));
+		assertEquals(4, controller.update(14, BUSY));
+		assertEquals(5, controller.update(17, BUSY));
+		assertEquals(4, controller.update(15, BUSY));
+		assertEquals(4, controller.update(15.2, BUSY));
+		assertEquals(2, controller.getThreadsPerProcess());
+	}
+
+	/**
+	 * Idle cores are used even if throughput does not change, never more than
+	 * the maximum.
+	 */
+	@Test
+	public void testIdle() {
+		ConcurrencyController controller = new ConcurrencyController(1, 3, 4);
+		assertEquals(2, controller.update(10, IDLE));
+		assertEquals(3, controller.update(10, IDLE));
+		assertEquals(3, controller.update(10, IDLE));
+		assertEquals(1, controller.getThreadsPerProcess());
+	}
+
+	/**
+	 * Pressure backs off by a quarter, even if throughput improves. Without
+	 * pressure and a change in throughput the number holds.
+	 */
+	@Test
+	public void testPressure() {
+		ConcurrencyController controller = new ConcurrencyController(8, 16, 16);
+		assertEquals(6, controller.update(10, new SystemLoad(1.0, 60, 0)));
+		assertEquals(5, controller.update(12, new SystemLoad(1.0, 0, 35)));
+		assertEquals(4, controller.update(14, new SystemLoad(2.5, Double.NaN, Double.NaN)));
+		assertEquals(4, controller.update(14.2, BUSY));
+	}
+}
@@ -0,0 +1,81 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.AudioFilter;
+import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.EncodingProfile;
+
+/**
+ * Checks the compiled arguments of profiles and that attributes made from a
+ * profile do not change it.
+ *
+ * @author Joren Six
+ */
+public class EncodingProfileTester {
+
+	/**
+	 * The arguments follow the order ffmpeg is called with: filters, codec,
+	 * bit rate, channels, sampling rate, options, volume and format.
+	 */
+	@Test
+	public void testArguments() {
+		EncodingProfile profile = EncodingProfile.builder().format("flac").codec("flac").samplingRate(44100)
+				.channels(2).option("-compression_level", "5").filter(AudioFilter.highPass(80))
+				.filter(AudioFilter.lowPass(8000)).volume(128).build();
+		assertEquals(Arrays.asList("-af", "highpass=f=80,lowpass=f=8000,aresample=44100,aformat=channel_layouts=stereo",
+				"-acodec", "flac", "-ac", "2", "-ar", "44100", "-compression_level", "5", "-vol", "128", "-f", "flac"),
+				profile.getOutputArguments());
+		assertEquals(profile.getOutputArguments(), EncodingProfile.builder(profile.toAttributes()).build()
+				.getOutputArguments());
+	}
+
+	/**
+	 * A quality tier adds the options of the codec, explicit options take
+	 * precedence.
+	 */
+	@Test
+	public void testQuality() {
+		assertEquals(Arrays.asList("-acodec", "flac", "-ac", "2", "-ar", "44100", "-compression_level", "0",
+				"-filter_size", "8", "-phase_shift", "6"), DefaultAttributes.FLAC_STEREO_44KHZ_FAST.getProfile()
+				.getCodecArguments());
+		Attributes attributes = DefaultAttributes.FLAC_STEREO_44KHZ_BEST.getAttributes();
+		attributes.setSamplingRate(null);
+		attributes.addOption("-compression_level", "7");
+		assertEquals(Arrays.asList("-acodec", "flac", "-ac", "2", "-compression_level", "7"), attributes
+				.getProfile().getCodecArguments());
+
+		// with a filter chain the chain resamples, with the options of the tier
+		attributes = DefaultAttributes.FLAC_STEREO_44KHZ_BEST.getAttributes();
+		attributes.addFilter(AudioFilter.highPass(80));
+		EncodingProfile profile = attributes.getProfile();
+		assertEquals("highpass=f=80,aresample=44100:filter_size=64:phase_shift=14,aformat=channel_layouts=stereo",
+				profile.getFilterChain());
+		assertEquals(Arrays.asList("-acodec", "flac", "-ac", "2", "-ar", "44100", "-compression_level", "8"),
+				profile.getCodecArguments());
+	}
+
+	/**
+	 * Changing the attributes of a default encoding does not change the
+	 * default, and compiles a new profile.
+	 */
+	@Test
+	public void testDefaultsAreCopies() {
+		Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getAttributes();
+		assertSame(DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getProfile(), attributes.getProfile());
+		attributes.setStartTime(1000000);
+		assertSame(DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getProfile(), attributes.getProfile());
+		attributes.setSamplingRate(16789);
+		assertNotSame(DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getProfile(), attributes.getProfile());
+		assertEquals(Integer.valueOf(16789), attributes.getProfile().getSamplingRate());
+		assertEquals(Integer.valueOf(44100), DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getAttributes()
+				.getSamplingRate());
+	}
+}
@@ -0,0 +1,139 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.Excerpt;
+import be.tarsos.transcoder.Segment;
+import be.tarsos.transcoder.Streamer;
+import be.tarsos.transcoder.Transcoder;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+
+/**
+ * Extracts several excerpts and segments in one pass and compares them with
+ * the same samples of a complete decode.
+ *
+ * @author Joren Six
+ */
+public class ExcerptTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String FORMATS = "audio" + SLASH + "input" + SLASH + "formats" + SLASH;
+
+	private static final List<Excerpt> EXCERPTS = Arrays.asList(Excerpt.ofSamples(0, 1000),
+			Excerpt.ofTime(500000, 250000), Excerpt.ofSamples(30000, 4410), Excerpt.ofSamples(100000, 50000),
+			Excerpt.ofTime(4900000, 1000000));
+
+	@Test
+	public void testBuffers() throws EncoderException, IOException {
+		for (String name : new String[] { "16bits-PCM-44100HZ-Stereo.wav", "24bits-44100HZ-Stereo.flac" }) {
+			Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+			attributes.setBackend(Backend.JAVA);
+			byte[] complete = readFully(Streamer.stream(FORMATS + name, attributes));
+			List<AudioInputStream> excerpts = Streamer.extract(FORMATS + name, EXCERPTS, attributes);
+			assertEquals(EXCERPTS.size(), excerpts.size());
+			for (int i = 0; i < EXCERPTS.size(); i++) {
+				assertArrayEquals(name + " excerpt " + i, expected(complete, EXCERPTS.get(i), 4),
+						readFully(excerpts.get(i)));
+			}
+		}
+	}
+
+	@Test
+	public void testFiles() throws EncoderException, IOException, UnsupportedAudioFileException {
+		String name = "16bits-44100HZ-Mono.flac";
+		Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+		attributes.setBackend(Backend.JAVA);
+		byte[] complete = readFully(Streamer.stream(FORMATS + name, attributes));
+		List<File> targets = new ArrayList<File>();
+		for (int i = 0; i < EXCERPTS.size(); i++) {
+			targets.add(File.createTempFile("excerpt", ".wav"));
+		}
+		try {
+			Transcoder.extract(new File(FORMATS + name), EXCERPTS, targets, attributes);
+			for (int i = 0; i < EXCERPTS.size(); i++) {
+				assertArrayEquals("excerpt " + i, expected(complete, EXCERPTS.get(i), 2),
+						readFully(AudioSystem.getAudioInputStream(targets.get(i))));
+			}
+		} finally {
+			for (File target : targets) {
+				target.delete();
+			}
+		}
+	}
+
+	/**
+	 * Overlapping segments of one pass hold the same samples as a complete
+	 * decode at the offsets of the manifest.
+	 */
+	@Test
+	public void testSegments() throws EncoderException, IOException, UnsupportedAudioFileException {
+		String name = "16bits-PCM-44100HZ-Stereo.wav";
+		Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+		attributes.setBackend(Backend.JAVA);
+		byte[] complete = readFully(Streamer.stream(FORMATS + name, attributes));
+		File directory = Files.createTempDirectory("segments").toFile();
+		try {
+			List<Segment> segments = Transcoder.segment(new File(FORMATS + name), directory, attributes, 1000000,
+					250000);
+			assertEquals((complete.length / 4 + 44099) / 44100, segments.size());
+			for (Segment segment : segments) {
+				assertEquals(segment.getIndex() * 44100L, segment.getStartSample());
+				assertArrayEquals("segment " + segment.getIndex(), expected(complete,
+						Excerpt.ofSamples(segment.getStartSample(), 44100 + 11025), 4),
+						readFully(AudioSystem.getAudioInputStream(segment.getFile())));
+			}
+			List<String> manifest = Files.readAllLines(new File(directory, Transcoder.SEGMENT_MANIFEST).toPath(),
+					StandardCharsets.UTF_8);
+			assertEquals(segments.size(), manifest.size());
+			assertEquals("segment00001.wav,44100,55125,44100", manifest.get(1));
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsorted() throws EncoderException {
+		Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+		attributes.setBackend(Backend.JAVA);
+		Streamer.extract(FORMATS + "16bits-PCM-44100HZ-Mono.wav",
+				Arrays.asList(Excerpt.ofSamples(1000, 10), Excerpt.ofSamples(10, 10)), attributes);
+	}
+
+	private static byte[] expected(byte[] complete, Excerpt excerpt, int frameSize) {
+		int from = (int) Math.min(complete.length, excerpt.getStartSample(44100) * frameSize);
+		int to = (int) Math.min(complete.length, from + excerpt.getDurationSamples(44100) * frameSize);
+		return Arrays.copyOfRange(complete, from, to);
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
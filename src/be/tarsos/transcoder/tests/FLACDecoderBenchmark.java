@@ -0,0 +1,77 @@
+package be.tarsos.transcoder.tests;
+
+import java.io.File;
+
+import javax.sound.sampled.AudioInputStream;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.Streamer;
+import be.tarsos.transcoder.flac.FLACDecoder;
+
+/**
+ * Streams each FLAC file in <code>audio/input/formats</code> with the Java
+ * decoder and with ffmpeg and prints the time to the first block and to the
+ * end of the stream.
+ *
+ * @author Joren Six
+ */
+public class FLACDecoderBenchmark {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static int ROUNDS = 10;
+
+	public static void main(String... args) {
+		File[] files = new File("audio" + SLASH + "input" + SLASH + "formats" + SLASH).listFiles();
+		System.out.println(String.format("%-30s %8s %18s %18s", "file", "backend", "first block (ms)", "complete (ms)"));
+		for (File file : files) {
+			if (file.getName().endsWith(".flac")) {
+				for (Backend backend : new Backend[] { Backend.JAVA, Backend.FFMPEG }) {
+					try {
+						// warm up
+						stream(file, backend);
+						double first = 0;
+						double complete = 0;
+						for (int i = 0; i < ROUNDS; i++) {
+							double[] timing = stream(file, backend);
+							first += timing[0];
+							complete += timing[1];
+						}
+						System.out.println(String.format("%-30s %8s %18.2f %18.2f", file.getName(), backend, first
+								/ ROUNDS, complete / ROUNDS));
+					} catch (Throwable e) {
+						// the ffmpeg pipe signals a missing binary with an Error
+						System.out.println(String.format("%-30s %8s failed: %s", file.getName(), backend, e));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The time to read the first block and to read the complete
+	 *         stream, in milliseconds.
+	 */
+	private static double[] stream(File file, Backend backend) throws Exception {
+		// the ffmpeg pipe needs an explicit rate and number of channels
+		FLACDecoder decoder = new FLACDecoder(file);
+		Attributes attributes = new Attributes("wav", "pcm_s16le", decoder.getSampleRate(), decoder.getChannels());
+		decoder.close();
+		attributes.setBackend(backend);
+		byte[] buffer = new byte[8192];
+		long start = System.nanoTime();
+		AudioInputStream stream = Streamer.stream(file.getAbsolutePath(), attributes);
+		long first = 0;
+		try {
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				if (first == 0 && read > 0) {
+					first = System.nanoTime();
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		long stop = System.nanoTime();
+		return new double[] { (first - start) / 1e6, (stop - start) / 1e6 };
+	}
+}
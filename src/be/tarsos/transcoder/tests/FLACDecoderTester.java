@@ -0,0 +1,89 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.flac.FLACDecoder;
+
+/**
+ * Decodes the FLAC test files and checks the result against the MD5 signature
+ * stored in the files.
+ *
+ * @author Joren Six
+ */
+public class FLACDecoderTester {
+	private final static String SLASH = System.getProperty("file.separator");
+
+	@Test
+	public void testMD5() throws IOException, NoSuchAlgorithmException {
+		for (File file : flacFiles()) {
+			FLACDecoder decoder = new FLACDecoder(file);
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			int bytesPerSample = (decoder.getBitsPerSample() + 7) / 8;
+			long total = 0;
+			int length;
+			while ((length = decoder.readFrame()) > 0) {
+				int[][] samples = decoder.getSamples();
+				byte[] bytes = new byte[length * decoder.getChannels() * bytesPerSample];
+				int index = 0;
+				for (int i = decoder.getOffset(); i < decoder.getOffset() + length; i++) {
+					for (int c = 0; c < decoder.getChannels(); c++) {
+						for (int b = 0; b < bytesPerSample; b++) {
+							bytes[index++] = (byte) (samples[c][i] >> (8 * b));
+						}
+					}
+				}
+				md5.update(bytes);
+				total += length;
+			}
+			decoder.close();
+			assertEquals(file.getName(), decoder.getTotalSamples(), total);
+			assertArrayEquals(file.getName(), decoder.getMD5(), md5.digest());
+		}
+	}
+
+	/**
+	 * A seek should yield exactly the samples a sequential decode yields at
+	 * that position.
+	 */
+	@Test
+	public void testSeek() throws IOException {
+		for (File file : flacFiles()) {
+			FLACDecoder decoder = new FLACDecoder(file);
+			int[] sequential = new int[(int) decoder.getTotalSamples()];
+			int position = 0;
+			int length;
+			while ((length = decoder.readFrame()) > 0) {
+				System.arraycopy(decoder.getSamples()[0], decoder.getOffset(), sequential, position, length);
+				position += length;
+			}
+			long[] targets = { 0, 1, 4095, 4096, 100000, sequential.length / 2, sequential.length - 1 };
+			for (long target : targets) {
+				decoder.seek(target);
+				length = decoder.readFrame();
+				int[] samples = decoder.getSamples()[0];
+				for (int i = 0; i < length; i++) {
+					assertEquals(file.getName() + " seek to " + target, sequential[(int) target + i],
+							samples[decoder.getOffset() + i]);
+				}
+			}
+			decoder.close();
+		}
+	}
+
+	private static File[] flacFiles() {
+		return new File[] { new File("audio" + SLASH + "input" + SLASH + "16bits-44100HZ-3_channel.flac"),
+				new File("audio" + SLASH + "input" + SLASH + "formats" + SLASH + "16bits-44100HZ-Mono.flac"),
+				new File("audio" + SLASH + "input" + SLASH + "formats" + SLASH + "16bits-44100HZ-Stereo.flac"),
+				new File("audio" + SLASH + "input" + SLASH + "formats" + SLASH + "16bits-8000HZ-Mono.flac"),
+				new File("audio" + SLASH + "input" + SLASH + "formats" + SLASH + "24bits-44100HZ-Mono.flac"),
+				new File("audio" + SLASH + "input" + SLASH + "formats" + SLASH + "24bits-44100HZ-Stereo.flac") };
+	}
+}
@@ -0,0 +1,95 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.Streamer;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+
+/**
+ * Follows files while they are written, as a recorder would.
+ *
+ * @author Joren Six
+ */
+public class FollowTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String FORMATS = "audio" + SLASH + "input" + SLASH + "formats" + SLASH;
+
+	/**
+	 * A WAV file with an unfinished header, written in chunks that do not
+	 * end on a frame, gives the same audio as the finished file.
+	 */
+	@Test
+	public void testGrowingWav() throws Exception {
+		byte[] complete = Files.readAllBytes(new File(FORMATS + "16bits-PCM-44100HZ-Stereo.wav").toPath());
+		// a recorder fills in the length of the data chunk when it stops
+		byte[] unfinished = complete.clone();
+		for (int i = 40; i < 44; i++) {
+			unfinished[i] = 0;
+		}
+		assertFollowed(FORMATS + "16bits-PCM-44100HZ-Stereo.wav", unfinished, 44, ".wav");
+	}
+
+	/**
+	 * A FLAC file written in chunks that cut frames in two gives the same
+	 * audio as the finished file, also when resampled.
+	 */
+	@Test
+	public void testGrowingFlac() throws Exception {
+		byte[] complete = Files.readAllBytes(new File(FORMATS + "16bits-44100HZ-Stereo.flac").toPath());
+		assertFollowed(FORMATS + "16bits-44100HZ-Stereo.flac", complete, 8 * 1024, ".flac");
+	}
+
+	private void assertFollowed(String source, final byte[] content, final int headerLength, String suffix)
+			throws EncoderException, IOException, InterruptedException {
+		Attributes attributes = new Attributes("wav", "pcm_s16le", 22050, 1);
+		attributes.setBackend(Backend.JAVA);
+		byte[] expected = readFully(Streamer.stream(source, attributes));
+
+		final File growing = File.createTempFile("growing", suffix);
+		growing.deleteOnExit();
+		final FileOutputStream out = new FileOutputStream(growing);
+		out.write(content, 0, headerLength);
+		out.flush();
+		Thread recorder = new Thread(new Runnable() {
+			public void run() {
+				try {
+					int chunk = content.length / 7 + 3;
+					for (int offset = headerLength; offset < content.length; offset += chunk) {
+						Thread.sleep(30);
+						out.write(content, offset, Math.min(chunk, content.length - offset));
+						out.flush();
+					}
+					out.close();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		recorder.start();
+		byte[] followed = readFully(Streamer.follow(growing.getAbsolutePath(), attributes, 500));
+		recorder.join();
+		assertArrayEquals(expected, followed);
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,225 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.ffmpeg.Encoder;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+import be.tarsos.transcoder.pcm.PCMConverter;
+
+/**
+ * Checks the in-process PCM conversion against synthetic signals and against
+ * ffmpeg.
+ *
+ * @author Joren Six
+ */
+public class PCMConverterTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String INPUT_FILE = "audio" + SLASH + "input" + SLASH + "tone" + SLASH + "tone_10s.wav";
+
+	/**
+	 * The documented tolerance for resampled output: -60 dBFS RMS.
+	 */
+	private final static double TOLERANCE = Math.pow(10, -60 / 20.0);
+
+	/**
+	 * Converting to the same format should not change a single sample.
+	 */
+	@Test
+	public void testRequantizeIsLossless() throws EncoderException, IOException, UnsupportedAudioFileException {
+		short[][] channels = { sine(44100, 1000, 44100), sine(44100, 440, 44100) };
+		File source = writeWav(channels, 44100);
+		File target = File.createTempFile("converted", ".wav");
+		try {
+			PCMConverter.convert(source, target, DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getAttributes());
+			short[][] converted = readWav(target);
+			assertArrayEquals(channels[0], converted[0]);
+			assertArrayEquals(channels[1], converted[1]);
+		} finally {
+			source.delete();
+			target.delete();
+		}
+	}
+
+	/**
+	 * The header read by the check is kept for the conversion, but read again
+	 * once the source changes.
+	 */
+	@Test
+	public void testChangedSource() throws EncoderException, IOException, UnsupportedAudioFileException {
+		short[][] stereo = { sine(44100, 1000, 44100), sine(44100, 440, 44100) };
+		short[][] mono = { sine(44100, 440, 22050) };
+		File source = writeWav(stereo, 44100);
+		File replacement = writeWav(mono, 44100);
+		File target = File.createTempFile("converted", ".wav");
+		try {
+			Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getAttributes();
+			assertTrue(PCMConverter.isSupported(source, attributes));
+			Files.copy(replacement.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			assertTrue(source.setLastModified(source.lastModified() + 2000));
+			// mono can not be converted to stereo in-process
+			assertFalse(PCMConverter.isSupported(source, attributes));
+
+			attributes = DefaultAttributes.WAV_PCM_S16LE_MONO_44KHZ.getAttributes();
+			assertTrue(PCMConverter.isSupported(source, attributes));
+			PCMConverter.convert(source, target, attributes);
+			assertArrayEquals(mono[0], readWav(target)[0]);
+		} finally {
+			source.delete();
+			replacement.delete();
+			target.delete();
+		}
+	}
+
+	/**
+	 * Stereo to mono is the average of both channels.
+	 */
+	@Test
+	public void testStereoDownmix() throws EncoderException, IOException, UnsupportedAudioFileException {
+		short[][] channels = { sine(44100, 1000, 44100), sine(44100, 440, 44100) };
+		File source = writeWav(channels, 44100);
+		File target = File.createTempFile("converted", ".wav");
+		try {
+			PCMConverter.convert(source, target, DefaultAttributes.WAV_PCM_S16LE_MONO_44KHZ.getAttributes());
+			short[] mono = readWav(target)[0];
+			assertEquals(channels[0].length, mono.length);
+			for (int i = 0; i < mono.length; i++) {
+				assertEquals("Difference at sample " + i, (channels[0][i] + channels[1][i]) / 2.0, mono[i], 1.0);
+			}
+		} finally {
+			source.delete();
+			target.delete();
+		}
+	}
+
+	/**
+	 * A resampled sine should be close to the sine sampled at the target rate,
+	 * for integer, rational and irrational ratios.
+	 */
+	@Test
+	public void testResampling() throws EncoderException, IOException, UnsupportedAudioFileException {
+		File source = writeWav(new short[][] { sine(44100, 1000, 44100 * 2) }, 44100);
+		try {
+			for (int targetRate : new int[] { 22050, 8000, 16789, 48000, 88200 }) {
+				Attributes attributes = new Attributes("wav", "pcm_s16le", targetRate, 1);
+				File target = File.createTempFile("converted", ".wav");
+				try {
+					PCMConverter.convert(source, target, attributes);
+					short[] resampled = readWav(target)[0];
+					short[] expected = sine(targetRate, 1000, targetRate * 2);
+					assertEquals(expected.length, resampled.length);
+					// skip the edges, filtered with silence
+					int skip = targetRate / 100;
+					assertTrue("Resampling to " + targetRate + " Hz",
+							rmsDifference(expected, resampled, skip) < TOLERANCE);
+				} finally {
+					target.delete();
+				}
+			}
+		} finally {
+			source.delete();
+		}
+	}
+
+	/**
+	 * The in-process conversion should match ffmpeg within the documented
+	 * tolerance.
+	 */
+	@Test
+	public void testMatchesFFmpeg() throws EncoderException, IOException, UnsupportedAudioFileException {
+		DefaultAttributes[] targets = { DefaultAttributes.WAV_PCM_S16LE_MONO_8KHZ,
+				DefaultAttributes.WAV_PCM_S16LE_MONO_22KHZ, DefaultAttributes.WAV_PCM_S16LE_STEREO_22KHZ };
+		for (DefaultAttributes target : targets) {
+			File inProcess = File.createTempFile("inProcess", ".wav");
+			File ffmpeg = File.createTempFile("ffmpeg", ".wav");
+			try {
+				PCMConverter.convert(new File(INPUT_FILE), inProcess, target.getAttributes());
+				new Encoder().encode(new File(INPUT_FILE), ffmpeg, target.getAttributes());
+				short[][] expected = readWav(ffmpeg);
+				short[][] actual = readWav(inProcess);
+				for (int c = 0; c < expected.length; c++) {
+					assertEquals(expected[c].length, actual[c].length, 1);
+					assertTrue(target.name(), rmsDifference(expected[c], actual[c], 0) < TOLERANCE);
+				}
+			} finally {
+				inProcess.delete();
+				ffmpeg.delete();
+			}
+		}
+	}
+
+	private static short[] sine(int sampleRate, double frequency, int length) {
+		short[] samples = new short[length];
+		for (int i = 0; i < length; i++) {
+			samples[i] = (short) Math.round(16384 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+		}
+		return samples;
+	}
+
+	private static double rmsDifference(short[] expected, short[] actual, int skip) {
+		double sum = 0;
+		int count = 0;
+		for (int i = skip; i < Math.min(expected.length, actual.length) - skip; i++) {
+			double difference = (expected[i] - actual[i]) / 32768.0;
+			sum += difference * difference;
+			count++;
+		}
+		return Math.sqrt(sum / count);
+	}
+
+	private static File writeWav(short[][] channels, int sampleRate) throws IOException {
+		int frames = channels[0].length;
+		byte[] data = new byte[frames * channels.length * 2];
+		int index = 0;
+		for (int i = 0; i < frames; i++) {
+			for (short[] channel : channels) {
+				data[index++] = (byte) channel[i];
+				data[index++] = (byte) (channel[i] >> 8);
+			}
+		}
+		AudioFormat format = new AudioFormat(sampleRate, 16, channels.length, true, false);
+		File file = File.createTempFile("source", ".wav");
+		AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, frames),
+				AudioFileFormat.Type.WAVE, file);
+		return file;
+	}
+
+	private static short[][] readWav(File file) throws IOException, UnsupportedAudioFileException {
+		AudioInputStream stream = AudioSystem.getAudioInputStream(file);
+		AudioFormat format = stream.getFormat();
+		byte[] data = new byte[(int) stream.getFrameLength() * format.getFrameSize()];
+		int offset = 0;
+		int read;
+		while (offset < data.length && (read = stream.read(data, offset, data.length - offset)) > 0) {
+			offset += read;
+		}
+		stream.close();
+		int channels = format.getChannels();
+		short[][] samples = new short[channels][data.length / format.getFrameSize()];
+		for (int i = 0; i < samples[0].length; i++) {
+			for (int c = 0; c < channels; c++) {
+				int index = (i * channels + c) * 2;
+				samples[c][i] = (short) ((data[index] & 0xFF) | (data[index + 1] << 8));
+			}
+		}
+		return samples;
+	}
+}
@@ -0,0 +1,108 @@
+package be.tarsos.transcoder.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.Transcoder;
+
+/**
+ * Encodes long WAV files to MP3 with one ffmpeg process and in parallel
+ * ranges, and prints the speedup for each duration and number of processes.
+ * The long files are made by repeating a short test file.
+ *
+ * @author Joren Six
+ */
+public class ParallelTranscodeBenchmark {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String SOURCE = "audio" + SLASH + "input" + SLASH + "formats" + SLASH
+			+ "16bits-PCM-44100HZ-Stereo.wav";
+
+	/**
+	 * The durations of the sources in minutes.
+	 */
+	private final static int[] DURATIONS = { 2, 10, 30, 60 };
+
+	public static void main(String... args) throws Exception {
+		int cores = Runtime.getRuntime().availableProcessors();
+		List<Integer> parts = new ArrayList<Integer>();
+		for (int p = 1; p < cores; p *= 2) {
+			parts.add(p);
+		}
+		parts.add(cores);
+
+		Attributes attributes = new Attributes("mp3", "libmp3lame", 44100, 2, 128000);
+		attributes.setBackend(Backend.FFMPEG);
+		System.out.println(String.format("%d cores", cores));
+		System.out.println(String.format("%10s %10s %12s %10s", "minutes", "processes", "time (s)", "speedup"));
+		for (int minutes : DURATIONS) {
+			File source = File.createTempFile("long", ".wav");
+			File target = File.createTempFile("long", ".mp3");
+			try {
+				repeat(new File(SOURCE), source, minutes * 60);
+				double single = 0;
+				for (int p : parts) {
+					try {
+						long start = System.nanoTime();
+						Transcoder.transcodeParallel(source, target, attributes, p);
+						double seconds = (System.nanoTime() - start) / 1e9;
+						if (p == 1) {
+							single = seconds;
+						}
+						System.out.println(String.format("%10d %10d %12.2f %10.2f", minutes, p, seconds, single
+								/ seconds));
+					} catch (Exception e) {
+						System.out.println(String.format("%10d %10d failed: %s", minutes, p, e));
+					}
+				}
+			} finally {
+				source.delete();
+				target.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes a WAV file that repeats the audio of a source.
+	 */
+	private static void repeat(File source, File target, int seconds) throws Exception {
+		AudioInputStream in = AudioSystem.getAudioInputStream(source);
+		byte[] audio;
+		try {
+			audio = readFully(in);
+		} finally {
+			in.close();
+		}
+		long frames = (long) in.getFormat().getFrameRate() * seconds;
+		int times = (int) (frames * in.getFormat().getFrameSize() / audio.length) + 1;
+		List<InputStream> copies = new ArrayList<InputStream>();
+		for (int i = 0; i < times; i++) {
+			copies.add(new ByteArrayInputStream(audio));
+		}
+		AudioInputStream repeated = new AudioInputStream(new SequenceInputStream(Collections.enumeration(copies)),
+				in.getFormat(), frames);
+		AudioSystem.write(repeated, AudioFileFormat.Type.WAVE, target);
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
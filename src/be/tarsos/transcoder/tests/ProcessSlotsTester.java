@@ -0,0 +1,125 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Priority;
+import be.tarsos.transcoder.ffmpeg.ProcessSlots;
+
+/**
+ * Checks that interactive processes skip the queue and that batch processes
+ * keep to their share of the slots.
+ *
+ * @author Joren Six
+ */
+public class ProcessSlotsTester {
+
+	/**
+	 * With one of two slots for batch processes, a second batch process waits
+	 * while an interactive one starts at once. When the slots fill up, a
+	 * waiting interactive process gets the first free slot.
+	 */
+	@Test
+	public void testInteractiveFirst() throws InterruptedException {
+		ProcessSlots slots = new ProcessSlots(2, 1);
+		final List<Priority> order = Collections.synchronizedList(new ArrayList<Priority>());
+
+		slots.acquire(Priority.BATCH);
+		Thread batch = acquire(slots, Priority.BATCH, order);
+		waitFor(slots, Priority.BATCH, 1);
+		slots.acquire(Priority.INTERACTIVE);
+		assertEquals(1, slots.getRunning(Priority.BATCH));
+		assertEquals(1, slots.getRunning(Priority.INTERACTIVE));
+
+		Thread interactive = acquire(slots, Priority.INTERACTIVE, order);
+		waitFor(slots, Priority.INTERACTIVE, 1);
+		slots.release(Priority.BATCH);
+		interactive.join(1000);
+		assertEquals(Collections.singletonList(Priority.INTERACTIVE), order);
+		assertEquals(1, slots.getWaiting(Priority.BATCH));
+
+		slots.release(Priority.INTERACTIVE);
+		batch.join(1000);
+		assertEquals(2, order.size());
+		assertEquals(Priority.BATCH, order.get(1));
+	}
+
+	/**
+	 * The start latency percentiles follow the waiting time.
+	 */
+	@Test
+	public void testLatency() throws InterruptedException {
+		ProcessSlots slots = new ProcessSlots(1, 1);
+		assertTrue(Double.isNaN(slots.getStartLatency(Priority.BATCH, 0.5)));
+		for (int i = 0; i < 10; i++) {
+			slots.acquire(Priority.INTERACTIVE);
+			slots.release(Priority.INTERACTIVE);
+		}
+		slots.acquire(Priority.INTERACTIVE);
+		Thread batch = acquire(slots, Priority.BATCH, new ArrayList<Priority>());
+		waitFor(slots, Priority.BATCH, 1);
+		Thread.sleep(100);
+		slots.release(Priority.INTERACTIVE);
+		batch.join(1000);
+
+		assertEquals(11, slots.getStarted(Priority.INTERACTIVE));
+		assertEquals(1, slots.getStarted(Priority.BATCH));
+		assertTrue(slots.getStartLatency(Priority.INTERACTIVE, 0.99) < 50);
+		assertTrue(slots.getStartLatency(Priority.BATCH, 0.5) >= 100);
+		assertTrue(slots.getReport().contains("p99="));
+	}
+
+	/**
+	 * Open interactive processes start even when every slot is taken and do
+	 * not hold back other processes.
+	 */
+	@Test
+	public void testOpenInteractive() throws InterruptedException {
+		ProcessSlots slots = new ProcessSlots(1, 1);
+		slots.acquire(Priority.INTERACTIVE);
+		for (int i = 0; i < 3; i++) {
+			slots.open(Priority.INTERACTIVE);
+		}
+		assertEquals(3, slots.getOpen());
+		assertEquals(1, slots.getRunning(Priority.INTERACTIVE));
+		assertEquals(4, slots.getStarted(Priority.INTERACTIVE));
+
+		slots.release(Priority.INTERACTIVE);
+		Thread batch = acquire(slots, Priority.BATCH, new ArrayList<Priority>());
+		batch.join(1000);
+		assertEquals(1, slots.getRunning(Priority.BATCH));
+		for (int i = 0; i < 3; i++) {
+			slots.close(Priority.INTERACTIVE);
+		}
+		assertEquals(0, slots.getOpen());
+	}
+
+	private static Thread acquire(final ProcessSlots slots, final Priority priority, final List<Priority> order) {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					slots.acquire(priority);
+					order.add(priority);
+				} catch (InterruptedException e) {
+					// test ends
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static void waitFor(ProcessSlots slots, Priority priority, int waiting) throws InterruptedException {
+		for (int i = 0; i < 100 && slots.getWaiting(priority) < waiting; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(waiting, slots.getWaiting(priority));
+	}
+}
@@ -0,0 +1,108 @@
+package be.tarsos.transcoder.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.Quality;
+import be.tarsos.transcoder.Transcoder;
+
+/**
+ * Encodes the files in <code>audio/input</code> with each quality tier and
+ * prints the throughput, in seconds of audio per second, and the total size
+ * of the output relative to the default tier.
+ *
+ * @author Joren Six
+ */
+public class QualityBenchmark {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String INPUT = "audio" + SLASH + "input";
+
+	/**
+	 * The encodings to compare, each with its tiers.
+	 */
+	private final static DefaultAttributes[] ENCODINGS = { DefaultAttributes.FLAC_STEREO_44KHZ,
+			DefaultAttributes.MP3_128KBS_STEREO_44KHZ, DefaultAttributes.OGG_STEREO_44KHZ };
+
+	/**
+	 * The tiers, the default first to compare the sizes to.
+	 */
+	private final static Quality[] TIERS = { Quality.DEFAULT, Quality.FAST, Quality.BEST };
+
+	/**
+	 * The number of times each file is encoded, the fastest time counts.
+	 */
+	private final static int RUNS = 3;
+
+	public static void main(String... args) throws Exception {
+		List<File> sources = new ArrayList<File>();
+		collect(new File(INPUT), sources);
+		double audio = 0;
+		for (File source : sources) {
+			Attributes info = Transcoder.getInfo(source.getPath());
+			if (info != null && info.getDuration() > 0) {
+				audio += info.getDuration() / 1000.0;
+			}
+		}
+		System.out.println(String.format("%d files, %.1f s of audio", sources.size(), audio));
+		System.out.println(String.format("%-24s %-8s %12s %12s %10s", "encoding", "quality", "audio s/s",
+				"size (kB)", "size"));
+		for (DefaultAttributes encoding : ENCODINGS) {
+			long defaultSize = 0;
+			for (Quality quality : TIERS) {
+				Attributes attributes = encoding.getAttributes();
+				attributes.setBackend(Backend.FFMPEG);
+				attributes.setQuality(quality);
+				double seconds = 0;
+				long size = 0;
+				try {
+					for (File source : sources) {
+						File target = File.createTempFile("quality", "." + attributes.getFormat());
+						try {
+							double fastest = Double.MAX_VALUE;
+							for (int run = 0; run < RUNS; run++) {
+								long start = System.nanoTime();
+								Transcoder.transcode(source, target, attributes);
+								fastest = Math.min(fastest, (System.nanoTime() - start) / 1e9);
+							}
+							seconds += fastest;
+							size += target.length();
+						} finally {
+							target.delete();
+						}
+					}
+				} catch (Exception e) {
+					System.out.println(String.format("%-24s %-8s failed: %s", encoding, quality, e));
+					continue;
+				}
+				if (quality == Quality.DEFAULT) {
+					defaultSize = size;
+				}
+				System.out.println(String.format("%-24s %-8s %12.1f %12d %10s", encoding, quality, audio / seconds,
+						size / 1024, defaultSize > 0 ? String.format("%.3f", size / (double) defaultSize) : "-"));
+			}
+		}
+	}
+
+	/**
+	 * Adds the audio files in a directory and its subdirectories.
+	 */
+	private static void collect(File directory, List<File> sources) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName().toLowerCase();
+			if (file.isDirectory()) {
+				collect(file, sources);
+			} else if (name.endsWith(".wav") || name.endsWith(".flac") || name.endsWith(".mp3")
+					|| name.endsWith(".ogg")) {
+				sources.add(file);
+			}
+		}
+	}
+}
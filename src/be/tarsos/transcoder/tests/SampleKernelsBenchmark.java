@@ -0,0 +1,111 @@
+package be.tarsos.transcoder.tests;
+
+import java.util.Random;
+
+import be.tarsos.transcoder.pcm.SampleKernels;
+
+/**
+ * Measures the throughput of each sample kernel, scalar and vectorized, and
+ * prints the speedup. Run with
+ * <code>java --add-modules jdk.incubator.vector -cp ... be.tarsos.transcoder.tests.SampleKernelsBenchmark</code>
+ * otherwise only the scalar kernels are measured.
+ *
+ * @author Joren Six
+ */
+public class SampleKernelsBenchmark {
+
+	private final static int FRAMES = 4096;
+	private final static int WARMUP_ROUNDS = 20000;
+	private final static int MEASURED_ROUNDS = 20000;
+
+	private interface Kernel {
+		void run(SampleKernels kernels);
+	}
+
+	public static void main(String... args) {
+		Random random = new Random(42);
+		final short[] shorts = new short[FRAMES * 2];
+		final int[] ints = new int[FRAMES * 2];
+		final byte[] packed = new byte[FRAMES * 2 * 3];
+		final float[] interleaved = new float[FRAMES * 6];
+		for (int i = 0; i < shorts.length; i++) {
+			shorts[i] = (short) random.nextInt();
+			ints[i] = random.nextInt();
+		}
+		random.nextBytes(packed);
+		for (int i = 0; i < interleaved.length; i++) {
+			interleaved[i] = random.nextFloat() * 2 - 1;
+		}
+		final float[] floats = new float[FRAMES * 2];
+		final float[][] planar = new float[6][FRAMES];
+
+		SampleKernels scalar = SampleKernels.getScalarInstance();
+		SampleKernels fastest = SampleKernels.getInstance();
+		if (!fastest.isVectorized()) {
+			System.out.println("Vector API not available, start the JVM with --add-modules jdk.incubator.vector");
+		}
+		System.out.println(String.format("%-20s %15s %15s %8s", "kernel", "scalar Msamples/s",
+				"fastest Msamples/s", "speedup"));
+
+		measure("s16 to f32", FRAMES * 2, scalar, fastest, new Kernel() {
+			public void run(SampleKernels kernels) {
+				kernels.s16ToFloat(shorts, floats, shorts.length);
+			}
+		});
+		measure("s24 to f32", FRAMES * 2, scalar, fastest, new Kernel() {
+			public void run(SampleKernels kernels) {
+				kernels.s24ToFloat(packed, floats, FRAMES * 2);
+			}
+		});
+		measure("s32 to f32", FRAMES * 2, scalar, fastest, new Kernel() {
+			public void run(SampleKernels kernels) {
+				kernels.s32ToFloat(ints, floats, ints.length);
+			}
+		});
+		measure("stereo downmix", FRAMES * 2, scalar, fastest, new Kernel() {
+			public void run(SampleKernels kernels) {
+				kernels.downmix(interleaved, 2, floats, FRAMES);
+			}
+		});
+		measure("5.1 downmix", FRAMES * 6, scalar, fastest, new Kernel() {
+			public void run(SampleKernels kernels) {
+				kernels.downmix(interleaved, 6, floats, FRAMES);
+			}
+		});
+		measure("stereo deinterleave", FRAMES * 2, scalar, fastest, new Kernel() {
+			public void run(SampleKernels kernels) {
+				kernels.deinterleave(interleaved, 2, planar, FRAMES);
+			}
+		});
+		measure("5.1 deinterleave", FRAMES * 6, scalar, fastest, new Kernel() {
+			public void run(SampleKernels kernels) {
+				kernels.deinterleave(interleaved, 6, planar, FRAMES);
+			}
+		});
+		measure("gain", FRAMES * 2, scalar, fastest, new Kernel() {
+			public void run(SampleKernels kernels) {
+				// a negative unit gain keeps the samples out of the subnormal range
+				kernels.gain(floats, floats.length, -1.0f);
+			}
+		});
+	}
+
+	private static void measure(String name, int samples, SampleKernels scalar, SampleKernels fastest, Kernel kernel) {
+		double scalarRate = samplesPerSecond(samples, scalar, kernel);
+		double fastestRate = samplesPerSecond(samples, fastest, kernel);
+		System.out.println(String.format("%-20s %15.1f %15.1f %7.2fx", name, scalarRate / 1e6, fastestRate / 1e6,
+				fastestRate / scalarRate));
+	}
+
+	private static double samplesPerSecond(int samples, SampleKernels kernels, Kernel kernel) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			kernel.run(kernels);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			kernel.run(kernels);
+		}
+		long stop = System.nanoTime();
+		return samples * (double) MEASURED_ROUNDS / ((stop - start) / 1e9);
+	}
+}
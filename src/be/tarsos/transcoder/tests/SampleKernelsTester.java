@@ -0,0 +1,141 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import be.tarsos.transcoder.pcm.SampleKernels;
+
+/**
+ * The vector kernels should produce bit-exact the same output as the scalar
+ * kernels. Run with <code>--add-modules jdk.incubator.vector</code>, the tests
+ * are skipped otherwise.
+ *
+ * @author Joren Six
+ */
+public class SampleKernelsTester {
+
+	/**
+	 * Odd lengths so that the scalar tail of the vector loops is tested as
+	 * well.
+	 */
+	private final static int[] LENGTHS = { 0, 1, 7, 31, 4096, 4099 };
+
+	private final Random random = new Random(42);
+	private SampleKernels scalar;
+	private SampleKernels vector;
+
+	@Before
+	public void setUp() {
+		scalar = SampleKernels.getScalarInstance();
+		vector = SampleKernels.getInstance();
+		assumeTrue(vector.isVectorized());
+	}
+
+	@Test
+	public void testS16ToFloat() {
+		for (int length : LENGTHS) {
+			short[] source = new short[length];
+			for (int i = 0; i < length; i++) {
+				source[i] = (short) random.nextInt();
+			}
+			if (length > 0) {
+				source[0] = Short.MIN_VALUE;
+			}
+			float[] expected = new float[length];
+			float[] actual = new float[length];
+			scalar.s16ToFloat(source, expected, length);
+			vector.s16ToFloat(source, actual, length);
+			assertBitExact(expected, actual);
+		}
+	}
+
+	@Test
+	public void testS24ToFloat() {
+		for (int length : LENGTHS) {
+			byte[] source = new byte[length * 3];
+			random.nextBytes(source);
+			float[] expected = new float[length];
+			float[] actual = new float[length];
+			scalar.s24ToFloat(source, expected, length);
+			vector.s24ToFloat(source, actual, length);
+			assertBitExact(expected, actual);
+		}
+	}
+
+	@Test
+	public void testS32ToFloat() {
+		for (int length : LENGTHS) {
+			int[] source = new int[length];
+			for (int i = 0; i < length; i++) {
+				source[i] = random.nextInt();
+			}
+			float[] expected = new float[length];
+			float[] actual = new float[length];
+			scalar.s32ToFloat(source, expected, length);
+			vector.s32ToFloat(source, actual, length);
+			assertBitExact(expected, actual);
+		}
+	}
+
+	@Test
+	public void testDeinterleave() {
+		for (int channels = 1; channels <= 10; channels++) {
+			for (int frames : LENGTHS) {
+				float[] source = randomFloats(frames * channels);
+				float[][] expected = new float[channels][frames];
+				float[][] actual = new float[channels][frames];
+				scalar.deinterleave(source, channels, expected, frames);
+				vector.deinterleave(source, channels, actual, frames);
+				for (int c = 0; c < channels; c++) {
+					assertBitExact(expected[c], actual[c]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDownmix() {
+		for (int channels = 1; channels <= 10; channels++) {
+			for (int frames : LENGTHS) {
+				float[] source = randomFloats(frames * channels);
+				float[] expected = new float[frames];
+				float[] actual = new float[frames];
+				scalar.downmix(source, channels, expected, frames);
+				vector.downmix(source, channels, actual, frames);
+				assertBitExact(expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testGain() {
+		for (int length : LENGTHS) {
+			float[] expected = randomFloats(length);
+			float[] actual = expected.clone();
+			scalar.gain(expected, length, 0.73f);
+			vector.gain(actual, length, 0.73f);
+			assertBitExact(expected, actual);
+		}
+	}
+
+	private float[] randomFloats(int length) {
+		float[] floats = new float[length];
+		for (int i = 0; i < length; i++) {
+			floats[i] = random.nextFloat() * 2 - 1;
+		}
+		return floats;
+	}
+
+	private static void assertBitExact(float[] expected, float[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("Difference at sample " + i, Float.floatToRawIntBits(expected[i]),
+					Float.floatToRawIntBits(actual[i]));
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.Streamer;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+import be.tarsos.transcoder.seek.SeekIndex;
+
+/**
+ * Checks the seek indexes of the test files and sample exact excerpts.
+ *
+ * @author Joren Six
+ */
+public class SeekIndexTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String FORMATS = "audio" + SLASH + "input" + SLASH + "formats" + SLASH;
+
+	/**
+	 * The indexes should report the number of samples of the PCM version of
+	 * the same audio.
+	 */
+	@Test
+	public void testTotalSamples() throws IOException {
+		for (File file : new File(FORMATS).listFiles()) {
+			String name = file.getName();
+			if (name.endsWith(".wav")) {
+				assertNull(name, SeekIndex.get(file));
+			} else {
+				SeekIndex index = SeekIndex.get(file);
+				assertNotNull(name, index);
+				File wav = new File(FORMATS + "16bits-PCM-" + index.getSampleRate() + "HZ-Mono.wav");
+				assertEquals(name, (wav.length() - 44) / 2, index.getTotalSamples());
+			}
+		}
+	}
+
+	@Test
+	public void testFind() throws IOException {
+		for (File file : new File(FORMATS).listFiles()) {
+			SeekIndex index = SeekIndex.get(file);
+			if (index == null) {
+				continue;
+			}
+			assertTrue(file.getName(), index.size() > 0);
+			for (long sample = 0; sample < index.getTotalSamples(); sample += 997) {
+				int point = index.find(sample);
+				assertTrue(file.getName(), index.getSample(point) <= sample);
+				if (index.getContainer() != SeekIndex.Container.MP3 && point + 1 < index.size()) {
+					assertTrue(file.getName(), index.getSample(point + 1) > sample);
+				}
+			}
+		}
+		// MP3 points are frames
+		SeekIndex mp3 = SeekIndex.get(new File(FORMATS + "155kbs_195kbs_VBR-44100HZ-Stereo.mp3"));
+		assertEquals(1152, mp3.getSample(1) - mp3.getSample(0));
+		assertTrue(mp3.getOffset(1) > mp3.getOffset(0));
+	}
+
+	/**
+	 * An excerpt should hold exactly the samples at the same position in a
+	 * complete decode.
+	 */
+	@Test
+	public void testExcerpt() throws EncoderException, IOException {
+		for (String name : new String[] { "16bits-PCM-44100HZ-Stereo.wav", "16bits-44100HZ-Stereo.flac",
+				"24bits-44100HZ-Mono.flac" }) {
+			Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+			attributes.setBackend(Backend.JAVA);
+			byte[] complete = read(FORMATS + name, attributes);
+			int frameSize = name.contains("Stereo") ? 4 : 2;
+
+			attributes.setStartSample(12345);
+			attributes.setMaxDurationSamples(44100);
+			byte[] excerpt = read(FORMATS + name, attributes);
+			assertArrayEquals(name, Arrays.copyOfRange(complete, 12345 * frameSize, (12345 + 44100) * frameSize),
+					excerpt);
+
+			// 1.5 seconds is exactly sample 66150
+			attributes.setStartTime(1500000);
+			attributes.setMaxDuration(-1);
+			excerpt = read(FORMATS + name, attributes);
+			assertArrayEquals(name, Arrays.copyOfRange(complete, 66150 * frameSize, complete.length), excerpt);
+		}
+	}
+
+	private static byte[] read(String source, Attributes attributes) throws EncoderException, IOException {
+		InputStream in = Streamer.stream(source, attributes);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,187 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.SharedStreams;
+import be.tarsos.transcoder.SlowReaderPolicy;
+import be.tarsos.transcoder.Streamer;
+import be.tarsos.transcoder.TranscoderService;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+import be.tarsos.transcoder.ffmpeg.FFMPEGLocator;
+import be.tarsos.transcoder.ffmpeg.ProbeCache;
+import be.tarsos.transcoder.ffmpeg.ProcessSlots;
+
+/**
+ * Reads one shared decode with several readers.
+ *
+ * @author Joren Six
+ */
+public class SharedStreamsTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String SOURCE = "audio" + SLASH + "input" + SLASH + "formats" + SLASH
+			+ "16bits-PCM-44100HZ-Stereo.wav";
+
+	/**
+	 * A reader that blocks gets all audio, even if a reader that drops does
+	 * not read at all. A reader that joins later gets the end of the audio.
+	 */
+	@Test
+	public void testPolicies() throws EncoderException, IOException, InterruptedException {
+		Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+		attributes.setBackend(Backend.JAVA);
+		byte[] complete = readFully(Streamer.stream(SOURCE, attributes));
+
+		SharedStreams streams = new SharedStreams(16 * 1024);
+		InputStream blocking = streams.subscribe(SOURCE, attributes, SlowReaderPolicy.BLOCK);
+		InputStream idle = streams.subscribe(SOURCE, attributes, SlowReaderPolicy.DROP);
+		assertEquals(1, streams.size());
+
+		byte[] first = new byte[complete.length / 2];
+		int read = 0;
+		while (read < first.length) {
+			read += blocking.read(first, read, first.length - read);
+		}
+		final InputStream late = streams.subscribe(SOURCE, attributes, SlowReaderPolicy.BLOCK);
+		assertEquals(1, streams.size());
+		final ByteArrayOutputStream lateBytes = new ByteArrayOutputStream();
+		Thread lateReader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					lateBytes.write(readFully(late));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		lateReader.start();
+		byte[] rest = readFully(blocking);
+		lateReader.join();
+		idle.close();
+
+		byte[] all = Arrays.copyOf(first, first.length + rest.length);
+		System.arraycopy(rest, 0, all, first.length, rest.length);
+		assertArrayEquals(complete, all);
+		byte[] end = lateBytes.toByteArray();
+		assertTrue(end.length > 0 && end.length % 4 == 0);
+		assertArrayEquals(Arrays.copyOfRange(complete, complete.length - end.length, complete.length), end);
+	}
+
+	/**
+	 * The decoder stops when the last reader leaves.
+	 */
+	@Test
+	public void testDetach() throws EncoderException, IOException {
+		Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+		attributes.setBackend(Backend.JAVA);
+		SharedStreams streams = new SharedStreams(4096);
+		InputStream first = streams.subscribe(SOURCE, attributes, SlowReaderPolicy.DROP);
+		InputStream second = streams.subscribe(SOURCE, attributes, SlowReaderPolicy.DROP);
+		first.read(new byte[100]);
+		first.close();
+		assertEquals(1, streams.size());
+		second.close();
+		assertEquals(0, streams.size());
+	}
+
+	/**
+	 * A decoder that is slow to start does not hold back readers of other
+	 * sources, a second reader of the slow source waits for it and shares it.
+	 * A script that logs its calls and writes a WAV file after a delay stands
+	 * in for ffmpeg, so this only runs on systems with a POSIX shell.
+	 */
+	@Test
+	public void testSlowStart() throws EncoderException, IOException, InterruptedException {
+		Assume.assumeTrue(new File("/bin/sh").canExecute());
+		File wav = new File("audio" + SLASH + "input" + SLASH + "tone" + SLASH + "tone_10s.wav");
+		final File script = File.createTempFile("fake_ffmpeg", ".sh");
+		File log = File.createTempFile("fake_ffmpeg", ".log");
+		TranscoderService service = null;
+		try {
+			String contents = "#!/bin/sh\necho \"$*\" >> '" + log.getAbsolutePath() + "'\n"
+					+ "case \"$*\" in *slow*) sleep 3;; esac\nexec cat '" + wav.getAbsolutePath() + "'\n";
+			Files.write(script.toPath(), contents.getBytes("US-ASCII"));
+			assertTrue(script.setExecutable(true));
+			FFMPEGLocator locator = new FFMPEGLocator() {
+				public boolean pickMe() {
+					return true;
+				}
+
+				protected String getFFMPEGExecutablePath() {
+					return script.getAbsolutePath();
+				}
+			};
+			service = new TranscoderService(locator, new ProbeCache(16), new ProcessSlots(2, 1), 2);
+			final Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_MONO_44KHZ.getAttributes();
+			attributes.setBackend(Backend.FFMPEG);
+
+			final TranscoderService shared = service;
+			final InputStream[] slow = new InputStream[2];
+			Thread[] subscribers = new Thread[2];
+			for (int i = 0; i < 2; i++) {
+				final int index = i;
+				subscribers[i] = new Thread(new Runnable() {
+					public void run() {
+						try {
+							slow[index] = shared.streamShared("slow.wav", attributes, SlowReaderPolicy.DROP);
+						} catch (EncoderException e) {
+							e.printStackTrace();
+						}
+					}
+				});
+				subscribers[i].start();
+				Thread.sleep(300);
+			}
+
+			long start = System.nanoTime();
+			InputStream fast = service.streamShared("fast.wav", attributes, SlowReaderPolicy.DROP);
+			assertTrue((System.nanoTime() - start) / 1e6 < 2000);
+			fast.close();
+
+			for (Thread subscriber : subscribers) {
+				subscriber.join(10000);
+			}
+			assertTrue(slow[0] != null && slow[1] != null);
+			slow[0].close();
+			slow[1].close();
+			int decoders = 0;
+			for (String call : Files.readAllLines(log.toPath())) {
+				if (call.contains("slow.wav")) {
+					decoders++;
+				}
+			}
+			assertEquals(1, decoders);
+		} finally {
+			if (service != null) {
+				service.shutdown();
+			}
+			script.delete();
+			log.delete();
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,188 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.Streamer;
+import be.tarsos.transcoder.TranscoderService;
+import be.tarsos.transcoder.ffmpeg.EncoderException;
+import be.tarsos.transcoder.ffmpeg.FFMPEGLocator;
+import be.tarsos.transcoder.ffmpeg.ProbeCache;
+import be.tarsos.transcoder.ffmpeg.ProcessSlots;
+
+/**
+ * Subscribes to decoded audio with demand of one buffer at a time.
+ *
+ * @author Joren Six
+ */
+public class StreamPublisherTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String SOURCE = "audio" + SLASH + "input" + SLASH + "formats" + SLASH
+			+ "24bits-44100HZ-Stereo.flac";
+
+	@Test
+	public void testPublish() throws EncoderException, IOException, InterruptedException {
+		Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+		attributes.setBackend(Backend.JAVA);
+		byte[] expected = readFully(Streamer.stream(SOURCE, attributes));
+
+		Collector collector = new Collector(Long.MAX_VALUE);
+		Streamer.publish(SOURCE, attributes).subscribe(collector);
+		assertTrue(collector.end.await(10, TimeUnit.SECONDS));
+		assertNull(collector.error);
+		assertArrayEquals(expected, collector.bytes.toByteArray());
+		assertTrue(collector.buffers > 1);
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		Attributes attributes = new Attributes("wav", "pcm_s16le", null, null);
+		attributes.setBackend(Backend.JAVA);
+		Collector collector = new Collector(2);
+		Streamer.publish(SOURCE, attributes).subscribe(collector);
+		assertTrue(collector.end.await(10, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(2, collector.buffers);
+	}
+
+	/**
+	 * Opens more ffmpeg streams than there are default process slots and
+	 * only reads them to the end once each delivered its first buffer. A
+	 * script that writes a WAV file larger than a pipe buffer stands in for
+	 * ffmpeg, so each process stays alive until it is read. This only runs on
+	 * systems with a POSIX shell.
+	 */
+	@Test
+	public void testMoreStreamsThanSlots() throws IOException, InterruptedException {
+		Assume.assumeTrue(new File("/bin/sh").canExecute());
+		File wav = new File("audio" + SLASH + "input" + SLASH + "tone" + SLASH + "tone_10s.wav");
+		final File script = File.createTempFile("fake_ffmpeg", ".sh");
+		TranscoderService service = null;
+		try {
+			String contents = "#!/bin/sh\nexec cat '" + wav.getAbsolutePath() + "'\n";
+			Files.write(script.toPath(), contents.getBytes("US-ASCII"));
+			assertTrue(script.setExecutable(true));
+			FFMPEGLocator locator = new FFMPEGLocator() {
+				public boolean pickMe() {
+					return true;
+				}
+
+				protected String getFFMPEGExecutablePath() {
+					return script.getAbsolutePath();
+				}
+			};
+			service = new TranscoderService(locator, new ProbeCache(16), ProcessSlots.getDefault(), 2);
+			Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_MONO_44KHZ.getAttributes();
+			attributes.setBackend(Backend.FFMPEG);
+
+			int streams = 2 * Runtime.getRuntime().availableProcessors() + 2;
+			CountDownLatch started = new CountDownLatch(streams);
+			List<Collector> collectors = new ArrayList<Collector>();
+			for (int i = 0; i < streams; i++) {
+				Collector collector = new Collector(Long.MAX_VALUE, started);
+				service.publish(wav.getPath(), attributes).subscribe(collector);
+				collectors.add(collector);
+			}
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			for (Collector collector : collectors) {
+				collector.resume();
+			}
+			for (Collector collector : collectors) {
+				assertTrue(collector.end.await(10, TimeUnit.SECONDS));
+				assertNull(collector.error);
+				assertEquals(wav.length(), collector.bytes.size(), 1024);
+			}
+		} finally {
+			if (service != null) {
+				service.shutdown();
+			}
+			script.delete();
+		}
+	}
+
+	/**
+	 * Requests one buffer at a time and cancels after a number of buffers.
+	 * If given a latch, it counts it down on the first buffer and waits for
+	 * {@link #resume()} to request more.
+	 */
+	private static class Collector implements Flow.Subscriber<ByteBuffer> {
+		private final long limit;
+		private final CountDownLatch first;
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final CountDownLatch end = new CountDownLatch(1);
+		private Flow.Subscription subscription;
+		private volatile int buffers;
+		private volatile Throwable error;
+
+		Collector(long limit) {
+			this(limit, null);
+		}
+
+		Collector(long limit, CountDownLatch first) {
+			this.limit = limit;
+			this.first = first;
+		}
+
+		void resume() {
+			subscription.request(1);
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		public void onNext(ByteBuffer buffer) {
+			bytes.write(buffer.array(), buffer.position(), buffer.remaining());
+			buffers++;
+			if (buffers == limit) {
+				subscription.cancel();
+				end.countDown();
+			} else if (first != null && buffers == 1) {
+				first.countDown();
+			} else {
+				subscription.request(1);
+			}
+		}
+
+		public void onError(Throwable throwable) {
+			error = throwable;
+			end.countDown();
+		}
+
+		public void onComplete() {
+			end.countDown();
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+}
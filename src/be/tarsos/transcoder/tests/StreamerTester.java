@@ -2,8 +2,13 @@ package be.tarsos.transcoder.tests;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -16,7 +21,9 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import org.junit.Test;
 
 import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
 import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.PlaylistListener;
 import be.tarsos.transcoder.Streamer;
 import be.tarsos.transcoder.Transcoder;
 import be.tarsos.transcoder.ffmpeg.EncoderException;
@@ -70,6 +77,86 @@ public class StreamerTester {
 		temporaryTranscoded.delete();
 	}
 	
+	/**
+	 * The copy written while streaming should hold the streamed samples.
+	 */
+	@Test
+	public void testTee() throws EncoderException, IOException, UnsupportedAudioFileException {
+		String source = "audio" + SLASH + "input" + SLASH + "formats" + SLASH + "155kbs_195kbs_VBR-44100HZ-Stereo.mp3";
+		Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getAttributes();
+		File copy = File.createTempFile("tee", ".wav");
+		AudioInputStream streamed = Streamer.stream(source, attributes, copy);
+		long streamedBytes = 0;
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = streamed.read(buffer)) != -1) {
+			streamedBytes += read;
+		}
+		streamed.close();
+		AudioInputStream copied = AudioSystem.getAudioInputStream(copy);
+		assertEquals(streamedBytes, copied.getFrameLength() * copied.getFormat().getFrameSize());
+		copied.close();
+		copy.delete();
+	}
+
+	/**
+	 * Items of a playlist should start at the sum of the lengths of the
+	 * previous items.
+	 */
+	@Test
+	public void testPlaylist() throws EncoderException, IOException {
+		String source = "audio" + SLASH + "input" + SLASH + "formats" + SLASH + "16bits-PCM-44100HZ-Stereo.wav";
+		final List<Long> offsets = new ArrayList<Long>();
+		AudioInputStream streamed = Streamer.streamPlaylist(Arrays.asList(source, source, source),
+				DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getAttributes(), new PlaylistListener() {
+					public void itemStarted(int index, String item, long sampleOffset) {
+						offsets.add(sampleOffset);
+					}
+				});
+		long bytes = 0;
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = streamed.read(buffer)) != -1) {
+			bytes += read;
+		}
+		streamed.close();
+		long samples = (new File(source).length() - 44) / 4;
+		assertEquals(3 * samples * 4, bytes);
+		assertEquals(Arrays.asList(0L, samples, 2 * samples), offsets);
+	}
+
+	/**
+	 * The volume of the attributes applies to the items of a playlist: at
+	 * half the volume each sample is half the sample of the source.
+	 */
+	@Test
+	public void testPlaylistVolume() throws EncoderException, IOException {
+		String source = "audio" + SLASH + "input" + SLASH + "formats" + SLASH + "16bits-PCM-44100HZ-Stereo.wav";
+		Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_STEREO_44KHZ.getAttributes();
+		attributes.setBackend(Backend.JAVA);
+		byte[] original = readFully(Streamer.stream(source, attributes));
+		attributes.setBackend(Backend.AUTO);
+		attributes.setVolume(128);
+		byte[] halved = readFully(Streamer.streamPlaylist(Arrays.asList(source), attributes, null));
+		assertEquals(original.length, halved.length);
+		for (int i = 0; i < original.length; i += 2) {
+			int sample = (short) ((original[i] & 0xFF) | (original[i + 1] << 8));
+			int scaled = (short) ((halved[i] & 0xFF) | (halved[i + 1] << 8));
+			assertEquals(sample / 2.0, scaled, 1.0);
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
 	/**
 	 * Play a random http stream.
 	 */
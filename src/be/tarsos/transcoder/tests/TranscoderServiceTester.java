@@ -0,0 +1,69 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
+import be.tarsos.transcoder.Transcoder;
+import be.tarsos.transcoder.TranscoderService;
+import be.tarsos.transcoder.ffmpeg.ProbeCache;
+import be.tarsos.transcoder.ffmpeg.ProcessSlots;
+
+/**
+ * Runs jobs concurrently on one service and compares them with the static
+ * entry points.
+ *
+ * @author Joren Six
+ */
+public class TranscoderServiceTester {
+	private final static String SLASH = System.getProperty("file.separator");
+	private final static String FORMATS = "audio" + SLASH + "input" + SLASH + "formats" + SLASH;
+
+	@Test
+	public void testConcurrentJobs() throws Exception {
+		String[] sources = { "16bits-PCM-44100HZ-Stereo.wav", "16bits-44100HZ-Stereo.flac",
+				"24bits-44100HZ-Mono.flac", "16bits-PCM-8000HZ-Mono.wav" };
+		Attributes attributes = new Attributes("wav", "pcm_s16le", 22050, 1);
+		attributes.setBackend(Backend.JAVA);
+		TranscoderService service = new TranscoderService(null, new ProbeCache(16), new ProcessSlots(2, 1), 4);
+
+		List<File> expected = new ArrayList<File>();
+		List<File> targets = new ArrayList<File>();
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		try {
+			for (int round = 0; round < 4; round++) {
+				for (String source : sources) {
+					File target = File.createTempFile("service", ".wav");
+					targets.add(target);
+					results.add(service.submit(new File(FORMATS + source), target, attributes));
+				}
+			}
+			for (String source : sources) {
+				File target = File.createTempFile("static", ".wav");
+				expected.add(target);
+				Transcoder.transcode(new File(FORMATS + source), target, attributes);
+			}
+			for (int i = 0; i < results.size(); i++) {
+				results.get(i).get();
+				assertArrayEquals(Files.readAllBytes(expected.get(i % sources.length).toPath()),
+						Files.readAllBytes(targets.get(i).toPath()));
+			}
+		} finally {
+			service.shutdown();
+			for (File file : targets) {
+				file.delete();
+			}
+			for (File file : expected) {
+				file.delete();
+			}
+		}
+	}
+}
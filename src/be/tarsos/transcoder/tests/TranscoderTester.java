@@ -1,17 +1,25 @@
 package be.tarsos.transcoder.tests;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.AfterClass;
 import org.junit.Test;
 
 import be.tarsos.transcoder.Attributes;
+import be.tarsos.transcoder.Backend;
 import be.tarsos.transcoder.DefaultAttributes;
+import be.tarsos.transcoder.OutputResult;
 import be.tarsos.transcoder.Transcoder;
 import be.tarsos.transcoder.ffmpeg.EncoderException;
 
@@ -77,6 +85,116 @@ public class TranscoderTester {
 		Transcoder.transcode(newFile, new File("out"), DefaultAttributes.MP3_192KBS_MONO_44KHZ);
 	}
 
+	/**
+	 * Encodes one source to several targets at once.
+	 *
+	 * @throws EncoderException
+	 *             If the source can not be decoded.
+	 */
+	@Test
+	public void testMultipleTargets() throws EncoderException {
+		Map<File, DefaultAttributes> targets = new LinkedHashMap<File, DefaultAttributes>();
+		for (DefaultAttributes target : new DefaultAttributes[] { DefaultAttributes.MP3_128KBS_STEREO_44KHZ,
+				DefaultAttributes.MP3_320KBS_STEREO_44KHZ, DefaultAttributes.OGG_STEREO_44KHZ,
+				DefaultAttributes.WAV_PCM_S16LE_MONO_8KHZ }) {
+			targets.put(new File("audio" + SLASH + "output" + SLASH + "multi_" + target.name() + "."
+					+ target.getAttributes().getFormat()), target);
+		}
+		Map<File, OutputResult> results = Transcoder.transcodeDefaults(new File(INPUT_FILE), targets);
+		assertEquals(targets.keySet(), results.keySet());
+		for (OutputResult result : results.values()) {
+			assertTrue(result.toString(), result.isSuccessful());
+			assertTrue(result.getLength() > 0);
+		}
+	}
+
+	/**
+	 * Encodes one source to a complete and a limited target at once, the
+	 * limited target should only hold the excerpt.
+	 *
+	 * @throws EncoderException
+	 *             If the source can not be decoded.
+	 */
+	@Test
+	public void testMultipleTargetsLimited() throws EncoderException {
+		File full = new File("audio" + SLASH + "output" + SLASH + "multi_full.mp3");
+		File excerpt = new File("audio" + SLASH + "output" + SLASH + "multi_excerpt.ogg");
+		Attributes limited = DefaultAttributes.OGG_STEREO_44KHZ.getAttributes();
+		limited.setStartTime(2000000);
+		limited.setMaxDuration(3000000);
+		Map<File, Attributes> targets = new LinkedHashMap<File, Attributes>();
+		targets.put(full, DefaultAttributes.MP3_128KBS_STEREO_44KHZ.getAttributes());
+		targets.put(excerpt, limited);
+		Map<File, OutputResult> results = Transcoder.transcode(new File(INPUT_FILE), targets);
+		for (OutputResult result : results.values()) {
+			assertTrue(result.toString(), result.isSuccessful());
+		}
+		assertEquals(10000, Transcoder.getInfo(full.getAbsolutePath()).getDuration(), 500);
+		assertEquals(3000, Transcoder.getInfo(excerpt.getAbsolutePath()).getDuration(), 500);
+	}
+
+	/**
+	 * Encoding to a stream should give the same bytes as encoding to a file.
+	 *
+	 * @throws IOException
+	 *             If the target file can not be read.
+	 */
+	@Test
+	public void testEncodeTo() throws EncoderException, IOException {
+		Attributes attributes = DefaultAttributes.WAV_PCM_S16LE_MONO_8KHZ.getAttributes();
+		attributes.setBackend(Backend.JAVA);
+		File target = new File("audio" + SLASH + "output" + SLASH + "encode_to.wav");
+		Transcoder.transcode(new File(INPUT_FILE), target, attributes);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Transcoder.encodeTo(INPUT_FILE, attributes, out);
+		assertArrayEquals(Files.readAllBytes(target.toPath()), out.toByteArray());
+	}
+
+	/**
+	 * Encoding to a stream with ffmpeg should give audio of the same format
+	 * and duration as encoding to a file.
+	 *
+	 * @throws IOException
+	 *             If the encoded bytes can not be written.
+	 */
+	@Test
+	public void testEncodeToFFmpeg() throws EncoderException, IOException {
+		for (DefaultAttributes target : new DefaultAttributes[] { DefaultAttributes.MP3_128KBS_STEREO_44KHZ,
+				DefaultAttributes.OGG_STEREO_44KHZ }) {
+			Attributes attributes = target.getAttributes();
+			File file = new File("audio" + SLASH + "output" + SLASH + "encode_to_file." + attributes.getFormat());
+			Transcoder.transcode(new File(INPUT_FILE), file, attributes);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			Transcoder.encodeTo(INPUT_FILE, attributes, out);
+			File piped = new File("audio" + SLASH + "output" + SLASH + "encode_to_pipe." + attributes.getFormat());
+			Files.write(piped.toPath(), out.toByteArray());
+
+			Attributes expected = Transcoder.getInfo(file.getAbsolutePath());
+			Attributes actual = Transcoder.getInfo(piped.getAbsolutePath());
+			assertEquals(expected.getFormat(), actual.getFormat());
+			assertEquals(expected.getCodec(), actual.getCodec());
+			assertEquals(expected.getSamplingRate(), actual.getSamplingRate());
+			assertEquals(expected.getChannels(), actual.getChannels());
+			// without a seekable output the mp3 muxer writes no Xing header
+			assertEquals(expected.getDuration(), actual.getDuration(), 250);
+		}
+	}
+
+	/**
+	 * Transcodes an in-memory file, fed to ffmpeg without a temporary file.
+	 *
+	 * @throws IOException
+	 *             If the source can not be read.
+	 */
+	@Test
+	public void testByteArraySource() throws EncoderException, IOException {
+		byte[] source = Files.readAllBytes(new File("audio" + SLASH + "input" + SLASH + "formats" + SLASH
+				+ "155kbs_195kbs_VBR-44100HZ-Stereo.mp3").toPath());
+		File target = new File("audio" + SLASH + "output" + SLASH + "from_bytes.wav");
+		Transcoder.transcode(source, target, DefaultAttributes.WAV_PCM_S16LE_MONO_44KHZ.getAttributes());
+		assertTrue(target.length() > 0);
+	}
+
 	/**
 	 * Tries to gain information about the converted files.
 	 */
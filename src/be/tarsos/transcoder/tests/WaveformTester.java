@@ -0,0 +1,68 @@
+package be.tarsos.transcoder.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import be.tarsos.transcoder.Waveform;
+
+/**
+ * Checks that a waveform overview keeps the extremes of each bucket, for
+ * short audio and for audio long enough to merge blocks.
+ *
+ * @author Joren Six
+ */
+public class WaveformTester {
+
+	/**
+	 * Fewer samples than blocks: every sample lands in a bucket.
+	 */
+	@Test
+	public void testShort() {
+		Waveform.Builder builder = new Waveform.Builder(2);
+		float[] samples = { 0.5f, -0.25f, 1.0f, -1.0f };
+		for (float sample : samples) {
+			builder.add(sample);
+		}
+		Waveform waveform = builder.build();
+		assertEquals(2, waveform.getBuckets());
+		assertEquals(-0.25f, waveform.getMinimum(0), 0);
+		assertEquals(0.5f, waveform.getMaximum(0), 0);
+		assertEquals(-1.0f, waveform.getMinimum(1), 0);
+		assertEquals(1.0f, waveform.getMaximum(1), 0);
+	}
+
+	/**
+	 * A ramp from -1 to 1 over ten buckets: each bucket holds a tenth of it,
+	 * widened by at most an eighth of a bucket.
+	 */
+	@Test
+	public void testLong() {
+		int buckets = 10;
+		int samples = 1000000;
+		Waveform.Builder builder = new Waveform.Builder(buckets);
+		for (int i = 0; i < samples; i++) {
+			builder.add(-1 + 2f * i / samples);
+		}
+		Waveform waveform = builder.build();
+		for (int bucket = 0; bucket < buckets; bucket++) {
+			float start = -1 + 0.2f * bucket;
+			float end = start + 0.2f;
+			assertTrue(waveform.getMinimum(bucket) <= start + 0.0001);
+			assertTrue(waveform.getMinimum(bucket) >= start - 0.2f / 8);
+			assertTrue(waveform.getMaximum(bucket) >= end - 0.0001 - 2f / samples);
+			assertTrue(waveform.getMaximum(bucket) <= end + 0.2f / 8);
+		}
+	}
+
+	/**
+	 * Without samples the waveform is silent.
+	 */
+	@Test
+	public void testEmpty() {
+		Waveform waveform = new Waveform.Builder(3).build();
+		assertEquals(3, waveform.getBuckets());
+		assertEquals(0, waveform.getMaximum(2), 0);
+	}
+}